@@ -0,0 +1,160 @@
+package com.carzuilha.ocr.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Measures the GraphicView with hundreds of graphics, drawn by one thread while another one
+ * keeps replacing them (as the detections do). Drawing works on a snapshot, so the updates never
+ * wait for a draw to finish.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GraphicViewBenchmark {
+
+    private static final String TAG = "GraphicViewBenchmark";
+
+    private static final int GRAPHICS = 500;
+    private static final int DRAWS = 200;
+
+    @Test
+    public void updates_dontWaitForDraws() throws InterruptedException {
+
+        final GraphicView<BoxGraphic> view =
+                new GraphicView<>(InstrumentationRegistry.getTargetContext(), null);
+        final List<BoxGraphic> graphics = new ArrayList<>();
+        Bitmap bitmap = Bitmap.createBitmap(1280, 720, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        view.setCameraInfo(1280, 720, 0);
+        view.layout(0, 0, 1280, 720);
+
+        for (int i = 0; i < GRAPHICS; i++) {
+            graphics.add(new BoxGraphic(view, i));
+        }
+
+        view.update(graphics, Collections.<BoxGraphic>emptyList());
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong updates = new AtomicLong();
+        final AtomicLong maxUpdateNanos = new AtomicLong();
+
+        //  Replaces a tenth of the graphics on every update, as a stream of detections would.
+        Thread updater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                List<BoxGraphic> added = new ArrayList<>();
+                List<BoxGraphic> removed = new ArrayList<>();
+                int next = 0;
+
+                while (running.get()) {
+
+                    added.clear();
+                    removed.clear();
+
+                    for (int i = 0; i < GRAPHICS / 10; i++) {
+                        removed.add(graphics.get(next));
+                        graphics.set(next, new BoxGraphic(view, next));
+                        added.add(graphics.get(next));
+                        next = (next + 1) % GRAPHICS;
+                    }
+
+                    long start = System.nanoTime();
+
+                    view.update(added, removed);
+
+                    long elapsed = System.nanoTime() - start;
+
+                    if (elapsed > maxUpdateNanos.get()) maxUpdateNanos.set(elapsed);
+                    updates.incrementAndGet();
+                }
+            }
+        });
+
+        updater.start();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < DRAWS; i++) {
+            view.draw(canvas);
+        }
+
+        long drawNanos = (System.nanoTime() - start) / DRAWS;
+
+        running.set(false);
+        updater.join();
+
+        Log.i(TAG, GRAPHICS + " graphics: " + (drawNanos / 1000) + " us per draw, "
+                + updates.get() + " updates, longest update " + (maxUpdateNanos.get() / 1000) + " us");
+
+        assertFalse(view.isEmpty());
+        assertTrue(updates.get() > 0);
+
+        bitmap.recycle();
+    }
+
+    /**
+     *  A plain box, drawn at a position given by its index.
+     */
+    private static class BoxGraphic extends Graphic {
+
+        private static final Paint PAINT = new Paint();
+
+        private final int index;
+
+        BoxGraphic(GraphicOverlay _view, int _index) {
+            super(_view);
+            index = _index;
+        }
+
+        @Override
+        public boolean contains(float _x, float _y) {
+            return false;
+        }
+
+        @Override
+        public float scaleX(float _horizontal) {
+            return _horizontal * graphicView.getWidthScaleFactor();
+        }
+
+        @Override
+        public float scaleY(float _vertical) {
+            return _vertical * graphicView.getHeightScaleFactor();
+        }
+
+        @Override
+        public float translateX(float _x) {
+            return scaleX(_x);
+        }
+
+        @Override
+        public float translateY(float _y) {
+            return scaleY(_y);
+        }
+
+        @Override
+        public void draw(Canvas _canvas) {
+
+            float left = translateX((index % 25) * 50);
+            float top = translateY((index / 25) * 35);
+
+            _canvas.drawRect(left, top, left + scaleX(45), top + scaleY(30), PAINT);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.carzuilha.ocr.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the byte accounting and the eviction order of the label cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LabelCacheTest {
+
+    @Test
+    public void labels_areReusedByTextAndSize() {
+
+        LabelCache cache = new LabelCache(1024 * 1024);
+        Paint paint = new Paint();
+
+        paint.setTextSize(54.0f);
+
+        Bitmap label = cache.get("TOTAL 12,50", paint);
+
+        assertNotNull(label);
+        assertSame(label, cache.get("TOTAL 12,50", paint));
+        assertEquals(Bitmap.Config.ALPHA_8, label.getConfig());
+
+        paint.setTextSize(27.0f);
+
+        assertNotSame(label, cache.get("TOTAL 12,50", paint));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void budget_evictsTheLeastRecentlyUsed() {
+
+        Paint paint = new Paint();
+
+        paint.setTextSize(54.0f);
+
+        int labelBytes = new LabelCache(1024 * 1024).get("ITEM 0", paint).getByteCount();
+        LabelCache cache = new LabelCache(labelBytes * 8 + labelBytes / 2);
+
+        for (int i = 0; i < 8; i++) {
+            cache.get("ITEM " + i, paint);
+        }
+
+        //  Uses the first label, so the second one is the least recently used.
+        Bitmap first = cache.get("ITEM 0", paint);
+
+        cache.get("ITEM 8", paint);
+
+        assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(first, cache.get("ITEM 0", paint));
+
+        long misses = cache.getMissCount();
+
+        cache.get("ITEM 1", paint);
+
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void emptyAndHugeTexts_arentCached() {
+
+        LabelCache cache = new LabelCache(16 * 1024);
+        Paint paint = new Paint();
+
+        paint.setTextSize(54.0f);
+
+        assertNull(cache.get("", paint));
+        assertNull(cache.get("A VERY LONG LINE OF TEXT THAT WOULD TAKE MOST OF THE BUDGET", paint));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+}
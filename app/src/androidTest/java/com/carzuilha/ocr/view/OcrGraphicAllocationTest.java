@@ -0,0 +1,141 @@
+package com.carzuilha.ocr.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Checks that drawing the overlay and hit testing its graphics don't allocate, including when
+ * the preview to view matrix is rebuilt.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OcrGraphicAllocationTest {
+
+    private static final int GRAPHICS = 100;
+    private static final int DRAWS = 50;
+
+    private GraphicView<OcrGraphic> view;
+    private List<OcrGraphic> graphics;
+    private Bitmap bitmap;
+    private Canvas canvas;
+
+    @Before
+    public void setUp() {
+
+        view = new GraphicView<>(InstrumentationRegistry.getTargetContext(), null);
+        graphics = new ArrayList<>();
+        bitmap = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+
+        view.setCameraInfo(720, 1280, 0);
+
+        for (int i = 0; i < GRAPHICS; i++) {
+
+            OcrGraphic graphic = new OcrGraphic(view, null);
+            float left = (i % 10) * 70;
+            float top = (i / 10) * 120;
+
+            graphic.setLayout(new OcrGraphic.Layout(new RectF(left, top, left + 60, top + 100),
+                    new float[] {left, top + 45, left, top + 95}, new String[] {"LINE " + i, "#" + i},
+                    i % 2 == 0, 1.5f, 1.5f));
+            graphics.add(graphic);
+        }
+
+        view.update(graphics, Collections.<OcrGraphic>emptyList());
+    }
+
+    @After
+    public void tearDown() {
+        bitmap.recycle();
+    }
+
+    @Test
+    public void draw_doesntAllocate() {
+
+        //  The first draw builds the matrix and maps every layout.
+        view.onDraw(canvas);
+
+        assertEquals(0, countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < DRAWS; i++) {
+                    view.onDraw(canvas);
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void matrixChange_doesntAllocate() {
+
+        view.onDraw(canvas);
+
+        int version = view.getMatrixVersion();
+
+        view.setCameraInfo(1280, 720, 0);
+
+        assertEquals(0, countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                view.onDraw(canvas);
+            }
+        }));
+        assertNotEquals(version, view.getMatrixVersion());
+    }
+
+    @Test
+    public void contains_doesntAllocate() {
+
+        view.onDraw(canvas);
+
+        final OcrGraphic graphic = graphics.get(11);
+
+        assertEquals(0, countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < DRAWS; i++) {
+                    graphic.contains(110.0f, 200.0f);
+                }
+            }
+        }));
+
+        //  The layout is scaled by 1.5 from a 720 pixels wide preview to a 1080 pixels wide view.
+        assertTrue(graphic.contains(110.0f, 200.0f));
+        assertFalse(graphic.contains(10.0f, 10.0f));
+    }
+
+    /**
+     *  Counts the objects allocated by the calling thread while running a task.
+     *
+     * @param   _task           The task.
+     * @return                  The number of allocations.
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable _task) {
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+
+        try {
+            _task.run();
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+}
@@ -1,8 +1,24 @@
 package com.carzuilha.ocr.control;
 
+import android.content.Context;
+import android.graphics.RectF;
 import android.support.annotation.NonNull;
 
+import com.carzuilha.ocr.thread.CameraThread;
+import com.carzuilha.ocr.thread.DetectorFactory;
+import com.carzuilha.ocr.thread.FramePolicy;
+import com.carzuilha.ocr.thread.FrameQuality;
+import com.carzuilha.ocr.thread.FrameRateGovernor;
+import com.carzuilha.ocr.thread.PipelineStats;
+import com.carzuilha.ocr.thread.ResultCache;
+import com.carzuilha.ocr.thread.ResultSequencer;
+import com.carzuilha.ocr.thread.SceneChangeGate;
+import com.carzuilha.ocr.thread.TileGrid;
+import com.carzuilha.ocr.util.BufferPool;
+import com.carzuilha.ocr.util.NV21Scaler;
 import com.carzuilha.ocr.view.DynamicTextureView;
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
 
 /**
  *  Defines a generic class that manages the application in conjunction with an underlying Google's
@@ -16,16 +32,323 @@ public abstract class CameraControl {
     public static final int CAMERA_FACING_FRONT = 1;
 
     //  Defines the camera FPS. It is possible to let the user changes the value, but (for now) I
-    // found it to unstable.
+    // found it to unstable. When the frame rate is adaptive, this is only the initial value.
     protected static final float REQUESTED_FPS = 40.0f;
 
     //  If the absolute difference between a preview size aspect ratio and a picture size aspect
     // ratio is less than this tolerance, they are considered to be the same aspect ratio.
     protected static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    //  The number of preview buffers in circulation besides the frames queued in the handoff: one
+    // for the frame being converted, and two for the frames being filled by the camera.
+    protected static final int PREVIEW_BUFFER_SPARE = 3;
+
     //  Defines the default camera.
     protected int selectedCamera = CAMERA_FACING_BACK;
 
+    //  Defines how the preview frames are reduced before being sent to the detector: the reduction
+    // factor, and if each reduced pixel is the average of its source region.
+    protected float downscaleFactor = 4.0f;
+    protected boolean boxFilter = false;
+
+    //  Defines the region of the preview frames sent to the detector (relative to the frame size),
+    // and if the frames are rotated to their upright orientation before detection, instead of
+    // letting the detector rotate them.
+    protected RectF cropRegion = new RectF(0.0f, 0.0f, 1.0f, 1.0f);
+    protected boolean uprightFrames = true;
+
+    //  Defines if only the luminance of the preview frames is handled (text recognition doesn't
+    // need the chroma planes).
+    protected boolean grayscale = false;
+
+    //  Defines how many detection workers run concurrently, how the extra workers create their
+    // detectors, and the processor that receives their results (in the order of the frames, or
+    // dropping the results older than those already delivered).
+    protected int detectorWorkers = 1;
+    protected DetectorFactory detectorFactory;
+    protected Detector.Processor<?> processor;
+    protected int resultPolicy = ResultSequencer.ORDERED;
+
+    //  Adapts the camera FPS to the detection latency (null to keep it fixed).
+    protected FrameRateGovernor frameRateGovernor;
+
+    //  Defines which preview frames reach the detector.
+    protected FramePolicy framePolicy = new FramePolicy.Latest();
+
+    //  Rejects the blurred and badly exposed frames before detection (null to detect every frame).
+    protected FrameQuality frameQuality;
+
+    //  Reuses the last detections while the scene doesn't change (null to detect every frame).
+    protected SceneChangeGate sceneChangeGate;
+
+    //  Caches the results of content seen before (null to detect every changed frame).
+    protected ResultCache resultCache;
+
+    //  Limits the recognition to the changed part of the frames (null to recognize whole frames).
+    protected TileGrid tileGrid;
+
+    //  The pool of preview buffers, shared by the camera and the processing threads. It is the
+    // pool shared by the controllers when the preview started.
+    protected volatile BufferPool bufferPool;
+
+    //  The pool of preview buffers shared by every camera controller (Camera1 and Camera2), so a
+    // new controller reuses the buffers of the previous one. It is sized by the preview size, and
+    // kept while the size doesn't change (guarded by the class).
+    private static BufferPool sharedBufferPool;
+
+    /**
+     *  Returns the factor by which the preview frames are reduced before detection.
+     *
+     * @return      The reduction factor.
+     */
+    public float getDownscaleFactor() {
+        return downscaleFactor;
+    }
+
+    /**
+     *  Returns if the reduced frames are box-filtered (instead of point-sampled).
+     *
+     * @return      'true' if the frames are box-filtered, 'false' otherwise.
+     */
+    public boolean isBoxFilter() {
+        return boxFilter;
+    }
+
+    /**
+     *  Returns the region of the preview frames sent to the detector.
+     *
+     * @return      The region, relative to the frame size (from 0 to 1).
+     */
+    public RectF getCropRegion() {
+        return cropRegion;
+    }
+
+    /**
+     *  Returns if the frames are rotated to their upright orientation before detection.
+     *
+     * @return      'true' if the frames are rotated, 'false' if the detector rotates them.
+     */
+    public boolean isUprightFrames() {
+        return uprightFrames;
+    }
+
+    /**
+     *  Returns if only the luminance of the preview frames is handled.
+     *
+     * @return      'true' if the frames are handled as Y8 images, 'false' if as NV21 images.
+     */
+    public boolean isGrayscale() {
+        return grayscale;
+    }
+
+    /**
+     *  Returns how many detection workers run concurrently.
+     *
+     * @return      The number of workers.
+     */
+    public int getDetectorWorkers() {
+        return detectorWorkers;
+    }
+
+    /**
+     *  Returns the factory that creates the detectors of the extra workers.
+     *
+     * @return      The detector factory, or null if there is a single worker.
+     */
+    public DetectorFactory getDetectorFactory() {
+        return detectorFactory;
+    }
+
+    /**
+     *  Returns the processor that receives the detection results.
+     *
+     * @return      The processor, or null if the results go to the detector's own processor.
+     */
+    public Detector.Processor<?> getProcessor() {
+        return processor;
+    }
+
+    /**
+     *  Returns how the results of concurrent workers are delivered.
+     *
+     * @return      The result policy (ResultSequencer.ORDERED or ResultSequencer.DROP_STALE).
+     */
+    public int getResultPolicy() {
+        return resultPolicy;
+    }
+
+    /**
+     *  Returns the policy that decides which preview frames reach the detector.
+     *
+     * @return      The frame policy.
+     */
+    public FramePolicy getFramePolicy() {
+        return framePolicy;
+    }
+
+    /**
+     *  Returns the number of preview buffers in circulation, so every frame the handoff may queue
+     * still leaves the camera buffers to fill.
+     *
+     * @return      The number of preview buffers.
+     */
+    public int getPreviewBufferCount() {
+        return framePolicy.getCapacity() + PREVIEW_BUFFER_SPARE;
+    }
+
+    /**
+     *  Returns the gate that rejects blurred and badly exposed frames before detection.
+     *
+     * @return      The quality gate, or null if every frame is detected.
+     */
+    public FrameQuality getFrameQuality() {
+        return frameQuality;
+    }
+
+    /**
+     *  Returns the gate that reuses the last detections while the scene doesn't change.
+     *
+     * @return      The scene change gate, or null if every frame is detected.
+     */
+    public SceneChangeGate getSceneChangeGate() {
+        return sceneChangeGate;
+    }
+
+    /**
+     *  Returns the cache of the results of content seen before, which exposes its hit, miss and
+     * eviction counters.
+     *
+     * @return      The result cache, or null if results are not cached.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     *  Returns the grid that limits the recognition to the changed part of the frames, which
+     * counts the full and partial recognitions.
+     *
+     * @return      The tile grid, or null if the whole frames are recognized.
+     */
+    public TileGrid getTileGrid() {
+        return tileGrid;
+    }
+
+    /**
+     *  Returns the governor that adapts the camera FPS to the detection latency.
+     *
+     * @return      The frame rate governor, or null if the frame rate is fixed.
+     */
+    public FrameRateGovernor getFrameRateGovernor() {
+        return frameRateGovernor;
+    }
+
+    /**
+     *  Returns the FPS that the camera should currently deliver.
+     *
+     * @return      The frame rate, in frames per second.
+     */
+    protected float getTargetFrameRate() {
+        return (frameRateGovernor != null) ? frameRateGovernor.getFrameRate() : REQUESTED_FPS;
+    }
+
+    /**
+     *  Returns the preview size that is currently in use by the underlying application.
+     *
+     * @return      The preview size, as delivered by the camera (i.e., not rotated).
+     */
+    public abstract Size getPreviewSize();
+
+    /**
+     *  Returns the rotation that brings the preview frames to their upright orientation.
+     *
+     * @return      The rotation, as one of the Frame.ROTATION constants.
+     */
+    public abstract int getFrameRotation();
+
+    /**
+     *  Computes the geometry of the frames sent to the detector, whose coordinates the detections
+     * are given in: the region of the upright preview kept by the crop, reduced by the downscale
+     * factor. The detector reports upright coordinates whether the frames are rotated before
+     * detection or by the detector itself, so the geometry is the same in both cases. Only valid
+     * once the preview started.
+     *
+     * @param   _region         Receives the left, top, right and bottom edges of the region of the
+     *                          upright preview covered by the frames, in preview pixels.
+     * @return                  The size of the upright frames sent to the detector.
+     */
+    public Size getDetectionGeometry(float[] _region) {
+
+        Size previewSize = getPreviewSize();
+        int width = previewSize.getWidth();
+        int height = previewSize.getHeight();
+        NV21Scaler scaler = new NV21Scaler(downscaleFactor, boxFilter, grayscale);
+
+        scaler.setCrop(cropRegion.left, cropRegion.top, cropRegion.right, cropRegion.bottom);
+        scaler.setRotation(getFrameRotation());
+        scaler.getSourceRegion(width, height, _region);
+
+        return new Size(scaler.getOutputWidth(width, height), scaler.getOutputHeight(width, height));
+    }
+
+    /**
+     *  Returns the runnable of the processing thread.
+     *
+     * @return      The frame processor.
+     */
+    public abstract CameraThread getFrameProcessor();
+
+    /**
+     *  Returns the live statistics of the frame pipeline: the stage latency histograms and the
+     * frame counters.
+     *
+     * @return      The pipeline statistics.
+     */
+    public PipelineStats getPipelineStats() {
+        return getFrameProcessor().getPipelineStats();
+    }
+
+    /**
+     *  Copies the current statistics of the frame pipeline, e.g., to be logged.
+     *
+     * @return      The statistics snapshot.
+     */
+    public PipelineStats.Snapshot getStatsSnapshot() {
+        return getPipelineStats().snapshot();
+    }
+
+    /**
+     *  Returns the pool of preview buffers, which also tracks its exhaustion and high-water mark.
+     *
+     * @return      The buffer pool, or null if the preview didn't start yet.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     *  Takes the pool of preview buffers shared by the camera controllers, or creates it, unless
+     * it already holds enough buffers of the requested size. Only a single controller is expected
+     * to run its preview at a time.
+     *
+     * @param   _bufferSize     The size of each preview buffer, in bytes.
+     * @return                  The buffer pool.
+     */
+    protected BufferPool prepareBufferPool(int _bufferSize) {
+
+        synchronized (CameraControl.class) {
+
+            if (sharedBufferPool == null || sharedBufferPool.getBufferSize() != _bufferSize
+                    || sharedBufferPool.getCapacity() < getPreviewBufferCount()) {
+                sharedBufferPool = new BufferPool(_bufferSize, getPreviewBufferCount());
+            }
+
+            bufferPool = sharedBufferPool;
+        }
+
+        return bufferPool;
+    }
+
     /**
      *  Opens the camera and starts sending preview frames to the underlying detector. The supplied
      * surface holder is used for the preview so frames can be displayed to the user.
@@ -46,4 +369,356 @@ public abstract class CameraControl {
      */
     public abstract void release();
 
+    //==============================================================================================
+    //                                      Camera builder
+    //==============================================================================================
+
+    /**
+     *  Base of the builders of the camera controllers, which holds the settings of the frame
+     * pipeline shared by both cameras. The builder of each camera adds the camera settings.
+     *
+     * @param   <B>     The type of the builder.
+     * @param   <C>     The type of the camera controller.
+     */
+    public abstract static class Builder<B extends Builder<B, C>, C extends CameraControl> {
+
+        //  Defines an OCR detector.
+        protected final Detector<?> detector;
+
+        //  Defines a new camera source.
+        protected final C cameraController;
+
+        //  Defines the adaptive frame rate range (disabled if zero).
+        private float minFps = 0.0f;
+        private float maxFps = 0.0f;
+
+        /**
+         *  Creates the builder of a camera controller.
+         *
+         * @param   _cameraController   The camera controller to be configured.
+         * @param   _context            The context to be utilized.
+         * @param   _detector           The detector that receives the frames.
+         */
+        protected Builder(C _cameraController, Context _context, Detector<?> _detector) {
+
+            if (_context == null) {
+                throw new IllegalArgumentException("No context supplied.");
+            }
+            if (_detector == null) {
+                throw new IllegalArgumentException("No detector supplied.");
+            }
+
+            detector = _detector;
+            cameraController = _cameraController;
+        }
+
+        /**
+         *  Sets the camera to use -- either CAMERA_FACING_BACK or CAMERA_FACING_FRONT (Default:
+         *  back camera).
+         *
+         * @param   _facing     The camera.
+         * @return              A new builder object.
+         */
+        public B camera(int _facing) {
+
+            if ((_facing != CAMERA_FACING_BACK) && (_facing != CAMERA_FACING_FRONT)) {
+                throw new IllegalArgumentException("Invalid camera: " + _facing);
+            }
+
+            cameraController.selectedCamera = _facing;
+
+            return self();
+        }
+
+        /**
+         *  Sets how the preview frames are reduced before being sent to the detector (Default:
+         * 4x, point-sampled).
+         *
+         * @param   _factor     The reduction factor, which may be fractional (at least 1).
+         * @param   _boxFilter  'true' to average each reduced region, which helps recognizing
+         *                      small text; 'false' to point-sample it.
+         * @return              A new builder object.
+         */
+        public B downscale(float _factor, boolean _boxFilter) {
+
+            if (!(_factor >= 1.0f)) {
+                throw new IllegalArgumentException("Invalid downscale factor: " + _factor);
+            }
+
+            cameraController.downscaleFactor = _factor;
+            cameraController.boxFilter = _boxFilter;
+
+            return self();
+        }
+
+        /**
+         *  Sets the region of the preview frames that is sent to the detector (Default: the whole
+         * frame). The region is cropped in the same pass that reduces the frames.
+         *
+         * @param   _left       The left edge of the region, relative to the frame width.
+         * @param   _top        The top edge of the region, relative to the frame height.
+         * @param   _right      The right edge of the region, relative to the frame width.
+         * @param   _bottom     The bottom edge of the region, relative to the frame height.
+         * @return              A new builder object.
+         */
+        public B crop(float _left, float _top, float _right, float _bottom) {
+
+            if (!(_left >= 0.0f && _left < _right && _right <= 1.0f &&
+                  _top >= 0.0f && _top < _bottom && _bottom <= 1.0f)) {
+                throw new IllegalArgumentException(
+                        "Invalid crop region: " + _left + ", " + _top + ", " + _right + ", " + _bottom);
+            }
+
+            cameraController.cropRegion = new RectF(_left, _top, _right, _bottom);
+
+            return self();
+        }
+
+        /**
+         *  Sets if the frames are rotated to their upright orientation while they are reduced,
+         * so the detector doesn't need to rotate them again (Default: true).
+         *
+         * @param   _upright    'true' to rotate the frames, 'false' to let the detector do it.
+         * @return              A new builder object.
+         */
+        public B uprightFrames(boolean _upright) {
+
+            cameraController.uprightFrames = _upright;
+
+            return self();
+        }
+
+        /**
+         *  Sets if only the luminance of the preview frames is handled (Default: false). Camera1
+         * still delivers NV21 buffers, but their chroma plane is never read; with Camera2, only the
+         * luminance plane of the camera images is copied.
+         *
+         * @param   _grayscale  'true' to handle Y8 frames, 'false' to handle NV21 frames.
+         * @return              A new builder object.
+         */
+        public B grayscale(boolean _grayscale) {
+
+            cameraController.grayscale = _grayscale;
+
+            return self();
+        }
+
+        /**
+         *  Sets the policy that decides which preview frames reach the detector (Default:
+         * FramePolicy.Latest, which keeps only the newest frame).
+         *
+         * @param   _policy     The frame policy (e.g., FramePolicy.Queue for document capture).
+         * @return              A new builder object.
+         */
+        public B framePolicy(FramePolicy _policy) {
+
+            if (_policy == null) {
+                throw new IllegalArgumentException("No frame policy supplied.");
+            }
+
+            cameraController.framePolicy = _policy;
+
+            return self();
+        }
+
+        /**
+         *  Rejects the frames that are unlikely to yield text before they reach the detector
+         * (Default: every frame is detected). Frames are scored on their reduced luminance: the
+         * variance of its Laplacian drops on motion blur and defocus, and over- or under-exposed
+         * frames have many clipped pixels.
+         *
+         * @param   _minSharpness   The minimum variance of the Laplacian (e.g., 50 for a 4x
+         *                          reduced frame).
+         * @param   _maxClipping    The maximum fraction of pixels clipped to black or white, from
+         *                          0 to 1.
+         * @return                  A new builder object.
+         */
+        public B qualityGate(float _minSharpness, float _maxClipping) {
+
+            cameraController.frameQuality = new FrameQuality(_minSharpness, _maxClipping);
+
+            return self();
+        }
+
+        /**
+         *  Skips the detection of frames that show the same scene as the last detected one, and
+         * delivers the last detections again instead (Default: every frame is detected). Frames
+         * are compared by the mean luminance of a grid of blocks.
+         *
+         * @param   _threshold      The largest change of a block mean luminance (from 0 to 255)
+         *                          for the scene to be considered unchanged.
+         * @param   _refreshMillis  The longest time without a detection, even on a static scene.
+         * @return                  A new builder object.
+         */
+        public B sceneChangeGate(int _threshold, long _refreshMillis) {
+
+            cameraController.sceneChangeGate = new SceneChangeGate(_threshold, _refreshMillis);
+
+            return self();
+        }
+
+        /**
+         *  Caches the results of the detected frames under a perceptual fingerprint, and delivers
+         * them again for later frames with a matching fingerprint, instead of detecting them
+         * (Default: no cache). This saves the detection when the camera pans back over content it
+         * has already seen. Matches are confirmed with a finer signature of the frames, so the
+         * distance only bounds how loosely the fingerprints are compared. A processor must be set
+         * to receive the cached results.
+         *
+         * @param   _capacity       The maximum number of cached results.
+         * @param   _maxDistance    The largest number of different bits (from 0 to 64) between
+         *                          the fingerprints of two matching frames.
+         * @return                  A new builder object.
+         */
+        public B resultCache(int _capacity, int _maxDistance) {
+
+            cameraController.resultCache = new ResultCache(_capacity, _maxDistance);
+
+            return self();
+        }
+
+        /**
+         *  Recognizes only the part of each frame that changed since it was last recognized, and
+         * carries the results found elsewhere forward (Default: whole frames are recognized). The
+         * frames are divided in a grid of tiles, and the clean tiles are painted flat gray before
+         * recognition. A processor must be set to receive the merged results.
+         *
+         * @param   _threshold          The largest change of a tile mean luminance (from 0 to
+         *                              255) for the tile to be clean.
+         * @param   _maxDirtyFraction   The largest fraction of dirty tiles (from 0 to 1) for a
+         *                              frame to be partially recognized.
+         * @param   _refreshMillis      The longest time between two full recognitions.
+         * @return                      A new builder object.
+         */
+        public B incrementalRecognition(int _threshold, float _maxDirtyFraction, long _refreshMillis) {
+
+            cameraController.tileGrid = new TileGrid(_threshold, _maxDirtyFraction, _refreshMillis);
+
+            return self();
+        }
+
+        /**
+         *  Sets the processor that receives the detection results (Default: the processor set on
+         * the detector). The results are delivered in the order of the frames, as defined by the
+         * result policy.
+         *
+         * @param   _processor  The processor.
+         * @return              A new builder object.
+         */
+        public B processor(Detector.Processor<?> _processor) {
+
+            if (_processor == null) {
+                throw new IllegalArgumentException("No processor supplied.");
+            }
+
+            cameraController.processor = _processor;
+
+            return self();
+        }
+
+        /**
+         *  Sets how many detection workers run concurrently (Default: 1). Each extra worker needs
+         * its own detector, and a processor must be set to receive their results.
+         *
+         * @param   _count      The number of workers.
+         * @param   _factory    Creates the detectors of the extra workers.
+         * @return              A new builder object.
+         */
+        public B workers(int _count, DetectorFactory _factory) {
+
+            if (_count < 1) {
+                throw new IllegalArgumentException("Invalid number of workers: " + _count);
+            }
+            if (_count > 1 && _factory == null) {
+                throw new IllegalArgumentException("No detector factory supplied.");
+            }
+
+            cameraController.detectorWorkers = _count;
+            cameraController.detectorFactory = _factory;
+
+            return self();
+        }
+
+        /**
+         *  Sets how the results of concurrent workers are delivered (Default: ORDERED).
+         *
+         * @param   _policy     ResultSequencer.ORDERED to deliver every result in the order of the
+         *                      frames, or ResultSequencer.DROP_STALE to deliver each result right
+         *                      away, discarding those older than a result already delivered.
+         * @return              A new builder object.
+         */
+        public B resultPolicy(int _policy) {
+
+            if (_policy != ResultSequencer.ORDERED && _policy != ResultSequencer.DROP_STALE) {
+                throw new IllegalArgumentException("Invalid result policy: " + _policy);
+            }
+
+            cameraController.resultPolicy = _policy;
+
+            return self();
+        }
+
+        /**
+         *  Adapts the camera FPS to the detection latency (Default: a fixed FPS). The camera then
+         * produces only a little more frames than the detectors can consume, which saves power.
+         *
+         * @param   _minFps     The minimum FPS, which keeps the preview smooth enough.
+         * @param   _maxFps     The maximum (and initial) FPS.
+         * @return              A new builder object.
+         */
+        public B adaptiveFrameRate(float _minFps, float _maxFps) {
+
+            if (!(_minFps > 0.0f && _minFps <= _maxFps)) {
+                throw new IllegalArgumentException(
+                        "Invalid frame rate range: " + _minFps + " to " + _maxFps + " fps");
+            }
+
+            minFps = _minFps;
+            maxFps = _maxFps;
+
+            return self();
+        }
+
+        /**
+         *  Creates an instance of the camera source.
+         *
+         * @return              The camera controller.
+         */
+        public abstract C build();
+
+        /**
+         *  Returns this builder, as the builder of the camera.
+         *
+         * @return              This builder.
+         */
+        protected abstract B self();
+
+        /**
+         *  Checks the pipeline settings, and creates the frame rate governor (if the frame rate is
+         * adaptive). Called by build(), before the processing thread is created.
+         *
+         * @param   _listener   Receives the frame rate changes of the governor.
+         */
+        protected void prepare(FrameRateGovernor.Listener _listener) {
+
+            if (cameraController.detectorWorkers > 1 && cameraController.processor == null) {
+                throw new IllegalStateException("Concurrent workers need a processor.");
+            }
+
+            if (cameraController.resultCache != null && cameraController.processor == null) {
+                throw new IllegalStateException("The result cache needs a processor.");
+            }
+
+            if (cameraController.tileGrid != null && cameraController.processor == null) {
+                throw new IllegalStateException("Incremental recognition needs a processor.");
+            }
+
+            if (minFps > 0.0f) {
+                cameraController.frameRateGovernor =
+                        new FrameRateGovernor(minFps, maxFps, cameraController.detectorWorkers);
+                cameraController.frameRateGovernor.setListener(_listener);
+            }
+        }
+    }
+
 }
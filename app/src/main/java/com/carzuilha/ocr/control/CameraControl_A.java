@@ -14,6 +14,7 @@ import android.view.Surface;
 
 import com.carzuilha.ocr.model.SizePair;
 import com.carzuilha.ocr.thread.CameraThread_A;
+import com.carzuilha.ocr.thread.FrameRateGovernor;
 import com.carzuilha.ocr.util.ScreenManager;
 import com.carzuilha.ocr.view.DynamicTextureView;
 import com.google.android.gms.common.images.Size;
@@ -23,6 +24,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +88,9 @@ public class CameraControl_A extends CameraControl {
     private Thread processingThread;
     private CameraThread_A frameProcessor;
 
+    //  The frame rate requested by the governor, waiting to be applied (zero if none).
+    private volatile float pendingFrameRate = 0.0f;
+
     //  Map to convert between a byte array, received from the camera, and its associated byte buffer.
     // We use byte buffers internally because this is a more efficient way to call into
     // native code later (avoids a potential copy).
@@ -129,11 +134,24 @@ public class CameraControl_A extends CameraControl {
 
     /**
      *  Returns the preview size that is currently in use by the underlying application.
+     *
+     * @return      The preview size, as delivered by the camera (i.e., not rotated).
      */
+    @Override
     public Size getPreviewSize() {
         return previewSize;
     }
 
+    /**
+     *  Returns the rotation that brings the preview frames to their upright orientation.
+     *
+     * @return      The rotation, as one of the Frame.ROTATION constants.
+     */
+    @Override
+    public int getFrameRotation() {
+        return rotation;
+    }
+
     /**
      *  Returns the processing thread of the camera, which does the frame processing.
      *
@@ -143,6 +161,16 @@ public class CameraControl_A extends CameraControl {
         return processingThread;
     }
 
+    /**
+     *  Returns the runnable of the processing thread.
+     *
+     * @return      The frame processor.
+     */
+    @Override
+    public CameraThread_A getFrameProcessor() {
+        return frameProcessor;
+    }
+
     /**
      *  Returns the buffer of the camera.
      *
@@ -179,7 +207,7 @@ public class CameraControl_A extends CameraControl {
         Size pictureSize = sizePair.pictureSize();
         previewSize = sizePair.previewSize();
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera);
+        int[] previewFpsRange = selectPreviewFpsRange(camera, getTargetFrameRate());
 
         if (previewFpsRange == null) {
             throw new RuntimeException("Could not find the suitable preview FPS range.");
@@ -223,16 +251,15 @@ public class CameraControl_A extends CameraControl {
 
         camera.setParameters(parameters);
 
-        // Four frame buffers are needed for working with the application:
+        // The frame buffers needed for working with the application:
         //
         // - one for the frame that is currently being executed upon in doing detection.
-        // - one for the next pending frame to process immediately upon completing detection.
+        // - one for each pending frame the frame policy may queue for detection.
         // - two for the frames that the application uses to populate future preview images.
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+        for (int i = 0; i < getPreviewBufferCount(); i++) {
+            camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+        }
     }
 
     /**
@@ -289,13 +316,28 @@ public class CameraControl_A extends CameraControl {
                 processingThread = null;
             }
 
-            bytesToByteBuffer.clear();
-
+            //  The preview is stopped before its buffers are returned to the pool, so the camera
+            // can't write into a buffer that was borrowed again.
             if (camera != null) {
 
                 camera.stopPreview();
                 camera.setPreviewCallbackWithBuffer(null);
 
+                //  The frames left in the handoff go back to the camera, so every buffer is in
+                // its queue or in the map below.
+                frameProcessor.discardFrames();
+            }
+
+            //  The camera is done with its buffers, so they are returned to the pool, to be borrowed
+            // again by the next preview.
+            for (ByteBuffer buffer : bytesToByteBuffer.values()) {
+                bufferPool.release(buffer);
+            }
+
+            bytesToByteBuffer.clear();
+
+            if (camera != null) {
+
                 try {
                     camera.setPreviewTexture(null);
                 } catch (Exception e) {
@@ -429,13 +471,14 @@ public class CameraControl_A extends CameraControl {
      * second.
      *
      * @param   _camera             The camera to camera a frames per second range from.
+     * @param   _fps                The desired frames per second.
      * @return                      The selected preview frames per second range.
      */
-    private int[] selectPreviewFpsRange(Camera _camera) {
+    private int[] selectPreviewFpsRange(Camera _camera, float _fps) {
 
         //  The application API uses integers scaled by a factor of 1000 instead of floating-point frame
         // rates.
-        int desiredPreviewFpsScaled = (int) (REQUESTED_FPS * 1000.0f);
+        int desiredPreviewFpsScaled = (int) (_fps * 1000.0f);
 
         //  The method for selecting the best range is to minimize the sum of the differences between
         // the desired value and the upper and lower bounds of the range. This may camera a range
@@ -513,10 +556,10 @@ public class CameraControl_A extends CameraControl {
     }
 
     /**
-     *  Creates one buffer for the com.project.util preview callback. The size of the buffer is based
-     * off of the camera preview size and the format of the camera image.
+     *  Borrows one buffer for the com.project.util preview callback from the buffer pool. The size
+     * of the buffer is based off of the camera preview size and the format of the camera image.
      *
-     * @return          A new preview buffer of the appropriate size for the current camera settings.
+     * @return          A preview buffer of the appropriate size for the current camera settings.
      */
     private byte[] createPreviewBuffer(Size _previewSize) {
 
@@ -528,22 +571,59 @@ public class CameraControl_A extends CameraControl {
         // NOTICE: This code only works when using play services v. 8.1 or higher.
         //
 
-        //  Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+        //  The pool wraps its byte arrays, as opposed to using .allocateDirect(), which should
+        // guarantee that there will be an array to work with.
+        ByteBuffer buffer = prepareBufferPool(bufferSize).acquire();
+
+        if (buffer == null) {
+            throw new IllegalStateException("The preview buffer pool is exhausted.");
+        }
 
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+        if (!buffer.hasArray() || (buffer.array().length != bufferSize)) {
             //  I don't think that this will ever happen.  But if it does, then we wouldn't be
             // passing the preview content to the underlying detector later.
             throw new IllegalStateException("Failed to create valid buffer for camera source.");
         }
 
+        byte[] byteArray = buffer.array();
+
         bytesToByteBuffer.put(byteArray, buffer);
 
         return byteArray;
     }
 
+    /**
+     *  Applies the frame rate requested by the governor, if it maps to a different preview frames
+     * per second range. Must be called on the camera thread.
+     *
+     * @param   _camera         The camera being utilized.
+     */
+    private void applyFrameRate(Camera _camera) {
+
+        float fps = pendingFrameRate;
+
+        pendingFrameRate = 0.0f;
+
+        try {
+
+            Camera.Parameters parameters = _camera.getParameters();
+            int[] currentRange = new int[2];
+            int[] range = selectPreviewFpsRange(_camera, fps);
+
+            parameters.getPreviewFpsRange(currentRange);
+
+            if (range == null || Arrays.equals(range, currentRange)) return;
+
+            parameters.setPreviewFpsRange(
+                    range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            _camera.setParameters(parameters);
+
+        } catch (RuntimeException e) {
+            Log.d(TAG, "Frame rate exception: " + e);
+        }
+    }
+
     //==============================================================================================
     //                                      Inner classes
     //==============================================================================================
@@ -555,10 +635,27 @@ public class CameraControl_A extends CameraControl {
 
         @Override
         public void onPreviewFrame(byte[] _data, Camera _camera) {
+
+            if (pendingFrameRate > 0.0f) {
+                applyFrameRate(_camera);
+            }
+
             frameProcessor.setNextFrame(_data, _camera);
         }
     }
 
+    /**
+     *  Called by the governor when the camera must change its frame rate. The change is applied
+     * by the next preview callback, on the camera thread, so the workers never wait for it.
+     */
+    private class FrameRateListener implements FrameRateGovernor.Listener {
+
+        @Override
+        public void onFrameRateChanged(float _fps) {
+            pendingFrameRate = _fps;
+        }
+    }
+
     //==============================================================================================
     //                                      Camera builder
     //==============================================================================================
@@ -566,13 +663,7 @@ public class CameraControl_A extends CameraControl {
     /**
      *  Builder for configuring and creating an associated project source.
      */
-    public static class Builder {
-
-        //  Defines an OCR detector.
-        private final Detector<?> detector;
-
-        //  Defines a new camera source.
-        private CameraControl_A cameraController = new CameraControl_A();
+    public static class Builder extends CameraControl.Builder<Builder, CameraControl_A> {
 
         /**
          *  Creates an application source builder with the supplied context and detector. Camera
@@ -581,32 +672,11 @@ public class CameraControl_A extends CameraControl {
          */
         public Builder(Context _context, Detector<?> _detector) {
 
-            if (_context == null) {
-                throw new IllegalArgumentException("No context supplied.");
-            }
-            if (_detector == null) {
-                throw new IllegalArgumentException("No detector supplied.");
-            }
+            super(new CameraControl_A(), _context, _detector);
 
-            detector = _detector;
             cameraController.context = _context;
         }
 
-        /**
-         *  Sets the camera to use -- either CAMERA_FACING_BACK or CAMERA_FACING_FRONT (Default:
-         *  back camera).
-         */
-        public Builder camera(int _facing) {
-
-            if ((_facing != CAMERA_FACING_BACK) && (_facing != CAMERA_FACING_FRONT)) {
-                throw new IllegalArgumentException("Invalid com.project.util: " + _facing);
-            }
-
-            cameraController.selectedCamera = _facing;
-
-            return this;
-        }
-
         /**
          *  Sets the focus mode of the camera.
          */
@@ -655,12 +725,23 @@ public class CameraControl_A extends CameraControl {
         /**
          *  Creates an instance of the camera source.
          */
+        @Override
         public CameraControl_A build() {
 
+            prepare(cameraController.new FrameRateListener());
+
             cameraController.frameProcessor = new CameraThread_A(detector, cameraController);
 
             return cameraController;
         }
+
+        /**
+         *  Returns this builder.
+         */
+        @Override
+        protected Builder self() {
+            return this;
+        }
     }
 
 }
@@ -36,6 +36,7 @@ import android.util.SparseIntArray;
 import android.view.Surface;
 
 import com.carzuilha.ocr.thread.CameraThread_B;
+import com.carzuilha.ocr.thread.FrameRateGovernor;
 import com.carzuilha.ocr.util.NV21Image;
 import com.carzuilha.ocr.util.ScreenManager;
 import com.carzuilha.ocr.view.DynamicTextureView;
@@ -43,6 +44,7 @@ import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -142,6 +144,9 @@ public class CameraControl_B extends CameraControl {
     //  A handler for running tasks in the background.
     private Handler backgroundHandler;
 
+    //  The frame rate requested by the governor, waiting to be applied (zero if none).
+    private volatile float pendingFrameRate = 0.0f;
+
     //  The builder for the camera preview and for the capture request.
     private CaptureRequest.Builder previewRequestBuilder;
     private CaptureRequest previewRequest;
@@ -222,11 +227,24 @@ public class CameraControl_B extends CameraControl {
 
     /**
      *  Returns the preview size that is currently in use by the underlying application.
+     *
+     * @return      The preview size, as delivered by the camera (i.e., not rotated).
      */
+    @Override
     public Size getPreviewSize() {
         return previewSize;
     }
 
+    /**
+     *  Returns the rotation that brings the preview frames to their upright orientation.
+     *
+     * @return      The rotation, as one of the Frame.ROTATION constants.
+     */
+    @Override
+    public int getFrameRotation() {
+        return getDetectorOrientation();
+    }
+
     /**
      *  Returns the processing thread of the camera, which does the frame processing.
      *
@@ -236,6 +254,16 @@ public class CameraControl_B extends CameraControl {
         return processingThread;
     }
 
+    /**
+     *  Returns the runnable of the processing thread.
+     *
+     * @return      The frame processor.
+     */
+    @Override
+    public CameraThread_B getFrameProcessor() {
+        return frameProcessor;
+    }
+
     //==============================================================================================
     //                              Create/Start/Stop/Release
     //==============================================================================================
@@ -253,6 +281,11 @@ public class CameraControl_B extends CameraControl {
             // We configure the size of default buffer to be the size of camera preview we want.
             texture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
 
+            //  The preview buffers hold either NV21 or Y8 images of the preview size.
+            prepareBufferPool(grayscale
+                    ? previewSize.getWidth() * previewSize.getHeight()
+                    : NV21Image.getBufferSize(previewSize.getWidth(), previewSize.getHeight()));
+
             imageReaderPreview = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 1);
             imageReaderPreview.setOnImageAvailableListener(onPreviewAvailableListener, backgroundHandler);
 
@@ -265,7 +298,8 @@ public class CameraControl_B extends CameraControl {
             previewRequestBuilder.addTarget(imageReaderPreview.getSurface());
 
             // Sets the FPS to the default value.
-            previewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, selectPreviewFpsRange(cameraCharacteristics));
+            previewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                    selectPreviewFpsRange(cameraCharacteristics, getTargetFrameRate()));
 
             // Here, we create a CameraCaptureSession for camera preview.
             cameraDevice.createCaptureSession(
@@ -496,6 +530,9 @@ public class CameraControl_B extends CameraControl {
 
             cameraSemaphore.release();
             stopBackgroundThread();
+
+            //  Both threads are done, so the frames left in the handoff go back to the pool.
+            frameProcessor.discardFrames();
         }
     }
 
@@ -568,13 +605,14 @@ public class CameraControl_B extends CameraControl {
      *  Selects the most suitable preview frames per second range, given the desired frames per second.
      *
      * @param   _cameraCharacteristics      The camera characteristics.
+     * @param   _fps                        The desired frames per second.
      * @return                              The selected preview frames per second range.
      */
-    private Range<Integer> selectPreviewFpsRange(CameraCharacteristics _cameraCharacteristics) {
+    private Range<Integer> selectPreviewFpsRange(CameraCharacteristics _cameraCharacteristics, float _fps) {
 
-        //  The application API uses integers scaled by a factor of 1000 instead of floating-point frame
-        // rates.
-        int desiredPreviewFpsScaled = (int) (REQUESTED_FPS * 1000.0f);
+        //  Unlike the Camera1 API, the Camera2 ranges are not scaled by a factor of 1000, so the
+        // desired value is compared as it is.
+        int desiredPreviewFps = Math.round(_fps);
 
         //  The method for selecting the best range is to minimize the sum of the differences between
         // the desired value and the upper and lower bounds of the range. This may camera a range
@@ -588,8 +626,8 @@ public class CameraControl_B extends CameraControl {
 
         for (Range<Integer> range : previewFpsRangeList) {
 
-            int deltaMin = desiredPreviewFpsScaled - range.getLower();
-            int deltaMax = desiredPreviewFpsScaled - range.getUpper();
+            int deltaMin = desiredPreviewFps - range.getLower();
+            int deltaMax = desiredPreviewFps - range.getUpper();
             int diff = Math.abs(deltaMin) + Math.abs(deltaMax);
 
             if (diff < minDiff) {
@@ -853,10 +891,61 @@ public class CameraControl_B extends CameraControl {
         return (ORIENTATIONS.get(_rotation) + orientation + 270) % 360;
     }
 
+    /**
+     *  Applies the frame rate requested by the governor to the repeating preview request, if it
+     * maps to a different target FPS range. Must be called on the background thread.
+     */
+    private void applyFrameRate() {
+
+        float fps = pendingFrameRate;
+
+        pendingFrameRate = 0.0f;
+
+        if (captureSession == null || previewRequestBuilder == null || cameraCharacteristics == null) return;
+
+        Range<Integer> range = selectPreviewFpsRange(cameraCharacteristics, fps);
+
+        if (range == null || range.equals(previewRequestBuilder.get(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE))) return;
+
+        try {
+            previewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+            previewRequest = previewRequestBuilder.build();
+            captureSession.setRepeatingRequest(previewRequest, captureCallback, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.d(TAG, "Frame rate exception: " + e);
+        }
+    }
+
     //==============================================================================================
     //                                      Inner classes
     //==============================================================================================
 
+    /**
+     *  Called by the governor when the camera must change its frame rate. The change is posted to
+     * the background thread, so the workers never wait for it.
+     */
+    private class FrameRateListener implements FrameRateGovernor.Listener {
+
+        private final Runnable applyFrameRate = new Runnable() {
+            @Override
+            public void run() {
+                applyFrameRate();
+            }
+        };
+
+        @Override
+        public void onFrameRateChanged(float _fps) {
+
+            Handler handler = backgroundHandler;
+
+            pendingFrameRate = _fps;
+
+            if (handler != null) {
+                handler.post(applyFrameRate);
+            }
+        }
+    }
+
     /**
      * Compares two sizes based on their areas.
      */
@@ -1062,8 +1151,28 @@ public class CameraControl_B extends CameraControl {
                 return;
             }
 
-            frameProcessor.setNextFrame(NV21Image.FromYUV420888(mImage));
+            int width = mImage.getWidth();
+            int height = mImage.getHeight();
+
+            //  The image is converted before the handoff, outside of any lock, so it can be closed
+            // right away; the handoff itself never waits for the processing thread. If every
+            // buffer is in use, the frame is dropped (and counted by the pool).
+            ByteBuffer buffer = bufferPool.acquire();
+
+            if (buffer == null) {
+                mImage.close();
+                return;
+            }
+
+            if (grayscale) {
+                NV21Image.LumaFromYUV420888(mImage, buffer.array());
+            } else {
+                NV21Image.FromYUV420888(mImage, buffer.array());
+            }
+
             mImage.close();
+
+            frameProcessor.setNextFrame(buffer);
         }
     }
 
@@ -1098,47 +1207,20 @@ public class CameraControl_B extends CameraControl {
     /**
      *  Builder for configuring and creating an associated project source.
      */
-    public static class Builder {
-
-        //  Defines an OCR detector.
-        private final Detector<?> detector;
-
-        //  Defines a new camera source.
-        private CameraControl_B cameraController = new CameraControl_B();
+    public static class Builder extends CameraControl.Builder<Builder, CameraControl_B> {
 
         /**
-         *  Creates an application source builder with the supplied _context and _detector. Camera
-         * preview images will be streamed to the associated _detector upon starting the application
+         *  Creates an application source builder with the supplied context and detector. Camera
+         * preview images will be streamed to the associated detector upon starting the application
          * source.
          */
         public Builder(Context _context, Detector<?> _detector) {
 
-            if (_context == null) {
-                throw new IllegalArgumentException("No context supplied.");
-            }
+            super(new CameraControl_B(), _context, _detector);
 
-            if (_detector == null) {
-                throw new IllegalArgumentException("No detector supplied.");
-            }
-
-            this.detector = _detector;
             cameraController.context = _context;
         }
 
-        /**
-         *  Sets the camera to use -- either CAMERA_FACING_BACK or CAMERA_FACING_FRONT (Default:
-         *  back camera).
-         */
-        public Builder camera(int facing) {
-
-            if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
-                throw new IllegalArgumentException("Invalid camera: " + facing);
-            }
-
-            cameraController.selectedCamera = facing;
-            return this;
-        }
-
         /**
          *  Sets the focus mode of the camera.
          */
@@ -1183,12 +1265,23 @@ public class CameraControl_B extends CameraControl {
         /**
          *  Creates an instance of the camera source.
          */
+        @Override
         public CameraControl_B build() {
 
+            prepare(cameraController.new FrameRateListener());
+
             cameraController.frameProcessor = new CameraThread_B(detector, cameraController);
 
             return cameraController;
         }
+
+        /**
+         *  Returns this builder.
+         */
+        @Override
+        protected Builder self() {
+            return this;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -22,6 +22,9 @@ import android.widget.Toast;
 
 import com.carzuilha.ocr.control.CameraControl_A;
 import com.carzuilha.ocr.control.CameraControl_B;
+import com.carzuilha.ocr.control.CameraControl;
+import com.carzuilha.ocr.thread.DetectorFactory;
+import com.carzuilha.ocr.thread.SceneChangeGate;
 import com.carzuilha.ocr.view.OcrTextBlock;
 import com.carzuilha.ocr.view.OcrGraphic;
 import com.carzuilha.ocr.R;
@@ -29,6 +32,7 @@ import com.carzuilha.ocr.view.CameraViewGroup;
 import com.carzuilha.ocr.view.GraphicView;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.text.TextRecognizer;
 
 import java.io.IOException;
@@ -41,18 +45,61 @@ public final class MainActivity extends AppCompatActivity {
 
     public static boolean USE_LEGACY_CAMERA = false;
 
+    //  The experimental stages of the frame pipeline, which the sample leaves disabled. Each one is
+    // enabled by its own flag.
+    private static final boolean USE_CONCURRENT_WORKERS = false;
+    private static final boolean USE_QUALITY_GATE = false;
+    private static final boolean USE_SCENE_CHANGE_GATE = false;
+    private static final boolean USE_RESULT_CACHE = false;
+    private static final boolean USE_INCREMENTAL_RECOGNITION = false;
+    private static final boolean USE_ADAPTIVE_FRAME_RATE = false;
+
     //  Intent request code to handle updating play services if needed.
     private static final int RC_HANDLE_GMS = 9001;
 
     //  Permission request codes need to be < 256.
     private static final int RC_HANDLE_CAMERA_PERM = 2;
 
+    //  The maximum number of text recognizers running concurrently. Each one holds its own model,
+    // so the count is kept low even on devices with many cores.
+    private static final int MAX_DETECTOR_WORKERS = 3;
+
+    //  The quality gate thresholds: frames blurred by motion or defocus (whose Laplacian variance
+    // is low), or with most pixels clipped to black or white, are not sent to the recognizer.
+    private static final float MIN_SHARPNESS = 50.0f;
+    private static final float MAX_CLIPPING = 0.6f;
+
+    //  While no block of the frame changes its mean luminance by more than this, the last text
+    // found is kept, and the recognizer runs again only after the refresh interval.
+    private static final int SCENE_CHANGE_THRESHOLD = 6;
+    private static final long SCENE_REFRESH_MILLIS = 1000;
+
+    //  The results of the last frames are cached, so panning back over the same labels doesn't
+    // run the recognizer again. Frames match when their 64-bit fingerprints differ in a few bits,
+    // and their finer signatures agree.
+    private static final int RESULT_CACHE_SIZE = 32;
+    private static final int RESULT_CACHE_DISTANCE = 4;
+
+    //  When less than half of the frame changed (e.g., a hand entering a corner), only the changed
+    // tiles are recognized again, and the whole frame is recognized at least every 2 seconds.
+    private static final int TILE_THRESHOLD = 8;
+    private static final float MAX_DIRTY_TILES = 0.5f;
+    private static final long FULL_REFRESH_MILLIS = 2000;
+
+    //  The range of the adaptive frame rate.
+    private static final float MIN_FPS = 15.0f;
+    private static final float MAX_FPS = 30.0f;
+
     //  Component elements.
     private CameraControl_A cameraControllerA = null;
     private CameraControl_B camera2Controller = null;
     private CameraViewGroup cameraViewGroup;
     private GraphicView<OcrGraphic> graphicOverlay;
 
+    //  The block selected by the last tap, and the position of the overlay on the screen.
+    private OcrGraphic selectedGraphic = null;
+    private final int[] overlayLocation = new int[2];
+
     //==============================================================================================
     //                                  Initializing activity
     //==============================================================================================
@@ -141,14 +188,43 @@ public final class MainActivity extends AppCompatActivity {
     }
 
     /**
-     *  Defines an event that happens when the device screen is touched.
+     *  Defines an event that happens when the device screen is touched. A tap on a text block
+     * selects it and shows its text; a tap elsewhere clears the selection.
      *
      * @param   e       The motion event?
      * @return          'true' if an event were interpreted, 'false' otherwise.
      */
     @Override
     public boolean onTouchEvent(MotionEvent e) {
-        return super.onTouchEvent(e);
+
+        if (e.getActionMasked() != MotionEvent.ACTION_UP || graphicOverlay == null) {
+            return super.onTouchEvent(e);
+        }
+
+        graphicOverlay.getLocationOnScreen(overlayLocation);
+
+        OcrGraphic graphic = graphicOverlay.getGraphicAt(
+                e.getRawX() - overlayLocation[0], e.getRawY() - overlayLocation[1]);
+
+        if (selectedGraphic != null) {
+            selectedGraphic.setSelected(false);
+        }
+
+        selectedGraphic = graphic;
+
+        if (graphic == null) {
+            return super.onTouchEvent(e);
+        }
+
+        String text = graphic.getText();
+
+        graphic.setSelected(true);
+
+        if (text != null) {
+            Snackbar.make(graphicOverlay, text, Snackbar.LENGTH_LONG).show();
+        }
+
+        return true;
     }
 
     /**
@@ -236,8 +312,6 @@ public final class MainActivity extends AppCompatActivity {
         Context context = getApplicationContext();
         TextRecognizer textRecognizer = new TextRecognizer.Builder(context).build();
 
-        textRecognizer.setProcessor(new OcrTextBlock(graphicOverlay));
-
         if (!textRecognizer.isOperational()) {
 
             IntentFilter lowStorageFilter = new IntentFilter(Intent.ACTION_DEVICE_STORAGE_LOW);
@@ -248,23 +322,93 @@ public final class MainActivity extends AppCompatActivity {
             }
         }
 
+        OcrTextBlock ocrTextBlock = new OcrTextBlock(graphicOverlay);
+
         if (USE_LEGACY_CAMERA) {
-            cameraControllerA =
+
+            CameraControl_A.Builder builder =
                     new CameraControl_A.Builder(getApplicationContext(), textRecognizer)
                             .previewSize(1280, 720)
                             .camera(CameraControl_A.CAMERA_FACING_BACK)
-                            .focus(Camera.Parameters.FOCUS_MODE_AUTO)
-                            .build();
+                            .focus(Camera.Parameters.FOCUS_MODE_AUTO);
+
+            configurePipeline(builder, ocrTextBlock);
+            cameraControllerA = builder.build();
         }
         else {
-            camera2Controller =
+
+            CameraControl_B.Builder builder =
                     new CameraControl_B.Builder(getApplicationContext(), textRecognizer)
                             .previewSize(1280, 720)
                             .camera(CameraControl_B.CAMERA_FACING_BACK)
-                            .focus(CameraControl_B.CAMERA_AF_AUTO)
-                            .build();
+                            .focus(CameraControl_B.CAMERA_AF_AUTO);
+
+            configurePipeline(builder, ocrTextBlock);
+            camera2Controller = builder.build();
+        }
+
+        //  Once every block in view has a settled text, a static scene is not recognized again.
+        CameraControl cameraControl = USE_LEGACY_CAMERA ? cameraControllerA : camera2Controller;
+        final SceneChangeGate sceneChangeGate = cameraControl.getSceneChangeGate();
+
+        if (sceneChangeGate != null) {
+            ocrTextBlock.setListener(new OcrTextBlock.Listener() {
+                @Override
+                public void onSettledChanged(boolean _settled) {
+                    sceneChangeGate.setRefreshHeld(_settled);
+                }
+            });
+        }
+    }
+
+    /**
+     *  Sets up the frame pipeline of a camera builder: the frames are handled as grayscale, and
+     * the results are delivered to the overlay. The experimental stages are only added when their
+     * flags are set.
+     *
+     * @param   _builder        The camera builder.
+     * @param   _processor      The processor that receives the results.
+     */
+    private void configurePipeline(CameraControl.Builder<?, ?> _builder, OcrTextBlock _processor) {
+
+        final Context context = getApplicationContext();
+
+        _builder.grayscale(true).processor(_processor);
+
+        //  The extra workers get their own recognizers, and the results of all of them reach the
+        // overlay in the order of the frames.
+        if (USE_CONCURRENT_WORKERS) {
+
+            int workers = Math.max(1, Math.min(MAX_DETECTOR_WORKERS,
+                    Runtime.getRuntime().availableProcessors() / 2));
+
+            _builder.workers(workers, new DetectorFactory() {
+                @Override
+                public Detector<?> create() {
+                    return new TextRecognizer.Builder(context).build();
+                }
+            });
         }
 
+        if (USE_QUALITY_GATE) {
+            _builder.qualityGate(MIN_SHARPNESS, MAX_CLIPPING);
+        }
+
+        if (USE_SCENE_CHANGE_GATE) {
+            _builder.sceneChangeGate(SCENE_CHANGE_THRESHOLD, SCENE_REFRESH_MILLIS);
+        }
+
+        if (USE_RESULT_CACHE) {
+            _builder.resultCache(RESULT_CACHE_SIZE, RESULT_CACHE_DISTANCE);
+        }
+
+        if (USE_INCREMENTAL_RECOGNITION) {
+            _builder.incrementalRecognition(TILE_THRESHOLD, MAX_DIRTY_TILES, FULL_REFRESH_MILLIS);
+        }
+
+        if (USE_ADAPTIVE_FRAME_RATE) {
+            _builder.adaptiveFrameRate(MIN_FPS, MAX_FPS);
+        }
     }
 
     /**
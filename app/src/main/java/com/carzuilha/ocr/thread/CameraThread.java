@@ -1,29 +1,614 @@
 package com.carzuilha.ocr.thread;
 
+import android.graphics.ImageFormat;
+import android.graphics.RectF;
 import android.os.SystemClock;
+import android.util.Log;
 
+import com.carzuilha.ocr.control.CameraControl;
+import com.carzuilha.ocr.util.NV21Image;
+import com.carzuilha.ocr.util.NV21Scaler;
 import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  *  This generic runnable controls access to the underlying receiver, calling it to process frames when
- * available from the camera. You must implements the Runnable class when extending this class.
+ * available from the camera. Subclasses define how the camera frames are converted and recycled.
  */
 @SuppressWarnings("WeakerAccess")
-public abstract class CameraThread {
+public abstract class CameraThread implements Runnable {
+
+    //  Defines the tag of the class.
+    private static final String TAG = "CameraThread";
+
+    //  The maximum time to wait for the detection workers to finish, when the thread stops.
+    private static final long WORKER_SHUTDOWN_MILLIS = 2000;
 
     //  This represents a detector and the frame time.
     protected long startTimeMillis = SystemClock.elapsedRealtime();
     protected Detector<?> detector;
 
-    //  This lock guards all of the member variables below.
-    protected boolean active = true;
-    protected final Object lock = new Object();
+    //  Indicates if the thread must keep running.
+    protected volatile boolean active = true;
+
+    //  The lock-free handoff between the camera thread and this thread, so the camera thread
+    // never waits for the detector, and the policy that decides which frames go through it.
+    protected FrameRing frameRing;
+    protected FramePolicy framePolicy;
+
+    //  The frame being processed by this thread, and the ID of the next frame received from the
+    // camera (which is written only by the camera thread).
+    protected final FrameSlot currentFrame = new FrameSlot();
+    protected int nextFrameId = 0;
+
+    //  The latency of every pipeline stage, along with the frame counters of the policy.
+    protected PipelineStats stats;
+
+    //  The scaler that reduces the frames before detection, and if it also rotates them.
+    protected NV21Scaler scaler;
+    protected boolean uprightFrames;
+
+    //  The gate that keeps blurred and badly exposed frames away from the detectors (null to send
+    // every frame).
+    protected FrameQuality frameQuality;
+
+    //  The gate that reuses the last detections while the scene doesn't change, and the cache
+    // of the results of content seen before (either may be null). The sequence number of the last
+    // frame that reused earlier results is kept, so such frames never hold more than a single
+    // place in the delivery order.
+    protected SceneChangeGate sceneChangeGate;
+    protected ResultCache resultCache;
+    protected long lastReused = -1;
+
+    //  The grid that limits the recognition to the changed part of the frames (null to recognize
+    // the whole frames).
+    protected TileGrid tileGrid;
+
+    //  The detection workers (the first one uses the main detector), and the sequencer that
+    // delivers their results in order (when a processor was given to the camera controller).
+    protected DetectorWorker[] workers;
+    protected ResultSequencer sequencer;
+
+    //  The converted frames, and the queues that link the conversion stage (this thread) to the
+    // detection stage (the workers): frames waiting for conversion and frames waiting for
+    // detection. There is a converted frame for each worker, one waiting in the ready queue and
+    // one being converted, so the conversion never waits for a detection to finish.
+    protected ConvertedFrame[] convertedFrames;
+    protected BlockingQueue<ConvertedFrame> freeFrames;
+    protected BlockingQueue<ConvertedFrame> readyFrames;
+
+    /**
+     *  Marks the runnable as active/not active. Signals any blocked threads to continue. Frames
+     * left from a previous run are given back to the camera when the thread is activated again.
+     *
+     * @param   _active         Indicates if the thread must be active or not.
+     */
+    public void setActive(boolean _active) {
+
+        active = _active;
+
+        if (_active) {
+            discardFrames();
+        }
+
+        frameRing.setOpen(_active);
+    }
+
+    /**
+     *  Gives the buffers of the frames still waiting to be processed back to the camera. Must be
+     * called only while the processing thread is not running.
+     */
+    public void discardFrames() {
+
+        while (frameRing.poll(currentFrame)) {
+            recycleCurrentFrame();
+        }
+    }
+
+    /**
+     *  Returns the latency histograms of the pipeline stages and the frame counters.
+     *
+     * @return      The pipeline statistics.
+     */
+    public PipelineStats getPipelineStats() {
+        return stats;
+    }
+
+    /**
+     *  Returns the gate that rejects blurred and badly exposed frames, which exposes the scores
+     * of the last frame and its counters.
+     *
+     * @return      The quality gate, or null if every frame is sent to the detectors.
+     */
+    public FrameQuality getFrameQuality() {
+        return frameQuality;
+    }
+
+    /**
+     *  Returns the policy that decides which frames are processed, which exposes its counters.
+     *
+     * @return      The frame policy.
+     */
+    public FramePolicy getFramePolicy() {
+        return framePolicy;
+    }
+
+    /**
+     *  Hands a frame over to this thread. Must be called only by the camera thread.
+     *
+     * @param   _data           The frame buffer.
+     * @return                  The buffer of a frame that was dropped without being processed (it
+     *                          may be recycled), or null.
+     */
+    protected ByteBuffer offerFrame(ByteBuffer _data) {
+
+        long start = System.nanoTime();
+        int frameId = ++nextFrameId;
+
+        //  Frames skipped by the policy never reach the handoff.
+        if (!framePolicy.onReceived(frameId, start)) {
+            stats.getStall().record(System.nanoTime() - start);
+            return _data;
+        }
+
+        //  Timestamp and frame ID are maintained here, which will give downstream code some
+        // idea of the timing of frames received and when frames were dropped along the way.
+        long timeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+        ByteBuffer dropped = frameRing.offer(_data, frameId, timeMillis);
+
+        if (dropped != null) {
+            framePolicy.onDropped();
+        }
+
+        stats.getStall().record(System.nanoTime() - start);
+
+        return dropped;
+    }
+
+    /**
+     *  Waits for the next frame from the camera, and moves it into the current frame. Frames that
+     * the policy considers too old are recycled, and the wait goes on.
+     *
+     * @return                  'true' if a frame was received, 'false' if the thread was
+     *                          deactivated (or interrupted) while waiting.
+     */
+    protected boolean takeFrame() {
+
+        while (frameRing.take(currentFrame)) {
+
+            //  A frame taken after the thread was deactivated still goes back to the camera.
+            if (!active) {
+                recycleCurrentFrame();
+                return false;
+            }
+
+            long age = System.nanoTime() - currentFrame.enqueueNanos;
+
+            if (framePolicy.onTaken(age)) {
+                stats.getHandoff().record(age);
+                return true;
+            }
+
+            recycleCurrentFrame();
+        }
+
+        return false;
+    }
+
+    /**
+     *  Creates the handoff between the camera thread and this thread, using the frame policy of
+     * the camera controller.
+     *
+     * @param   _cameraControl  The camera controller.
+     */
+    protected void createHandoff(CameraControl _cameraControl) {
+
+        framePolicy = _cameraControl.getFramePolicy();
+        frameRing = new FrameRing(framePolicy.getCapacity(), framePolicy.isOverwrite());
+        stats = new PipelineStats(framePolicy, _cameraControl.getFrameQuality(),
+                _cameraControl.getSceneChangeGate(), _cameraControl.getResultCache());
+    }
+
+    /**
+     *  Creates the scaler that reduces the frames, using the settings of the camera controller.
+     *
+     * @param   _cameraControl  The camera controller.
+     */
+    protected void createScaler(CameraControl _cameraControl) {
+
+        RectF crop = _cameraControl.getCropRegion();
+
+        scaler = new NV21Scaler(
+                _cameraControl.getDownscaleFactor(),
+                _cameraControl.isBoxFilter(),
+                _cameraControl.isGrayscale());
+        scaler.setCrop(crop.left, crop.top, crop.right, crop.bottom);
+        uprightFrames = _cameraControl.isUprightFrames();
+        frameQuality = _cameraControl.getFrameQuality();
+        sceneChangeGate = _cameraControl.getSceneChangeGate();
+        resultCache = _cameraControl.getResultCache();
+        tileGrid = _cameraControl.getTileGrid();
+    }
+
+    /**
+     *  Creates the detection workers, using the settings of the camera controller. The main
+     * detector must be already set.
+     *
+     * @param   _cameraControl  The camera controller.
+     */
+    protected void createWorkers(CameraControl _cameraControl) {
+
+        int count = _cameraControl.getDetectorWorkers();
+        Detector.Processor<?> processor = _cameraControl.getProcessor();
+
+        convertedFrames = new ConvertedFrame[count + 2];
+        freeFrames = new ArrayBlockingQueue<>(convertedFrames.length);
+        readyFrames = new ArrayBlockingQueue<>(1);
+
+        for (int i = 0; i < convertedFrames.length; i++) {
+            convertedFrames[i] = new ConvertedFrame();
+        }
+
+        if (processor != null) {
+            //  Besides the converted frames, a single frame that reused earlier results may wait
+            // for its turn.
+            sequencer = new ResultSequencer(processor, _cameraControl.getResultPolicy(),
+                    convertedFrames.length + 1, stats.getDelivery());
+            sequencer.setTileGrid(tileGrid);
+        }
+
+        workers = new DetectorWorker[count];
+
+        for (int i = 0; i < count; i++) {
+            Detector<?> workerDetector = (i == 0) ? detector : _cameraControl.getDetectorFactory().create();
+            workers[i] = new DetectorWorker(workerDetector, sequencer, readyFrames, freeFrames,
+                    stats.getDetection(), stats.getDetectorIdle(), _cameraControl.getFrameRateGovernor(),
+                    resultCache);
+        }
+    }
+
+    /**
+     *  Returns the sequencer that delivers the detection results, which exposes its counters.
+     *
+     * @return      The result sequencer, or null if the results go to the detector's processor.
+     */
+    public ResultSequencer getSequencer() {
+        return sequencer;
+    }
+
+    /**
+     *  Releases the detectors of every worker and the processor. This is only safe to do after the
+     * thread has completed.
+     */
+    protected void releaseDetectors() {
+
+        for (DetectorWorker worker : workers) {
+            worker.getDetector().release();
+        }
+
+        if (sequencer != null) {
+            sequencer.release();
+        }
+
+        detector = null;
+    }
+
+    /**
+     *  Converts the current frame into the given converted frame, usually by calling
+     * buildCurrentFrame() with the camera settings.
+     *
+     * @param   _target         The converted frame to be filled.
+     */
+    protected abstract void convertCurrentFrame(ConvertedFrame _target);
+
+    /**
+     *  Gives the buffer of the current frame back to the camera, once it was converted.
+     */
+    protected abstract void recycleCurrentFrame();
+
+    //==============================================================================================
+    //                                  Running the thread
+    //==============================================================================================
+
+    /**
+     *  As long as the processing thread is active, this runs a two-stage pipeline: this thread
+     * converts frames, and the detection workers detect them on their own threads. The next frame
+     * is either immediately available or hasn't been received yet. Once it is available, it is
+     * reduced into a free converted frame, the camera buffer is handed back, and the converted
+     * frame is queued for the workers. The next frame is converted while the previous ones are
+     * being detected, so the detectors don't wait on pixel work.
+     *
+     *  Converted frames that are blurred or badly exposed (according to the quality gate) are
+     * dropped, those of a static scene (according to the scene change gate) reuse the last
+     * detections, and those of content seen before reuse its cached results, so none of them
+     * takes a detector. The other frames may be recognized only where they changed (according to
+     * the tile grid).
+     */
+    @Override
+    public void run() {
+
+        //  Frames left from a previous run are discarded.
+        readyFrames.clear();
+        freeFrames.clear();
+        Collections.addAll(freeFrames, convertedFrames);
+
+        if (sequencer != null) {
+            sequencer.reset();
+        }
+
+        if (sceneChangeGate != null) {
+            sceneChangeGate.reset();
+        }
+
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+
+        if (tileGrid != null) {
+            tileGrid.reset();
+        }
+
+        lastReused = -1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers.length);
+
+        for (DetectorWorker worker : workers) {
+            executor.execute(worker);
+        }
+
+        try {
+
+            while (true) {
+
+                ConvertedFrame converted = freeFrames.take();
+
+                converted.repeat = false;
+                converted.cached = null;
+
+                if (!takeFrame()) break;
+
+                long start = System.nanoTime();
+
+                //  A frame that fails to convert is dropped, like a frame that fails to be
+                // detected, and the loop goes on with the next one.
+                try {
+                    convertCurrentFrame(converted);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Exception thrown while converting a frame.", e);
+                    freeFrames.put(converted);
+                    continue;
+                } finally {
+                    recycleCurrentFrame();
+                }
+
+                long gatingStart = System.nanoTime();
+                stats.getConversion().record(gatingStart - start);
+
+                //  Frames that can't yield text are rejected before they take a detector (and
+                // a place in the delivery order), frames of a static scene reuse the last
+                // detections instead, and frames of content seen before reuse its results. The
+                // other frames are recognized only where they changed.
+                boolean accepted = isAccepted(converted);
+                boolean changed = accepted && hasChanged(converted);
+                boolean cached = changed && isCached(converted);
+
+                if (changed && !cached) {
+                    findDirtyRegion(converted);
+                }
+
+                stats.getGating().record(System.nanoTime() - gatingStart);
+
+                if (!accepted) {
+                    freeFrames.put(converted);
+                    continue;
+                }
+
+                //  Reused results are still delivered by a worker, so the processor never runs
+                // on this thread.
+                if (!changed && !repeatLastDetections(converted)) {
+                    freeFrames.put(converted);
+                    continue;
+                }
+
+                if (changed && !cached && sequencer != null) {
+                    converted.sequence = sequencer.nextSequence();
+                }
+
+                readyFrames.put(converted);
+            }
+
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Frame processing loop interrupted.", e);
+        } finally {
+
+            //  The workers must be done before the thread completes, so the detectors can be
+            // safely released afterwards. Interrupting them only stops their wait for frames.
+            executor.shutdownNow();
+
+            try {
+                executor.awaitTermination(WORKER_SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Interrupted while waiting for the detection workers.", e);
+            }
+        }
+
+        Log.d(TAG, "Frame processing loop terminated.");
+    }
+
+    /**
+     *  Checks if a converted frame shows something new, with the scene change gate, if there is
+     * one.
+     *
+     * @param   _converted      The converted frame.
+     * @return                  'true' if the frame must be detected, 'false' if the last
+     *                          detections still hold.
+     */
+    protected boolean hasChanged(ConvertedFrame _converted) {
+
+        return sceneChangeGate == null
+                || sceneChangeGate.hasChanged(_converted.data, _converted.width, _converted.height,
+                        System.nanoTime());
+    }
+
+    /**
+     *  Marks an unchanged frame to deliver the last detections again, in its turn. Consecutive
+     * unchanged frames are coalesced while the previous one is waiting for its turn, so they never
+     * hold more than a single place in the delivery order. Without a sequencer, the detector's
+     * processor simply keeps its last results.
+     *
+     * @param   _converted      The converted frame, which receives its place in the order.
+     * @return                  'true' if the frame must be handed to a worker, 'false' if it is
+     *                          coalesced with the previous one.
+     * @throws  InterruptedException    If the thread was interrupted while waiting for its turn.
+     */
+    protected boolean repeatLastDetections(ConvertedFrame _converted) throws InterruptedException {
+
+        if (sequencer == null) return false;
+        if (lastReused >= 0 && !sequencer.isDelivered(lastReused)) return false;
+
+        lastReused = sequencer.nextSequence();
+        _converted.sequence = lastReused;
+        _converted.repeat = true;
+
+        return true;
+    }
+
+    /**
+     *  Computes the fingerprint of a converted frame and, if the result cache holds the results of
+     * a matching frame, marks the frame to deliver them in its turn. While another frame that
+     * reused earlier results is waiting for its turn, the cache is not checked and the frame is
+     * detected.
+     *
+     * @param   _converted      The converted frame, which receives its fingerprint and signature,
+     *                          and its cached results.
+     * @return                  'true' if cached results are reused, 'false' if the frame must be
+     *                          detected.
+     * @throws  InterruptedException    If the thread was interrupted while waiting for its turn.
+     */
+    protected boolean isCached(ConvertedFrame _converted) throws InterruptedException {
+
+        if (resultCache == null) return false;
+
+        if (_converted.signature == null) {
+            _converted.signature = new byte[ResultCache.SIGNATURE_SIZE];
+        }
+
+        _converted.fingerprint = ResultCache.fingerprint(_converted.data, _converted.width, _converted.height);
+        ResultCache.signature(_converted.data, _converted.width, _converted.height, _converted.signature);
+
+        if (lastReused >= 0 && !sequencer.isDelivered(lastReused)) return false;
+
+        Detector.Detections<?> detections = resultCache.get(_converted.fingerprint, _converted.signature);
+
+        if (detections == null) return false;
+
+        lastReused = sequencer.nextSequence();
+        _converted.sequence = lastReused;
+        _converted.cached = detections;
+
+        return true;
+    }
+
+    /**
+     *  Finds the part of a converted frame that changed since it was last recognized, with the
+     * tile grid, if there is one. The rest of the frame is painted flat gray, and its results are
+     * carried forward from the previous frames when the results of this one are delivered.
+     *
+     * @param   _converted      The converted frame, which receives its dirty region.
+     */
+    protected void findDirtyRegion(ConvertedFrame _converted) {
+
+        if (tileGrid == null) {
+            _converted.region.clear();
+            return;
+        }
+
+        tileGrid.update(_converted.data, _converted.width, _converted.height, System.nanoTime(),
+                _converted.region);
+
+        //  The grid works on the reduced image, while the results of a frame rotated by the
+        // detector come back upright.
+        _converted.region.rotate(_converted.rotation, _converted.width, _converted.height);
+    }
+
+    //==============================================================================================
+    //                                  Frame conversion
+    //==============================================================================================
+
+    /**
+     *  Scores a converted frame with the quality gate, if there is one.
+     *
+     * @param   _converted      The converted frame, which receives its sharpness score.
+     * @return                  'true' if the frame must be detected, 'false' if it was rejected.
+     */
+    protected boolean isAccepted(ConvertedFrame _converted) {
+
+        if (frameQuality == null) {
+            _converted.sharpness = 0.0f;
+            return true;
+        }
+
+        _converted.sharpness = frameQuality.evaluate(_converted.data, _converted.width, _converted.height);
+
+        return _converted.sharpness >= 0.0f;
+    }
+
+    /**
+     *  Crops, reduces and (if requested) rotates the current frame in a single pass with the
+     * thread scaler, and wraps it in a detector frame.
+     *
+     * @param   _width          The width of the current frame.
+     * @param   _height         The height of the current frame.
+     * @param   _rotation       The rotation of the frame, as one of the Frame constants.
+     * @param   _target         The converted frame, whose buffer receives the reduced frame. The
+     *                          buffer is reused, since the detector is done with it before the
+     *                          next frame is reduced into it.
+     */
+    protected void buildCurrentFrame(int _width, int _height, int _rotation, ConvertedFrame _target) {
+
+        scaler.setRotation(uprightFrames ? _rotation : Frame.ROTATION_0);
+
+        int outputWidth = scaler.getOutputWidth(_width, _height);
+        int outputHeight = scaler.getOutputHeight(_width, _height);
+        int frameSize = NV21Image.getBufferSize(outputWidth, outputHeight);
+
+        //  The detector only accepts NV21 frames, so luma-only frames are sent with a neutral
+        // chroma plane. It is filled once, as the scaler never writes over it.
+        if (_target.data == null || _target.data.length < frameSize) {
+
+            _target.data = new byte[frameSize];
+            _target.buffer = ByteBuffer.wrap(_target.data);
+
+            if (scaler.isLumaOnly()) {
+                Arrays.fill(_target.data, outputWidth * outputHeight, frameSize, (byte) 128);
+            }
+        }
+
+        scaler.scale(currentFrame.data.array(), _width, _height, _target.data);
+        _target.buffer.clear();
+        _target.width = outputWidth;
+        _target.height = outputHeight;
+        _target.rotation = uprightFrames ? Frame.ROTATION_0 : _rotation;
 
-    //  These pending variables hold the state associated with the new frame awaiting processing.
-    protected int pendingFrameId = 0;
-    protected long pendingTimeMillis;
-    protected ByteBuffer pendingFrameData;
+        _target.frame = new Frame.Builder()
+                .setImageData(
+                        _target.buffer,
+                        outputWidth,
+                        outputHeight,
+                        ImageFormat.NV21)
+                .setId(currentFrame.id)
+                .setTimestampMillis(currentFrame.timeMillis)
+                .setRotation(_target.rotation)
+                .build();
+    }
 
 }
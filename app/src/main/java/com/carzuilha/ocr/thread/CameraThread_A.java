@@ -1,15 +1,11 @@
 package com.carzuilha.ocr.thread;
 
 import android.annotation.SuppressLint;
-import android.graphics.ImageFormat;
 import android.hardware.Camera;
-import android.os.SystemClock;
 import android.util.Log;
 
 import com.carzuilha.ocr.control.CameraControl_A;
-import com.carzuilha.ocr.util.NV21Image;
 import com.google.android.gms.vision.Detector;
-import com.google.android.gms.vision.Frame;
 
 import java.nio.ByteBuffer;
 
@@ -19,7 +15,7 @@ import java.nio.ByteBuffer;
  * (i.e., without unnecessary context switching or waiting on the next frame).
  */
 @SuppressWarnings("deprecation")
-public class CameraThread_A extends CameraThread implements Runnable {
+public class CameraThread_A extends CameraThread {
 
     //  Defines the tag of the class.
     private static final String TAG = "CameraThread_A";
@@ -40,53 +36,34 @@ public class CameraThread_A extends CameraThread implements Runnable {
     public CameraThread_A(Detector<?> _detector, CameraControl_A _cameraController) {
         detector = _detector;
         cameraControlA = _cameraController;
+        createHandoff(_cameraController);
+        createScaler(_cameraController);
+        createWorkers(_cameraController);
     }
 
     /**
-     *  Marks the runnable as active/not active. Signals any blocked threads to continue.
-     *
-     * @param   _active         Indicates if the thread must be active or not.
-     */
-    public void setActive(boolean _active) {
-
-        synchronized (lock) {
-            active = _active;
-            lock.notifyAll();
-        }
-    }
-
-    /**
-     *  Sets the frame data received from the camera. This adds the previous unused frame buffer
-     * (if present) back to the application, and keeps a pending reference to the frame data for
-     * future use.
+     *  Sets the frame data received from the camera. The frame is handed over to the processing
+     * thread without waiting for it, and the buffer of a frame dropped in favour of this one (if
+     * present) is added back to the camera.
      *
      * @param   _data           The buffer data.
      * @param   _camera         The camera being utilized.
      */
     public void setNextFrame(byte[] _data, Camera _camera) {
 
-        synchronized (lock) {
+        ByteBuffer buffer = cameraControlA.getBytesToByteBuffer().get(_data);
 
-            if (pendingFrameData != null) {
-                _camera.addCallbackBuffer(pendingFrameData.array());
-                pendingFrameData = null;
-            }
-
-            if (!cameraControlA.getBytesToByteBuffer().containsKey(_data)) {
-                Log.d(TAG,
-                        "Skipping frame. Could not find ByteBuffer associated with the image " +
-                                "data from the com.project.util.");
-                return;
-            }
+        if (buffer == null) {
+            Log.d(TAG,
+                    "Skipping frame. Could not find ByteBuffer associated with the image " +
+                            "data from the com.project.util.");
+            return;
+        }
 
-            //  Timestamp and frame ID are maintained here, which will give downstream code some
-            // idea of the timing of frames received and when frames were dropped along the way.
-            pendingTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
-            pendingFrameId++;
-            pendingFrameData = cameraControlA.getBytesToByteBuffer().get(_data);
+        ByteBuffer dropped = offerFrame(buffer);
 
-            //  Notify the processor thread if it is waiting on the next frame (see below).
-            lock.notifyAll();
+        if (dropped != null) {
+            _camera.addCallbackBuffer(dropped.array());
         }
     }
 
@@ -99,80 +76,35 @@ public class CameraThread_A extends CameraThread implements Runnable {
 
         assert (cameraControlA.getProcessingThread().getState() == Thread.State.TERMINATED);
 
-        detector.release();
-        detector = null;
+        releaseDetectors();
     }
 
     //==============================================================================================
-    //                                  Running the thread
+    //                                  Frame conversion
     //==============================================================================================
 
     /**
-     *  As long as the processing thread is active, this executes detection on frames
-     * continuously. The next pending frame is either immediately available or hasn't been
-     * received yet. Once it is available, we transfer the frame info to local variables and
-     * run detection on that frame. It immediately loops back for the next frame without
-     * pausing.
+     *  Converts the current frame, using the preview size and orientation of the camera.
+     *
+     * @param   _target         The converted frame to be filled.
      */
     @Override
-    public void run() {
-
-        Frame outputFrame;
-        byte[] bufferedFrame;
-        ByteBuffer data;
-
-        while (true) {
-
-            synchronized (lock) {
-
-                while (active && (pendingFrameData == null)) {
-
-                    try {
-                        // Wait for the next frame to be received from the camera, since we
-                        // don't have it yet.
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        Log.d(TAG, "Frame processing loop terminated.", e);
-                        return;
-                    }
-                }
-
-                if (!active) return;
-
-                bufferedFrame = NV21Image.quarter(
-                        pendingFrameData.array(),
-                        cameraControlA.getPreviewSize().getWidth(),
-                        cameraControlA.getPreviewSize().getHeight());
-
-                outputFrame = new Frame.Builder()
-                        .setImageData(
-                                ByteBuffer.wrap(bufferedFrame),
-                                cameraControlA.getPreviewSize().getWidth() / 4,
-                                cameraControlA.getPreviewSize().getHeight() / 4,
-                                ImageFormat.NV21)
-                        .setId(pendingFrameId)
-                        .setTimestampMillis(pendingTimeMillis)
-                        .setRotation(cameraControlA.getRotation())
-                        .build();
-
-                data = pendingFrameData;
-
-                //  We need to clear pendingFrameData to ensure that this buffer isn't
-                // recycled back to the camera before we are done using that data.
-                pendingFrameData = null;
-            }
-
-            // The code below needs to run outside of synchronization, because this will allow
-            // the camera to add pending frame(s) while we are running detection on the current
-            // frame.
-            try {
-                detector.receiveFrame(outputFrame);
-            } catch (Throwable t) {
-                Log.e(TAG, "Exception thrown from receiver.", t);
-            } finally {
-                cameraControlA.getCamera().addCallbackBuffer(data.array());
-            }
-        }
+    protected void convertCurrentFrame(ConvertedFrame _target) {
+
+        buildCurrentFrame(
+                cameraControlA.getPreviewSize().getWidth(),
+                cameraControlA.getPreviewSize().getHeight(),
+                cameraControlA.getRotation(),
+                _target);
+    }
+
+    /**
+     *  Gives the buffer of the current frame back to the camera. The frame was already copied by
+     * the conversion, so its buffer can be filled again while we are running detection.
+     */
+    @Override
+    protected void recycleCurrentFrame() {
+        cameraControlA.getCamera().addCallbackBuffer(currentFrame.getData().array());
     }
 
-}
\ No newline at end of file
+}
@@ -1,14 +1,9 @@
 package com.carzuilha.ocr.thread;
 
 import android.annotation.SuppressLint;
-import android.graphics.ImageFormat;
-import android.os.SystemClock;
-import android.util.Log;
 
 import com.carzuilha.ocr.control.CameraControl_B;
-import com.carzuilha.ocr.util.NV21Image;
 import com.google.android.gms.vision.Detector;
-import com.google.android.gms.vision.Frame;
 
 import java.nio.ByteBuffer;
 
@@ -17,10 +12,7 @@ import java.nio.ByteBuffer;
  * available from the camera. This is designed to run detection on frames as fast as possible
  * (i.e., without unnecessary context switching or waiting on the next frame).
  */
-public class CameraThread_B extends CameraThread implements Runnable {
-
-    //  Defines the tag of the class.
-    private static final String TAG = "CameraThread_B";
+public class CameraThread_B extends CameraThread {
 
     //  The camera source, which the thread will run.
     private CameraControl_B cameraControlB;
@@ -38,44 +30,24 @@ public class CameraThread_B extends CameraThread implements Runnable {
     public CameraThread_B(Detector<?> _detector, CameraControl_B _cameraController) {
         detector = _detector;
         cameraControlB = _cameraController;
+        createHandoff(_cameraController);
+        createScaler(_cameraController);
+        createWorkers(_cameraController);
     }
 
     /**
-     *  Marks the runnable as active/not active. Signals any blocked threads to continue.
+     *  Sets the frame data received from the camera. The frame is handed over to the processing
+     * thread without waiting for it, and the buffer of a frame dropped in favour of this one (if
+     * present) is returned to the buffer pool. Must be called only by the camera thread.
      *
-     * @param   _active         Indicates if the thread must be active or not.
+     * @param   _data           The buffer data, borrowed from the buffer pool.
      */
-    public void setActive(boolean _active) {
-
-        synchronized (lock) {
-            this.active = _active;
-            lock.notifyAll();
-        }
-    }
-
-    /**
-     *  Sets the frame data received from the camera. This adds the previous unused frame buffer
-     * (if present) back to the application, and keeps a pending reference to the frame data for
-     * future use.
-     *
-     * @param   _data           The buffer data.
-     */
-    public void setNextFrame(byte[] _data) {
-
-        synchronized (lock) {
+    public void setNextFrame(ByteBuffer _data) {
 
-            if (pendingFrameData != null) {
-                pendingFrameData = null;
-            }
+        ByteBuffer dropped = offerFrame(_data);
 
-            // Timestamp and frame ID are maintained here, which will give downstream code some
-            // idea of the timing of frames received and when frames were dropped along the way.
-            pendingTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
-            pendingFrameId++;
-            pendingFrameData = ByteBuffer.wrap(_data);
-
-            // Notify the processor thread if it is waiting on the next frame (see below).
-            lock.notifyAll();
+        if (dropped != null) {
+            cameraControlB.getBufferPool().release(dropped);
         }
     }
 
@@ -88,75 +60,35 @@ public class CameraThread_B extends CameraThread implements Runnable {
 
         assert (cameraControlB.getProcessingThread().getState() == Thread.State.TERMINATED);
 
-        detector.release();
-        detector = null;
+        releaseDetectors();
     }
 
     //==============================================================================================
-    //                                  Running the thread
+    //                                  Frame conversion
     //==============================================================================================
 
     /**
-     *  As long as the processing thread is active, this executes detection on frames
-     * continuously. The next pending frame is either immediately available or hasn't been
-     * received yet. Once it is available, we transfer the frame info to local variables and
-     * run detection on that frame. It immediately loops back for the next frame without
-     * pausing.
+     *  Converts the current frame, using the preview size and orientation of the camera.
+     *
+     * @param   _target         The converted frame to be filled.
      */
     @Override
-    public void run() {
-
-        Frame outputFrame;
-        byte[] bufferedFrame;
-
-        while (true) {
-
-            synchronized (lock) {
-
-                while (active && (pendingFrameData == null)) {
-
-                    try {
-                        // Wait for the next frame to be received from the camera, since we
-                        // don't have it yet.
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        Log.d(TAG, "Frame processing loop terminated.", e);
-                        return;
-                    }
-                }
-
-                if (!active) return;
-
-                bufferedFrame = NV21Image.quarter(
-                        pendingFrameData.array(),
-                        cameraControlB.getPreviewSize().getWidth(),
-                        cameraControlB.getPreviewSize().getHeight());
-
-                outputFrame = new Frame.Builder()
-                        .setImageData(
-                                ByteBuffer.wrap(bufferedFrame),
-                                cameraControlB.getPreviewSize().getWidth() / 4,
-                                cameraControlB.getPreviewSize().getHeight() / 4,
-                                ImageFormat.NV21)
-                        .setId(pendingFrameId)
-                        .setTimestampMillis(pendingTimeMillis)
-                        .setRotation(cameraControlB.getDetectorOrientation())
-                        .build();
-
-                //  We need to clear pendingFrameData to ensure that this buffer isn't
-                // recycled back to the camera before we are done using that data.
-                pendingFrameData = null;
-            }
-
-            // The code below needs to run outside of synchronization, because this will allow
-            // the camera to add pending frame(s) while we are running detection on the current
-            // frame.
-            try {
-                detector.receiveFrame(outputFrame);
-            } catch (Throwable t) {
-                Log.e(TAG, "Exception thrown from receiver.", t);
-            }
-        }
+    protected void convertCurrentFrame(ConvertedFrame _target) {
+
+        buildCurrentFrame(
+                cameraControlB.getPreviewSize().getWidth(),
+                cameraControlB.getPreviewSize().getHeight(),
+                cameraControlB.getDetectorOrientation(),
+                _target);
+    }
+
+    /**
+     *  Gives the buffer of the current frame back to the camera. The frame was already copied by
+     * the conversion, so its buffer can be filled again while we are running detection.
+     */
+    @Override
+    protected void recycleCurrentFrame() {
+        cameraControlB.getBufferPool().release(currentFrame.getData());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package com.carzuilha.ocr.thread;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  Holds a frame already reduced for detection, along with the buffer it was reduced into. The
+ * buffer is reused by the next frames converted into the same object.
+ */
+public class ConvertedFrame {
+
+    //  The reduced image, and the buffer that wraps it.
+    byte[] data;
+    ByteBuffer buffer;
+
+    //  The size of the reduced image, and its sharpness (the variance of the Laplacian of its
+    // luminance, or 0 if the quality gate is disabled).
+    int width;
+    int height;
+    float sharpness;
+
+    //  The perceptual fingerprint and signature of the reduced image (only computed if results are
+    // cached).
+    long fingerprint;
+    byte[] signature;
+
+    //  The rotation the detector applies to the reduced image (ROTATION_0 if it is already
+    // upright).
+    int rotation;
+
+    //  The part of the frame that is recognized (empty if the whole frame is), in the coordinates
+    // of the results.
+    final DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+
+    //  The frame sent to the detector, and its position in the dispatch order.
+    Frame frame;
+    long sequence;
+
+    //  If the frame isn't detected, but reuses the last detections or cached results, which a
+    // worker delivers in its turn.
+    boolean repeat;
+    Detector.Detections<?> cached;
+
+    /**
+     *  Returns the frame sent to the detector.
+     *
+     * @return      The detector frame.
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     *  Returns the sharpness score given to the frame by the quality gate.
+     *
+     * @return      The variance of the Laplacian of the frame luminance, or 0 if the quality gate
+     *              is disabled.
+     */
+    public float getSharpness() {
+        return sharpness;
+    }
+
+    /**
+     *  Returns the perceptual fingerprint of the frame, under which its results are cached.
+     *
+     * @return      The 64-bit difference hash of the frame luminance, or 0 if results are not
+     *              cached.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     *  Returns the part of the frame that is recognized, outside of which the frame was painted
+     * flat gray. It is given in the coordinates of the results, i.e., upright.
+     *
+     * @return      The dirty region, which is empty if the whole frame is recognized.
+     */
+    public DirtyRegion getRegion() {
+        return region;
+    }
+
+    /**
+     *  Returns the position of the frame in the dispatch order.
+     *
+     * @return      The dispatch sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+}
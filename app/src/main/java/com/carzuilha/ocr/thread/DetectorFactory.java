@@ -0,0 +1,18 @@
+package com.carzuilha.ocr.thread;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ *  Creates the detectors of the extra detection workers. Detectors are not thread-safe, so each
+ * worker needs its own instance, configured like the main one.
+ */
+public interface DetectorFactory {
+
+    /**
+     *  Creates a new detector.
+     *
+     * @return      The detector, without a processor (results are delivered by the workers).
+     */
+    Detector<?> create();
+
+}
@@ -0,0 +1,204 @@
+package com.carzuilha.ocr.thread;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ *  The detection stage of the pipeline. Each worker runs on its own thread with its own detector:
+ * it takes converted frames from the ready queue, detects them, and puts them back in the free
+ * queue to be converted again. The results are either sent to the detector's own processor, or
+ * handed to a result sequencer that delivers them in order. Frames that reuse earlier results are
+ * not detected, but their results are still delivered here, so the processor only runs on the
+ * workers.
+ */
+class DetectorWorker implements Runnable {
+
+    //  Defines the tag of the class.
+    private static final String TAG = "DetectorWorker";
+
+    //  The detector used by this worker, and where its results go.
+    private final Detector<?> detector;
+    private final ResultSequencer sequencer;
+
+    //  The queues that link the worker to the conversion stage.
+    private final BlockingQueue<ConvertedFrame> readyFrames;
+    private final BlockingQueue<ConvertedFrame> freeFrames;
+
+    //  How long the detections take, and how long the worker waits for converted frames.
+    private final StageTimer detectionTimer;
+    private final StageTimer idleTimer;
+
+    //  Adapts the camera frame rate to the detection latency, and caches the results of each
+    // frame under its fingerprint (if enabled).
+    private final FrameRateGovernor governor;
+    private final ResultCache resultCache;
+
+    /**
+     *  Creates a new worker.
+     *
+     * @param   _detector       The worker's detector.
+     * @param   _sequencer      The result sequencer, or null to use the detector's processor.
+     * @param   _readyFrames    The queue of frames waiting for detection.
+     * @param   _freeFrames     The queue of frames waiting for conversion.
+     * @param   _detectionTimer The timer of the detections (shared by the workers).
+     * @param   _idleTimer      The timer of the waits for frames (shared by the workers).
+     * @param   _governor       The frame rate governor, or null if the frame rate is fixed.
+     * @param   _resultCache    The result cache, or null if results are not cached.
+     */
+    DetectorWorker(Detector<?> _detector, ResultSequencer _sequencer,
+                   BlockingQueue<ConvertedFrame> _readyFrames, BlockingQueue<ConvertedFrame> _freeFrames,
+                   StageTimer _detectionTimer, StageTimer _idleTimer, FrameRateGovernor _governor,
+                   ResultCache _resultCache) {
+        detector = _detector;
+        sequencer = _sequencer;
+        readyFrames = _readyFrames;
+        freeFrames = _freeFrames;
+        detectionTimer = _detectionTimer;
+        idleTimer = _idleTimer;
+        governor = _governor;
+        resultCache = _resultCache;
+    }
+
+    /**
+     *  Returns the worker's detector.
+     *
+     * @return      The detector.
+     */
+    Detector<?> getDetector() {
+        return detector;
+    }
+
+    /**
+     *  Detects the converted frames until the worker is interrupted.
+     */
+    @Override
+    public void run() {
+
+        try {
+
+            while (true) {
+
+                long waitStart = System.nanoTime();
+                ConvertedFrame converted = readyFrames.take();
+
+                idleTimer.record(System.nanoTime() - waitStart);
+
+                if (converted.repeat || converted.cached != null) {
+                    deliverReused(converted);
+                    freeFrames.offer(converted);
+                    continue;
+                }
+
+                long latency;
+
+                try {
+                    latency = detect(converted);
+                } finally {
+                    freeFrames.offer(converted);
+                }
+
+                detectionTimer.record(latency);
+
+                if (governor != null) {
+                    governor.record(latency, System.nanoTime());
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Detection worker stopped.");
+        }
+    }
+
+    /**
+     *  Detects a single converted frame, and delivers its results.
+     *
+     * @param   _converted      The converted frame.
+     * @return                  How long the detection took, in nanoseconds, without the delivery
+     *                          of its results.
+     */
+    private long detect(ConvertedFrame _converted) {
+
+        long start = System.nanoTime();
+        long end = 0;
+
+        try {
+
+            if (sequencer == null) {
+
+                //  The detector hands its results to its own processor, which can't be timed
+                // apart from the detection.
+                detector.receiveFrame(_converted.frame);
+                end = System.nanoTime();
+
+            } else {
+
+                Detector.Detections<?> detections = detect(detector, _converted.frame);
+                end = System.nanoTime();
+
+                //  Results of part of a frame don't hold for the whole fingerprint.
+                if (resultCache != null && !_converted.region.isPartial()) {
+                    resultCache.put(_converted.fingerprint, _converted.signature, detections);
+                }
+
+                sequencer.complete(_converted.sequence, detections, _converted.region);
+            }
+
+        } catch (Throwable t) {
+
+            Log.e(TAG, "Exception thrown from receiver.", t);
+
+            if (end == 0) {
+                end = System.nanoTime();
+            }
+
+            //  The sequence number must still be completed, or the later results would wait for
+            // it forever.
+            if (sequencer != null) {
+                sequencer.complete(_converted.sequence, null);
+            }
+        }
+
+        return end - start;
+    }
+
+    /**
+     *  Delivers the results reused by a frame that isn't detected: either the last detections or
+     * cached results.
+     *
+     * @param   _converted      The converted frame.
+     */
+    private void deliverReused(ConvertedFrame _converted) {
+
+        try {
+
+            if (_converted.repeat) {
+                sequencer.repeat(_converted.sequence);
+            } else {
+                sequencer.complete(_converted.sequence, _converted.cached);
+            }
+
+        } catch (Throwable t) {
+            Log.e(TAG, "Exception thrown from receiver.", t);
+        }
+    }
+
+    /**
+     *  Runs a detector on a frame, and wraps its results.
+     *
+     * @param   _detector       The detector.
+     * @param   _frame          The frame.
+     * @return                  The detection results.
+     */
+    private static <T> Detector.Detections<T> detect(Detector<T> _detector, Frame _frame) {
+
+        SparseArray<T> items = _detector.detect(_frame);
+
+        return new Detector.Detections<>(items, _frame.getMetadata(), _detector.isOperational());
+    }
+
+}
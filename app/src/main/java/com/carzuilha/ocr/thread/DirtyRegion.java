@@ -0,0 +1,202 @@
+package com.carzuilha.ocr.thread;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.text.Text;
+
+/**
+ *  The changed part of a converted frame, as a set of rectangles in frame coordinates. A frame
+ * with a dirty region is only recognized inside it, and its results are merged with the previous
+ * results found outside it. An empty region means that the whole frame was recognized.
+ *
+ *  The rectangles are kept in preallocated arrays, so a region can be copied from frame to frame
+ * without allocating.
+ */
+public class DirtyRegion {
+
+    //  The rectangles of the region, as edges in frame pixels (right and bottom are exclusive).
+    final int[] left;
+    final int[] top;
+    final int[] right;
+    final int[] bottom;
+    int count = 0;
+
+    /**
+     *  Creates an empty region.
+     *
+     * @param   _capacity       The maximum number of rectangles.
+     */
+    public DirtyRegion(int _capacity) {
+        left = new int[_capacity];
+        top = new int[_capacity];
+        right = new int[_capacity];
+        bottom = new int[_capacity];
+    }
+
+    /**
+     *  Returns how many rectangles the region has.
+     *
+     * @return      The number of rectangles, or 0 if the whole frame was recognized.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     *  Returns if the region covers only part of the frame.
+     *
+     * @return      'true' if only the region was recognized, 'false' if the whole frame was.
+     */
+    public boolean isPartial() {
+        return count > 0;
+    }
+
+    /**
+     *  Returns a rectangle of the region.
+     *
+     * @param   _index          The rectangle index.
+     * @return                  A new rectangle, in frame coordinates.
+     */
+    public Rect getRect(int _index) {
+        return new Rect(left[_index], top[_index], right[_index], bottom[_index]);
+    }
+
+    /**
+     *  Removes every rectangle, so the region covers the whole frame.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     *  Copies another region into this one.
+     *
+     * @param   _other          The region to be copied, or null to clear this one.
+     */
+    public void set(DirtyRegion _other) {
+
+        if (_other == null) {
+            count = 0;
+            return;
+        }
+
+        System.arraycopy(_other.left, 0, left, 0, _other.count);
+        System.arraycopy(_other.top, 0, top, 0, _other.count);
+        System.arraycopy(_other.right, 0, right, 0, _other.count);
+        System.arraycopy(_other.bottom, 0, bottom, 0, _other.count);
+        count = _other.count;
+    }
+
+    /**
+     *  Rotates the region along with its frame, e.g., into the coordinates of the results of a
+     * frame that the detector rotates to its upright orientation.
+     *
+     * @param   _rotation       The clockwise rotation, in quarter turns (one of the
+     *                          Frame.ROTATION constants).
+     * @param   _width          The width of the frame, before the rotation.
+     * @param   _height         The height of the frame, before the rotation.
+     */
+    public void rotate(int _rotation, int _width, int _height) {
+
+        for (int i = 0; i < count; i++) {
+
+            int l = left[i];
+            int t = top[i];
+            int r = right[i];
+            int b = bottom[i];
+
+            switch (_rotation & 3) {
+                case 1:
+                    set(i, _height - b, l, _height - t, r);
+                    break;
+                case 2:
+                    set(i, _width - r, _height - b, _width - l, _height - t);
+                    break;
+                case 3:
+                    set(i, t, _width - r, b, _width - l);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     *  Checks if a rectangle touches the region.
+     *
+     * @param   _left           The left edge.
+     * @param   _top            The top edge.
+     * @param   _right          The right edge (exclusive).
+     * @param   _bottom         The bottom edge (exclusive).
+     * @return                  'true' if the rectangle intersects any rectangle of the region.
+     */
+    public boolean intersects(int _left, int _top, int _right, int _bottom) {
+
+        for (int i = 0; i < count; i++) {
+            if (_left < right[i] && left[i] < _right && _top < bottom[i] && top[i] < _bottom) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *  Merges the results of a frame recognized inside this region with the previous results:
+     * the previous items that lie entirely outside the region are carried forward, and every item
+     * found inside it is added. Items that don't expose their bounds (i.e., are not Text) can't be
+     * carried forward.
+     *
+     * @param   _previous       The previous results, for the whole frame (may be null).
+     * @param   _current        The results found inside the region.
+     * @return                  The results for the whole frame.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Detector.Detections merge(Detector.Detections _previous, Detector.Detections _current) {
+
+        if (_previous == null || count == 0) return _current;
+
+        SparseArray previousItems = _previous.getDetectedItems();
+        SparseArray currentItems = _current.getDetectedItems();
+        SparseArray items = new SparseArray(previousItems.size() + currentItems.size());
+        int key = 0;
+
+        for (int i = 0; i < previousItems.size(); i++) {
+
+            Object item = previousItems.valueAt(i);
+
+            if (!(item instanceof Text)) continue;
+
+            Rect bounds = ((Text) item).getBoundingBox();
+
+            if (!intersects(bounds.left, bounds.top, bounds.right, bounds.bottom)) {
+                items.append(key++, item);
+            }
+        }
+
+        for (int i = 0; i < currentItems.size(); i++) {
+            items.append(key++, currentItems.valueAt(i));
+        }
+
+        return new Detector.Detections(items, _current.getFrameMetadata(), _current.detectorIsOperational());
+    }
+
+    /**
+     *  Sets the edges of a rectangle.
+     *
+     * @param   _index          The rectangle index.
+     * @param   _left           The left edge.
+     * @param   _top            The top edge.
+     * @param   _right          The right edge (exclusive).
+     * @param   _bottom         The bottom edge (exclusive).
+     */
+    private void set(int _index, int _left, int _top, int _right, int _bottom) {
+        left[_index] = _left;
+        top[_index] = _top;
+        right[_index] = _right;
+        bottom[_index] = _bottom;
+    }
+
+}
@@ -0,0 +1,306 @@
+package com.carzuilha.ocr.thread;
+
+/**
+ *  Defines which camera frames reach the detector. A policy decides the size of the handoff
+ * between the camera and the processing threads, what happens when the handoff is full, which
+ * frames are skipped before the handoff, and which frames are too old to be processed after it.
+ *
+ *  Every policy counts the frames it receives, skips, drops, expires and passes on. Each counter
+ * is written by a single thread (the camera thread or the processing thread), and may be read by
+ * any thread.
+ */
+public abstract class FramePolicy {
+
+    //  The frame counters.
+    private volatile long receivedCount = 0;
+    private volatile long skippedCount = 0;
+    private volatile long droppedCount = 0;
+    private volatile long expiredCount = 0;
+    private volatile long processedCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Returns how many frames the handoff holds.
+     *
+     * @return      The handoff capacity.
+     */
+    public abstract int getCapacity();
+
+    /**
+     *  Returns what happens when a frame arrives and the handoff is full.
+     *
+     * @return      'true' to drop the oldest frame in the handoff, 'false' to drop the new frame.
+     */
+    public abstract boolean isOverwrite();
+
+    /**
+     *  Decides if a frame received from the camera is handed over. Called only by the camera
+     * thread.
+     *
+     * @param   _frameId        The frame ID.
+     * @param   _nowNanos       The current time, from System.nanoTime().
+     * @return                  'true' to hand the frame over, 'false' to skip it.
+     */
+    protected boolean accept(int _frameId, long _nowNanos) {
+        return true;
+    }
+
+    /**
+     *  Decides if a frame taken from the handoff is too old to be processed. Called only by the
+     * processing thread.
+     *
+     * @param   _ageNanos       How long the frame waited in the handoff.
+     * @return                  'true' to drop the frame, 'false' to process it.
+     */
+    protected boolean isExpired(long _ageNanos) {
+        return false;
+    }
+
+    /**
+     *  Returns how many frames were received from the camera.
+     *
+     * @return      The number of received frames.
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     *  Returns how many frames were skipped before the handoff.
+     *
+     * @return      The number of skipped frames.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     *  Returns how many frames were dropped because the handoff was full.
+     *
+     * @return      The number of dropped frames.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     *  Returns how many frames were dropped because they were too old when taken.
+     *
+     * @return      The number of expired frames.
+     */
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     *  Returns how many frames were passed on to be processed.
+     *
+     * @return      The number of processed frames.
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Counts a frame received from the camera, and decides if it is handed over.
+     *
+     * @param   _frameId        The frame ID.
+     * @param   _nowNanos       The current time, from System.nanoTime().
+     * @return                  'true' to hand the frame over, 'false' to skip it.
+     */
+    boolean onReceived(int _frameId, long _nowNanos) {
+
+        receivedCount = receivedCount + 1;
+
+        if (accept(_frameId, _nowNanos)) return true;
+
+        skippedCount = skippedCount + 1;
+
+        return false;
+    }
+
+    /**
+     *  Counts a frame dropped because the handoff was full.
+     */
+    void onDropped() {
+        droppedCount = droppedCount + 1;
+    }
+
+    /**
+     *  Counts a frame taken from the handoff, and decides if it is processed.
+     *
+     * @param   _ageNanos       How long the frame waited in the handoff.
+     * @return                  'true' to process the frame, 'false' to drop it.
+     */
+    boolean onTaken(long _ageNanos) {
+
+        if (isExpired(_ageNanos)) {
+            expiredCount = expiredCount + 1;
+            return false;
+        }
+
+        processedCount = processedCount + 1;
+
+        return true;
+    }
+
+    //==============================================================================================
+    //                                      Inner classes
+    //==============================================================================================
+
+    /**
+     *  Keeps only the newest frame: each frame replaces the one waiting in the handoff. Gives the
+     * lowest latency, which suits live overlays.
+     */
+    public static class Latest extends FramePolicy {
+
+        @Override
+        public int getCapacity() {
+            return 1;
+        }
+
+        @Override
+        public boolean isOverwrite() {
+            return true;
+        }
+    }
+
+    /**
+     *  Keeps up to N frames, in order. New frames are dropped while the queue is full, so the
+     * processed frames are as contiguous as possible, which suits document capture.
+     */
+    public static class Queue extends FramePolicy {
+
+        private final int capacity;
+
+        /**
+         *  Creates the policy.
+         *
+         * @param   _capacity       The number of queued frames.
+         */
+        public Queue(int _capacity) {
+
+            if (_capacity < 1) {
+                throw new IllegalArgumentException("Invalid queue capacity: " + _capacity);
+            }
+
+            capacity = _capacity;
+        }
+
+        @Override
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public boolean isOverwrite() {
+            return false;
+        }
+    }
+
+    /**
+     *  Hands over only every K-th frame received from the camera, keeping the newest one.
+     */
+    public static class EveryKth extends Latest {
+
+        private final int interval;
+
+        /**
+         *  Creates the policy.
+         *
+         * @param   _interval       The interval K between handed frames.
+         */
+        public EveryKth(int _interval) {
+
+            if (_interval < 1) {
+                throw new IllegalArgumentException("Invalid frame interval: " + _interval);
+            }
+
+            interval = _interval;
+        }
+
+        @Override
+        protected boolean accept(int _frameId, long _nowNanos) {
+            return _frameId % interval == 0;
+        }
+    }
+
+    /**
+     *  Hands over frames at a fixed rate, so the detector runs at most N times per second, keeping
+     * the newest frame.
+     */
+    public static class Budget extends Latest {
+
+        private final long intervalNanos;
+        private long lastAcceptedNanos;
+        private boolean started = false;
+
+        /**
+         *  Creates the policy.
+         *
+         * @param   _perSecond      The maximum number of detections per second.
+         */
+        public Budget(float _perSecond) {
+
+            if (!(_perSecond > 0.0f)) {
+                throw new IllegalArgumentException("Invalid detection budget: " + _perSecond);
+            }
+
+            intervalNanos = (long) (1000000000L / _perSecond);
+        }
+
+        @Override
+        protected boolean accept(int _frameId, long _nowNanos) {
+
+            if (started && _nowNanos - lastAcceptedNanos < intervalNanos) return false;
+
+            //  The schedule advances by whole intervals, so an occasional late frame doesn't
+            // lower the rate, but it never builds up a burst either.
+            lastAcceptedNanos = (started && _nowNanos - lastAcceptedNanos < 2 * intervalNanos)
+                    ? lastAcceptedNanos + intervalNanos
+                    : _nowNanos;
+            started = true;
+
+            return true;
+        }
+    }
+
+    /**
+     *  Keeps up to N frames, in order, but drops the frames that waited longer than a maximum age
+     * when they are taken.
+     */
+    public static class Deadline extends Queue {
+
+        private final long maxAgeNanos;
+
+        /**
+         *  Creates the policy.
+         *
+         * @param   _capacity       The number of queued frames.
+         * @param   _maxAgeMillis   The maximum time a frame may wait, in milliseconds.
+         */
+        public Deadline(int _capacity, long _maxAgeMillis) {
+
+            super(_capacity);
+
+            if (_maxAgeMillis < 0) {
+                throw new IllegalArgumentException("Invalid frame deadline: " + _maxAgeMillis);
+            }
+
+            maxAgeNanos = _maxAgeMillis * 1000000L;
+        }
+
+        @Override
+        protected boolean isExpired(long _ageNanos) {
+            return _ageNanos > maxAgeNanos;
+        }
+    }
+
+}
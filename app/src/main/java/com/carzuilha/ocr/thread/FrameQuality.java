@@ -0,0 +1,205 @@
+package com.carzuilha.ocr.thread;
+
+/**
+ *  Decides if a reduced frame is worth sending to the detector. Motion-blurred and out-of-focus
+ * frames, which never yield text, have a low sharpness: the variance of the Laplacian of their
+ * luminance. Over- and under-exposed frames have most of their pixels clipped to black or white.
+ *
+ *  The frames are scored on the reduced luminance plane, so the cost is a small fraction of the
+ * detection. Evaluation is allocation-free and done only by the processing thread; the scores
+ * and counters may be read by any thread.
+ */
+public class FrameQuality {
+
+    //  The luminance values at or beyond which a pixel is considered clipped.
+    public static final int CLIP_LOW = 8;
+    public static final int CLIP_HIGH = 247;
+
+    //  The thresholds of the frames that are accepted.
+    private final float minSharpness;
+    private final float maxClipping;
+
+    //  The scores of the last evaluated frame.
+    private volatile float lastSharpness = 0.0f;
+    private volatile float lastClipping = 0.0f;
+
+    //  The frame counters.
+    private volatile long acceptedCount = 0;
+    private volatile long rejectedCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the quality gate and sets its thresholds.
+     *
+     * @param   _minSharpness   The minimum variance of the Laplacian of an accepted frame (0 to
+     *                          accept any sharpness).
+     * @param   _maxClipping    The maximum fraction of clipped pixels of an accepted frame, from
+     *                          0 to 1 (1 to accept any exposure).
+     */
+    public FrameQuality(float _minSharpness, float _maxClipping) {
+
+        if (!(_minSharpness >= 0.0f)) {
+            throw new IllegalArgumentException("Invalid minimum sharpness: " + _minSharpness);
+        }
+        if (!(_maxClipping >= 0.0f && _maxClipping <= 1.0f)) {
+            throw new IllegalArgumentException("Invalid maximum clipping: " + _maxClipping);
+        }
+
+        minSharpness = _minSharpness;
+        maxClipping = _maxClipping;
+    }
+
+    /**
+     *  Returns the minimum sharpness of an accepted frame.
+     *
+     * @return      The minimum variance of the Laplacian.
+     */
+    public float getMinSharpness() {
+        return minSharpness;
+    }
+
+    /**
+     *  Returns the maximum fraction of clipped pixels of an accepted frame.
+     *
+     * @return      The maximum clipping, from 0 to 1.
+     */
+    public float getMaxClipping() {
+        return maxClipping;
+    }
+
+    /**
+     *  Returns the sharpness of the last evaluated frame.
+     *
+     * @return      The variance of the Laplacian of the frame luminance.
+     */
+    public float getLastSharpness() {
+        return lastSharpness;
+    }
+
+    /**
+     *  Returns the fraction of clipped pixels of the last evaluated frame.
+     *
+     * @return      The clipping, from 0 to 1.
+     */
+    public float getLastClipping() {
+        return lastClipping;
+    }
+
+    /**
+     *  Returns how many frames were accepted.
+     *
+     * @return      The number of accepted frames.
+     */
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    /**
+     *  Returns how many frames were rejected.
+     *
+     * @return      The number of rejected frames.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     *  Scores a frame and decides if it is sent to the detector. Called only by the processing
+     * thread.
+     *
+     * @param   _luma           The frame, whose first bytes are the luminance plane.
+     * @param   _width          The frame width.
+     * @param   _height         The frame height.
+     * @return                  The sharpness of the frame, or a negative value if the frame was
+     *                          rejected.
+     */
+    public float evaluate(byte[] _luma, int _width, int _height) {
+
+        float clipping = clipping(_luma, _width * _height);
+        float sharpness = (clipping <= maxClipping) ? sharpness(_luma, _width, _height) : 0.0f;
+
+        lastClipping = clipping;
+        lastSharpness = sharpness;
+
+        if (clipping <= maxClipping && sharpness >= minSharpness) {
+            acceptedCount = acceptedCount + 1;
+            return sharpness;
+        }
+
+        rejectedCount = rejectedCount + 1;
+
+        return -1.0f;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Computes the variance of the 4-neighbour Laplacian over the inner pixels of a luminance
+     * plane.
+     *
+     * @param   _luma           The luminance plane.
+     * @param   _width          The plane width.
+     * @param   _height         The plane height.
+     * @return                  The variance of the Laplacian (0 for planes too small to have
+     *                          inner pixels).
+     */
+    static float sharpness(byte[] _luma, int _width, int _height) {
+
+        if (_width < 3 || _height < 3) return 0.0f;
+
+        long sum = 0;
+        long sumOfSquares = 0;
+
+        for (int y = 1; y < _height - 1; y++) {
+
+            int i = y * _width + 1;
+            int end = i + _width - 2;
+
+            for (; i < end; i++) {
+
+                int laplacian = 4 * (_luma[i] & 0xFF)
+                        - (_luma[i - 1] & 0xFF) - (_luma[i + 1] & 0xFF)
+                        - (_luma[i - _width] & 0xFF) - (_luma[i + _width] & 0xFF);
+
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+            }
+        }
+
+        double count = (double) (_width - 2) * (_height - 2);
+        double mean = sum / count;
+
+        return (float) (sumOfSquares / count - mean * mean);
+    }
+
+    /**
+     *  Computes the fraction of clipped pixels of a luminance plane.
+     *
+     * @param   _luma           The luminance plane.
+     * @param   _size           The number of pixels of the plane.
+     * @return                  The clipping, from 0 to 1.
+     */
+    static float clipping(byte[] _luma, int _size) {
+
+        if (_size == 0) return 0.0f;
+
+        int clipped = 0;
+
+        for (int i = 0; i < _size; i++) {
+
+            int value = _luma[i] & 0xFF;
+
+            if (value <= CLIP_LOW || value >= CLIP_HIGH) {
+                clipped++;
+            }
+        }
+
+        return (float) clipped / _size;
+    }
+
+}
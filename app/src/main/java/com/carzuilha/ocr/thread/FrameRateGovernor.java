@@ -0,0 +1,154 @@
+package com.carzuilha.ocr.thread;
+
+/**
+ *  Adapts the camera frame rate to the detection latency. The governor keeps an exponential moving
+ * average of the detection latency, derives the frame rate the detection workers can sustain (with
+ * some headroom, so the newest frame is always fresh), and asks the camera to change its rate when
+ * the target moves far enough from the current rate. Changes are also spaced in time, so the rate
+ * doesn't oscillate.
+ */
+public class FrameRateGovernor {
+
+    //  The weight of each new latency sample in the moving average.
+    private static final float SMOOTHING = 0.2f;
+
+    //  How many frames the camera produces for each frame the workers can detect.
+    private static final float HEADROOM = 1.5f;
+
+    //  The relative difference between the target and the current rate that triggers a change,
+    // and the minimum time between two changes.
+    private static final float HYSTERESIS = 0.2f;
+    private static final long COOLDOWN_NANOS = 2000000000L;
+
+    //  The number of latency samples averaged before the first change.
+    private static final int WARMUP_SAMPLES = 5;
+
+    /**
+     *  Receives the frame rate changes.
+     */
+    public interface Listener {
+
+        /**
+         *  Called when the camera must change its frame rate. It may be called by any detection
+         * worker, so it must not block.
+         *
+         * @param   _fps            The new frame rate, in frames per second.
+         */
+        void onFrameRateChanged(float _fps);
+    }
+
+    //  The frame rate limits, and the number of workers detecting frames concurrently.
+    private final float minFps;
+    private final float maxFps;
+    private final int workers;
+
+    //  Receives the changes.
+    private Listener listener;
+
+    //  The latency average, the current rate and the moment it was set.
+    private float averageLatencyNanos = 0.0f;
+    private int samples = 0;
+    private float currentFps;
+    private long lastChangeNanos;
+    private long changeCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the governor and sets its parameters. The camera starts at the maximum rate.
+     *
+     * @param   _minFps         The minimum frame rate.
+     * @param   _maxFps         The maximum frame rate.
+     * @param   _workers        The number of workers detecting frames concurrently.
+     */
+    public FrameRateGovernor(float _minFps, float _maxFps, int _workers) {
+
+        if (!(_minFps > 0.0f && _minFps <= _maxFps) || _workers < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid frame rate range: " + _minFps + " to " + _maxFps + " fps");
+        }
+
+        minFps = _minFps;
+        maxFps = _maxFps;
+        workers = _workers;
+        currentFps = _maxFps;
+    }
+
+    /**
+     *  Sets the listener that receives the frame rate changes.
+     *
+     * @param   _listener       The listener.
+     */
+    public synchronized void setListener(Listener _listener) {
+        listener = _listener;
+    }
+
+    /**
+     *  Records the latency of a detection, and changes the frame rate if needed.
+     *
+     * @param   _latencyNanos   The detection latency, in nanoseconds.
+     * @param   _nowNanos       The current time, from System.nanoTime().
+     */
+    public void record(long _latencyNanos, long _nowNanos) {
+
+        Listener changed = null;
+        float fps;
+
+        synchronized (this) {
+
+            averageLatencyNanos = (samples == 0)
+                    ? _latencyNanos
+                    : averageLatencyNanos + SMOOTHING * (_latencyNanos - averageLatencyNanos);
+
+            if (++samples < WARMUP_SAMPLES) return;
+            if (changeCount > 0 && _nowNanos - lastChangeNanos < COOLDOWN_NANOS) return;
+
+            float target = workers * 1.0e9f / Math.max(1.0f, averageLatencyNanos) * HEADROOM;
+
+            target = Math.max(minFps, Math.min(maxFps, target));
+
+            if (Math.abs(target - currentFps) <= HYSTERESIS * currentFps) return;
+
+            currentFps = target;
+            lastChangeNanos = _nowNanos;
+            changeCount++;
+            changed = listener;
+            fps = target;
+        }
+
+        //  The listener is called outside of the lock, so the other workers don't wait for it.
+        if (changed != null) {
+            changed.onFrameRateChanged(fps);
+        }
+    }
+
+    /**
+     *  Returns the frame rate currently requested from the camera.
+     *
+     * @return      The frame rate, in frames per second.
+     */
+    public synchronized float getFrameRate() {
+        return currentFps;
+    }
+
+    /**
+     *  Returns the moving average of the detection latency.
+     *
+     * @return      The average latency, in nanoseconds.
+     */
+    public synchronized long getAverageLatencyNanos() {
+        return (long) averageLatencyNanos;
+    }
+
+    /**
+     *  Returns how many times the frame rate was changed.
+     *
+     * @return      The number of changes.
+     */
+    public synchronized long getChangeCount() {
+        return changeCount;
+    }
+
+}
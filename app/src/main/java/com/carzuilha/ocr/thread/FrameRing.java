@@ -0,0 +1,207 @@
+package com.carzuilha.ocr.thread;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  A lock-free ring of frame slots between a single producer (the camera thread) and a single
+ * consumer (the processing thread). Neither side ever blocks the other: when the ring is full,
+ * the producer either overwrites the oldest frame (latest-wins) or rejects the new one. The
+ * consumer parks while the ring is empty.
+ *
+ *  Frame buffers are owned by the ring while they are queued. Every buffer that leaves it without
+ * reaching the consumer (overwritten or rejected) is returned to the producer, so it can be
+ * recycled.
+ */
+public class FrameRing {
+
+    //  The preallocated slots, and the policy applied when the ring is full.
+    private final FrameSlot[] slots;
+    private final boolean overwrite;
+
+    //  Sequence numbers of the next slot to be read and written. The tail is written only by the
+    // producer; the head is advanced by the consumer, and by the producer when it overwrites.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    //  The consumer thread (if it is parked, waiting for frames), and if the ring is closed.
+    private volatile Thread consumer;
+    private volatile boolean closed = false;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the ring and sets its parameters.
+     *
+     * @param   _capacity       The number of frames that may be queued.
+     * @param   _overwrite      'true' to overwrite the oldest frame when the ring is full, 'false'
+     *                          to reject the new frame.
+     */
+    public FrameRing(int _capacity, boolean _overwrite) {
+
+        if (_capacity < 1) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + _capacity);
+        }
+
+        slots = new FrameSlot[_capacity];
+        overwrite = _overwrite;
+
+        for (int i = 0; i < _capacity; i++) {
+            slots[i] = new FrameSlot();
+        }
+    }
+
+    /**
+     *  Returns the number of frames that may be queued.
+     *
+     * @return      The ring capacity.
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     *  Returns the number of queued frames.
+     *
+     * @return      The number of queued frames.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    //==============================================================================================
+    //                                  Producer methods
+    //==============================================================================================
+
+    /**
+     *  Queues a frame. Must be called only by the producer thread.
+     *
+     * @param   _data           The frame buffer.
+     * @param   _id             The frame ID.
+     * @param   _timeMillis     The frame timestamp.
+     * @return                  The buffer that left the ring without being consumed (the
+     *                          overwritten one, or the given one if it was rejected), or null.
+     */
+    public ByteBuffer offer(ByteBuffer _data, int _id, long _timeMillis) {
+
+        long t = tail.get();
+        ByteBuffer dropped = null;
+
+        while (true) {
+
+            long h = head.get();
+
+            if (t - h < slots.length) break;
+
+            if (!overwrite) {
+                return _data;
+            }
+
+            //  The slot is read before claiming it: if the consumer takes it first, the claim
+            // fails and the loop starts over.
+            ByteBuffer oldest = slots[(int) (h % slots.length)].data;
+
+            if (head.compareAndSet(h, h + 1)) {
+                dropped = oldest;
+                break;
+            }
+        }
+
+        FrameSlot slot = slots[(int) (t % slots.length)];
+
+        slot.data = _data;
+        slot.id = _id;
+        slot.timeMillis = _timeMillis;
+        slot.enqueueNanos = System.nanoTime();
+
+        tail.set(t + 1);
+
+        Thread waiting = consumer;
+
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+
+        return dropped;
+    }
+
+    //==============================================================================================
+    //                                  Consumer methods
+    //==============================================================================================
+
+    /**
+     *  Copies the oldest queued frame into the given slot, and removes it from the ring. Must be
+     * called only by the consumer thread.
+     *
+     * @param   _slot           The slot to be filled.
+     * @return                  'true' if a frame was available, 'false' otherwise.
+     */
+    public boolean poll(FrameSlot _slot) {
+
+        while (true) {
+
+            long h = head.get();
+
+            if (h >= tail.get()) return false;
+
+            //  The slot is copied before claiming it: if the producer overwrites it first, the
+            // claim fails and the copy is discarded.
+            _slot.set(slots[(int) (h % slots.length)]);
+
+            if (head.compareAndSet(h, h + 1)) return true;
+        }
+    }
+
+    /**
+     *  Waits for a frame, copies it into the given slot, and removes it from the ring. Must be
+     * called only by the consumer thread.
+     *
+     * @param   _slot           The slot to be filled.
+     * @return                  'true' if a frame was received, 'false' if the ring was closed (or
+     *                          the thread interrupted) while waiting.
+     */
+    public boolean take(FrameSlot _slot) {
+
+        consumer = Thread.currentThread();
+
+        try {
+
+            while (!closed) {
+
+                if (poll(_slot)) return true;
+
+                //  A frame queued between the poll and the park unparks this thread in advance,
+                // so the park returns immediately and no frame is missed.
+                LockSupport.park(this);
+
+                if (Thread.interrupted()) return false;
+            }
+
+            return false;
+
+        } finally {
+            consumer = null;
+        }
+    }
+
+    /**
+     *  Opens or closes the ring. Closing the ring wakes the consumer up, if it is waiting for a
+     * frame.
+     *
+     * @param   _open           'true' to open the ring, 'false' to close it.
+     */
+    public void setOpen(boolean _open) {
+
+        closed = !_open;
+
+        Thread waiting = consumer;
+
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.carzuilha.ocr.thread;
+
+import java.nio.ByteBuffer;
+
+/**
+ *  Holds a camera frame handed from the camera thread to the processing thread: its buffer, its
+ * ID and its timestamps. Slots are allocated once and reused for every frame.
+ */
+public class FrameSlot {
+
+    //  The frame buffer, ID and timestamp (relative to the start of the processing thread).
+    ByteBuffer data;
+    int id;
+    long timeMillis;
+
+    //  The moment when the frame was handed to the processing thread, from System.nanoTime().
+    long enqueueNanos;
+
+    /**
+     *  Copies the content of another slot.
+     *
+     * @param   _slot           The slot to be copied.
+     */
+    void set(FrameSlot _slot) {
+        data = _slot.data;
+        id = _slot.id;
+        timeMillis = _slot.timeMillis;
+        enqueueNanos = _slot.enqueueNanos;
+    }
+
+    /**
+     *  Returns the frame buffer.
+     *
+     * @return      The frame buffer.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     *  Returns the frame ID.
+     *
+     * @return      The frame ID.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     *  Returns the frame timestamp, relative to the start of the processing thread.
+     *
+     * @return      The frame timestamp, in milliseconds.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     *  Returns the moment when the frame was handed to the processing thread.
+     *
+     * @return      The handoff moment, from System.nanoTime().
+     */
+    public long getEnqueueNanos() {
+        return enqueueNanos;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.carzuilha.ocr.thread;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  A stage timer that also sorts the durations into fixed, exponential buckets, so percentiles can
+ * be estimated. The first bucket holds durations under 250us, each next bucket doubles the bound,
+ * and the last one holds everything above ~2s. Recording never allocates nor locks.
+ */
+public class LatencyHistogram extends StageTimer {
+
+    //  The bound of the first bucket, and the number of buckets.
+    public static final long UNIT_NANOS = 250000L;
+    public static final int BUCKET_COUNT = 15;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     *  Records a single duration.
+     *
+     * @param   _nanos          The duration, in nanoseconds.
+     */
+    @Override
+    public void record(long _nanos) {
+
+        super.record(_nanos);
+
+        buckets.incrementAndGet(bucketOf(_nanos));
+    }
+
+    /**
+     *  Returns the bucket of a duration.
+     *
+     * @param   _nanos          The duration, in nanoseconds.
+     * @return                  The bucket index.
+     */
+    public static int bucketOf(long _nanos) {
+
+        if (_nanos < UNIT_NANOS) return 0;
+
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(_nanos / UNIT_NANOS));
+    }
+
+    /**
+     *  Returns the upper bound of a bucket.
+     *
+     * @param   _bucket         The bucket index.
+     * @return                  The upper bound (exclusive), in nanoseconds, or Long.MAX_VALUE for
+     *                          the last bucket.
+     */
+    public static long upperBoundOf(int _bucket) {
+        return (_bucket >= BUCKET_COUNT - 1) ? Long.MAX_VALUE : UNIT_NANOS << _bucket;
+    }
+
+    /**
+     *  Copies the current state of the histogram. The copy is not atomic: samples recorded while
+     * copying may show up in some of the values only.
+     *
+     * @return      The histogram snapshot.
+     */
+    public Snapshot snapshot() {
+
+        long[] counts = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+
+        return new Snapshot(getCount(), getTotalNanos(), getMaxNanos(), counts);
+    }
+
+    //==============================================================================================
+    //                                      Inner classes
+    //==============================================================================================
+
+    /**
+     *  An immutable copy of a histogram.
+     */
+    public static class Snapshot {
+
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        Snapshot(long _count, long _totalNanos, long _maxNanos, long[] _buckets) {
+            count = _count;
+            totalNanos = _totalNanos;
+            maxNanos = _maxNanos;
+            buckets = _buckets;
+        }
+
+        /**
+         *  Returns how many durations were recorded.
+         *
+         * @return      The number of durations.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         *  Returns the average of the recorded durations.
+         *
+         * @return      The average duration, in nanoseconds.
+         */
+        public long getAverageNanos() {
+            return (count == 0) ? 0 : totalNanos / count;
+        }
+
+        /**
+         *  Returns the longest recorded duration.
+         *
+         * @return      The maximum duration, in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         *  Returns how many durations fell in a bucket.
+         *
+         * @param   _bucket     The bucket index.
+         * @return              The number of durations.
+         */
+        public long getBucketCount(int _bucket) {
+            return buckets[_bucket];
+        }
+
+        /**
+         *  Estimates a percentile, as the upper bound of the bucket that holds it (capped by the
+         * maximum duration).
+         *
+         * @param   _percentile The percentile (from 0 to 100).
+         * @return              The estimated duration, in nanoseconds.
+         */
+        public long getPercentileNanos(double _percentile) {
+
+            long total = 0;
+
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(total * Math.max(0.0, Math.min(100.0, _percentile)) / 100.0);
+            long seen = 0;
+
+            for (int i = 0; i < buckets.length; i++) {
+
+                seen += buckets[i];
+
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(maxNanos, upperBoundOf(i));
+                }
+            }
+
+            return maxNanos;
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.carzuilha.ocr.thread;
+
+/**
+ *  Collects the latency of every stage of the frame pipeline, and the frame counters of its
+ * policy. Recording is allocation-free; snapshot() copies everything into an immutable object that
+ * can be logged or compared between builds.
+ *
+ *  The stages are: the camera callback handing the frame over (stall), the frame waiting to be
+ * taken (handoff), the conversion, the gates that decide whether the frame is detected (gating),
+ * the workers waiting for frames (detector idle), the detection, the result delivery to the
+ * processor, and the overlay draw.
+ */
+public class PipelineStats {
+
+    //  The policy that counts the frames, the quality gate that counts the rejected ones, the
+    // scene change gate that counts the unchanged ones, and the cache that counts the hits.
+    private final FramePolicy framePolicy;
+    private final FrameQuality frameQuality;
+    private final SceneChangeGate sceneChangeGate;
+    private final ResultCache resultCache;
+
+    //  The stage latencies.
+    private final LatencyHistogram stall = new LatencyHistogram();
+    private final LatencyHistogram handoff = new LatencyHistogram();
+    private final LatencyHistogram conversion = new LatencyHistogram();
+    private final LatencyHistogram gating = new LatencyHistogram();
+    private final LatencyHistogram detectorIdle = new LatencyHistogram();
+    private final LatencyHistogram detection = new LatencyHistogram();
+    private final LatencyHistogram delivery = new LatencyHistogram();
+    private final LatencyHistogram draw = new LatencyHistogram();
+
+    /**
+     *  Initializes the statistics.
+     *
+     * @param   _framePolicy    The policy that counts the frames.
+     * @param   _frameQuality   The quality gate that counts the rejected frames (may be null).
+     * @param   _sceneChangeGate The scene change gate that counts the unchanged frames (may be
+     *                          null).
+     * @param   _resultCache    The result cache that counts the cached frames (may be null).
+     */
+    public PipelineStats(FramePolicy _framePolicy, FrameQuality _frameQuality,
+                         SceneChangeGate _sceneChangeGate, ResultCache _resultCache) {
+        framePolicy = _framePolicy;
+        frameQuality = _frameQuality;
+        sceneChangeGate = _sceneChangeGate;
+        resultCache = _resultCache;
+    }
+
+    /**
+     *  Returns the time the camera thread spends handing each frame over.
+     *
+     * @return      The stall histogram.
+     */
+    public LatencyHistogram getStall() {
+        return stall;
+    }
+
+    /**
+     *  Returns the time each frame waits between the camera callback and the processing thread.
+     *
+     * @return      The handoff histogram.
+     */
+    public LatencyHistogram getHandoff() {
+        return handoff;
+    }
+
+    /**
+     *  Returns the time spent converting each frame.
+     *
+     * @return      The conversion histogram.
+     */
+    public LatencyHistogram getConversion() {
+        return conversion;
+    }
+
+    /**
+     *  Returns the time spent deciding if each converted frame is detected: the quality and scene
+     * change gates, the result cache and the tile grid.
+     *
+     * @return      The gating histogram.
+     */
+    public LatencyHistogram getGating() {
+        return gating;
+    }
+
+    /**
+     *  Returns the time the workers wait for converted frames.
+     *
+     * @return      The detector idle histogram.
+     */
+    public LatencyHistogram getDetectorIdle() {
+        return detectorIdle;
+    }
+
+    /**
+     *  Returns the time spent detecting each frame.
+     *
+     * @return      The detection histogram.
+     */
+    public LatencyHistogram getDetection() {
+        return detection;
+    }
+
+    /**
+     *  Returns the time the processor spends receiving each result.
+     *
+     * @return      The delivery histogram.
+     */
+    public LatencyHistogram getDelivery() {
+        return delivery;
+    }
+
+    /**
+     *  Returns the time the overlay spends drawing the results.
+     *
+     * @return      The draw histogram.
+     */
+    public LatencyHistogram getDraw() {
+        return draw;
+    }
+
+    /**
+     *  Copies the current statistics.
+     *
+     * @return      The statistics snapshot.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    //==============================================================================================
+    //                                      Inner classes
+    //==============================================================================================
+
+    /**
+     *  An immutable copy of the pipeline statistics.
+     */
+    public static class Snapshot {
+
+        //  The frame counters.
+        private final long receivedFrames;
+        private final long skippedFrames;
+        private final long droppedFrames;
+        private final long expiredFrames;
+        private final long processedFrames;
+        private final long rejectedFrames;
+        private final long unchangedFrames;
+        private final long cachedFrames;
+
+        //  The stage latencies.
+        private final LatencyHistogram.Snapshot stall;
+        private final LatencyHistogram.Snapshot handoff;
+        private final LatencyHistogram.Snapshot conversion;
+        private final LatencyHistogram.Snapshot gating;
+        private final LatencyHistogram.Snapshot detectorIdle;
+        private final LatencyHistogram.Snapshot detection;
+        private final LatencyHistogram.Snapshot delivery;
+        private final LatencyHistogram.Snapshot draw;
+
+        Snapshot(PipelineStats _stats) {
+
+            FramePolicy policy = _stats.framePolicy;
+
+            receivedFrames = policy.getReceivedCount();
+            skippedFrames = policy.getSkippedCount();
+            droppedFrames = policy.getDroppedCount();
+            expiredFrames = policy.getExpiredCount();
+            processedFrames = policy.getProcessedCount();
+            rejectedFrames = (_stats.frameQuality != null) ? _stats.frameQuality.getRejectedCount() : 0;
+            unchangedFrames = (_stats.sceneChangeGate != null) ? _stats.sceneChangeGate.getUnchangedCount() : 0;
+            cachedFrames = (_stats.resultCache != null) ? _stats.resultCache.getHitCount() : 0;
+
+            stall = _stats.stall.snapshot();
+            handoff = _stats.handoff.snapshot();
+            conversion = _stats.conversion.snapshot();
+            gating = _stats.gating.snapshot();
+            detectorIdle = _stats.detectorIdle.snapshot();
+            detection = _stats.detection.snapshot();
+            delivery = _stats.delivery.snapshot();
+            draw = _stats.draw.snapshot();
+        }
+
+        /**
+         *  Returns how many frames were received from the camera.
+         *
+         * @return      The number of received frames.
+         */
+        public long getReceivedFrames() {
+            return receivedFrames;
+        }
+
+        /**
+         *  Returns how many frames were skipped by the policy.
+         *
+         * @return      The number of skipped frames.
+         */
+        public long getSkippedFrames() {
+            return skippedFrames;
+        }
+
+        /**
+         *  Returns how many frames were dropped because the handoff was full.
+         *
+         * @return      The number of dropped frames.
+         */
+        public long getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        /**
+         *  Returns how many frames were too old when taken.
+         *
+         * @return      The number of expired frames.
+         */
+        public long getExpiredFrames() {
+            return expiredFrames;
+        }
+
+        /**
+         *  Returns how many frames were passed on to be processed.
+         *
+         * @return      The number of processed frames.
+         */
+        public long getProcessedFrames() {
+            return processedFrames;
+        }
+
+        /**
+         *  Returns how many processed frames were rejected by the quality gate.
+         *
+         * @return      The number of rejected frames.
+         */
+        public long getRejectedFrames() {
+            return rejectedFrames;
+        }
+
+        /**
+         *  Returns how many processed frames reused the last detections, since the scene didn't
+         * change.
+         *
+         * @return      The number of unchanged frames.
+         */
+        public long getUnchangedFrames() {
+            return unchangedFrames;
+        }
+
+        /**
+         *  Returns how many processed frames reused the cached results of a matching frame.
+         *
+         * @return      The number of cached frames.
+         */
+        public long getCachedFrames() {
+            return cachedFrames;
+        }
+
+        /**
+         *  Returns the latencies of the camera thread stall.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getStall() {
+            return stall;
+        }
+
+        /**
+         *  Returns the latencies of the handoff wait.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getHandoff() {
+            return handoff;
+        }
+
+        /**
+         *  Returns the latencies of the conversion.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getConversion() {
+            return conversion;
+        }
+
+        /**
+         *  Returns the latencies of the gates.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getGating() {
+            return gating;
+        }
+
+        /**
+         *  Returns the latencies of the detector idle time.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getDetectorIdle() {
+            return detectorIdle;
+        }
+
+        /**
+         *  Returns the latencies of the detection.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getDetection() {
+            return detection;
+        }
+
+        /**
+         *  Returns the latencies of the result delivery.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getDelivery() {
+            return delivery;
+        }
+
+        /**
+         *  Returns the latencies of the overlay draw.
+         *
+         * @return      The histogram snapshot.
+         */
+        public LatencyHistogram.Snapshot getDraw() {
+            return draw;
+        }
+
+        /**
+         *  Returns how many frames never reached the detector, for any reason.
+         *
+         * @return      The number of lost frames.
+         */
+        public long getLostFrames() {
+            return skippedFrames + droppedFrames + expiredFrames + rejectedFrames;
+        }
+
+        @Override
+        public String toString() {
+            return "frames: " + receivedFrames + " received, " + processedFrames + " processed, "
+                    + getLostFrames() + " lost, " + unchangedFrames + " unchanged, "
+                    + cachedFrames + " cached; "
+                    + "handoff p50/p95: " + millis(handoff, 50) + "/" + millis(handoff, 95) + "ms, "
+                    + "conversion: " + millis(conversion, 50) + "/" + millis(conversion, 95) + "ms, "
+                    + "gating: " + millis(gating, 50) + "/" + millis(gating, 95) + "ms, "
+                    + "detection: " + millis(detection, 50) + "/" + millis(detection, 95) + "ms, "
+                    + "delivery: " + millis(delivery, 50) + "/" + millis(delivery, 95) + "ms, "
+                    + "draw: " + millis(draw, 50) + "/" + millis(draw, 95) + "ms";
+        }
+
+        private static float millis(LatencyHistogram.Snapshot _snapshot, double _percentile) {
+            return _snapshot.getPercentileNanos(_percentile) / 1000000.0f;
+        }
+    }
+
+}
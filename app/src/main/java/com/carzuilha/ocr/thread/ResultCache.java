@@ -0,0 +1,365 @@
+package com.carzuilha.ocr.thread;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ *  A bounded, least-recently-used cache of detection results, keyed by a perceptual fingerprint of
+ * the converted frames. When the camera pans back over content it has already seen, the frame
+ * fingerprint matches a cached one and the cached results are delivered again, instead of
+ * detecting the frame.
+ *
+ *  The fingerprint is a 64-bit difference hash (dHash): the luminance is reduced to a 9x8 grid of
+ * block means, and each bit tells if a block is brighter than its right neighbour. It ignores
+ * small shifts, noise and exposure changes, and two frames match when their fingerprints differ
+ * in at most a few bits.
+ *
+ *  Since pages with the same layout (or the same page, slightly panned) share most of their
+ * fingerprint, a match is then confirmed with a finer signature: the luminance of a 32x24 grid of
+ * blocks, relative to the mean luminance of the frame. Every block must be within a small
+ * tolerance of the cached one, so different text or shifted lines don't reuse the results. The
+ * cache holds at most a fixed number of results, and is safe to use from any thread.
+ */
+@SuppressWarnings("rawtypes")
+public class ResultCache {
+
+    //  The size of the grid of block means of the fingerprint.
+    private static final int HASH_COLUMNS = 9;
+    private static final int HASH_ROWS = 8;
+
+    //  The size of the grid of block means of the signature, and the largest difference of
+    // relative luminance between two matching blocks.
+    private static final int SIGNATURE_COLUMNS = 32;
+    private static final int SIGNATURE_ROWS = 24;
+    private static final int SIGNATURE_TOLERANCE = 12;
+
+    //  The size of a signature, in bytes.
+    public static final int SIGNATURE_SIZE = SIGNATURE_COLUMNS * SIGNATURE_ROWS;
+
+    //  The largest number of different bits between two matching fingerprints.
+    private final int maxDistance;
+
+    //  The cached entries: fingerprints, signatures, results and the last time each one was used.
+    // Empty entries have no results.
+    private final long[] fingerprints;
+    private final byte[][] signatures;
+    private final Detector.Detections[] results;
+    private final long[] lastUsed;
+    private long clock = 0;
+
+    //  The cache statistics.
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the cache and sets its parameters.
+     *
+     * @param   _capacity       The maximum number of cached results.
+     * @param   _maxDistance    The largest number of different bits (from 0 to 64) between the
+     *                          fingerprints of two matching frames.
+     */
+    public ResultCache(int _capacity, int _maxDistance) {
+
+        if (_capacity < 1) {
+            throw new IllegalArgumentException("Invalid cache capacity: " + _capacity);
+        }
+        if (_maxDistance < 0 || _maxDistance > 64) {
+            throw new IllegalArgumentException("Invalid fingerprint distance: " + _maxDistance);
+        }
+
+        maxDistance = _maxDistance;
+        fingerprints = new long[_capacity];
+        signatures = new byte[_capacity][SIGNATURE_SIZE];
+        results = new Detector.Detections[_capacity];
+        lastUsed = new long[_capacity];
+    }
+
+    /**
+     *  Returns the maximum number of cached results.
+     *
+     * @return      The cache capacity.
+     */
+    public int getCapacity() {
+        return results.length;
+    }
+
+    /**
+     *  Returns the largest number of different bits between two matching fingerprints.
+     *
+     * @return      The fingerprint distance.
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     *  Returns how many results are cached.
+     *
+     * @return      The number of cached results.
+     */
+    public synchronized int size() {
+
+        int size = 0;
+
+        for (Detector.Detections result : results) {
+            if (result != null) size++;
+        }
+
+        return size;
+    }
+
+    /**
+     *  Returns how many lookups found cached results.
+     *
+     * @return      The number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     *  Returns how many lookups found no cached results.
+     *
+     * @return      The number of misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     *  Returns how many results were removed to make room for newer ones.
+     *
+     * @return      The number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     *  Looks for the results of a frame with a matching fingerprint and signature (the closest
+     * fingerprint, if there are many), and marks them as recently used.
+     *
+     * @param   _fingerprint    The fingerprint of the frame.
+     * @param   _signature      The signature of the frame.
+     * @return                  The cached results, or null if there are none.
+     */
+    public synchronized Detector.Detections get(long _fingerprint, byte[] _signature) {
+
+        int index = find(_fingerprint, _signature);
+
+        if (index < 0) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        lastUsed[index] = ++clock;
+
+        return results[index];
+    }
+
+    /**
+     *  Caches the results of a frame. They replace the results of a matching frame, or else those
+     * least recently used, if the cache is full.
+     *
+     * @param   _fingerprint    The fingerprint of the frame.
+     * @param   _signature      The signature of the frame, which is copied.
+     * @param   _detections     The results of the frame.
+     */
+    public synchronized void put(long _fingerprint, byte[] _signature, Detector.Detections _detections) {
+
+        if (_detections == null) return;
+
+        int index = find(_fingerprint, _signature);
+
+        if (index < 0) {
+
+            index = 0;
+
+            for (int i = 0; i < results.length; i++) {
+
+                if (results[i] == null) {
+                    index = i;
+                    break;
+                }
+                if (lastUsed[i] < lastUsed[index]) {
+                    index = i;
+                }
+            }
+
+            if (results[index] != null) {
+                evictionCount++;
+            }
+        }
+
+        fingerprints[index] = _fingerprint;
+        System.arraycopy(_signature, 0, signatures[index], 0, SIGNATURE_SIZE);
+        results[index] = _detections;
+        lastUsed[index] = ++clock;
+    }
+
+    /**
+     *  Removes every cached result.
+     */
+    public synchronized void clear() {
+
+        for (int i = 0; i < results.length; i++) {
+            results[i] = null;
+        }
+    }
+
+    /**
+     *  Computes the fingerprint of a luminance plane, without allocating.
+     *
+     * @param   _luma           The luminance plane.
+     * @param   _width          The plane width.
+     * @param   _height         The plane height.
+     * @return                  The 64-bit difference hash of the plane.
+     */
+    public static long fingerprint(byte[] _luma, int _width, int _height) {
+
+        long hash = 0;
+
+        for (int row = 0; row < HASH_ROWS; row++) {
+
+            int top = row * _height / HASH_ROWS;
+            int bottom = Math.max(top + 1, (row + 1) * _height / HASH_ROWS);
+            int previous = blockMean(_luma, _width, 0, top, _width / HASH_COLUMNS, bottom);
+
+            for (int column = 1; column < HASH_COLUMNS; column++) {
+
+                int left = column * _width / HASH_COLUMNS;
+                int right = Math.max(left + 1, (column + 1) * _width / HASH_COLUMNS);
+                int mean = blockMean(_luma, _width, left, top, right, bottom);
+
+                hash = (hash << 1) | ((previous > mean) ? 1 : 0);
+                previous = mean;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     *  Computes the signature of a luminance plane, without allocating: the mean luminance of each
+     * block of a fine grid, relative to the mean luminance of the plane (centered on 128).
+     *
+     * @param   _luma           The luminance plane.
+     * @param   _width          The plane width.
+     * @param   _height         The plane height.
+     * @param   _signature      The array that receives the signature, of SIGNATURE_SIZE bytes.
+     */
+    public static void signature(byte[] _luma, int _width, int _height, byte[] _signature) {
+
+        if (_signature.length < SIGNATURE_SIZE) {
+            throw new IllegalArgumentException("Invalid signature size: " + _signature.length);
+        }
+
+        int sum = 0;
+
+        for (int row = 0; row < SIGNATURE_ROWS; row++) {
+
+            int top = row * _height / SIGNATURE_ROWS;
+            int bottom = Math.max(top + 1, (row + 1) * _height / SIGNATURE_ROWS);
+
+            for (int column = 0; column < SIGNATURE_COLUMNS; column++) {
+
+                int left = column * _width / SIGNATURE_COLUMNS;
+                int right = Math.max(left + 1, (column + 1) * _width / SIGNATURE_COLUMNS);
+                int mean = blockMean(_luma, _width, left, top, right, bottom);
+
+                _signature[row * SIGNATURE_COLUMNS + column] = (byte) mean;
+                sum += mean;
+            }
+        }
+
+        int offset = 128 - sum / SIGNATURE_SIZE;
+
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            _signature[i] = (byte) Math.max(0, Math.min(255, (_signature[i] & 0xFF) + offset));
+        }
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Returns the index of the cached entry whose fingerprint is closest to the given one, among
+     * those whose signature matches the given one.
+     *
+     * @param   _fingerprint    The fingerprint.
+     * @param   _signature      The signature.
+     * @return                  The index of the entry, or -1 if no entry is close enough.
+     */
+    private int find(long _fingerprint, byte[] _signature) {
+
+        int index = -1;
+        int distance = maxDistance + 1;
+
+        for (int i = 0; i < results.length; i++) {
+
+            if (results[i] == null) continue;
+
+            int d = Long.bitCount(fingerprints[i] ^ _fingerprint);
+
+            if (d < distance && matches(signatures[i], _signature)) {
+                index = i;
+                distance = d;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     *  Tells if every block of two signatures is within the tolerance of each other.
+     *
+     * @param   _first          The first signature.
+     * @param   _second         The second signature.
+     * @return                  'true' if the signatures match, 'false' otherwise.
+     */
+    private static boolean matches(byte[] _first, byte[] _second) {
+
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if (Math.abs((_first[i] & 0xFF) - (_second[i] & 0xFF)) > SIGNATURE_TOLERANCE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *  Returns the mean luminance of a block of a plane.
+     *
+     * @param   _luma           The luminance plane.
+     * @param   _width          The plane width.
+     * @param   _left           The left edge of the block (inclusive).
+     * @param   _top            The top edge of the block (inclusive).
+     * @param   _right          The right edge of the block (exclusive).
+     * @param   _bottom         The bottom edge of the block (exclusive).
+     * @return                  The mean luminance.
+     */
+    private static int blockMean(byte[] _luma, int _width, int _left, int _top, int _right, int _bottom) {
+
+        int right = Math.max(_left + 1, Math.min(_right, _width));
+        int sum = 0;
+
+        for (int y = _top; y < _bottom; y++) {
+
+            int row = y * _width;
+
+            for (int x = _left; x < right; x++) {
+                sum += _luma[row + x] & 0xFF;
+            }
+        }
+
+        return sum / ((_bottom - _top) * (right - _left));
+    }
+
+}
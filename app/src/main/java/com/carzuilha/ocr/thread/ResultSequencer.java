@@ -0,0 +1,430 @@
+package com.carzuilha.ocr.thread;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ *  Delivers the results of concurrent detection workers to the processor in frame order. Each
+ * dispatched frame takes a sequence number, and its results are either held until the results of
+ * all the earlier frames are delivered (ORDERED), or delivered right away unless newer results
+ * were already delivered (DROP_STALE).
+ *
+ *  The processor is called outside the lock, by a single thread at a time: the thread that
+ * completes a result either delivers it (with any results made deliverable while it does), or
+ * leaves it to the thread already delivering, so the order is kept and the other workers never
+ * wait for the processor. In order, no more frames than the capacity may wait for their turn:
+ * nextSequence() waits while the oldest one is still being detected.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ResultSequencer {
+
+    //  Defines the delivery policies.
+    public static final int ORDERED = 0;
+    public static final int DROP_STALE = 1;
+
+    //  The processor that receives the results, and the delivery policy.
+    private final Detector.Processor processor;
+    private final int policy;
+
+    //  The results completed ahead of their turn (ORDERED), indexed by sequence number, or the
+    // newest result not delivered yet in the first slot (DROP_STALE).
+    private final Detector.Detections[] pending;
+    private final boolean[] completed;
+    private final boolean[] repeated;
+    private final DirtyRegion[] regions;
+
+    //  The last results delivered, which are delivered again for the frames that didn't change.
+    private Detector.Detections lastDetections;
+
+    //  The next sequence number to be dispatched, and the last one delivered.
+    private long nextSequence = 0;
+    private long nextDelivery = 0;
+    private long lastDelivered = -1;
+
+    //  If a thread is delivering results, and the number of resets, so the results taken before
+    // the last reset don't become the last results.
+    private boolean delivering = false;
+    private int generation = 0;
+
+    //  The region of the result being delivered (used only by the delivering thread).
+    private final DirtyRegion deliveryRegion = new DirtyRegion(TileGrid.MAX_RECTS);
+
+    //  The grid told when results are lost, so the changes they held are recognized again (may
+    // be null).
+    private volatile TileGrid tileGrid;
+
+    //  The time the processor spends receiving each result (may be null).
+    private final StageTimer deliveryTimer;
+
+    //  The delivery statistics.
+    private long deliveredCount = 0;
+    private long discardedCount = 0;
+    private long repeatedCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the sequencer and sets its parameters.
+     *
+     * @param   _processor      The processor that receives the results.
+     * @param   _policy         The delivery policy (ORDERED or DROP_STALE).
+     * @param   _capacity       The maximum number of frames dispatched but not completed yet.
+     * @param   _deliveryTimer  Receives the time spent by the processor on each result, or null.
+     */
+    public ResultSequencer(Detector.Processor<?> _processor, int _policy, int _capacity,
+                           StageTimer _deliveryTimer) {
+
+        if (_policy != ORDERED && _policy != DROP_STALE) {
+            throw new IllegalArgumentException("Invalid result policy: " + _policy);
+        }
+
+        processor = _processor;
+        policy = _policy;
+        pending = new Detector.Detections[_capacity];
+        completed = new boolean[_capacity];
+        repeated = new boolean[_capacity];
+        regions = new DirtyRegion[_capacity];
+
+        for (int i = 0; i < _capacity; i++) {
+            regions[i] = new DirtyRegion(TileGrid.MAX_RECTS);
+        }
+        deliveryTimer = _deliveryTimer;
+    }
+
+    /**
+     *  Assigns the next sequence number to a dispatched frame. In order, waits while the frames
+     * waiting for their turn fill the capacity, so a frame never takes the place of an earlier one.
+     *
+     * @return                  The sequence number.
+     * @throws  InterruptedException    If the thread was interrupted while waiting.
+     */
+    public synchronized long nextSequence() throws InterruptedException {
+
+        while (policy == ORDERED && nextSequence - nextDelivery >= pending.length) {
+            wait();
+        }
+
+        return nextSequence++;
+    }
+
+    /**
+     *  Sets the tile grid that must recognize a whole frame again whenever the results of a frame
+     * are lost (the detection failed, or they were discarded without being delivered).
+     *
+     * @param   _tileGrid       The tile grid, or null.
+     */
+    public void setTileGrid(TileGrid _tileGrid) {
+        tileGrid = _tileGrid;
+    }
+
+    /**
+     *  Forgets the frames dispatched but never completed (e.g., when the pipeline stops), so the
+     * next frames are not held waiting for them.
+     */
+    public synchronized void reset() {
+
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = null;
+            completed[i] = false;
+            repeated[i] = false;
+            regions[i].clear();
+        }
+
+        lastDetections = null;
+        nextDelivery = nextSequence;
+        lastDelivered = nextSequence - 1;
+        generation++;
+
+        notifyAll();
+    }
+
+    /**
+     *  Receives the results of a frame, delivering them (and any results that were waiting for
+     * them) according to the policy.
+     *
+     * @param   _sequence       The sequence number of the frame.
+     * @param   _detections     The results, or null if the detection failed.
+     */
+    public void complete(long _sequence, Detector.Detections<?> _detections) {
+        complete(_sequence, _detections, null, false);
+    }
+
+    /**
+     *  Receives the results of a frame recognized only inside a region. When they are delivered,
+     * the last results found outside the region are carried forward into them.
+     *
+     * @param   _sequence       The sequence number of the frame.
+     * @param   _detections     The results found inside the region, or null if the detection
+     *                          failed.
+     * @param   _region         The recognized region (empty if the whole frame was recognized).
+     *                          It is copied, so the caller may reuse it.
+     */
+    public void complete(long _sequence, Detector.Detections<?> _detections, DirtyRegion _region) {
+        complete(_sequence, _detections, _region, false);
+    }
+
+    /**
+     *  Completes a frame that didn't change since the last detected one, without detecting it:
+     * the last results are delivered again, once it is the frame's turn.
+     *
+     * @param   _sequence       The sequence number of the frame.
+     */
+    public void repeat(long _sequence) {
+        complete(_sequence, null, null, true);
+    }
+
+    /**
+     *  Checks if the turn of a frame is over: its results were delivered, or superseded by newer
+     * ones.
+     *
+     * @param   _sequence       The sequence number of the frame.
+     * @return                  'true' if the turn of the frame is over, 'false' otherwise.
+     */
+    public synchronized boolean isDelivered(long _sequence) {
+        return _sequence <= lastDelivered;
+    }
+
+    /**
+     *  Returns how many results were delivered to the processor.
+     *
+     * @return      The number of delivered results.
+     */
+    public synchronized long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     *  Returns how many results were discarded, because newer results were already delivered.
+     *
+     * @return      The number of discarded results.
+     */
+    public synchronized long getDiscardedCount() {
+        return discardedCount;
+    }
+
+    /**
+     *  Returns how many results were delivered again for frames that didn't change.
+     *
+     * @return      The number of repeated results.
+     */
+    public synchronized long getRepeatedCount() {
+        return repeatedCount;
+    }
+
+    /**
+     *  Releases the processor.
+     */
+    public void release() {
+        processor.release();
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Receives the results of a frame, and delivers them (and any results that were waiting for
+     * them) according to the policy, unless another thread is already delivering.
+     *
+     * @param   _sequence       The sequence number of the frame.
+     * @param   _detections     The results, or null if the detection failed.
+     * @param   _region         The recognized region, or null if the whole frame was recognized.
+     * @param   _repeat         'true' to deliver the last results again instead.
+     */
+    private void complete(long _sequence, Detector.Detections _detections, DirtyRegion _region,
+                          boolean _repeat) {
+
+        synchronized (this) {
+
+            if (!store(_sequence, _detections, _region, _repeat) || delivering) return;
+
+            delivering = true;
+        }
+
+        boolean done = false;
+
+        try {
+            deliverAll();
+            done = true;
+        } finally {
+
+            //  If the processor failed, the next completion delivers what is left.
+            if (!done) {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    /**
+     *  Stores the results of a frame until they are delivered. Called with the lock held.
+     *
+     * @param   _sequence       The sequence number of the frame.
+     * @param   _detections     The results, or null if the detection failed.
+     * @param   _region         The recognized region, or null if the whole frame was recognized.
+     * @param   _repeat         'true' to deliver the last results again instead.
+     * @return                  'true' if the results were stored, 'false' if they were dropped.
+     */
+    private boolean store(long _sequence, Detector.Detections _detections, DirtyRegion _region,
+                          boolean _repeat) {
+
+        int index;
+
+        if (_detections == null && !_repeat) {
+            resultLost();
+        }
+
+        if (policy == DROP_STALE) {
+
+            if (_sequence <= lastDelivered) {
+                if (_detections != null) {
+                    discardedCount++;
+                    resultLost();
+                }
+                return false;
+            }
+
+            //  Newer results replace those that weren't delivered yet.
+            if (completed[0] && pending[0] != null) {
+                discardedCount++;
+                resultLost();
+            }
+
+            lastDelivered = _sequence;
+            index = 0;
+
+        } else {
+
+            //  A frame whose turn is already over can't be delivered again.
+            if (_sequence < nextDelivery) return false;
+
+            index = (int) (_sequence % pending.length);
+        }
+
+        pending[index] = _detections;
+        completed[index] = true;
+        repeated[index] = _repeat;
+        regions[index].set(_region);
+
+        return true;
+    }
+
+    /**
+     *  Tells the tile grid that the results of a frame were lost, so the changes found in that
+     * frame are not taken as recognized.
+     */
+    private void resultLost() {
+
+        TileGrid grid = tileGrid;
+
+        if (grid != null) {
+            grid.invalidate();
+        }
+    }
+
+    /**
+     *  Sends every deliverable result to the processor, in order, until there is none left. Only
+     * a single thread delivers at a time, without holding the lock.
+     */
+    private void deliverAll() {
+
+        Detector.Detections delivered = null;
+        int deliveredGeneration = 0;
+
+        while (true) {
+
+            Detector.Detections detections;
+            Detector.Detections last;
+            int index;
+
+            synchronized (this) {
+
+                //  The results just delivered become the last results, unless they were reset.
+                if (delivered != null && deliveredGeneration == generation) {
+                    lastDetections = delivered;
+                }
+
+                index = nextIndex();
+
+                if (index < 0) {
+                    delivering = false;
+                    return;
+                }
+
+                detections = pending[index];
+                last = lastDetections;
+
+                if (repeated[index]) {
+                    detections = last;
+                    if (detections != null) repeatedCount++;
+                    deliveryRegion.clear();
+                } else {
+                    deliveryRegion.set(regions[index]);
+                }
+
+                pending[index] = null;
+                completed[index] = false;
+                repeated[index] = false;
+                regions[index].clear();
+
+                if (detections != null) deliveredCount++;
+                deliveredGeneration = generation;
+            }
+
+            delivered = deliver(detections, last);
+        }
+    }
+
+    /**
+     *  Takes the place of the next result to be delivered. Called with the lock held.
+     *
+     * @return                  The index of the result, or -1 if none can be delivered yet.
+     */
+    private int nextIndex() {
+
+        if (policy == DROP_STALE) {
+            return completed[0] ? 0 : -1;
+        }
+
+        int index = (int) (nextDelivery % pending.length);
+
+        if (!completed[index]) return -1;
+
+        lastDelivered = nextDelivery++;
+
+        //  A place in the order was freed for the next frame.
+        notifyAll();
+
+        return index;
+    }
+
+    /**
+     *  Sends a result to the processor. Called by the delivering thread, without the lock.
+     *
+     * @param   _detections     The result, or null if there is nothing to deliver.
+     * @param   _last           The last results delivered, or null if there are none.
+     * @return                  The result sent, or null if there was none.
+     */
+    private Detector.Detections deliver(Detector.Detections _detections, Detector.Detections _last) {
+
+        if (_detections == null) return null;
+
+        //  The results of part of a frame are completed with the last results found elsewhere.
+        if (deliveryRegion.isPartial()) {
+            _detections = deliveryRegion.merge(_last, _detections);
+        }
+
+        long start = System.nanoTime();
+
+        processor.receiveDetections(_detections);
+
+        if (deliveryTimer != null) {
+            deliveryTimer.record(System.nanoTime() - start);
+        }
+
+        return _detections;
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.carzuilha.ocr.thread;
+
+/**
+ *  Decides if a frame shows something new, so static scenes (e.g., the camera held over the same
+ * page) are not recognized again on every frame. Each frame is reduced to a signature: the mean
+ * luminance of each block of a fixed grid. The frame has changed when any block moved by more
+ * than the threshold since the last frame that was sent to the detector, or when the refresh
+ * interval is over. The refresh may be held (e.g., while every block in view has a settled text),
+ * so a static scene is then never recognized again.
+ *
+ *  The signatures are compared against the last detected frame rather than the previous one, so
+ * slow drifts add up until they are detected. Both signatures are preallocated and swapped, so
+ * evaluation is allocation-free. It is done only by the processing thread; the counters may be
+ * read by any thread.
+ */
+public class SceneChangeGate {
+
+    //  The number of blocks of the signature grid, along each dimension.
+    public static final int GRID_SIZE = 16;
+
+    //  The largest change of a block mean, in luminance levels, for a frame to be unchanged, and
+    // the longest time a frame may go without being detected.
+    private final int threshold;
+    private final long refreshNanos;
+
+    //  The signatures of the last detected frame and of the current frame.
+    private int[] reference = new int[GRID_SIZE * GRID_SIZE];
+    private int[] signature = new int[GRID_SIZE * GRID_SIZE];
+
+    //  The size and the detection time of the last detected frame (no frame was detected while the
+    // width is -1).
+    private int referenceWidth = -1;
+    private int referenceHeight = -1;
+    private long referenceNanos = 0;
+
+    //  Suspends the forced refresh, while the last detections are known to be final.
+    private volatile boolean refreshHeld = false;
+
+    //  The frame counters.
+    private volatile long changedCount = 0;
+    private volatile long unchangedCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the gate and sets its parameters.
+     *
+     * @param   _threshold      The largest change of a block mean luminance (from 0 to 255) for
+     *                          the frame to be considered unchanged.
+     * @param   _refreshMillis  The longest time the frames may go without being detected, even if
+     *                          nothing changed.
+     */
+    public SceneChangeGate(int _threshold, long _refreshMillis) {
+
+        if (_threshold < 0 || _threshold > 255) {
+            throw new IllegalArgumentException("Invalid scene change threshold: " + _threshold);
+        }
+        if (_refreshMillis <= 0) {
+            throw new IllegalArgumentException("Invalid refresh interval: " + _refreshMillis + " ms");
+        }
+
+        threshold = _threshold;
+        refreshNanos = _refreshMillis * 1000000L;
+    }
+
+    /**
+     *  Returns the largest change of a block mean luminance for an unchanged frame.
+     *
+     * @return      The threshold, in luminance levels.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     *  Returns the longest time the frames may go without being detected.
+     *
+     * @return      The refresh interval, in milliseconds.
+     */
+    public long getRefreshMillis() {
+        return refreshNanos / 1000000L;
+    }
+
+    /**
+     *  Returns how many frames were sent to the detector.
+     *
+     * @return      The number of changed frames.
+     */
+    public long getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     *  Returns how many frames reused the last detections.
+     *
+     * @return      The number of unchanged frames.
+     */
+    public long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     *  Holds or resumes the forced refresh. While held, only frames that changed are detected.
+     * May be called by any thread.
+     *
+     * @param   _held           'true' to hold the refresh, 'false' to resume it.
+     */
+    public void setRefreshHeld(boolean _held) {
+        refreshHeld = _held;
+    }
+
+    /**
+     *  Returns if the forced refresh is held.
+     *
+     * @return      'true' if only changed frames are detected, 'false' otherwise.
+     */
+    public boolean isRefreshHeld() {
+        return refreshHeld;
+    }
+
+    /**
+     *  Forgets the last detected frame, so the next frame is always detected.
+     */
+    public void reset() {
+        referenceWidth = -1;
+    }
+
+    /**
+     *  Decides if a frame must be sent to the detector. When it must, the frame becomes the new
+     * reference. Called only by the processing thread.
+     *
+     * @param   _luma           The frame, whose first bytes are the luminance plane.
+     * @param   _width          The frame width.
+     * @param   _height         The frame height.
+     * @param   _nowNanos       The current time, from System.nanoTime().
+     * @return                  'true' if the frame changed (or must be refreshed), 'false' if the
+     *                          last detections still hold.
+     */
+    public boolean hasChanged(byte[] _luma, int _width, int _height, long _nowNanos) {
+
+        computeSignature(_luma, _width, _height, GRID_SIZE, signature);
+
+        boolean changed = _width != referenceWidth
+                || _height != referenceHeight
+                || (!refreshHeld && _nowNanos - referenceNanos >= refreshNanos)
+                || maxDifference(signature, reference) > threshold;
+
+        if (!changed) {
+            unchangedCount = unchangedCount + 1;
+            return false;
+        }
+
+        int[] previous = reference;
+
+        reference = signature;
+        signature = previous;
+        referenceWidth = _width;
+        referenceHeight = _height;
+        referenceNanos = _nowNanos;
+        changedCount = changedCount + 1;
+
+        return true;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Computes the mean luminance of each block of a grid. Frames smaller than the grid leave
+     * some blocks empty, with a mean of 0.
+     *
+     * @param   _luma           The luminance plane.
+     * @param   _width          The plane width.
+     * @param   _height         The plane height.
+     * @param   _gridSize       The number of blocks along each dimension.
+     * @param   _signature      Receives the block means, row by row.
+     */
+    static void computeSignature(byte[] _luma, int _width, int _height, int _gridSize, int[] _signature) {
+
+        for (int blockY = 0; blockY < _gridSize; blockY++) {
+
+            int top = blockY * _height / _gridSize;
+            int bottom = (blockY + 1) * _height / _gridSize;
+
+            for (int blockX = 0; blockX < _gridSize; blockX++) {
+
+                int left = blockX * _width / _gridSize;
+                int right = (blockX + 1) * _width / _gridSize;
+                int count = (bottom - top) * (right - left);
+                int sum = 0;
+
+                for (int y = top; y < bottom; y++) {
+
+                    int row = y * _width;
+
+                    for (int x = left; x < right; x++) {
+                        sum += _luma[row + x] & 0xFF;
+                    }
+                }
+
+                _signature[blockY * _gridSize + blockX] = (count > 0) ? sum / count : 0;
+            }
+        }
+    }
+
+    /**
+     *  Returns the largest difference between the block means of two signatures.
+     *
+     * @param   _a              The first signature.
+     * @param   _b              The second signature.
+     * @return                  The largest difference, in luminance levels.
+     */
+    static int maxDifference(int[] _a, int[] _b) {
+
+        int max = 0;
+
+        for (int i = 0; i < _a.length; i++) {
+            max = Math.max(max, Math.abs(_a[i] - _b[i]));
+        }
+
+        return max;
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.carzuilha.ocr.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Accumulates the durations of a pipeline stage: how many times it ran, its total and its
+ * maximum duration. A timer may be shared by the threads of a stage (e.g., the detection
+ * workers), and read by any thread.
+ */
+public class StageTimer {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     *  Records a single duration.
+     *
+     * @param   _nanos          The duration, in nanoseconds.
+     */
+    public void record(long _nanos) {
+
+        count.incrementAndGet();
+        totalNanos.addAndGet(_nanos);
+
+        long max = maxNanos.get();
+
+        while (_nanos > max && !maxNanos.compareAndSet(max, _nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     *  Returns how many durations were recorded.
+     *
+     * @return      The number of durations.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     *  Returns the total of the recorded durations.
+     *
+     * @return      The total duration, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     *  Returns the longest recorded duration.
+     *
+     * @return      The maximum duration, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     *  Returns the average of the recorded durations.
+     *
+     * @return      The average duration, in nanoseconds.
+     */
+    public long getAverageNanos() {
+
+        long n = count.get();
+
+        return (n == 0) ? 0 : totalNanos.get() / n;
+    }
+
+}
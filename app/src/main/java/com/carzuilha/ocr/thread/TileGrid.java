@@ -0,0 +1,343 @@
+package com.carzuilha.ocr.thread;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *  Finds the part of a converted frame that changed since it was last recognized, so only that
+ * part is recognized again. The frame is divided in a grid of tiles, each one with a signature
+ * (its mean luminance). The tiles whose signature moved by more than the threshold are dirty;
+ * they are grown by one tile on every side, so text crossing their edges is recognized whole,
+ * and merged into as few rectangles as possible.
+ *
+ *  The recognizer needs the results in frame coordinates, so the frame is not cropped: the clean
+ * tiles are painted flat gray instead, which the recognizer skips quickly. The whole frame is
+ * still recognized when most of it changed, and at least once per refresh interval, so the
+ * results never drift for long. Evaluation is allocation-free and done only by the processing
+ * thread; the counters may be read by any thread.
+ *
+ *  The reference signatures change when a frame is converted, before its results are delivered.
+ * When the results of a frame are lost (the detection failed, or they were superseded before being
+ * delivered), the grid is invalidated, so the next frame is recognized whole and the changes the
+ * lost frame held are not missed.
+ */
+public class TileGrid {
+
+    //  The number of tiles along each dimension, and the most rectangles a dirty region needs
+    // (every other tile of each row).
+    public static final int GRID_SIZE = 8;
+    public static final int MAX_RECTS = GRID_SIZE * GRID_SIZE / 2;
+
+    //  The luminance of the painted tiles (also a neutral chroma).
+    private static final byte FLAT_GRAY = (byte) 128;
+
+    //  The largest change of a tile mean luminance for the tile to be clean, the largest fraction
+    // of dirty tiles for a partial recognition, and the longest time between full recognitions.
+    private final int threshold;
+    private final float maxDirtyFraction;
+    private final long refreshNanos;
+
+    //  The tile signatures as last recognized, and of the current frame.
+    private final int[] reference = new int[GRID_SIZE * GRID_SIZE];
+    private final int[] signature = new int[GRID_SIZE * GRID_SIZE];
+
+    //  The dirty tiles of the current frame, before and after growing them.
+    private final boolean[] changed = new boolean[GRID_SIZE * GRID_SIZE];
+    private final boolean[] dirty = new boolean[GRID_SIZE * GRID_SIZE];
+
+    //  The size and the time of the last full recognition (there was none while the width is -1).
+    private int referenceWidth = -1;
+    private int referenceHeight = -1;
+    private long referenceNanos = 0;
+
+    //  If the next frame must be recognized whole, since the results of a frame were lost.
+    private final AtomicBoolean invalid = new AtomicBoolean(false);
+
+    //  The frame counters.
+    private volatile long fullCount = 0;
+    private volatile long partialCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the grid and sets its parameters.
+     *
+     * @param   _threshold          The largest change of a tile mean luminance (from 0 to 255)
+     *                              for the tile to be clean.
+     * @param   _maxDirtyFraction   The largest fraction of dirty tiles (from 0 to 1) for a frame
+     *                              to be partially recognized.
+     * @param   _refreshMillis      The longest time between two full recognitions.
+     */
+    public TileGrid(int _threshold, float _maxDirtyFraction, long _refreshMillis) {
+
+        if (_threshold < 0 || _threshold > 255) {
+            throw new IllegalArgumentException("Invalid tile threshold: " + _threshold);
+        }
+        if (!(_maxDirtyFraction > 0.0f && _maxDirtyFraction <= 1.0f)) {
+            throw new IllegalArgumentException("Invalid dirty fraction: " + _maxDirtyFraction);
+        }
+        if (_refreshMillis <= 0) {
+            throw new IllegalArgumentException("Invalid refresh interval: " + _refreshMillis + " ms");
+        }
+
+        threshold = _threshold;
+        maxDirtyFraction = _maxDirtyFraction;
+        refreshNanos = _refreshMillis * 1000000L;
+    }
+
+    /**
+     *  Returns how many frames were recognized whole.
+     *
+     * @return      The number of full recognitions.
+     */
+    public long getFullCount() {
+        return fullCount;
+    }
+
+    /**
+     *  Returns how many frames were recognized only inside their dirty region.
+     *
+     * @return      The number of partial recognitions.
+     */
+    public long getPartialCount() {
+        return partialCount;
+    }
+
+    /**
+     *  Forgets the last recognized frame, so the next frame is recognized whole.
+     */
+    public void reset() {
+        referenceWidth = -1;
+    }
+
+    /**
+     *  Makes the next frame be recognized whole, e.g., because the results of a partially
+     * recognized frame were lost. May be called by any thread.
+     */
+    public void invalidate() {
+        invalid.set(true);
+    }
+
+    /**
+     *  Finds the dirty region of a frame that is about to be recognized, and paints the rest of
+     * the frame flat gray. Called only by the processing thread.
+     *
+     * @param   _data           The NV21 frame.
+     * @param   _width          The frame width.
+     * @param   _height         The frame height.
+     * @param   _nowNanos       The current time, from System.nanoTime().
+     * @param   _region         Receives the dirty region, or is cleared if the frame must be
+     *                          recognized whole.
+     */
+    public void update(byte[] _data, int _width, int _height, long _nowNanos, DirtyRegion _region) {
+
+        SceneChangeGate.computeSignature(_data, _width, _height, GRID_SIZE, signature);
+
+        _region.clear();
+
+        if (invalid.compareAndSet(true, false)
+                || _width != referenceWidth || _height != referenceHeight
+                || _nowNanos - referenceNanos >= refreshNanos) {
+            setReference(_width, _height, _nowNanos);
+            return;
+        }
+
+        int changedTiles = findDirtyTiles();
+
+        //  A frame with no dirty tiles was let through on purpose (e.g., by a forced refresh), and
+        // one with too many of them is cheaper to recognize whole.
+        if (changedTiles == 0 || changedTiles > maxDirtyFraction * GRID_SIZE * GRID_SIZE) {
+            setReference(_width, _height, _nowNanos);
+            return;
+        }
+
+        //  Only the dirty tiles take the new signatures, so slow drifts of the clean ones add up.
+        for (int i = 0; i < dirty.length; i++) {
+            if (dirty[i]) reference[i] = signature[i];
+        }
+
+        mergeDirtyTiles(_width, _height, _region);
+        paintOutside(_data, _width, _height, _region);
+        partialCount = partialCount + 1;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Takes the current signatures as the reference of a full recognition.
+     *
+     * @param   _width          The frame width.
+     * @param   _height         The frame height.
+     * @param   _nowNanos       The current time.
+     */
+    private void setReference(int _width, int _height, long _nowNanos) {
+
+        System.arraycopy(signature, 0, reference, 0, signature.length);
+
+        referenceWidth = _width;
+        referenceHeight = _height;
+        referenceNanos = _nowNanos;
+        fullCount = fullCount + 1;
+    }
+
+    /**
+     *  Marks the tiles whose signature changed, and grows them by one tile on every side.
+     *
+     * @return                  The number of changed tiles (before growing them).
+     */
+    private int findDirtyTiles() {
+
+        int changedTiles = 0;
+
+        for (int i = 0; i < signature.length; i++) {
+            changed[i] = Math.abs(signature[i] - reference[i]) > threshold;
+            if (changed[i]) changedTiles++;
+        }
+
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+
+                boolean value = false;
+
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(GRID_SIZE - 1, y + 1) && !value; ny++) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(GRID_SIZE - 1, x + 1); nx++) {
+                        if (changed[ny * GRID_SIZE + nx]) {
+                            value = true;
+                            break;
+                        }
+                    }
+                }
+
+                dirty[y * GRID_SIZE + x] = value;
+            }
+        }
+
+        return changedTiles;
+    }
+
+    /**
+     *  Merges the dirty tiles into rectangles: the runs of dirty tiles of each row, and the runs
+     * of the next rows that span the same columns.
+     *
+     * @param   _width          The frame width.
+     * @param   _height         The frame height.
+     * @param   _region         Receives the rectangles, in frame coordinates.
+     */
+    private void mergeDirtyTiles(int _width, int _height, DirtyRegion _region) {
+
+        for (int y = 0; y < GRID_SIZE; y++) {
+
+            int top = tileEdge(y, _height);
+            int bottom = tileEdge(y + 1, _height);
+            int x = 0;
+
+            while (x < GRID_SIZE) {
+
+                if (!dirty[y * GRID_SIZE + x]) {
+                    x++;
+                    continue;
+                }
+
+                int start = x;
+
+                while (x < GRID_SIZE && dirty[y * GRID_SIZE + x]) x++;
+
+                int left = tileEdge(start, _width);
+                int right = tileEdge(x, _width);
+                int i = 0;
+
+                //  Extends the rectangle of the previous row, if it spans the same columns.
+                while (i < _region.count && !(_region.left[i] == left && _region.right[i] == right
+                        && _region.bottom[i] == top)) {
+                    i++;
+                }
+
+                if (i == _region.count) {
+                    _region.left[i] = left;
+                    _region.top[i] = top;
+                    _region.right[i] = right;
+                    _region.count++;
+                }
+
+                _region.bottom[i] = bottom;
+            }
+        }
+    }
+
+    /**
+     *  Paints every pixel outside a region flat gray, in both the luminance and the chroma planes.
+     *
+     * @param   _data           The NV21 frame.
+     * @param   _width          The frame width.
+     * @param   _height         The frame height.
+     * @param   _region         The region to be kept.
+     */
+    static void paintOutside(byte[] _data, int _width, int _height, DirtyRegion _region) {
+
+        int chromaOffset = _width * _height;
+        int chromaStride = 2 * ((_width + 1) / 2);
+
+        for (int y = 0; y < _height; y++) {
+
+            int row = y * _width;
+            int chromaRow = chromaOffset + (y / 2) * chromaStride;
+            boolean chroma = (y % 2 == 0) && chromaRow < _data.length;
+            int x = 0;
+
+            while (x < _width) {
+
+                //  Finds the next kept span of the row, if any.
+                int keepStart = _width;
+                int keepEnd = _width;
+
+                for (int i = 0; i < _region.count; i++) {
+                    if (y >= _region.top[i] && y < _region.bottom[i]
+                            && _region.right[i] > x && Math.max(x, _region.left[i]) < keepStart) {
+                        keepStart = Math.max(x, _region.left[i]);
+                        keepEnd = _region.right[i];
+                    }
+                }
+
+                fill(_data, row + x, row + keepStart);
+
+                //  The last chroma pair of an odd row covers a single pixel.
+                if (chroma) {
+                    int chromaEnd = (keepStart == _width) ? chromaStride : (keepStart & ~1);
+                    fill(_data, chromaRow + (x & ~1), Math.min(_data.length, chromaRow + chromaEnd));
+                }
+
+                x = keepEnd;
+            }
+        }
+    }
+
+    /**
+     *  Paints a range of bytes flat gray.
+     *
+     * @param   _data           The frame.
+     * @param   _from           The first byte.
+     * @param   _to             The byte after the range.
+     */
+    private static void fill(byte[] _data, int _from, int _to) {
+
+        for (int i = _from; i < _to; i++) {
+            _data[i] = FLAT_GRAY;
+        }
+    }
+
+    /**
+     *  Returns the position of a tile edge, aligned to even pixels so the tiles map to whole
+     * chroma samples.
+     *
+     * @param   _index          The edge index (from 0 to GRID_SIZE).
+     * @param   _size           The frame dimension.
+     * @return                  The edge position, in pixels.
+     */
+    private static int tileEdge(int _index, int _size) {
+        return (_index == GRID_SIZE) ? _size : (_index * _size / GRID_SIZE) & ~1;
+    }
+
+}
@@ -0,0 +1,444 @@
+package com.carzuilha.ocr.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  Links the blocks detected in consecutive frames, so each block keeps the same ID while it stays
+ * in view. The blocks of a frame are matched to the existing tracks by the overlap of their
+ * bounding boxes (intersection over union), or by the distance between their centers when they
+ * moved too far to overlap. Tracks that are not matched for a few frames are removed.
+ *
+ *  The association is greedy: every overlapping (or close) pair of track and block gets a score,
+ * and the pairs are taken from the best score down, skipping tracks and blocks already matched.
+ * The pairs are packed in a reused array of longs and sorted in place, so dozens of blocks per
+ * frame are associated in microseconds. The tracker is not thread-safe; it must be updated by a
+ * single thread at a time.
+ *
+ * @param   <T>     The type of the tracked items (e.g., TextBlock).
+ */
+public class BlockTracker<T> {
+
+    //  The largest distance between the centers of two matching blocks that don't overlap enough,
+    // relative to the height of the larger one.
+    private static final float MAX_CENTER_DISTANCE = 1.0f;
+
+    //  The least overlap of two matching blocks, and how many consecutive frames a track may be
+    // missed before it is removed.
+    private final float minOverlap;
+    private final int maxMissedFrames;
+
+    //  The current tracks, those removed by the last update, and the ID of the next new track.
+    private final List<Track<T>> tracks = new ArrayList<>();
+    private final List<Track<T>> removedTracks = new ArrayList<>();
+    private final List<Track<T>> tracksView = Collections.unmodifiableList(tracks);
+    private final List<Track<T>> removedView = Collections.unmodifiableList(removedTracks);
+    private int nextId = 0;
+
+    //  The blocks of the frame being added, and their bounds (4 values per block).
+    private Object[] items = new Object[16];
+    private float[] bounds = new float[16 * 4];
+    private int itemCount = 0;
+
+    //  The scored pairs of tracks and blocks, and which ones were matched.
+    private long[] pairs = new long[64];
+    private boolean[] matchedTracks = new boolean[16];
+    private boolean[] matchedItems = new boolean[16];
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the tracker and sets its parameters.
+     *
+     * @param   _minOverlap         The least intersection over union (from 0 to 1) of two
+     *                              matching blocks.
+     * @param   _maxMissedFrames    How many consecutive frames a track may be missed before it is
+     *                              removed.
+     */
+    public BlockTracker(float _minOverlap, int _maxMissedFrames) {
+
+        if (!(_minOverlap > 0.0f && _minOverlap <= 1.0f)) {
+            throw new IllegalArgumentException("Invalid minimum overlap: " + _minOverlap);
+        }
+        if (_maxMissedFrames < 0) {
+            throw new IllegalArgumentException("Invalid number of missed frames: " + _maxMissedFrames);
+        }
+
+        minOverlap = _minOverlap;
+        maxMissedFrames = _maxMissedFrames;
+    }
+
+    /**
+     *  Returns the current tracks, including those missed in the last frames.
+     *
+     * @return      A read-only view of the tracks.
+     */
+    public List<Track<T>> getTracks() {
+        return tracksView;
+    }
+
+    /**
+     *  Returns the tracks removed by the last update.
+     *
+     * @return      A read-only view of the removed tracks.
+     */
+    public List<Track<T>> getRemovedTracks() {
+        return removedView;
+    }
+
+    /**
+     *  Starts adding the blocks of a new frame.
+     */
+    public void begin() {
+
+        Arrays.fill(items, 0, itemCount, null);
+        itemCount = 0;
+    }
+
+    /**
+     *  Adds a block of the frame.
+     *
+     * @param   _item           The block.
+     * @param   _left           The left edge of the block bounds.
+     * @param   _top            The top edge of the block bounds.
+     * @param   _right          The right edge of the block bounds.
+     * @param   _bottom         The bottom edge of the block bounds.
+     */
+    public void add(T _item, float _left, float _top, float _right, float _bottom) {
+
+        if (itemCount == items.length) {
+            items = Arrays.copyOf(items, itemCount * 2);
+            bounds = Arrays.copyOf(bounds, itemCount * 2 * 4);
+        }
+
+        items[itemCount] = _item;
+        bounds[itemCount * 4] = _left;
+        bounds[itemCount * 4 + 1] = _top;
+        bounds[itemCount * 4 + 2] = _right;
+        bounds[itemCount * 4 + 3] = _bottom;
+        itemCount++;
+    }
+
+    /**
+     *  Matches the blocks of the frame to the tracks: matched tracks take their block, new blocks
+     * start new tracks, and tracks missed for too long are removed.
+     */
+    @SuppressWarnings("unchecked")
+    public void end() {
+
+        int trackCount = tracks.size();
+        int pairCount = scorePairs(trackCount);
+
+        Arrays.sort(pairs, 0, pairCount);
+
+        if (matchedTracks.length < trackCount) matchedTracks = new boolean[trackCount * 2];
+        if (matchedItems.length < itemCount) matchedItems = new boolean[itemCount * 2];
+
+        Arrays.fill(matchedTracks, 0, trackCount, false);
+        Arrays.fill(matchedItems, 0, itemCount, false);
+
+        //  The best pairs come first.
+        for (int p = pairCount - 1; p >= 0; p--) {
+
+            int track = (int) ((pairs[p] >>> 16) & 0xFFFF);
+            int item = (int) (pairs[p] & 0xFFFF);
+
+            if (matchedTracks[track] || matchedItems[item]) continue;
+
+            matchedTracks[track] = true;
+            matchedItems[item] = true;
+
+            tracks.get(track).update((T) items[item], bounds, item * 4);
+        }
+
+        removedTracks.clear();
+
+        for (int i = trackCount - 1; i >= 0; i--) {
+
+            if (matchedTracks[i]) continue;
+
+            Track<T> track = tracks.get(i);
+
+            track.miss();
+
+            if (track.missedFrames > maxMissedFrames) {
+                removedTracks.add(tracks.remove(i));
+            }
+        }
+
+        for (int i = 0; i < itemCount; i++) {
+
+            if (matchedItems[i]) continue;
+
+            Track<T> track = new Track<>(nextId++);
+
+            track.update((T) items[i], bounds, i * 4);
+            tracks.add(track);
+        }
+    }
+
+    /**
+     *  Removes every track.
+     */
+    public void reset() {
+
+        removedTracks.clear();
+        removedTracks.addAll(tracks);
+        tracks.clear();
+    }
+
+    /**
+     *  Computes the intersection over union of two boxes.
+     *
+     * @param   _a              The bounds of the first box.
+     * @param   _aOffset        The offset of the first box bounds (left, top, right, bottom).
+     * @param   _b              The bounds of the second box.
+     * @param   _bOffset        The offset of the second box bounds.
+     * @return                  The intersection over union, from 0 to 1.
+     */
+    public static float overlap(float[] _a, int _aOffset, float[] _b, int _bOffset) {
+
+        float width = Math.min(_a[_aOffset + 2], _b[_bOffset + 2]) - Math.max(_a[_aOffset], _b[_bOffset]);
+        float height = Math.min(_a[_aOffset + 3], _b[_bOffset + 3]) - Math.max(_a[_aOffset + 1], _b[_bOffset + 1]);
+
+        if (width <= 0.0f || height <= 0.0f) return 0.0f;
+
+        float intersection = width * height;
+        float union = area(_a, _aOffset) + area(_b, _bOffset) - intersection;
+
+        return (union > 0.0f) ? intersection / union : 0.0f;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Scores every pair of track and block that may match. Pairs that overlap enough score from
+     * 0.5 to 1 (by their overlap), and pairs whose centers are close score below 0.5 (by their
+     * distance). Each pair is packed as its score bits followed by the track and block indices,
+     * so sorting the packed values sorts the pairs by score.
+     *
+     * @param   _trackCount     The number of tracks.
+     * @return                  The number of scored pairs.
+     */
+    private int scorePairs(int _trackCount) {
+
+        int pairCount = 0;
+
+        for (int i = 0; i < _trackCount; i++) {
+
+            float[] track = tracks.get(i).bounds;
+
+            for (int j = 0; j < itemCount; j++) {
+
+                float score;
+                float iou = overlap(track, 0, bounds, j * 4);
+
+                if (iou >= minOverlap) {
+                    score = 0.5f + iou / 2.0f;
+                } else {
+
+                    float distance = centerDistance(track, 0, bounds, j * 4);
+
+                    if (distance > MAX_CENTER_DISTANCE) continue;
+
+                    score = 0.5f * (1.0f - distance / MAX_CENTER_DISTANCE);
+                }
+
+                if (pairCount == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairCount * 2);
+                }
+
+                pairs[pairCount++] = ((long) Float.floatToIntBits(score) << 32) | ((long) i << 16) | j;
+            }
+        }
+
+        return pairCount;
+    }
+
+    /**
+     *  Computes the distance between the centers of two boxes, relative to the height of the
+     * larger one.
+     *
+     * @param   _a              The bounds of the first box.
+     * @param   _aOffset        The offset of the first box bounds.
+     * @param   _b              The bounds of the second box.
+     * @param   _bOffset        The offset of the second box bounds.
+     * @return                  The relative distance.
+     */
+    private static float centerDistance(float[] _a, int _aOffset, float[] _b, int _bOffset) {
+
+        float dx = (_a[_aOffset] + _a[_aOffset + 2] - _b[_bOffset] - _b[_bOffset + 2]) / 2.0f;
+        float dy = (_a[_aOffset + 1] + _a[_aOffset + 3] - _b[_bOffset + 1] - _b[_bOffset + 3]) / 2.0f;
+        float height = Math.max(_a[_aOffset + 3] - _a[_aOffset + 1], _b[_bOffset + 3] - _b[_bOffset + 1]);
+
+        if (height <= 0.0f) return Float.MAX_VALUE;
+
+        return (float) Math.sqrt(dx * dx + dy * dy) / height;
+    }
+
+    /**
+     *  Computes the area of a box.
+     *
+     * @param   _box            The box bounds.
+     * @param   _offset         The offset of the bounds.
+     * @return                  The box area.
+     */
+    private static float area(float[] _box, int _offset) {
+        return Math.max(0.0f, _box[_offset + 2] - _box[_offset]) * Math.max(0.0f, _box[_offset + 3] - _box[_offset + 1]);
+    }
+
+    //==============================================================================================
+    //                                      Inner classes
+    //==============================================================================================
+
+    /**
+     *  A block followed across frames.
+     *
+     * @param   <T>     The type of the tracked item.
+     */
+    public static class Track<T> {
+
+        //  The track ID, which never changes.
+        private final int id;
+
+        //  The last item matched to the track, and its bounds (left, top, right, bottom).
+        private T item;
+        private final float[] bounds = new float[4];
+
+        //  How many frames the track lived through, in how many of them it was matched, and for
+        // how many consecutive frames it was missed.
+        private int age = 0;
+        private int hits = 0;
+        private int missedFrames = 0;
+
+        /**
+         *  Creates a new track.
+         *
+         * @param   _id             The track ID.
+         */
+        Track(int _id) {
+            id = _id;
+        }
+
+        /**
+         *  Returns the track ID, which stays the same while the block is tracked.
+         *
+         * @return      The track ID.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         *  Returns the last item matched to the track.
+         *
+         * @return      The item.
+         */
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         *  Returns the left edge of the last item bounds.
+         *
+         * @return      The left edge.
+         */
+        public float getLeft() {
+            return bounds[0];
+        }
+
+        /**
+         *  Returns the top edge of the last item bounds.
+         *
+         * @return      The top edge.
+         */
+        public float getTop() {
+            return bounds[1];
+        }
+
+        /**
+         *  Returns the right edge of the last item bounds.
+         *
+         * @return      The right edge.
+         */
+        public float getRight() {
+            return bounds[2];
+        }
+
+        /**
+         *  Returns the bottom edge of the last item bounds.
+         *
+         * @return      The bottom edge.
+         */
+        public float getBottom() {
+            return bounds[3];
+        }
+
+        /**
+         *  Returns how many frames the track lived through, counting the one that created it.
+         *
+         * @return      The track age, in frames.
+         */
+        public int getAge() {
+            return age;
+        }
+
+        /**
+         *  Returns in how many frames the track was matched.
+         *
+         * @return      The number of hits.
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         *  Returns for how many consecutive frames the track was missed.
+         *
+         * @return      The number of missed frames (0 if the track was matched in the last one).
+         */
+        public int getMissedFrames() {
+            return missedFrames;
+        }
+
+        /**
+         *  Returns if the track was created by the last frame.
+         *
+         * @return      'true' if the track is new, 'false' otherwise.
+         */
+        public boolean isNew() {
+            return age == 1;
+        }
+
+        /**
+         *  Matches an item to the track.
+         *
+         * @param   _item           The item.
+         * @param   _bounds         The bounds of the items.
+         * @param   _offset         The offset of the item bounds.
+         */
+        void update(T _item, float[] _bounds, int _offset) {
+
+            item = _item;
+            System.arraycopy(_bounds, _offset, bounds, 0, 4);
+            age++;
+            hits++;
+            missedFrames = 0;
+        }
+
+        /**
+         *  Counts a frame in which the track was missed.
+         */
+        void miss() {
+            age++;
+            missedFrames++;
+        }
+    }
+
+}
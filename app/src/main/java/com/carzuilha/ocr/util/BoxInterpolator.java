@@ -0,0 +1,178 @@
+package com.carzuilha.ocr.util;
+
+/**
+ *  Moves a box smoothly between the positions delivered by the detector, which arrive a few times
+ * per second, so it can be drawn on every vsync without jumping. When a new position arrives, the
+ * box glides from where it is drawn to it, over the time between the captures of the last two
+ * positions. Once there, it keeps moving at the speed of those captures for a short time, and
+ * then stops until the next position arrives.
+ *
+ *  The capture times only matter by their differences, so they may use any clock; the current
+ * times must all come from the same clock. Positions are updated by the detection thread and
+ * sampled by the UI thread; every method is synchronized, and none of them allocates.
+ */
+public class BoxInterpolator {
+
+    //  The shortest and the longest glide (i.e., time between captures) that are used.
+    public static final long MIN_GLIDE_MILLIS = 16;
+    public static final long MAX_GLIDE_MILLIS = 500;
+
+    //  Marks a position without a known capture time, which is drawn at once.
+    public static final long NO_TIMESTAMP = -1;
+
+    //  The longest time the box keeps moving past its last position.
+    private final long maxExtrapolationMillis;
+
+    //  The position the box glides from, the last position and the one before it, and the speed
+    // between them (per millisecond), as left, top, right, bottom.
+    private final float[] from = new float[4];
+    private final float[] to = new float[4];
+    private final float[] velocity = new float[4];
+
+    //  When the glide started and how long it takes, and the capture time of the last position
+    // (no position was received while the capture time is NO_TIMESTAMP).
+    private long startMillis = 0;
+    private long glideMillis = 0;
+    private long captureMillis = NO_TIMESTAMP;
+    private boolean started = false;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the interpolator and sets its parameters.
+     *
+     * @param   _maxExtrapolationMillis     The longest time the box keeps moving past its last
+     *                                      position (0 to stop there).
+     */
+    public BoxInterpolator(long _maxExtrapolationMillis) {
+
+        if (_maxExtrapolationMillis < 0) {
+            throw new IllegalArgumentException("Invalid extrapolation time: " + _maxExtrapolationMillis + " ms");
+        }
+
+        maxExtrapolationMillis = _maxExtrapolationMillis;
+    }
+
+    /**
+     *  Sets the position of the box at once, without gliding, e.g., for a new block.
+     *
+     * @param   _left           The left edge.
+     * @param   _top            The top edge.
+     * @param   _right          The right edge.
+     * @param   _bottom         The bottom edge.
+     * @param   _captureMillis  The capture time of the position, or NO_TIMESTAMP.
+     */
+    public synchronized void reset(float _left, float _top, float _right, float _bottom, long _captureMillis) {
+
+        set(to, _left, _top, _right, _bottom);
+        System.arraycopy(to, 0, from, 0, 4);
+
+        for (int i = 0; i < 4; i++) {
+            velocity[i] = 0.0f;
+        }
+
+        glideMillis = 0;
+        captureMillis = _captureMillis;
+        started = true;
+    }
+
+    /**
+     *  Receives a new position of the box. It glides there from where it is now, unless the time
+     * between the captures is unknown, and then it is moved at once.
+     *
+     * @param   _left           The left edge.
+     * @param   _top            The top edge.
+     * @param   _right          The right edge.
+     * @param   _bottom         The bottom edge.
+     * @param   _captureMillis  The capture time of the position, or NO_TIMESTAMP.
+     * @param   _nowMillis      The current time.
+     */
+    public synchronized void update(float _left, float _top, float _right, float _bottom,
+                                    long _captureMillis, long _nowMillis) {
+
+        long captureDelta = _captureMillis - captureMillis;
+
+        if (!started || _captureMillis == NO_TIMESTAMP || captureMillis == NO_TIMESTAMP
+                || captureDelta <= 0) {
+            reset(_left, _top, _right, _bottom, _captureMillis);
+            return;
+        }
+
+        //  Starts from the position drawn now, so the box never jumps.
+        sample(_nowMillis, from);
+
+        velocity[0] = (_left - to[0]) / captureDelta;
+        velocity[1] = (_top - to[1]) / captureDelta;
+        velocity[2] = (_right - to[2]) / captureDelta;
+        velocity[3] = (_bottom - to[3]) / captureDelta;
+
+        set(to, _left, _top, _right, _bottom);
+
+        startMillis = _nowMillis;
+        glideMillis = Math.max(MIN_GLIDE_MILLIS, Math.min(MAX_GLIDE_MILLIS, captureDelta));
+        captureMillis = _captureMillis;
+    }
+
+    /**
+     *  Computes the position of the box at a time.
+     *
+     * @param   _nowMillis      The current time.
+     * @param   _box            Receives the left, top, right and bottom edges.
+     * @return                  'true' if the box is still moving, 'false' if it stopped.
+     */
+    public synchronized boolean sample(long _nowMillis, float[] _box) {
+
+        long elapsed = Math.max(0, _nowMillis - startMillis);
+
+        if (elapsed < glideMillis) {
+
+            float fraction = (float) elapsed / glideMillis;
+
+            for (int i = 0; i < 4; i++) {
+                _box[i] = from[i] + (to[i] - from[i]) * fraction;
+            }
+
+            return true;
+        }
+
+        long extrapolation = Math.min(elapsed - glideMillis, maxExtrapolationMillis);
+
+        for (int i = 0; i < 4; i++) {
+            _box[i] = to[i] + velocity[i] * extrapolation;
+        }
+
+        return glideMillis > 0 && elapsed - glideMillis < maxExtrapolationMillis && isMoving();
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Checks if the box has any speed.
+     *
+     * @return                  'true' if any edge moves, 'false' otherwise.
+     */
+    private boolean isMoving() {
+        return velocity[0] != 0.0f || velocity[1] != 0.0f || velocity[2] != 0.0f || velocity[3] != 0.0f;
+    }
+
+    /**
+     *  Fills a box.
+     *
+     * @param   _box            The box.
+     * @param   _left           The left edge.
+     * @param   _top            The top edge.
+     * @param   _right          The right edge.
+     * @param   _bottom         The bottom edge.
+     */
+    private static void set(float[] _box, float _left, float _top, float _right, float _bottom) {
+        _box[0] = _left;
+        _box[1] = _top;
+        _box[2] = _right;
+        _box[3] = _bottom;
+    }
+
+}
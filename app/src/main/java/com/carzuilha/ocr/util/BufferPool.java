@@ -0,0 +1,169 @@
+package com.carzuilha.ocr.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *  A bounded pool of array-backed frame buffers, all with the same size. Buffers are created on
+ * demand up to the pool capacity and recycled after that, so the preview pipeline reaches a steady
+ * state without allocations. The pool is lock-free: the camera thread borrows buffers and the
+ * processing thread returns them without ever waiting for each other.
+ *
+ *  The buffers are array-backed (instead of direct) since both the Camera1 callback and the frame
+ * conversions work on byte arrays.
+ */
+public class BufferPool {
+
+    //  The size of each buffer, and the maximum number of buffers created by the pool.
+    private final int bufferSize;
+    private final int capacity;
+
+    //  The buffers available to be borrowed. An empty slot holds null.
+    private final AtomicReferenceArray<ByteBuffer> freeBuffers;
+
+    //  The usage statistics of the pool.
+    private final AtomicInteger createdCount = new AtomicInteger();
+    private final AtomicInteger borrowedCount = new AtomicInteger();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the pool and sets its parameters.
+     *
+     * @param   _bufferSize     The size of each buffer, in bytes.
+     * @param   _capacity       The maximum number of buffers.
+     */
+    public BufferPool(int _bufferSize, int _capacity) {
+
+        if (_bufferSize < 1 || _capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid buffer pool: " + _capacity + " buffers of " + _bufferSize + " bytes");
+        }
+
+        bufferSize = _bufferSize;
+        capacity = _capacity;
+        freeBuffers = new AtomicReferenceArray<>(_capacity);
+    }
+
+    /**
+     *  Borrows a buffer from the pool. A new buffer is created if none is available and the pool
+     * is not full yet.
+     *
+     * @return      A cleared buffer, or null if the pool is exhausted.
+     */
+    public ByteBuffer acquire() {
+
+        ByteBuffer buffer = null;
+
+        for (int i = 0; i < capacity && buffer == null; i++) {
+
+            ByteBuffer free = freeBuffers.get(i);
+
+            if (free != null && freeBuffers.compareAndSet(i, free, null)) {
+                buffer = free;
+            }
+        }
+
+        if (buffer == null) {
+
+            if (createdCount.incrementAndGet() > capacity) {
+                createdCount.decrementAndGet();
+                exhaustedCount.incrementAndGet();
+                return null;
+            }
+
+            buffer = ByteBuffer.wrap(new byte[bufferSize]);
+        }
+
+        int borrowed = borrowedCount.incrementAndGet();
+        int mark = highWaterMark.get();
+
+        while (borrowed > mark && !highWaterMark.compareAndSet(mark, borrowed)) {
+            mark = highWaterMark.get();
+        }
+
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     *  Returns a buffer to the pool. Buffers of a different size are ignored.
+     *
+     * @param   _buffer         The buffer borrowed from the pool.
+     */
+    public void release(ByteBuffer _buffer) {
+
+        if (_buffer == null || _buffer.capacity() != bufferSize) return;
+
+        borrowedCount.decrementAndGet();
+
+        for (int i = 0; i < capacity; i++) {
+            if (freeBuffers.get(i) == null && freeBuffers.compareAndSet(i, null, _buffer)) return;
+        }
+
+        //  The buffer was not created by this pool, and there is no room left for it.
+        borrowedCount.incrementAndGet();
+    }
+
+    /**
+     *  Returns the size of each buffer.
+     *
+     * @return      The buffer size, in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     *  Returns the maximum number of buffers.
+     *
+     * @return      The pool capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     *  Returns how many buffers were created by the pool.
+     *
+     * @return      The number of created buffers.
+     */
+    public int getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     *  Returns how many buffers are currently borrowed.
+     *
+     * @return      The number of borrowed buffers.
+     */
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    /**
+     *  Returns the highest number of buffers borrowed at the same time.
+     *
+     * @return      The high-water mark.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     *  Returns how many times a buffer was requested while the pool was exhausted.
+     *
+     * @return      The number of failed requests.
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+}
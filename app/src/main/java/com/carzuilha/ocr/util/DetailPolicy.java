@@ -0,0 +1,178 @@
+package com.carzuilha.ocr.util;
+
+/**
+ *  Chooses how much detail the overlay draws, so a frame crowded with blocks (e.g., a newspaper
+ * page) still fits its draw-time budget. There are three levels: the full text of every block,
+ * only the block boxes, and only the outlines of the regions holding blocks.
+ *
+ *  The policy keeps an exponential moving average of the draw time per graphic for each level,
+ * and picks the most detailed level whose predicted time for the current number of graphics fits
+ * the budget. A more detailed level is only taken back with some headroom, so the level doesn't
+ * flicker at the edge of the budget. Levels never measured are assumed to be free, so they are
+ * tried first. Used only by the drawing thread; the listener may be set by any thread.
+ */
+public class DetailPolicy {
+
+    //  The detail levels, from the most to the least detailed.
+    public static final int LEVEL_FULL = 0;
+    public static final int LEVEL_BOXES = 1;
+    public static final int LEVEL_REGIONS = 2;
+
+    //  The weight of each new sample in the moving averages.
+    private static final float SMOOTHING = 0.2f;
+
+    //  The fraction of the budget a more detailed level must fit, to be taken back.
+    private static final float HEADROOM = 0.7f;
+
+    /**
+     *  Receives the detail level changes.
+     */
+    public interface Listener {
+
+        /**
+         *  Called when the detail level changes. Called by the drawing thread, so it must not
+         * block.
+         *
+         * @param   _level              The new level (LEVEL_FULL, LEVEL_BOXES or LEVEL_REGIONS).
+         * @param   _averageDrawNanos   The average draw time of the frames, in nanoseconds.
+         */
+        void onLevelChanged(int _level, long _averageDrawNanos);
+    }
+
+    //  The draw time each frame should fit in.
+    private final long budgetNanos;
+
+    //  The average draw time per graphic of each level (0 until measured), and of the frames.
+    private final float[] costNanos = new float[3];
+    private float averageDrawNanos = 0.0f;
+
+    //  The current level.
+    private int level = LEVEL_FULL;
+
+    //  Receives the changes.
+    private Listener listener;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the policy and sets its parameters.
+     *
+     * @param   _budgetNanos    The draw time each frame should fit in, in nanoseconds.
+     */
+    public DetailPolicy(long _budgetNanos) {
+
+        if (_budgetNanos <= 0) {
+            throw new IllegalArgumentException("Invalid draw budget: " + _budgetNanos + " ns");
+        }
+
+        budgetNanos = _budgetNanos;
+    }
+
+    /**
+     *  Sets the listener that receives the level changes.
+     *
+     * @param   _listener       The listener, or null to remove it.
+     */
+    public synchronized void setListener(Listener _listener) {
+        listener = _listener;
+    }
+
+    /**
+     *  Returns the draw time each frame should fit in.
+     *
+     * @return      The budget, in nanoseconds.
+     */
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     *  Returns the current detail level.
+     *
+     * @return      LEVEL_FULL, LEVEL_BOXES or LEVEL_REGIONS.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     *  Returns the average draw time of the frames.
+     *
+     * @return      The average, in nanoseconds.
+     */
+    public long getAverageDrawNanos() {
+        return (long) averageDrawNanos;
+    }
+
+    /**
+     *  Picks the level of the next frame.
+     *
+     * @param   _count          The number of graphics to be drawn.
+     * @return                  The level.
+     */
+    public int select(int _count) {
+
+        int selected = LEVEL_REGIONS;
+
+        for (int candidate = LEVEL_FULL; candidate < LEVEL_REGIONS; candidate++) {
+
+            float limit = (candidate < level) ? budgetNanos * HEADROOM : budgetNanos;
+
+            if (costNanos[candidate] * _count <= limit) {
+                selected = candidate;
+                break;
+            }
+        }
+
+        if (selected != level) {
+
+            Listener listener;
+
+            level = selected;
+
+            synchronized (this) {
+                listener = this.listener;
+            }
+
+            if (listener != null) {
+                listener.onLevelChanged(selected, (long) averageDrawNanos);
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     *  Records the time taken to draw a frame.
+     *
+     * @param   _level          The level the frame was drawn at.
+     * @param   _count          The number of graphics drawn.
+     * @param   _drawNanos      The draw time, in nanoseconds.
+     */
+    public void record(int _level, int _count, long _drawNanos) {
+
+        averageDrawNanos = average(averageDrawNanos, _drawNanos);
+
+        if (_count > 0) {
+            costNanos[_level] = average(costNanos[_level], (float) _drawNanos / _count);
+        }
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Adds a sample to a moving average (the first sample is taken as is).
+     *
+     * @param   _average        The current average.
+     * @param   _sample         The new sample.
+     * @return                  The new average.
+     */
+    private static float average(float _average, float _sample) {
+        return (_average == 0.0f) ? _sample : _average + SMOOTHING * (_sample - _average);
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.carzuilha.ocr.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  A spatial index of rectangles over a uniform grid, to find the items at a point or inside an
+ * area without scanning all of them. Each item is kept in every cell its bounds touch, so a point
+ * query only checks the items of one cell. Items may be moved or removed one by one, touching
+ * only the cells they leave or enter, so the index follows the detections without being rebuilt.
+ *
+ *  Bounds and queries outside the indexed area are clamped to its border cells, so no item is
+ * ever lost. Queries allocate nothing once the result list has grown. Not thread-safe.
+ *
+ * @param   <T>     The type of the indexed items.
+ */
+public class GridIndex<T> {
+
+    //  The number of cells along each dimension, and the size of each cell.
+    private final int columns;
+    private final int rows;
+    private float cellWidth;
+    private float cellHeight;
+
+    //  The entries of each cell, and the entry of each item.
+    private final List<Entry<T>>[] cells;
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+
+    //  Marks the entries already found by the current area query.
+    private int queryStamp = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the index and sets its parameters.
+     *
+     * @param   _columns        The number of cells along the width.
+     * @param   _rows           The number of cells along the height.
+     * @param   _width          The width of the indexed area.
+     * @param   _height         The height of the indexed area.
+     */
+    @SuppressWarnings("unchecked")
+    public GridIndex(int _columns, int _rows, float _width, float _height) {
+
+        if (_columns <= 0 || _rows <= 0) {
+            throw new IllegalArgumentException("Invalid grid size: " + _columns + "x" + _rows);
+        }
+
+        columns = _columns;
+        rows = _rows;
+        cells = new List[_columns * _rows];
+
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new ArrayList<>();
+        }
+
+        setArea(_width, _height);
+    }
+
+    /**
+     *  Returns how many items are indexed.
+     *
+     * @return      The number of items.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     *  Changes the indexed area, e.g., when the preview size changes. Every item is placed again.
+     *
+     * @param   _width          The width of the indexed area.
+     * @param   _height         The height of the indexed area.
+     */
+    public void setArea(float _width, float _height) {
+
+        if (!(_width > 0.0f && _height > 0.0f)) {
+            throw new IllegalArgumentException("Invalid indexed area: " + _width + "x" + _height);
+        }
+
+        cellWidth = _width / columns;
+        cellHeight = _height / rows;
+
+        for (List<Entry<T>> cell : cells) {
+            cell.clear();
+        }
+
+        for (Entry<T> entry : entries.values()) {
+            place(entry);
+            addToCells(entry);
+        }
+    }
+
+    /**
+     *  Adds an item, or moves it if it is already indexed.
+     *
+     * @param   _item           The item.
+     * @param   _left           The left edge of the item bounds.
+     * @param   _top            The top edge of the item bounds.
+     * @param   _right          The right edge of the item bounds (exclusive).
+     * @param   _bottom         The bottom edge of the item bounds (exclusive).
+     */
+    public void put(T _item, float _left, float _top, float _right, float _bottom) {
+
+        Entry<T> entry = entries.get(_item);
+
+        if (entry == null) {
+            entry = new Entry<>(_item);
+            entries.put(_item, entry);
+        } else {
+            removeFromCells(entry);
+        }
+
+        entry.left = _left;
+        entry.top = _top;
+        entry.right = _right;
+        entry.bottom = _bottom;
+
+        place(entry);
+        addToCells(entry);
+    }
+
+    /**
+     *  Removes an item.
+     *
+     * @param   _item           The item.
+     * @return                  'true' if the item was indexed, 'false' otherwise.
+     */
+    public boolean remove(T _item) {
+
+        Entry<T> entry = entries.remove(_item);
+
+        if (entry == null) return false;
+
+        removeFromCells(entry);
+
+        return true;
+    }
+
+    /**
+     *  Removes every item.
+     */
+    public void clear() {
+
+        for (List<Entry<T>> cell : cells) {
+            cell.clear();
+        }
+
+        entries.clear();
+    }
+
+    /**
+     *  Finds the items whose bounds contain a point.
+     *
+     * @param   _x              The point x.
+     * @param   _y              The point y.
+     * @param   _result         Receives the items found (it is not cleared).
+     * @return                  The number of items found.
+     */
+    public int queryPoint(float _x, float _y, List<T> _result) {
+
+        List<Entry<T>> cell = cells[row(_y) * columns + column(_x)];
+        int found = 0;
+
+        for (int i = 0; i < cell.size(); i++) {
+
+            Entry<T> entry = cell.get(i);
+
+            if (_x >= entry.left && _x < entry.right && _y >= entry.top && _y < entry.bottom) {
+                _result.add(entry.item);
+                found++;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     *  Finds the items whose bounds intersect an area.
+     *
+     * @param   _left           The left edge of the area.
+     * @param   _top            The top edge of the area.
+     * @param   _right          The right edge of the area (exclusive).
+     * @param   _bottom         The bottom edge of the area (exclusive).
+     * @param   _result         Receives the items found, once each (it is not cleared).
+     * @return                  The number of items found.
+     */
+    public int queryRect(float _left, float _top, float _right, float _bottom, List<T> _result) {
+
+        int found = 0;
+
+        queryStamp++;
+
+        for (int row = row(_top); row <= row(_bottom); row++) {
+            for (int column = column(_left); column <= column(_right); column++) {
+
+                List<Entry<T>> cell = cells[row * columns + column];
+
+                for (int i = 0; i < cell.size(); i++) {
+
+                    Entry<T> entry = cell.get(i);
+
+                    if (entry.stamp == queryStamp) continue;
+
+                    entry.stamp = queryStamp;
+
+                    if (_left < entry.right && entry.left < _right
+                            && _top < entry.bottom && entry.top < _bottom) {
+                        _result.add(entry.item);
+                        found++;
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Finds the cells touched by the bounds of an entry.
+     *
+     * @param   _entry          The entry.
+     */
+    private void place(Entry<T> _entry) {
+        _entry.firstColumn = column(_entry.left);
+        _entry.firstRow = row(_entry.top);
+        _entry.lastColumn = column(_entry.right);
+        _entry.lastRow = row(_entry.bottom);
+    }
+
+    /**
+     *  Adds an entry to the cells it touches.
+     *
+     * @param   _entry          The entry.
+     */
+    private void addToCells(Entry<T> _entry) {
+
+        for (int row = _entry.firstRow; row <= _entry.lastRow; row++) {
+            for (int column = _entry.firstColumn; column <= _entry.lastColumn; column++) {
+                cells[row * columns + column].add(_entry);
+            }
+        }
+    }
+
+    /**
+     *  Removes an entry from the cells it touches.
+     *
+     * @param   _entry          The entry.
+     */
+    private void removeFromCells(Entry<T> _entry) {
+
+        for (int row = _entry.firstRow; row <= _entry.lastRow; row++) {
+            for (int column = _entry.firstColumn; column <= _entry.lastColumn; column++) {
+                cells[row * columns + column].remove(_entry);
+            }
+        }
+    }
+
+    /**
+     *  Returns the column of the cells at a position, clamped to the grid.
+     *
+     * @param   _x              The position.
+     * @return                  The column.
+     */
+    private int column(float _x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(_x / cellWidth)));
+    }
+
+    /**
+     *  Returns the row of the cells at a position, clamped to the grid.
+     *
+     * @param   _y              The position.
+     * @return                  The row.
+     */
+    private int row(float _y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(_y / cellHeight)));
+    }
+
+    //==============================================================================================
+    //                                  Inner classes
+    //==============================================================================================
+
+    /**
+     *  An indexed item, with its bounds and the cells they touch.
+     *
+     * @param   <T>     The type of the item.
+     */
+    private static class Entry<T> {
+
+        final T item;
+        float left;
+        float top;
+        float right;
+        float bottom;
+        int firstColumn;
+        int firstRow;
+        int lastColumn;
+        int lastRow;
+        int stamp;
+
+        Entry(T _item) {
+            item = _item;
+        }
+    }
+
+}
@@ -9,6 +9,17 @@ import java.nio.ByteBuffer;
  */
 public class NV21Image {
 
+    /**
+     *  Returns the size, in bytes, of a NV21 image with the given dimensions.
+     *
+     * @param   _width          The image width.
+     * @param   _height         The image height.
+     * @return                  The size of the NV21 image.
+     */
+    public static int getBufferSize(int _width, int _height) {
+        return _width * _height + 2 * ((_width + 1) / 2) * ((_height + 1) / 2);
+    }
+
     /**
      *  Converts an Yuv420888 image to NV21 image.
      *
@@ -16,43 +27,212 @@ public class NV21Image {
      * @return                  Thw NV21 image.
      */
     public static byte[] FromYUV420888(Image _imgYUV420) {
+        return FromYUV420888(_imgYUV420, null);
+    }
+
+    /**
+     *  Converts an Yuv420888 image to NV21 image, writing the result into the given buffer. The
+     * row and pixel strides of every plane are honored, so padded images are handled correctly.
+     *
+     * @param   _imgYUV420      The Yuv420888 image.
+     * @param   _output         The buffer to be filled. If it is null or too small, a new buffer
+     *                          is allocated.
+     * @return                  The NV21 image (the given buffer, if it was big enough).
+     */
+    public static byte[] FromYUV420888(Image _imgYUV420, byte[] _output) {
+
+        Image.Plane[] planes = _imgYUV420.getPlanes();
+
+        return FromPlanes(
+                _imgYUV420.getWidth(),
+                _imgYUV420.getHeight(),
+                planes[0].getBuffer(),
+                planes[0].getRowStride(),
+                planes[1].getBuffer(),
+                planes[2].getBuffer(),
+                planes[1].getRowStride(),
+                planes[1].getPixelStride(),
+                _output);
+    }
+
+    /**
+     *  Copies the luminance plane of an Yuv420888 image (i.e., a Y8 image), writing the result
+     * into the given buffer. The chroma planes are not read at all.
+     *
+     * @param   _imgYUV420      The Yuv420888 image.
+     * @param   _output         The buffer to be filled. If it is null or too small, a new buffer
+     *                          is allocated.
+     * @return                  The Y8 image (the given buffer, if it was big enough).
+     */
+    public static byte[] LumaFromYUV420888(Image _imgYUV420, byte[] _output) {
 
-        byte[] data;
+        Image.Plane plane = _imgYUV420.getPlanes()[0];
 
-        ByteBuffer buffer0 = _imgYUV420.getPlanes()[0].getBuffer();
-        ByteBuffer buffer2 = _imgYUV420.getPlanes()[2].getBuffer();
+        return LumaFromPlane(
+                _imgYUV420.getWidth(),
+                _imgYUV420.getHeight(),
+                plane.getBuffer(),
+                plane.getRowStride(),
+                _output);
+    }
 
-        int buffer0_size = buffer0.remaining();
-        int buffer2_size = buffer2.remaining();
+    /**
+     *  Copies the luminance plane of an Yuv420888 image (i.e., a Y8 image), writing the result
+     * into the given buffer. The position of the plane buffer is left untouched.
+     *
+     * @param   _width          The image width.
+     * @param   _height         The image height.
+     * @param   _yBuffer        The luminance plane.
+     * @param   _yRowStride     The row stride of the luminance plane.
+     * @param   _output         The buffer to be filled. If it is null or too small, a new buffer
+     *                          is allocated.
+     * @return                  The Y8 image (the given buffer, if it was big enough).
+     */
+    public static byte[] LumaFromPlane(int _width, int _height, ByteBuffer _yBuffer, int _yRowStride,
+                                       byte[] _output) {
 
-        data = new byte[buffer0_size + buffer2_size];
-        buffer0.get(data, 0, buffer0_size);
-        buffer2.get(data, buffer0_size, buffer2_size);
+        byte[] output = _output;
 
-        return data;
+        if (output == null || output.length < _width * _height) {
+            output = new byte[_width * _height];
+        }
+
+        copyLuma(_width, _height, _yBuffer, _yRowStride, output);
+
+        return output;
     }
 
     /**
-     *  Reduce the size of a NV21 frame.
+     *  Converts the planes of an Yuv420888 image to NV21 image, writing the result into the given
+     * buffer. The positions of the plane buffers are left untouched.
      *
-     * @param   _data           The original image.
-     * @param   _width          The input'image width.
-     * @param   _height         The input's image height.
-     * @return                  The reduced image.
+     * @param   _width          The image width.
+     * @param   _height         The image height.
+     * @param   _yBuffer        The luminance plane.
+     * @param   _yRowStride     The row stride of the luminance plane.
+     * @param   _uBuffer        The U (Cb) plane.
+     * @param   _vBuffer        The V (Cr) plane.
+     * @param   _uvRowStride    The row stride of the chroma planes.
+     * @param   _uvPixelStride  The pixel stride of the chroma planes.
+     * @param   _output         The buffer to be filled. If it is null or too small, a new buffer
+     *                          is allocated.
+     * @return                  The NV21 image (the given buffer, if it was big enough).
      */
-    public static byte[] quarter(byte[] _data, int _width, int _height) {
+    public static byte[] FromPlanes(int _width, int _height,
+                                    ByteBuffer _yBuffer, int _yRowStride,
+                                    ByteBuffer _uBuffer, ByteBuffer _vBuffer,
+                                    int _uvRowStride, int _uvPixelStride,
+                                    byte[] _output) {
+
+        int size = getBufferSize(_width, _height);
+        byte[] output = _output;
+
+        if (output == null || output.length < size) {
+            output = new byte[size];
+        }
+
+        int uPosition = _uBuffer.position();
+        int vPosition = _vBuffer.position();
 
-        int i = 0;
-        byte[] yuv = new byte[_width / 4 * _height / 4 * 3 / 2];
+        copyLuma(_width, _height, _yBuffer, _yRowStride, output);
 
-        for (int y = 0; y < _height; y += 4) {
-            for (int x = 0; x < _width; x += 4) {
-                yuv[i] = _data[y * _width + x];
-                i++;
+        int chromaWidth = (_width + 1) / 2;
+        int chromaHeight = (_height + 1) / 2;
+        int offset = _width * _height;
+
+        if (_uvPixelStride == 2) {
+
+            //  Semi-planar path: the V plane holds a V sample every other byte, so it is copied at
+            // once (or row by row), which puts every V sample in place. The U samples are then
+            // gathered in between, unless the U plane is proven to start one byte after the V
+            // plane in the same memory: the V plane then already holds VUVU... samples, which is
+            // exactly the NV21 layout, and only the last U sample of each row (which lies beyond
+            // the V plane bounds) is gathered.
+            int rowLength = 2 * chromaWidth;
+            int firstU = areInterleaved(_uBuffer, _vBuffer) ? chromaWidth - 1 : 0;
+
+            if (_uvRowStride == rowLength) {
+                _vBuffer.get(output, offset, rowLength * chromaHeight - 1);
+            } else {
+                for (int row = 0; row < chromaHeight; row++) {
+                    _vBuffer.position(vPosition + row * _uvRowStride);
+                    _vBuffer.get(output, offset + row * rowLength, rowLength - 1);
+                }
+            }
+
+            _vBuffer.position(vPosition);
+
+            for (int row = 0; row < chromaHeight; row++) {
+
+                int uRow = uPosition + row * _uvRowStride;
+                int outRow = offset + row * rowLength + 1;
+
+                for (int col = firstU; col < chromaWidth; col++) {
+                    output[outRow + 2 * col] = _uBuffer.get(uRow + 2 * col);
+                }
+            }
+
+        } else {
+
+            //  Generic path: gathers each V and U sample according to the plane strides.
+            for (int row = 0; row < chromaHeight; row++) {
+
+                int uRow = uPosition + row * _uvRowStride;
+                int vRow = vPosition + row * _uvRowStride;
+
+                for (int col = 0; col < chromaWidth; col++) {
+                    output[offset++] = _vBuffer.get(vRow + col * _uvPixelStride);
+                    output[offset++] = _uBuffer.get(uRow + col * _uvPixelStride);
+                }
             }
         }
 
-        return yuv;
+        return output;
+    }
+
+    /**
+     *  Copies the luminance plane to the beginning of the output buffer. The plane is copied at
+     * once when there is no row padding, or row by row otherwise.
+     *
+     * @param   _width          The image width.
+     * @param   _height         The image height.
+     * @param   _yBuffer        The luminance plane.
+     * @param   _yRowStride     The row stride of the luminance plane.
+     * @param   _output         The buffer to be filled.
+     */
+    private static void copyLuma(int _width, int _height, ByteBuffer _yBuffer, int _yRowStride,
+                                 byte[] _output) {
+
+        int yPosition = _yBuffer.position();
+
+        if (_yRowStride == _width) {
+            _yBuffer.get(_output, 0, _width * _height);
+        } else {
+            for (int row = 0; row < _height; row++) {
+                _yBuffer.position(yPosition + row * _yRowStride);
+                _yBuffer.get(_output, row * _width, _width);
+            }
+        }
+
+        _yBuffer.position(yPosition);
+    }
+
+    /**
+     *  Checks if the chroma planes are already in the NV21 layout, i.e., the U plane starts one
+     * byte after the V plane, in the same memory. Camera HALs report semi-planar chroma as two views
+     * of one interleaved buffer, but only the positions of array-backed planes can be compared, so
+     * other planes are never taken as interleaved. The planes are only read: they are owned by the
+     * camera, and may have other readers.
+     *
+     * @param   _uBuffer        The U (Cb) plane.
+     * @param   _vBuffer        The V (Cr) plane.
+     * @return                  'true' if the planes are proven interleaved, 'false' otherwise.
+     */
+    private static boolean areInterleaved(ByteBuffer _uBuffer, ByteBuffer _vBuffer) {
+
+        return _uBuffer.hasArray() && _vBuffer.hasArray()
+                && _uBuffer.array() == _vBuffer.array()
+                && _uBuffer.arrayOffset() + _uBuffer.position() == _vBuffer.arrayOffset() + _vBuffer.position() + 1;
     }
 
 }
@@ -0,0 +1,412 @@
+package com.carzuilha.ocr.util;
+
+/**
+ *  This class reduces the size of NV21 frames by an arbitrary (integer or fractional) factor. Each
+ * output sample is either point-sampled from its source region or the box-filtered average of
+ * it. The chroma plane is subsampled with the same rules, or dropped for luma-only outputs.
+ *
+ *  The frame may also be cropped and rotated to its upright orientation in the same pass: the
+ * output is written sequentially, and each source byte is read at most once.
+ */
+public class NV21Scaler {
+
+    //  The scaling parameters.
+    private final float factor;
+    private final boolean boxFilter;
+    private final boolean lumaOnly;
+
+    //  The region of the frame to be kept, relative to the frame size (from 0 to 1), and the
+    // clockwise rotation, in quarter turns (the same values of the Frame.ROTATION constants).
+    private float cropLeft = 0.0f;
+    private float cropTop = 0.0f;
+    private float cropRight = 1.0f;
+    private float cropBottom = 1.0f;
+    private int rotation = 0;
+
+    //  The source region boundaries of each scaled column and row, for both the luma and the
+    // chroma planes. They are computed once for each input size and crop region.
+    private boolean prepared = false;
+    private int inputWidth = -1;
+    private int inputHeight = -1;
+    private int scaledWidth;
+    private int scaledHeight;
+    private final int[] cropPixels = new int[4];
+    private int[] lumaColumns;
+    private int[] lumaRows;
+    private int[] chromaColumns;
+    private int[] chromaRows;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the scaler and sets its parameters.
+     *
+     * @param   _factor         The reduction factor (e.g., 4.0 reduces a 1280x720 frame to
+     *                          320x180). Must be at least 1.
+     * @param   _boxFilter      'true' to average each source region, 'false' to point-sample it.
+     * @param   _lumaOnly       'true' to write only the luma plane, 'false' to write a full NV21
+     *                          image.
+     */
+    public NV21Scaler(float _factor, boolean _boxFilter, boolean _lumaOnly) {
+
+        if (!(_factor >= 1.0f)) {
+            throw new IllegalArgumentException("Invalid scale factor: " + _factor);
+        }
+
+        factor = _factor;
+        boxFilter = _boxFilter;
+        lumaOnly = _lumaOnly;
+    }
+
+    /**
+     *  Returns the reduction factor.
+     *
+     * @return      The reduction factor.
+     */
+    public float getFactor() {
+        return factor;
+    }
+
+    /**
+     *  Returns if the scaler averages the source regions.
+     *
+     * @return      'true' if the box filter is used, 'false' otherwise.
+     */
+    public boolean isBoxFilter() {
+        return boxFilter;
+    }
+
+    /**
+     *  Returns if the scaler writes only the luma plane.
+     *
+     * @return      'true' if the output is luma-only, 'false' otherwise.
+     */
+    public boolean isLumaOnly() {
+        return lumaOnly;
+    }
+
+    /**
+     *  Sets the region of the frame to be kept. The coordinates are relative to the frame size, and
+     * are aligned to even pixels, so the chroma plane is cropped correctly.
+     *
+     * @param   _left           The left edge of the region (from 0 to 1).
+     * @param   _top            The top edge of the region (from 0 to 1).
+     * @param   _right          The right edge of the region (from 0 to 1).
+     * @param   _bottom         The bottom edge of the region (from 0 to 1).
+     */
+    public void setCrop(float _left, float _top, float _right, float _bottom) {
+
+        if (!(_left >= 0.0f && _left < _right && _right <= 1.0f &&
+              _top >= 0.0f && _top < _bottom && _bottom <= 1.0f)) {
+            throw new IllegalArgumentException(
+                    "Invalid crop region: " + _left + ", " + _top + ", " + _right + ", " + _bottom);
+        }
+
+        cropLeft = _left;
+        cropTop = _top;
+        cropRight = _right;
+        cropBottom = _bottom;
+        prepared = false;
+    }
+
+    /**
+     *  Sets the clockwise rotation that brings the frame to its upright orientation.
+     *
+     * @param   _rotation       The rotation, in quarter turns (one of the Frame.ROTATION
+     *                          constants).
+     */
+    public void setRotation(int _rotation) {
+
+        if (_rotation < 0 || _rotation > 3) {
+            throw new IllegalArgumentException("Invalid rotation: " + _rotation);
+        }
+
+        rotation = _rotation;
+    }
+
+    /**
+     *  Returns the width of the reduced frame, after cropping and rotation. It is always even, so
+     * the chroma plane is subsampled correctly.
+     *
+     * @param   _width          The input width.
+     * @param   _height         The input height.
+     * @return                  The output width.
+     */
+    public int getOutputWidth(int _width, int _height) {
+
+        prepare(_width, _height);
+
+        return (rotation % 2 == 0) ? scaledWidth : scaledHeight;
+    }
+
+    /**
+     *  Returns the height of the reduced frame, after cropping and rotation. It is always even, so
+     * the chroma plane is subsampled correctly.
+     *
+     * @param   _width          The input width.
+     * @param   _height         The input height.
+     * @return                  The output height.
+     */
+    public int getOutputHeight(int _width, int _height) {
+
+        prepare(_width, _height);
+
+        return (rotation % 2 == 0) ? scaledHeight : scaledWidth;
+    }
+
+    /**
+     *  Returns the region of the frame kept by the crop, in the upright frame (i.e., after the
+     * rotation), so the coordinates of the reduced frame can be mapped back to the full one.
+     *
+     * @param   _width          The input width.
+     * @param   _height         The input height.
+     * @param   _region         Receives the left, top, right and bottom edges of the region, in
+     *                          pixels of the upright input frame.
+     */
+    public void getSourceRegion(int _width, int _height, float[] _region) {
+
+        prepare(_width, _height);
+
+        int left = cropPixels[0];
+        int top = cropPixels[1];
+        int right = cropPixels[2];
+        int bottom = cropPixels[3];
+
+        //  A clockwise quarter turn moves (x, y) to (height - y, x).
+        switch (rotation) {
+            case 0:
+                set(_region, left, top, right, bottom);
+                break;
+            case 1:
+                set(_region, _height - bottom, left, _height - top, right);
+                break;
+            case 2:
+                set(_region, _width - right, _height - bottom, _width - left, _height - top);
+                break;
+            case 3:
+                set(_region, top, _width - right, bottom, _width - left);
+                break;
+        }
+    }
+
+    /**
+     *  Returns the size, in bytes, of the reduced frame.
+     *
+     * @param   _width          The input width.
+     * @param   _height         The input height.
+     * @return                  The output size.
+     */
+    public int getOutputSize(int _width, int _height) {
+
+        prepare(_width, _height);
+
+        return lumaOnly ? scaledWidth * scaledHeight : NV21Image.getBufferSize(scaledWidth, scaledHeight);
+    }
+
+    /**
+     *  Crops, reduces and rotates a NV21 frame, writing the result into the given buffer.
+     *
+     * @param   _input          The original image.
+     * @param   _width          The input's image width.
+     * @param   _height         The input's image height.
+     * @param   _output         The buffer to be filled. If it is null or too small, a new buffer
+     *                          is allocated.
+     * @return                  The reduced image (the given buffer, if it was big enough).
+     */
+    public byte[] scale(byte[] _input, int _width, int _height, byte[] _output) {
+
+        prepare(_width, _height);
+
+        byte[] output = _output;
+        int size = getOutputSize(_width, _height);
+
+        if (output == null || output.length < size) {
+            output = new byte[size];
+        }
+
+        scalePlane(_input, 0, _width, 1, lumaColumns, lumaRows, output, 0);
+
+        if (!lumaOnly) {
+            scalePlane(_input, _width * _height, 2 * ((_width + 1) / 2), 2, chromaColumns, chromaRows,
+                    output, scaledWidth * scaledHeight);
+        }
+
+        return output;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Returns the reduced value of a dimension, rounded down to an even number.
+     *
+     * @param   _dimension      The input dimension.
+     * @return                  The output dimension.
+     */
+    private int reduce(int _dimension) {
+        return Math.max(2, (int) (_dimension / factor) & ~1);
+    }
+
+    /**
+     *  Fills a region.
+     *
+     * @param   _region         The region.
+     * @param   _left           The left edge.
+     * @param   _top            The top edge.
+     * @param   _right          The right edge.
+     * @param   _bottom         The bottom edge.
+     */
+    private static void set(float[] _region, int _left, int _top, int _right, int _bottom) {
+        _region[0] = _left;
+        _region[1] = _top;
+        _region[2] = _right;
+        _region[3] = _bottom;
+    }
+
+    /**
+     *  Computes the source region boundaries for the given input size, if they are not computed
+     * yet.
+     *
+     * @param   _width          The input width.
+     * @param   _height         The input height.
+     */
+    private void prepare(int _width, int _height) {
+
+        if (prepared && _width == inputWidth && _height == inputHeight) return;
+
+        //  The crop region is aligned to even pixels, so it maps to whole chroma samples.
+        int left = ((int) (cropLeft * _width)) & ~1;
+        int top = ((int) (cropTop * _height)) & ~1;
+        int right = Math.max(left + 2, ((int) (cropRight * _width)) & ~1);
+        int bottom = Math.max(top + 2, ((int) (cropBottom * _height)) & ~1);
+
+        cropPixels[0] = left;
+        cropPixels[1] = top;
+        cropPixels[2] = right;
+        cropPixels[3] = bottom;
+
+        scaledWidth = reduce(right - left);
+        scaledHeight = reduce(bottom - top);
+
+        lumaColumns = boundaries(left, right, scaledWidth);
+        lumaRows = boundaries(top, bottom, scaledHeight);
+        chromaColumns = boundaries(left / 2, right / 2, scaledWidth / 2);
+        chromaRows = boundaries(top / 2, bottom / 2, scaledHeight / 2);
+
+        inputWidth = _width;
+        inputHeight = _height;
+        prepared = true;
+    }
+
+    /**
+     *  Splits an input range in regions, one for each output sample. Region i covers the input
+     * samples from boundaries[i] (inclusive) to boundaries[i + 1] (exclusive).
+     *
+     * @param   _start          The first input sample of the range.
+     * @param   _end            The input sample after the range.
+     * @param   _output         The output dimension.
+     * @return                  The region boundaries.
+     */
+    private static int[] boundaries(int _start, int _end, int _output) {
+
+        int length = _end - _start;
+        int[] bounds = new int[_output + 1];
+
+        for (int i = 0; i <= _output; i++) {
+            bounds[i] = _start + Math.min(length, (int) ((long) i * length / _output));
+        }
+
+        //  Input ranges smaller than the output one (possible in tiny frames) still need
+        // non-empty regions.
+        for (int i = 0; i < _output; i++) {
+            if (bounds[i] >= _end) bounds[i] = _end - 1;
+            if (bounds[i + 1] <= bounds[i]) bounds[i + 1] = bounds[i] + 1;
+        }
+
+        return bounds;
+    }
+
+    /**
+     *  Reduces and rotates a single plane. Interleaved planes (e.g., the VU plane of NV21) are
+     * reduced channel by channel, and their samples are kept together by the rotation.
+     *
+     * @param   _input          The original image.
+     * @param   _inputOffset    The offset of the plane in the original image.
+     * @param   _inputStride    The row stride of the plane, in bytes.
+     * @param   _channels       The number of interleaved channels of the plane.
+     * @param   _columns        The column boundaries of the plane.
+     * @param   _rows           The row boundaries of the plane.
+     * @param   _output         The reduced image.
+     * @param   _outputOffset   The offset of the plane in the reduced image.
+     */
+    private void scalePlane(byte[] _input, int _inputOffset, int _inputStride, int _channels,
+                            int[] _columns, int[] _rows, byte[] _output, int _outputOffset) {
+
+        int width = _columns.length - 1;
+        int height = _rows.length - 1;
+        boolean swapped = (rotation % 2 != 0);
+        int outputWidth = swapped ? height : width;
+        int outputHeight = swapped ? width : height;
+
+        //  The scaled (unrotated) coordinates of each output sample are a linear function of the
+        // output coordinates: x = x0 + xx * outputX + xy * outputY (and the same for y).
+        int x0 = 0, xx = 1, xy = 0;
+        int y0 = 0, yx = 0, yy = 1;
+
+        switch (rotation) {
+            case 1:
+                x0 = 0; xx = 0; xy = 1;
+                y0 = height - 1; yx = -1; yy = 0;
+                break;
+            case 2:
+                x0 = width - 1; xx = -1; xy = 0;
+                y0 = height - 1; yx = 0; yy = -1;
+                break;
+            case 3:
+                x0 = width - 1; xx = 0; xy = -1;
+                y0 = 0; yx = 1; yy = 0;
+                break;
+        }
+
+        int o = _outputOffset;
+
+        for (int outputY = 0; outputY < outputHeight; outputY++) {
+
+            int x = x0 + xy * outputY;
+            int y = y0 + yy * outputY;
+
+            for (int outputX = 0; outputX < outputWidth; outputX++, x += xx, y += yx) {
+
+                int rowStart = _rows[y];
+                int rowEnd = _rows[y + 1];
+                int columnStart = _columns[x];
+                int columnEnd = _columns[x + 1];
+
+                for (int c = 0; c < _channels; c++) {
+
+                    if (!boxFilter) {
+                        _output[o++] = _input[_inputOffset + rowStart * _inputStride + columnStart * _channels + c];
+                        continue;
+                    }
+
+                    int sum = 0;
+
+                    for (int row = rowStart; row < rowEnd; row++) {
+
+                        int i = _inputOffset + row * _inputStride + c;
+
+                        for (int column = columnStart; column < columnEnd; column++) {
+                            sum += _input[i + column * _channels] & 0xFF;
+                        }
+                    }
+
+                    _output[o++] = (byte) (sum / ((rowEnd - rowStart) * (columnEnd - columnStart)));
+                }
+            }
+        }
+    }
+
+}
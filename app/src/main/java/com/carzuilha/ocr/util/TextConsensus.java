@@ -0,0 +1,252 @@
+package com.carzuilha.ocr.util;
+
+/**
+ *  Stabilizes the text read from the same block over many frames. The recognizer often changes
+ * its mind from frame to frame (e.g., "0" and "O", or a dropped character), so each reading is a
+ * hypothesis, and the last readings vote: first on the length of the text, then, among the
+ * readings of the winning length, on the character at each position. Ties go to the most recent
+ * reading.
+ *
+ *  The confidence is the share of the readings that agree with the winning length, times the
+ * agreement of the least certain character. Once enough readings agree with a high confidence,
+ * the text is settled, and stays settled until the voted text changes. Not thread-safe.
+ */
+public class TextConsensus {
+
+    //  How many of the last readings vote, how many of them must agree on the length for the text
+    // to settle, and the least confidence of a settled text.
+    private final int window;
+    private final int minVotes;
+    private final float settleConfidence;
+
+    //  The last readings, in a ring (the oldest one is overwritten).
+    private final String[] readings;
+    private int readingCount = 0;
+    private int nextReading = 0;
+
+    //  The voted text, its confidence, and how many readings were received.
+    private String value = null;
+    private float confidence = 0.0f;
+    private boolean settled = false;
+    private long frameCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the consensus and sets its parameters.
+     *
+     * @param   _window             How many of the last readings vote.
+     * @param   _minVotes           How many readings must agree on the length of the text for it
+     *                              to settle.
+     * @param   _settleConfidence   The least confidence (from 0 to 1) of a settled text.
+     */
+    public TextConsensus(int _window, int _minVotes, float _settleConfidence) {
+
+        if (_window <= 0) {
+            throw new IllegalArgumentException("Invalid consensus window: " + _window);
+        }
+        if (_minVotes <= 0 || _minVotes > _window) {
+            throw new IllegalArgumentException("Invalid number of votes: " + _minVotes);
+        }
+        if (!(_settleConfidence > 0.0f && _settleConfidence <= 1.0f)) {
+            throw new IllegalArgumentException("Invalid settle confidence: " + _settleConfidence);
+        }
+
+        window = _window;
+        minVotes = _minVotes;
+        settleConfidence = _settleConfidence;
+        readings = new String[_window];
+    }
+
+    /**
+     *  Returns the voted text.
+     *
+     * @return      The text, or null if no reading was received.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     *  Returns how much the last readings agree with the voted text.
+     *
+     * @return      The confidence, from 0 to 1.
+     */
+    public float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     *  Returns if the voted text is stable enough that the block doesn't need to be read again.
+     *
+     * @return      'true' if the text is settled, 'false' otherwise.
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     *  Returns how many readings were received since the last reset.
+     *
+     * @return      The number of readings.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     *  Forgets every reading.
+     */
+    public void reset() {
+
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = null;
+        }
+
+        readingCount = 0;
+        nextReading = 0;
+        value = null;
+        confidence = 0.0f;
+        settled = false;
+        frameCount = 0;
+    }
+
+    /**
+     *  Adds a reading of the block, and votes the text again.
+     *
+     * @param   _reading        The text read in the last frame.
+     * @return                  The voted text.
+     */
+    public String add(String _reading) {
+
+        if (_reading == null) {
+            throw new IllegalArgumentException("The reading can't be null.");
+        }
+
+        readings[nextReading] = _reading;
+        nextReading = (nextReading + 1) % window;
+        readingCount = Math.min(readingCount + 1, window);
+        frameCount++;
+
+        int length = voteLength();
+        int lengthVotes = countLength(length);
+        StringBuilder builder = new StringBuilder(length);
+        float agreement = 1.0f;
+
+        for (int position = 0; position < length; position++) {
+
+            int best = 0;
+            char bestChar = 0;
+
+            for (int i = 0; i < readingCount; i++) {
+
+                String reading = reading(i);
+
+                if (reading.length() != length) continue;
+
+                char c = reading.charAt(position);
+                int votes = countChar(length, position, c);
+
+                if (votes > best) {
+                    best = votes;
+                    bestChar = c;
+                }
+            }
+
+            builder.append(bestChar);
+            agreement = Math.min(agreement, (float) best / lengthVotes);
+        }
+
+        String voted = builder.toString();
+
+        if (settled && !voted.equals(value)) {
+            settled = false;
+        }
+
+        value = voted;
+        confidence = agreement * lengthVotes / readingCount;
+        settled = settled || (lengthVotes >= minVotes && confidence >= settleConfidence);
+
+        return value;
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Returns a reading of the window, from the newest one.
+     *
+     * @param   _age            The reading age (0 for the newest one).
+     * @return                  The reading.
+     */
+    private String reading(int _age) {
+        return readings[(nextReading - 1 - _age + window) % window];
+    }
+
+    /**
+     *  Finds the length of the text with the most readings (the most recent one, on a tie).
+     *
+     * @return                  The voted length.
+     */
+    private int voteLength() {
+
+        int best = 0;
+        int bestLength = 0;
+
+        for (int i = 0; i < readingCount; i++) {
+
+            int length = reading(i).length();
+            int votes = countLength(length);
+
+            if (votes > best) {
+                best = votes;
+                bestLength = length;
+            }
+        }
+
+        return bestLength;
+    }
+
+    /**
+     *  Counts the readings of a length.
+     *
+     * @param   _length         The text length.
+     * @return                  The number of readings.
+     */
+    private int countLength(int _length) {
+
+        int votes = 0;
+
+        for (int i = 0; i < readingCount; i++) {
+            if (reading(i).length() == _length) votes++;
+        }
+
+        return votes;
+    }
+
+    /**
+     *  Counts the readings of a length that have a character at a position.
+     *
+     * @param   _length         The text length.
+     * @param   _position       The character position.
+     * @param   _char           The character.
+     * @return                  The number of readings.
+     */
+    private int countChar(int _length, int _position, char _char) {
+
+        int votes = 0;
+
+        for (int i = 0; i < readingCount; i++) {
+
+            String reading = reading(i);
+
+            if (reading.length() == _length && reading.charAt(_position) == _char) votes++;
+        }
+
+        return votes;
+    }
+
+}
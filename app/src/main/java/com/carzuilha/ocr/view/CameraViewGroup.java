@@ -3,6 +3,7 @@ package com.carzuilha.ocr.view;
 import android.Manifest;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.support.annotation.RequiresPermission;
 import android.util.AttributeSet;
@@ -10,6 +11,7 @@ import android.util.Log;
 import android.view.TextureView;
 import android.view.ViewGroup;
 
+import com.carzuilha.ocr.control.CameraControl;
 import com.carzuilha.ocr.control.CameraControl_A;
 import com.carzuilha.ocr.control.CameraControl_B;
 import com.carzuilha.ocr.main.MainActivity;
@@ -18,7 +20,7 @@ import com.google.android.gms.common.images.Size;
 import java.io.IOException;
 
 /**
- *  Defines a ViewGroup that contains the GraphicView object.
+ *  Defines a ViewGroup that contains the graphic overlay (a GraphicView or a GraphicTextureView).
  */
 public class CameraViewGroup extends ViewGroup {
 
@@ -30,7 +32,7 @@ public class CameraViewGroup extends ViewGroup {
 
     private Context context;
     private DynamicTextureView dynamicTextureView;
-    private GraphicView graphicView;
+    private GraphicOverlay graphicView;
 
     private CameraControl_A cameraControllerA = null;
     private CameraControl_B camera2Controller = null;
@@ -111,7 +113,7 @@ public class CameraViewGroup extends ViewGroup {
      * @throws  SecurityException   If the access for the camera is blocked.
      */
     @RequiresPermission(Manifest.permission.CAMERA)
-    public void start(CameraControl_A _cameraControllerA, GraphicView _overlay) throws IOException, SecurityException {
+    public void start(CameraControl_A _cameraControllerA, GraphicOverlay _overlay) throws IOException, SecurityException {
 
         graphicView = _overlay;
         start(_cameraControllerA);
@@ -127,7 +129,7 @@ public class CameraViewGroup extends ViewGroup {
      * @throws  SecurityException   If the access for the camera is blocked.
      */
     @RequiresPermission(Manifest.permission.CAMERA)
-    public void start(CameraControl_B _camera2Controller, GraphicView _overlay) throws IOException, SecurityException {
+    public void start(CameraControl_B _camera2Controller, GraphicOverlay _overlay) throws IOException, SecurityException {
 
         graphicView = _overlay;
         start(_camera2Controller);
@@ -185,6 +187,8 @@ public class CameraViewGroup extends ViewGroup {
                         graphicView.setCameraInfo(max, min, cameraControllerA.getSelectedCamera());
                     }
 
+                    setFrameGeometry(cameraControllerA);
+                    graphicView.setDrawTimer(cameraControllerA.getPipelineStats().getDraw());
                     graphicView.clear();
                 }
 
@@ -205,6 +209,8 @@ public class CameraViewGroup extends ViewGroup {
                         graphicView.setCameraInfo(max, min, camera2Controller.getSelectedCamera());
                     }
 
+                    setFrameGeometry(camera2Controller);
+                    graphicView.setDrawTimer(camera2Controller.getPipelineStats().getDraw());
                     graphicView.clear();
                 }
 
@@ -214,6 +220,21 @@ public class CameraViewGroup extends ViewGroup {
         }
     }
 
+    /**
+     *  Sets the geometry of the frames sent to the detector in the graphic view, so the detections
+     * are drawn over the part of the preview they were found in.
+     *
+     * @param   _cameraControl      The camera controller that was started.
+     */
+    private void setFrameGeometry(CameraControl _cameraControl) {
+
+        float[] region = new float[4];
+        Size frameSize = _cameraControl.getDetectionGeometry(region);
+
+        graphicView.setFrameGeometry(frameSize.getWidth(), frameSize.getHeight(),
+                new RectF(region[0], region[1], region[2], region[3]));
+    }
+
     /**
      *  Returns if the device is in portrait mode.
      *
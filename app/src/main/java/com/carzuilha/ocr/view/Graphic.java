@@ -10,8 +10,8 @@ import android.graphics.RectF;
  */
 public abstract class Graphic {
 
-    //  The default GraphicView to be rendered.
-    GraphicView graphicView;
+    //  The overlay the graphic is rendered in (a GraphicView or a GraphicTextureView).
+    GraphicOverlay graphicView;
 
     //==============================================================================================
     //                                  Default methods
@@ -20,9 +20,9 @@ public abstract class Graphic {
     /**
      *  Initializes the DynamicTextureView and sets its parameters.
      *
-     * @param   _graphicView    The context to be utilized.
+     * @param   _graphicView    The overlay the graphic is rendered in.
      */
-    Graphic(GraphicView _graphicView) {
+    Graphic(GraphicOverlay _graphicView) {
         graphicView = _graphicView;
     }
 
@@ -46,11 +46,43 @@ public abstract class Graphic {
     }
 
     /**
-     *  Just calls postInvalidate() from the GraphicView.
-     *
+     *  Marks this graphic dirty in the overlay, which is redrawn on the next vsync.
      */
     public void postInvalidate() {
-        graphicView.postInvalidate();
+        graphicView.invalidateGraphic(this);
+    }
+
+    /**
+     *  Draws a cheaper version of this graphic (e.g., only its outline), used when the view has
+     * too many graphics to draw them whole within its time budget. Draws the whole graphic,
+     * unless overridden.
+     *
+     * @param   _canvas     The drawing canvas.
+     */
+    public void drawOutline(Canvas _canvas) {
+        draw(_canvas);
+    }
+
+    /**
+     *  Returns if this graphic was still moving when it was last drawn, so the overlay must draw
+     * it again on the next vsync.
+     *
+     * @return              'true' if the graphic is animated, 'false' otherwise.
+     */
+    public boolean isAnimating() {
+        return false;
+    }
+
+    /**
+     *  Returns the bounds of this graphic, in preview coordinates, inside which it is hit by a
+     * touch. Used to index the graphics for hit testing; graphics without known bounds are tested
+     * by contains().
+     *
+     * @param   _bounds     Receives the bounds.
+     * @return              'true' if the bounds are known, 'false' otherwise.
+     */
+    public boolean getHitBounds(RectF _bounds) {
+        return false;
     }
 
     //==============================================================================================
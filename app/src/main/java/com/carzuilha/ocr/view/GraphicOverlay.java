@@ -0,0 +1,215 @@
+package com.carzuilha.ocr.view;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import com.carzuilha.ocr.thread.StageTimer;
+import com.carzuilha.ocr.util.DetailPolicy;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ *  A surface which renders a series of custom graphics on top of an associated preview. It is
+ * implemented by GraphicView, which draws on the UI thread, and by GraphicTextureView, which draws
+ * on a thread of its own; the graphics and the processors work with either of them.
+ *
+ *  The "drawing thread" below is the thread that draws the graphics: the UI thread for the
+ * GraphicView, or the render thread for the GraphicTextureView.
+ *
+ * @param   <T>     The type of the graphics.
+ */
+public interface GraphicOverlay<T extends Graphic> {
+
+    /**
+     *  Returns the width of the overlay.
+     *
+     * @return      The width, in pixels.
+     */
+    int getWidth();
+
+    /**
+     *  Returns the height of the overlay.
+     *
+     * @return      The height, in pixels.
+     */
+    int getHeight();
+
+    /**
+     *  Returns the selected camera; one of CAMERA_FACING_BACK or CAMERA_FACING_FRONT.
+     *
+     * @return      The type of the camera (CAMERA_FACING_BACK or CAMERA_FACING_FRONT).
+     */
+    int getCameraType();
+
+    /**
+     *  Returns the width scale factor of the overlay.
+     *
+     * @return      The width scale factor.
+     */
+    float getWidthScaleFactor();
+
+    /**
+     *  Returns the height scale factor of the overlay.
+     *
+     * @return      The height scale factor.
+     */
+    float getHeightScaleFactor();
+
+    /**
+     *  Returns the horizontal offset of the detected frames in the overlay, which is not zero
+     * when they are cropped from the preview.
+     *
+     * @return      The offset, in overlay pixels.
+     */
+    float getWidthOffset();
+
+    /**
+     *  Returns the vertical offset of the detected frames in the overlay, which is not zero when
+     * they are cropped from the preview.
+     *
+     * @return      The offset, in overlay pixels.
+     */
+    float getHeightOffset();
+
+    /**
+     *  Returns the matrix that maps the preview coordinates to the overlay. Must only be used by
+     * the drawing thread, e.g., while drawing.
+     *
+     * @return      The preview to overlay matrix.
+     */
+    Matrix getPreviewMatrix();
+
+    /**
+     *  Returns the version of the preview to overlay matrix, which changes every time it is
+     * rebuilt, so the graphics know when to map their cached coordinates again.
+     *
+     * @return      The matrix version.
+     */
+    int getMatrixVersion();
+
+    /**
+     *  Returns the time of the frame being drawn, so every graphic of the frame is animated to
+     * the same instant. Must only be used by the drawing thread, while drawing.
+     *
+     * @return      The frame time, from SystemClock.elapsedRealtime().
+     */
+    long getFrameTimeMillis();
+
+    /**
+     *  Returns the policy that chooses the level of detail, e.g., to read the current level and
+     * the average draw time, or to listen to the level changes.
+     *
+     * @return      The detail policy.
+     */
+    DetailPolicy getDetailPolicy();
+
+    /**
+     *  Sets the timer that receives the time spent drawing the graphics, e.g., the draw stage of
+     * the pipeline statistics.
+     *
+     * @param   _drawTimer      The timer, or null to stop timing.
+     */
+    void setDrawTimer(StageTimer _drawTimer);
+
+    /**
+     *  Adds a graphic to the overlay.
+     *
+     * @param   _graphic        The graphic to be added.
+     */
+    void add(T _graphic);
+
+    /**
+     *  Removes a graphic from the overlay.
+     *
+     * @param   _graphic        The graphic to be removed.
+     */
+    void remove(T _graphic);
+
+    /**
+     *  Applies a batch of changes to the overlay: the graphics are removed and added under a
+     * single lock, and only their bounds are marked dirty, so a frame of detections costs one
+     * redraw however many blocks it has. The graphics changed in place mark their own bounds.
+     *
+     * @param   _added          The graphics to be added (may be empty).
+     * @param   _removed        The graphics to be removed (may be empty).
+     */
+    void update(Collection<? extends T> _added, Collection<? extends T> _removed);
+
+    /**
+     *  Removes all graphics from the overlay.
+     */
+    void clear();
+
+    /**
+     *  Checks if the overlay has no graphics.
+     *
+     * @return      'true' if there are no graphics, 'false' otherwise.
+     */
+    boolean isEmpty();
+
+    /**
+     *  Sets the camera attributes for size and camera type direction, which informs how to transform
+     * image coordinates later.
+     *
+     * @param   _previewWidth       The preview's width for the camera.
+     * @param   _previewHeight      The preview's height for the camera.
+     * @param   _camera             The selected camera.
+     */
+    void setCameraInfo(int _previewWidth, int _previewHeight, int _camera);
+
+    /**
+     *  Sets the geometry of the frames sent to the detector, so the graphics, given in frame
+     * coordinates, are mapped back to the preview. The frames cover the whole preview, at its
+     * size, until it is set.
+     *
+     * @param   _frameWidth         The width of the detected frames.
+     * @param   _frameHeight        The height of the detected frames.
+     * @param   _previewRegion      The region of the preview covered by the frames, in preview
+     *                              pixels.
+     */
+    void setFrameGeometry(int _frameWidth, int _frameHeight, RectF _previewRegion);
+
+    /**
+     *  Finds the graphic under a point of the overlay, e.g., to select the text under a touch.
+     * Must be called by the UI thread.
+     *
+     * @param   _x              The point x, in overlay coordinates.
+     * @param   _y              The point y, in overlay coordinates.
+     * @return                  The graphic, or null if there is none under the point.
+     */
+    T getGraphicAt(float _x, float _y);
+
+    /**
+     *  Finds the graphics whose bounds intersect an area of the overlay, e.g., to select the text
+     * inside a drag. Graphics with no known bounds are not returned. Must be called by the UI
+     * thread.
+     *
+     * @param   _area           The area, in overlay coordinates.
+     * @param   _result         Receives the graphics found (it is not cleared).
+     * @return                  The number of graphics found.
+     */
+    int getGraphicsIn(RectF _area, List<T> _result);
+
+    /**
+     *  Marks the whole overlay dirty, to be redrawn on the next vsync. May be called by any
+     * thread.
+     */
+    void invalidateAll();
+
+    /**
+     *  Marks a graphic dirty, which redraws the whole overlay on the next vsync. May be called by
+     * any thread.
+     *
+     * @param   _graphic        The graphic.
+     */
+    void invalidateGraphic(Graphic _graphic);
+
+    /**
+     *  Indexes a graphic again, after its bounds changed. May be called by any thread.
+     *
+     * @param   _graphic        The graphic (ignored if it is not in the overlay).
+     */
+    void reindex(Graphic _graphic);
+
+}
@@ -0,0 +1,419 @@
+package com.carzuilha.ocr.view;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.PorterDuff;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.TextureView;
+
+import com.carzuilha.ocr.thread.StageTimer;
+import com.carzuilha.ocr.util.DetailPolicy;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ *  A texture view which renders the same graphics as the GraphicView, but on a render thread of
+ * its own, so drawing the overlay never takes time from layout and input on the UI thread: the
+ * main thread frame time stays flat however many blocks are shown.
+ *
+ *  The render thread starts when the surface of the view becomes available, and receives the vsync
+ * callbacks of its own looper. On each vsync with anything dirty, it locks the canvas of the
+ * surface, clears it, draws the last published graphics and posts the frame. The whole surface is
+ * drawn on every frame, since its buffers don't keep the previous frame. The thread stops when the
+ * surface is destroyed (e.g., when the view is detached).
+ *
+ *  Touches are still received by the UI thread: the indexed graphics are hit in preview
+ * coordinates, without touching what the render thread draws.
+ */
+public class GraphicTextureView<T extends Graphic> extends TextureView
+        implements GraphicOverlay<T>, TextureView.SurfaceTextureListener {
+
+    //  The graphics, and the state needed to draw them.
+    private final OverlayScene<T> scene;
+
+    //  The thread that draws the graphics, and its handler (null while there is no surface).
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the GraphicTextureView and sets its parameters.
+     *
+     * @param   _context        The context to be utilized.
+     * @param   _attrs          A set of attributes to be used with the context.
+     */
+    public GraphicTextureView(Context _context, AttributeSet _attrs) {
+
+        super(_context, _attrs);
+
+        scene = new OverlayScene<>(new OverlayScene.Host() {
+            @Override
+            public void redraw() {
+                render();
+            }
+
+            @Override
+            public void redrawWithoutVsync() {
+                //  Nothing to draw on until the surface is available, which redraws everything.
+            }
+        });
+
+        setOpaque(false);
+        setSurfaceTextureListener(this);
+    }
+
+    /**
+     *  Returns the selected camera; one of CAMERA_FACING_BACK or CAMERA_FACING_FRONT.
+     *
+     * @return      The type of the camera (CAMERA_FACING_BACK or CAMERA_FACING_FRONT).
+     */
+    @Override
+    public int getCameraType() {
+        return scene.getCameraType();
+    }
+
+    /**
+     *  Returns the width scale factor of the GraphicTextureView.
+     *
+     * @return      The width scale factor.
+     */
+    @Override
+    public float getWidthScaleFactor() {
+        return scene.getWidthScaleFactor();
+    }
+
+    /**
+     *  Returns the height scale factor of the GraphicTextureView.
+     *
+     * @return      The height scale factor.
+     */
+    @Override
+    public float getHeightScaleFactor() {
+        return scene.getHeightScaleFactor();
+    }
+
+    /**
+     *  Returns the horizontal offset of the detected frames in the GraphicTextureView.
+     *
+     * @return      The offset, in view pixels.
+     */
+    @Override
+    public float getWidthOffset() {
+        return scene.getWidthOffset();
+    }
+
+    /**
+     *  Returns the vertical offset of the detected frames in the GraphicTextureView.
+     *
+     * @return      The offset, in view pixels.
+     */
+    @Override
+    public float getHeightOffset() {
+        return scene.getHeightOffset();
+    }
+
+    /**
+     *  Returns the matrix that maps the preview coordinates to the view. Must only be used by the
+     * render thread, e.g., while drawing.
+     *
+     * @return      The preview to view matrix.
+     */
+    @Override
+    public Matrix getPreviewMatrix() {
+        return scene.getPreviewMatrix();
+    }
+
+    /**
+     *  Returns the version of the preview to view matrix, which changes every time it is rebuilt.
+     *
+     * @return      The matrix version.
+     */
+    @Override
+    public int getMatrixVersion() {
+        return scene.getMatrixVersion();
+    }
+
+    /**
+     *  Returns the time of the frame being drawn. Must only be used by the render thread, while
+     * drawing.
+     *
+     * @return      The frame time, from SystemClock.elapsedRealtime().
+     */
+    @Override
+    public long getFrameTimeMillis() {
+        return scene.getFrameTimeMillis();
+    }
+
+    /**
+     *  Returns the policy that chooses the level of detail. Its listener is called by the render
+     * thread.
+     *
+     * @return      The detail policy.
+     */
+    @Override
+    public DetailPolicy getDetailPolicy() {
+        return scene.getDetailPolicy();
+    }
+
+    /**
+     *  Sets the timer that receives the time spent drawing the graphics.
+     *
+     * @param   _drawTimer      The timer, or null to stop timing.
+     */
+    @Override
+    public void setDrawTimer(StageTimer _drawTimer) {
+        scene.setDrawTimer(_drawTimer);
+    }
+
+    /**
+     *  Adds a graphic to the GraphicTextureView.
+     *
+     * @param   _graphic        The graphic to be added.
+     */
+    @Override
+    public void add(T _graphic) {
+        scene.add(_graphic);
+    }
+
+    /**
+     *  Removes a graphic from the GraphicTextureView.
+     *
+     * @param   _graphic        The graphic to be removed.
+     */
+    @Override
+    public void remove(T _graphic) {
+        scene.remove(_graphic);
+    }
+
+    /**
+     *  Applies a batch of changes to the GraphicTextureView, under a single lock.
+     *
+     * @param   _added          The graphics to be added (may be empty).
+     * @param   _removed        The graphics to be removed (may be empty).
+     */
+    @Override
+    public void update(Collection<? extends T> _added, Collection<? extends T> _removed) {
+        scene.update(_added, _removed);
+    }
+
+    /**
+     *   Removes all graphics from the GraphicTextureView.
+     */
+    @Override
+    public void clear() {
+        scene.clear();
+    }
+
+    /**
+     *  Checks if the GraphicTextureView has no graphics.
+     *
+     * @return      'true' if there are no graphics, 'false' otherwise.
+     */
+    @Override
+    public boolean isEmpty() {
+        return scene.isEmpty();
+    }
+
+    /**
+     *  Sets the camera attributes for size and camera type direction.
+     *
+     * @param   _previewWidth       The preview's width for the camera.
+     * @param   _previewHeight      The preview's height for the camera.
+     * @param   _camera             The selected camera.
+     */
+    @Override
+    public void setCameraInfo(int _previewWidth, int _previewHeight, int _camera) {
+        scene.setCameraInfo(_previewWidth, _previewHeight, _camera);
+    }
+
+    /**
+     *  Sets the geometry of the frames sent to the detector, which the graphics are given in.
+     *
+     * @param   _frameWidth         The width of the detected frames.
+     * @param   _frameHeight        The height of the detected frames.
+     * @param   _previewRegion      The region of the preview covered by the frames, in preview
+     *                              pixels.
+     */
+    @Override
+    public void setFrameGeometry(int _frameWidth, int _frameHeight, RectF _previewRegion) {
+        scene.setFrameGeometry(_frameWidth, _frameHeight, _previewRegion);
+    }
+
+    /**
+     *  Finds the graphic under a point of the view. Must be called by the UI thread.
+     *
+     * @param   _x              The point x, in view coordinates.
+     * @param   _y              The point y, in view coordinates.
+     * @return                  The graphic, or null if there is none under the point.
+     */
+    @Override
+    public T getGraphicAt(float _x, float _y) {
+        return scene.getGraphicAt(_x, _y);
+    }
+
+    /**
+     *  Finds the graphics whose bounds intersect an area of the view. Must be called by the UI
+     * thread.
+     *
+     * @param   _area           The area, in view coordinates.
+     * @param   _result         Receives the graphics found (it is not cleared).
+     * @return                  The number of graphics found.
+     */
+    @Override
+    public int getGraphicsIn(RectF _area, List<T> _result) {
+        return scene.getGraphicsIn(_area, _result);
+    }
+
+    /**
+     *  Marks the whole view dirty, to be redrawn on the next vsync. May be called by any thread.
+     */
+    @Override
+    public void invalidateAll() {
+        scene.invalidateAll();
+    }
+
+    /**
+     *  Marks a graphic dirty, which redraws the whole view on the next vsync. May be called by any
+     * thread.
+     *
+     * @param   _graphic        The graphic.
+     */
+    @Override
+    public void invalidateGraphic(Graphic _graphic) {
+        scene.invalidateAll();
+    }
+
+    /**
+     *  Indexes a graphic again, after its bounds changed. May be called by any thread.
+     *
+     * @param   _graphic        The graphic (ignored if it is not in the view).
+     */
+    @Override
+    public void reindex(Graphic _graphic) {
+        scene.reindex(_graphic);
+    }
+
+    /**
+     *  Starts the render thread when the surface becomes available.
+     *
+     * @param   _surface        The surface texture.
+     * @param   _width          The surface width.
+     * @param   _height         The surface height.
+     */
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture _surface, int _width, int _height) {
+        startRendering();
+    }
+
+    /**
+     *  Redraws the whole surface when its size changes.
+     *
+     * @param   _surface        The surface texture.
+     * @param   _width          The surface width.
+     * @param   _height         The surface height.
+     */
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture _surface, int _width, int _height) {
+        scene.invalidateAll();
+    }
+
+    /**
+     *  Stops the render thread before the surface is destroyed.
+     *
+     * @param   _surface        The surface texture.
+     * @return                  'true', so the surface is released.
+     */
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture _surface) {
+        stopRendering();
+        return true;
+    }
+
+    /**
+     *  Called when the surface is updated, i.e., after a frame is posted (not used).
+     *
+     * @param   _surface        The surface texture.
+     */
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture _surface) {
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Starts the render thread, which receives the vsync callbacks of its own looper.
+     */
+    private void startRendering() {
+
+        if (renderThread != null) return;
+
+        renderThread = new HandlerThread("OverlayRender", Process.THREAD_PRIORITY_DISPLAY);
+        renderThread.start();
+
+        renderHandler = new Handler(renderThread.getLooper());
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                scene.attach(Choreographer.getInstance());
+            }
+        });
+    }
+
+    /**
+     *  Stops the render thread, and waits for the frame being drawn (if any) to be posted.
+     */
+    private void stopRendering() {
+
+        if (renderThread == null) return;
+
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                scene.detach();
+            }
+        });
+
+        renderThread.quitSafely();
+
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        renderThread = null;
+        renderHandler = null;
+    }
+
+    /**
+     *  Draws the graphics on the surface, and posts the frame. Called on the render thread.
+     */
+    private void render() {
+
+        Canvas canvas = lockCanvas();
+
+        if (canvas == null) return;
+
+        try {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            scene.draw(canvas, canvas.getWidth(), canvas.getHeight());
+        } finally {
+            unlockCanvasAndPost(canvas);
+        }
+    }
+
+}
@@ -2,26 +2,35 @@ package com.carzuilha.ocr.view;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 
-import java.util.HashSet;
-import java.util.Set;
+import com.carzuilha.ocr.thread.StageTimer;
+import com.carzuilha.ocr.util.DetailPolicy;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  *  A view which renders a series of custom graphics to be overlaid on top of an associated preview
  * (i.e., the com.project.util preview).
+ *
+ *  The graphics are kept, published and drawn by an overlay scene: changes never wait for the UI
+ * thread, and mark the view dirty. The view is invalidated once on the next vsync if anything was
+ * marked since the last one, and the scene draws in onDraw.
+ *
+ *  The graphics are drawn on the UI thread, so they compete with layout and input; see the
+ * GraphicTextureView for an overlay drawn on a thread of its own. The time measured by the detail
+ * policy is the time spent in onDraw (with hardware acceleration, recording the drawing rather
+ * than rasterizing it).
  */
-public class GraphicView<T extends Graphic> extends View {
-
-    private int cameraType = 0;
-    private int previewWidth;
-    private int previewHeight;
-    private float widthScaleFactor = 1.0f;
-    private float heightScaleFactor = 1.0f;
+public class GraphicView<T extends Graphic> extends View implements GraphicOverlay<T> {
 
-    private Set<T> graphics = new HashSet<>();
-    private final Object lock = new Object();
+    //  The graphics, and the state needed to draw them.
+    private final OverlayScene<T> scene;
 
     //==============================================================================================
     //                                  Default methods
@@ -34,7 +43,20 @@ public class GraphicView<T extends Graphic> extends View {
      * @param   _attrs          A set of attributes to be used with the context.
      */
     public GraphicView(Context _context, AttributeSet _attrs) {
+
         super(_context, _attrs);
+
+        scene = new OverlayScene<>(new OverlayScene.Host() {
+            @Override
+            public void redraw() {
+                invalidate();
+            }
+
+            @Override
+            public void redrawWithoutVsync() {
+                postInvalidate();
+            }
+        });
     }
 
     /**
@@ -42,8 +64,9 @@ public class GraphicView<T extends Graphic> extends View {
      *
      * @return      The type of the camera (CAMERA_FACING_BACK or CAMERA_FACING_FRONT).
      */
+    @Override
     public int getCameraType() {
-        return cameraType;
+        return scene.getCameraType();
     }
 
     /**
@@ -51,8 +74,9 @@ public class GraphicView<T extends Graphic> extends View {
      *
      * @return      The width scale factor.
      */
+    @Override
     public float getWidthScaleFactor() {
-        return widthScaleFactor;
+        return scene.getWidthScaleFactor();
     }
 
     /**
@@ -60,8 +84,84 @@ public class GraphicView<T extends Graphic> extends View {
      *
      * @return      The height scale factor.
      */
+    @Override
     public float getHeightScaleFactor() {
-        return heightScaleFactor;
+        return scene.getHeightScaleFactor();
+    }
+
+    /**
+     *  Returns the horizontal offset of the detected frames in the GraphicView.
+     *
+     * @return      The offset, in view pixels.
+     */
+    @Override
+    public float getWidthOffset() {
+        return scene.getWidthOffset();
+    }
+
+    /**
+     *  Returns the vertical offset of the detected frames in the GraphicView.
+     *
+     * @return      The offset, in view pixels.
+     */
+    @Override
+    public float getHeightOffset() {
+        return scene.getHeightOffset();
+    }
+
+    /**
+     *  Returns the matrix that maps the preview coordinates to the view. Must only be used by the
+     * UI thread, e.g., while drawing.
+     *
+     * @return      The preview to view matrix.
+     */
+    @Override
+    public Matrix getPreviewMatrix() {
+        return scene.getPreviewMatrix();
+    }
+
+    /**
+     *  Returns the version of the preview to view matrix, which changes every time it is rebuilt,
+     * so the graphics know when to map their cached coordinates again.
+     *
+     * @return      The matrix version.
+     */
+    @Override
+    public int getMatrixVersion() {
+        return scene.getMatrixVersion();
+    }
+
+    /**
+     *  Returns the time of the frame being drawn, so every graphic of the frame is animated to
+     * the same instant. Must only be used by the UI thread, while drawing.
+     *
+     * @return      The frame time, from SystemClock.elapsedRealtime().
+     */
+    @Override
+    public long getFrameTimeMillis() {
+        return scene.getFrameTimeMillis();
+    }
+
+    /**
+     *  Returns the policy that chooses the level of detail, e.g., to read the current level and
+     * the average draw time, or to listen to the level changes.
+     *
+     * @return      The detail policy.
+     */
+    @Override
+    public DetailPolicy getDetailPolicy() {
+        return scene.getDetailPolicy();
+    }
+
+    /**
+     *  Sets the timer that receives the time spent drawing the graphics, e.g., the draw stage of
+     * the pipeline statistics.
+     *
+     * @param   _drawTimer      The timer, or null to stop timing.
+     */
+    @Override
+    public void setDrawTimer(StageTimer _drawTimer) {
+        scene.setDrawTimer(_drawTimer);
     }
 
     /**
@@ -69,13 +169,9 @@ public class GraphicView<T extends Graphic> extends View {
      *
      * @param   _graphic        The graphic to be added.
      */
+    @Override
     public void add(T _graphic) {
-
-        synchronized (lock) {
-            graphics.add(_graphic);
-        }
-
-        postInvalidate();
+        scene.add(_graphic);
     }
 
     /**
@@ -83,25 +179,40 @@ public class GraphicView<T extends Graphic> extends View {
      *
      * @param   _graphic        The graphic to be removed.
      */
+    @Override
     public void remove(T _graphic) {
+        scene.remove(_graphic);
+    }
 
-        synchronized (lock) {
-            graphics.remove(_graphic);
-        }
-
-        postInvalidate();
+    /**
+     *  Applies a batch of changes to the GraphicView: the graphics are removed and added under a
+     * single lock, and only their bounds are marked dirty, so a frame of detections costs one
+     * redraw however many blocks it has. The graphics changed in place mark their own bounds.
+     *
+     * @param   _added          The graphics to be added (may be empty).
+     * @param   _removed        The graphics to be removed (may be empty).
+     */
+    @Override
+    public void update(Collection<? extends T> _added, Collection<? extends T> _removed) {
+        scene.update(_added, _removed);
     }
 
     /**
      *   Removes all graphics from the GraphicView.
      */
+    @Override
     public void clear() {
+        scene.clear();
+    }
 
-        synchronized (lock) {
-            graphics.clear();
-        }
-
-        postInvalidate();
+    /**
+     *  Checks if the GraphicView has no graphics.
+     *
+     * @return      'true' if there are no graphics, 'false' otherwise.
+     */
+    @Override
+    public boolean isEmpty() {
+        return scene.isEmpty();
     }
 
     /**
@@ -112,15 +223,79 @@ public class GraphicView<T extends Graphic> extends View {
      * @param   _previewHeight      The preview's height for the camera.
      * @param   _camera             The selected camera.
      */
+    @Override
     public void setCameraInfo(int _previewWidth, int _previewHeight, int _camera) {
+        scene.setCameraInfo(_previewWidth, _previewHeight, _camera);
+    }
+
+    /**
+     *  Sets the geometry of the frames sent to the detector, which the graphics are given in.
+     *
+     * @param   _frameWidth         The width of the detected frames.
+     * @param   _frameHeight        The height of the detected frames.
+     * @param   _previewRegion      The region of the preview covered by the frames, in preview
+     *                              pixels.
+     */
+    @Override
+    public void setFrameGeometry(int _frameWidth, int _frameHeight, RectF _previewRegion) {
+        scene.setFrameGeometry(_frameWidth, _frameHeight, _previewRegion);
+    }
+
+    /**
+     *  Finds the graphic under a point of the view, e.g., to select the text under a touch. The
+     * indexed graphics are hit inside their bounds; only those with no known bounds are tested by
+     * contains(). Must be called by the UI thread.
+     *
+     * @param   _x              The point x, in view coordinates.
+     * @param   _y              The point y, in view coordinates.
+     * @return                  The graphic, or null if there is none under the point.
+     */
+    @Override
+    public T getGraphicAt(float _x, float _y) {
+        return scene.getGraphicAt(_x, _y);
+    }
+
+    /**
+     *  Finds the graphics whose bounds intersect an area of the view, e.g., to select the text
+     * inside a drag. Graphics with no known bounds are not returned. Must be called by the UI
+     * thread.
+     *
+     * @param   _area           The area, in view coordinates.
+     * @param   _result         Receives the graphics found (it is not cleared).
+     * @return                  The number of graphics found.
+     */
+    @Override
+    public int getGraphicsIn(RectF _area, List<T> _result) {
+        return scene.getGraphicsIn(_area, _result);
+    }
 
-        synchronized (lock) {
-            this.previewWidth = _previewWidth;
-            this.previewHeight = _previewHeight;
-            this.cameraType = _camera;
-        }
+    /**
+     *  Marks the whole view dirty, to be redrawn on the next vsync. May be called by any thread.
+     */
+    @Override
+    public void invalidateAll() {
+        scene.invalidateAll();
+    }
 
-        postInvalidate();
+    /**
+     *  Marks a graphic dirty, which redraws the whole view on the next vsync. May be called by any
+     * thread.
+     *
+     * @param   _graphic        The graphic.
+     */
+    @Override
+    public void invalidateGraphic(Graphic _graphic) {
+        scene.invalidateAll();
+    }
+
+    /**
+     *  Indexes a graphic again, after its bounds changed. May be called by any thread.
+     *
+     * @param   _graphic        The graphic (ignored if it is not in the view).
+     */
+    @Override
+    public void reindex(Graphic _graphic) {
+        scene.reindex(_graphic);
     }
 
     /**
@@ -133,17 +308,29 @@ public class GraphicView<T extends Graphic> extends View {
 
         super.onDraw(_canvas);
 
-        synchronized (lock) {
+        scene.draw(_canvas, _canvas.getWidth(), _canvas.getHeight());
+    }
 
-            if ((previewWidth != 0) && (previewHeight != 0)) {
-                widthScaleFactor = (float) _canvas.getWidth() / (float) previewWidth;
-                heightScaleFactor = (float) _canvas.getHeight() / (float) previewHeight;
-            }
+    /**
+     *  Starts receiving the vsync callbacks, on the UI thread.
+     */
+    @Override
+    protected void onAttachedToWindow() {
 
-            for (Graphic graphic : graphics) {
-                graphic.draw(_canvas);
-            }
-        }
+        super.onAttachedToWindow();
+
+        scene.attach(Choreographer.getInstance());
+    }
+
+    /**
+     *  Stops receiving the vsync callbacks.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+
+        scene.detach();
+
+        super.onDetachedFromWindow();
     }
 
 }
@@ -0,0 +1,204 @@
+package com.carzuilha.ocr.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  Keeps the labels drawn by the graphics pre-rendered as bitmaps, so the glyphs of a text are
+ * shaped and rasterized once, instead of on every frame. The labels are kept by text and text
+ * size, and the least recently used ones are evicted when their pixels exceed the byte budget.
+ *
+ *  The labels are alpha-only bitmaps: they are drawn with the color of the paint, and take a
+ * single byte per pixel. An evicted label is not recycled, since a graphic may still be drawing
+ * it; it is simply left to the garbage collector. Labels larger than a fraction of the budget are
+ * not cached at all (the caller draws them as text). Thread-safe.
+ */
+public class LabelCache {
+
+    //  The largest share of the budget a single label may take.
+    private static final int MAX_LABEL_SHARE = 8;
+
+    //  The byte budget, and the bytes taken by the cached labels.
+    private final int maxBytes;
+    private int sizeBytes = 0;
+
+    //  The labels, by text size and text, from the least to the most recently used.
+    private final LinkedHashMap<String, Bitmap> labels = new LinkedHashMap<>(16, 0.75f, true);
+
+    //  The cache counters.
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the cache and sets its parameters.
+     *
+     * @param   _maxBytes       The largest number of bytes taken by the cached labels.
+     */
+    public LabelCache(int _maxBytes) {
+
+        if (_maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid label cache size: " + _maxBytes + " bytes");
+        }
+
+        maxBytes = _maxBytes;
+    }
+
+    /**
+     *  Returns the largest number of bytes taken by the cached labels.
+     *
+     * @return      The byte budget.
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     *  Returns how many bytes the cached labels take.
+     *
+     * @return      The cache size, in bytes.
+     */
+    public synchronized int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     *  Returns how many labels are cached.
+     *
+     * @return      The number of labels.
+     */
+    public synchronized int size() {
+        return labels.size();
+    }
+
+    /**
+     *  Returns how many labels were found in the cache.
+     *
+     * @return      The number of hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     *  Returns how many labels had to be rendered.
+     *
+     * @return      The number of misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     *  Returns how many labels were evicted to respect the budget.
+     *
+     * @return      The number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     *  Removes every label.
+     */
+    public synchronized void clear() {
+        labels.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     *  Returns the label of a text, rendering it if it is not cached. The label is drawn with its
+     * top at the ascent of the paint, i.e., at the baseline plus getBaselineOffset().
+     *
+     * @param   _text           The text.
+     * @param   _paint          The paint of the text (only its text attributes are used).
+     * @return                  The label, or null if the text is empty or too large to be cached.
+     */
+    public synchronized Bitmap get(String _text, Paint _paint) {
+
+        String key = _paint.getTextSize() + ":" + _text;
+        Bitmap label = labels.get(key);
+
+        if (label != null) {
+            hitCount++;
+            return label;
+        }
+
+        missCount++;
+
+        label = render(_text, _paint);
+
+        if (label == null) return null;
+
+        labels.put(key, label);
+        sizeBytes += label.getByteCount();
+        trim();
+
+        return label;
+    }
+
+    /**
+     *  Returns the offset from the baseline of a text to the top of its label.
+     *
+     * @param   _paint          The paint of the text.
+     * @return                  The offset (negative, since the label starts above the baseline).
+     */
+    public static float getBaselineOffset(Paint _paint) {
+        return _paint.ascent();
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Renders a text into a new alpha-only bitmap.
+     *
+     * @param   _text           The text.
+     * @param   _paint          The paint of the text.
+     * @return                  The label, or null if the text is empty or too large to be cached.
+     */
+    private Bitmap render(String _text, Paint _paint) {
+
+        int width = (int) Math.ceil(_paint.measureText(_text));
+        int height = (int) Math.ceil(_paint.descent() - _paint.ascent());
+
+        if (width <= 0 || height <= 0 || (long) width * height > maxBytes / MAX_LABEL_SHARE) {
+            return null;
+        }
+
+        Bitmap label = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(label);
+
+        canvas.drawText(_text, 0.0f, -_paint.ascent(), _paint);
+
+        return label;
+    }
+
+    /**
+     *  Evicts the least recently used labels until the cache respects its budget.
+     */
+    private void trim() {
+
+        Iterator<Map.Entry<String, Bitmap>> iterator = labels.entrySet().iterator();
+
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+
+            Bitmap label = iterator.next().getValue();
+
+            iterator.remove();
+            sizeBytes -= label.getByteCount();
+            evictionCount++;
+        }
+    }
+
+}
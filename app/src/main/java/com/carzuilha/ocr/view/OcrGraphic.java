@@ -1,11 +1,16 @@
 package com.carzuilha.ocr.view;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.SystemClock;
 
+import com.carzuilha.ocr.util.BoxInterpolator;
 import com.google.android.gms.vision.CameraSource;
 import com.google.android.gms.vision.text.Text;
 import com.google.android.gms.vision.text.TextBlock;
@@ -15,16 +20,51 @@ import java.util.List;
 /**
  *  Graphic instance for rendering TextBlock position, size, and ID within an associated graphic
  * graphicView view.
+ *
+ *  The block is turned into a layout once per detection: its box and the baseline of each line,
+ * in preview coordinates. The layout maps them to the view with the matrix of the overlay,
+ * only when that matrix changes, so drawing and hit testing don't allocate anything. The text of
+ * each line is drawn from a pre-rendered label, looked up once per layout, so the glyphs are not
+ * rasterized again on every frame.
+ *
+ *  The box glides between the positions of consecutive detections, by their capture times, so it
+ * moves smoothly on every vsync while the detector runs only a few times per second.
  */
 public class OcrGraphic extends Graphic {
 
     //  Defines the color of the text drawn.
     private static final int TEXT_COLOR = Color.WHITE;
 
+    //  How long the box keeps moving past its last detected position.
+    private static final long MAX_EXTRAPOLATION_MILLIS = 100;
+
+    //  The byte budget of the labels, shared by every graphic: about 300 lines of 20 characters.
+    private static final int LABEL_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final LabelCache labelCache = new LabelCache(LABEL_CACHE_BYTES);
+
     //  Components used to draw the text.
     private static Paint rectPaint;
+    private static Paint settledPaint;
+    private static Paint selectedPaint;
     private static Paint textPaint;
-    private final TextBlock textBlock;
+    private volatile TextBlock textBlock;
+
+    //  The voted text of the block, and of each of its lines (null to draw the text as read).
+    private volatile String stableText;
+    private volatile String[] lines;
+
+    //  The layout of the block, as last detected (null if there is no block).
+    private volatile Layout layout;
+
+    //  If the block was selected by the user, which is drawn filled.
+    private volatile boolean selected = false;
+
+    //  Moves the box between the detected positions, and the box as drawn in the last frame, in
+    // preview and in view coordinates (drawing thread only).
+    private final BoxInterpolator interpolator = new BoxInterpolator(MAX_EXTRAPOLATION_MILLIS);
+    private final float[] drawnPosition = new float[4];
+    private final RectF drawnBox = new RectF();
+    private boolean animating = false;
 
     //==============================================================================================
     //                                  Default methods
@@ -36,12 +76,10 @@ public class OcrGraphic extends Graphic {
      * @param   _overlay    The graphic graphicView.
      * @param   _text       The TextBlock used to draw the detected text.
      */
-    public OcrGraphic(GraphicView _overlay, TextBlock _text) {
+    public OcrGraphic(GraphicOverlay _overlay, TextBlock _text) {
 
         super(_overlay);
 
-        textBlock = _text;
-
         if (rectPaint == null) {
 
             rectPaint = new Paint();
@@ -52,6 +90,22 @@ public class OcrGraphic extends Graphic {
             rectPaint.setPathEffect(new DashPathEffect(new float[] {5, 5}, 0));
         }
 
+        if (settledPaint == null) {
+
+            settledPaint = new Paint(rectPaint);
+
+            settledPaint.setPathEffect(null);
+        }
+
+        if (selectedPaint == null) {
+
+            selectedPaint = new Paint();
+
+            selectedPaint.setColor(TEXT_COLOR);
+            selectedPaint.setAlpha(64);
+            selectedPaint.setStyle(Paint.Style.FILL);
+        }
+
         if (textPaint == null) {
 
             textPaint = new Paint();
@@ -60,9 +114,144 @@ public class OcrGraphic extends Graphic {
             textPaint.setTextSize(54.0f);
         }
 
+        textBlock = _text;
+        layout = createLayout(_text, null, false);
+        moveTo(layout, BoxInterpolator.NO_TIMESTAMP, false);
+    }
+
+    /**
+     *  Replaces the text block drawn by this graphic, e.g., with the newest block of the same
+     * track.
+     *
+     * @param   _text       The new TextBlock.
+     */
+    public void setTextBlock(TextBlock _text) {
+
+        Layout layout = this.layout;
+
+        update(_text, stableText, layout != null && layout.settled, BoxInterpolator.NO_TIMESTAMP);
+    }
+
+    /**
+     *  Replaces the text block and the voted text drawn by this graphic. Its old and new bounds
+     * are marked dirty, and redrawn with every other change on the next vsync. The box glides to
+     * its new position over the time between the captures of the last two blocks.
+     *
+     * @param   _text           The new TextBlock.
+     * @param   _value          The voted text of the block, or null to draw the text as read.
+     * @param   _settled        If the voted text is settled, which is drawn with a solid box.
+     * @param   _captureMillis  The capture time of the frame of the block (e.g., the timestamp of
+     *                          its frame metadata), or BoxInterpolator.NO_TIMESTAMP to move the
+     *                          box at once.
+     * @return                  'true' if the graphic changed, 'false' otherwise.
+     */
+    public boolean update(TextBlock _text, String _value, boolean _settled, long _captureMillis) {
+
+        Layout previous = layout;
+        boolean sameText = (_value == null) ? stableText == null : _value.equals(stableText);
+        boolean sameSettled = (previous == null) ? !_settled : previous.settled == _settled;
+
+        if (_text == textBlock && sameText && sameSettled) return false;
+
+        if (!sameText) {
+            lines = (_value != null) ? _value.split("\n") : null;
+            stableText = _value;
+        }
+
+        textBlock = _text;
+        layout = createLayout(_text, lines, _settled);
+        moveTo(layout, _captureMillis, previous != null);
+        graphicView.reindex(this);
+        postInvalidate();
+
+        return true;
+    }
+
+    /**
+     *  Selects or unselects the block drawn by this graphic.
+     *
+     * @param   _selected   'true' to select the block, 'false' to unselect it.
+     */
+    public void setSelected(boolean _selected) {
+
+        if (selected == _selected) return;
+
+        selected = _selected;
+
         postInvalidate();
     }
 
+    /**
+     *  Returns if the block drawn by this graphic is selected.
+     *
+     * @return      'true' if the block is selected, 'false' otherwise.
+     */
+    public boolean isSelected() {
+        return selected;
+    }
+
+    /**
+     *  Returns the text of the block drawn by this graphic: the voted text, if there is one, or
+     * the text as read.
+     *
+     * @return      The text, or null if there is no block.
+     */
+    public String getText() {
+
+        String stableText = this.stableText;
+        TextBlock textBlock = this.textBlock;
+
+        if (stableText != null) return stableText;
+
+        return (textBlock != null) ? textBlock.getValue() : null;
+    }
+
+    /**
+     *  Returns the text block drawn by this graphic.
+     *
+     * @return      The TextBlock.
+     */
+    public TextBlock getTextBlock() {
+        return textBlock;
+    }
+
+    /**
+     *  Returns the labels shared by every OCR graphic.
+     *
+     * @return      The label cache.
+     */
+    public static LabelCache getLabelCache() {
+        return labelCache;
+    }
+
+    /**
+     *  Returns if the box was still gliding when it was last drawn.
+     *
+     * @return      'true' if the box is moving, 'false' otherwise.
+     */
+    @Override
+    public boolean isAnimating() {
+        return animating;
+    }
+
+    /**
+     *  Returns the bounding box of the block, in preview coordinates.
+     *
+     * @param   _bounds     Receives the bounds.
+     * @return              'true' if there is a block, 'false' otherwise.
+     */
+    @Override
+    public boolean getHitBounds(RectF _bounds) {
+
+        Layout layout = this.layout;
+
+        if (layout == null) return false;
+
+        _bounds.set(layout.box);
+
+        return true;
+    }
+
     /**
      *  Checks whether a point is within the bounding box of this graphic. The provided point should
      * be relative to this graphic's containing graphic.
@@ -74,12 +263,13 @@ public class OcrGraphic extends Graphic {
      */
     public boolean contains(float _x, float _y) {
 
-        if (textBlock == null) return false;
+        Layout layout = this.layout;
+
+        if (layout == null) return false;
 
-        RectF rect = new RectF(textBlock.getBoundingBox());
-        rect = translateRect(rect);
+        layout.map(graphicView);
 
-        return rect.contains(_x, _y);
+        return layout.screenBox.contains(_x, _y);
     }
 
     /**
@@ -113,9 +303,9 @@ public class OcrGraphic extends Graphic {
      */
     public float translateX(float _x) {
         if (graphicView.getCameraType() == CameraSource.CAMERA_FACING_FRONT) {
-            return graphicView.getWidth() - scaleX(_x);
+            return graphicView.getWidth() - graphicView.getWidthOffset() - scaleX(_x);
         } else {
-            return scaleX(_x);
+            return graphicView.getWidthOffset() + scaleX(_x);
         }
     }
 
@@ -127,7 +317,7 @@ public class OcrGraphic extends Graphic {
      * @return              The new y coordinate of the graphic.
      */
     public float translateY(float _y) {
-        return scaleY(_y);
+        return graphicView.getHeightOffset() + scaleY(_y);
     }
 
     /**
@@ -138,21 +328,241 @@ public class OcrGraphic extends Graphic {
     @Override
     public void draw(Canvas _canvas) {
 
-        if (textBlock == null) return;
+        Layout layout = this.layout;
+
+        if (layout == null) return;
+
+        layout.findLabels();
+        placeBox(layout);
+
+        float dx = drawnBox.left - layout.screenBox.left;
+        float dy = drawnBox.top - layout.screenBox.top;
+
+        if (selected) {
+            _canvas.drawRect(drawnBox, selectedPaint);
+        }
+
+        _canvas.drawRect(drawnBox, layout.settled ? settledPaint : rectPaint);
+
+        for (int i = 0; i < layout.texts.length; i++) {
+
+            float x = layout.screenBaselines[i * 2] + dx;
+            float y = layout.screenBaselines[i * 2 + 1] + dy;
+            Bitmap label = layout.labels[i];
+
+            //  The labels are aligned to whole pixels, so they are drawn without filtering.
+            if (label != null) {
+                _canvas.drawBitmap(label, Math.round(x), Math.round(y + layout.labelOffset), textPaint);
+            } else {
+                _canvas.drawText(layout.texts[i], x, y, textPaint);
+            }
+        }
+    }
+
+    /**
+     *  Draws only the box of the block, with a plain stroke (which is cheaper than the dashed one).
+     *
+     * @param   _canvas      The drawing canvas.
+     */
+    @Override
+    public void drawOutline(Canvas _canvas) {
+
+        Layout layout = this.layout;
+
+        if (layout == null) return;
+
+        placeBox(layout);
+
+        if (selected) {
+            _canvas.drawRect(drawnBox, selectedPaint);
+        }
+
+        _canvas.drawRect(drawnBox, settledPaint);
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Replaces the layout of this graphic, e.g., with one that was not read from a TextBlock.
+     *
+     * @param   _layout     The new layout.
+     */
+    void setLayout(Layout _layout) {
+
+        layout = _layout;
+        moveTo(_layout, BoxInterpolator.NO_TIMESTAMP, false);
+        graphicView.reindex(this);
+        postInvalidate();
+    }
+
+    /**
+     *  Places the box where it glided to, in view coordinates, for the frame being drawn.
+     *
+     * @param   _layout         The layout being drawn.
+     */
+    private void placeBox(Layout _layout) {
+
+        _layout.map(graphicView);
+
+        animating = interpolator.sample(graphicView.getFrameTimeMillis(), drawnPosition);
+        drawnBox.set(drawnPosition[0], drawnPosition[1], drawnPosition[2], drawnPosition[3]);
+        graphicView.getPreviewMatrix().mapRect(drawnBox);
+    }
+
+    /**
+     *  Moves the box to the position of a new layout.
+     *
+     * @param   _layout         The new layout (may be null).
+     * @param   _captureMillis  The capture time of the layout, or BoxInterpolator.NO_TIMESTAMP.
+     * @param   _glide          'true' to glide from the position drawn now, 'false' to move the
+     *                          box at once.
+     */
+    private void moveTo(Layout _layout, long _captureMillis, boolean _glide) {
+
+        if (_layout == null) return;
+
+        RectF box = _layout.box;
+
+        if (_glide) {
+            interpolator.update(box.left, box.top, box.right, box.bottom, _captureMillis,
+                    SystemClock.elapsedRealtime());
+        } else {
+            interpolator.reset(box.left, box.top, box.right, box.bottom, _captureMillis);
+        }
+    }
+
+    /**
+     *  Reads the layout of a text block.
+     *
+     * @param   _text       The TextBlock (may be null).
+     * @param   _lines      The voted text of each line, used only if the block has as many lines.
+     * @param   _settled    If the voted text is settled.
+     * @return              The layout, or null if there is no block.
+     */
+    private Layout createLayout(TextBlock _text, String[] _lines, boolean _settled) {
 
-        RectF rect = new RectF(textBlock.getBoundingBox());
+        if (_text == null) return null;
 
-        rect = translateRect(rect);
-        _canvas.drawRect(rect, rectPaint);
+        List<? extends Text> components = _text.getComponents();
+        int count = components.size();
+        float[] baselines = new float[count * 2];
+        String[] texts = new String[count];
+
+        //  The voted lines are drawn only if they still match the lines of the block.
+        if (_lines != null && _lines.length != count) _lines = null;
+
+        for (int i = 0; i < count; i++) {
+
+            Text component = components.get(i);
+            Rect box = component.getBoundingBox();
+
+            baselines[i * 2] = box.left;
+            baselines[i * 2 + 1] = box.bottom;
+            texts[i] = (_lines != null) ? _lines[i] : component.getValue();
+        }
+
+        return new Layout(new RectF(_text.getBoundingBox()), baselines, texts, _settled,
+                graphicView.getWidthScaleFactor(), graphicView.getHeightScaleFactor());
+    }
+
+    //==============================================================================================
+    //                                  Inner classes
+    //==============================================================================================
+
+    /**
+     *  The box and the lines of a text block, in preview coordinates (never changed once created),
+     * and their view coordinates, mapped by the drawing thread when the view matrix changes.
+     */
+    static final class Layout {
+
+        //  The block box, the baseline start of each line (x and y) and its text, and the bounds
+        // of everything drawn.
+        final RectF box;
+        final float[] baselines;
+        final String[] texts;
+        final boolean settled;
+        final RectF bounds;
+
+        //  The box and the baselines in view coordinates, for the matrix of their version.
+        final RectF screenBox = new RectF();
+        final float[] screenBaselines;
+        int version = -1;
+
+        //  The label of each line (null if it is drawn as text), once looked up, and the offset of
+        // the labels from the baselines.
+        final Bitmap[] labels;
+        boolean labelsFound = false;
+        float labelOffset = 0.0f;
+
+        /**
+         *  Creates a layout.
+         *
+         * @param   _box            The block box, in preview coordinates.
+         * @param   _baselines      The baseline start of each line (x and y).
+         * @param   _texts          The text of each line.
+         * @param   _settled        If the text is settled.
+         * @param   _widthScale     The current width scale factor of the view.
+         * @param   _heightScale    The current height scale factor of the view.
+         */
+        Layout(RectF _box, float[] _baselines, String[] _texts, boolean _settled,
+               float _widthScale, float _heightScale) {
+
+            box = _box;
+            baselines = _baselines;
+            texts = _texts;
+            settled = _settled;
+            bounds = new RectF(_box);
+            screenBaselines = new float[_baselines.length];
+            labels = new Bitmap[_texts.length];
+
+            //  The text is measured in view pixels. It runs to the right of its baseline, or to
+            // the left once mirrored for the front camera, so both sides are covered.
+            float textHeight = textPaint.getTextSize() / _heightScale;
+
+            for (int i = 0; i < _texts.length; i++) {
+
+                float textWidth = textPaint.measureText(_texts[i]) / _widthScale;
+                float x = _baselines[i * 2];
+                float y = _baselines[i * 2 + 1];
+
+                bounds.union(x - textWidth, y - textHeight, x + textWidth, y + textHeight / 2);
+            }
+        }
+
+        /**
+         *  Maps the layout to the view, if the view matrix changed since it was last mapped.
+         * Called only by the drawing thread (or by the UI thread, for the GraphicView).
+         *
+         * @param   _view           The overlay.
+         */
+        void map(GraphicOverlay _view) {
+
+            int matrixVersion = _view.getMatrixVersion();
+
+            if (version == matrixVersion) return;
+
+            Matrix matrix = _view.getPreviewMatrix();
+
+            matrix.mapRect(screenBox, box);
+            matrix.mapPoints(screenBaselines, baselines);
+            version = matrixVersion;
+        }
 
-        List<? extends Text> textComponents = textBlock.getComponents();
+        /**
+         *  Looks up the label of each line, once per layout. Called only by the drawing thread.
+         */
+        void findLabels() {
 
-        for(Text currentText : textComponents) {
+            if (labelsFound) return;
 
-            float left = translateX(currentText.getBoundingBox().left);
-            float bottom = translateY(currentText.getBoundingBox().bottom);
+            for (int i = 0; i < texts.length; i++) {
+                labels[i] = labelCache.get(texts[i], textPaint);
+            }
 
-            _canvas.drawText(currentText.getValue(), left, bottom, textPaint);
+            labelOffset = LabelCache.getBaselineOffset(textPaint);
+            labelsFound = true;
         }
     }
 
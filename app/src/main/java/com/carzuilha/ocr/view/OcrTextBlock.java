@@ -1,22 +1,69 @@
 package com.carzuilha.ocr.view;
 
+import android.graphics.Rect;
 import android.util.Log;
 import android.util.SparseArray;
 
+import com.carzuilha.ocr.util.BlockTracker;
+import com.carzuilha.ocr.util.TextConsensus;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.text.TextBlock;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- *  A very simple processor which gets detected TextBlocks and adds them to the GraphicView as
- * OcrGraphics.
+ *  A very simple processor which gets detected TextBlocks and adds them to the overlay as
+ * OcrGraphics. The blocks are tracked across frames, so each one keeps its graphic (and its ID)
+ * while it stays in view, instead of the overlay being rebuilt on every frame. The text of each
+ * track is voted over its last readings, and the listener is told when every block in view has a
+ * settled text (so the pipeline may stop reading them again).
  */
 public class OcrTextBlock implements Detector.Processor<TextBlock> {
 
     //  Defines the tag of the class.
     private static final String TAG = "OcrTextBlock";
 
+    //  The least overlap of the same block in consecutive frames, and how many frames a block may
+    // be missed before its graphic is removed (which hides short detection gaps).
+    private static final float MIN_TRACK_OVERLAP = 0.3f;
+    private static final int MAX_MISSED_FRAMES = 2;
+
+    //  How many of the last readings of a block vote on its text, how many of them must agree for
+    // the text to settle, and the least confidence of a settled text.
+    private static final int CONSENSUS_WINDOW = 8;
+    private static final int MIN_AGREEING_READINGS = 3;
+    private static final float SETTLE_CONFIDENCE = 0.75f;
+
+    /**
+     *  Receives the changes of the settled state of the blocks in view.
+     */
+    public interface Listener {
+
+        /**
+         *  Called when every block in view becomes settled, or when one stops being settled.
+         * Called by the thread that delivers the detections.
+         *
+         * @param   _settled    'true' if every block in view has a settled text.
+         */
+        void onSettledChanged(boolean _settled);
+    }
+
     //  The graphics utilized to draw the text.
-    private GraphicView<OcrGraphic> graphicOverlay;
+    private GraphicOverlay<OcrGraphic> graphicOverlay;
+
+    //  Links the blocks of consecutive frames, and the graphic of each track (by track ID).
+    private final BlockTracker<TextBlock> tracker = new BlockTracker<>(MIN_TRACK_OVERLAP, MAX_MISSED_FRAMES);
+    private final SparseArray<OcrGraphic> trackGraphics = new SparseArray<>();
+
+    //  The text voted for each track (by track ID), and if every block in view was settled.
+    private final SparseArray<TextConsensus> trackTexts = new SparseArray<>();
+    private boolean allSettled = false;
+    private Listener listener;
+
+    //  The graphics added and removed by the last detections, applied to the overlay in one batch.
+    private final List<OcrGraphic> addedGraphics = new ArrayList<>();
+    private final List<OcrGraphic> removedGraphics = new ArrayList<>();
 
     //==============================================================================================
     //                                  Default methods
@@ -27,21 +74,61 @@ public class OcrTextBlock implements Detector.Processor<TextBlock> {
      *
      * @param   ocrGraphicOverlay   The graphics utilized to draw the detected text.
      */
-    public OcrTextBlock(GraphicView<OcrGraphic> ocrGraphicOverlay) {
+    public OcrTextBlock(GraphicOverlay<OcrGraphic> ocrGraphicOverlay) {
         graphicOverlay = ocrGraphicOverlay;
     }
 
     /**
-     *  Called by the detector to deliver detection results.
+     *  Returns the tracker that links the blocks of consecutive frames.
+     *
+     * @return      The block tracker.
+     */
+    public BlockTracker<TextBlock> getTracker() {
+        return tracker;
+    }
+
+    /**
+     *  Sets the listener of the settled state.
+     *
+     * @param   _listener       The listener, or null to remove it.
+     */
+    public synchronized void setListener(Listener _listener) {
+        listener = _listener;
+    }
+
+    /**
+     *  Returns the text voted for a track.
+     *
+     * @param   _trackId        The track ID.
+     * @return                  The voted text, or null if the track is not in view.
+     */
+    public TextConsensus getConsensus(int _trackId) {
+        return trackTexts.get(_trackId);
+    }
+
+    /**
+     *  Called by the detector to deliver detection results. The blocks are matched to the tracks
+     * of the previous frames: new tracks get a new graphic, matched tracks update theirs, and the
+     * graphics of removed tracks are removed. Only new readings vote: the detections reused from
+     * previous frames carry the same blocks, which are not counted again. The changes are applied
+     * to the overlay in a single batch, with a single redraw.
      *
      * @param   _detections         The received _detections.
      */
     @Override
     public void receiveDetections(Detector.Detections<TextBlock> _detections) {
 
-        graphicOverlay.clear();
-
         SparseArray<TextBlock> items = _detections.getDetectedItems();
+        long captureMillis = _detections.getFrameMetadata().getTimestampMillis();
+
+        //  The overlay is cleared when the camera restarts, and the tracks start over with it.
+        if (trackGraphics.size() > 0 && graphicOverlay.isEmpty()) {
+            tracker.reset();
+            trackGraphics.clear();
+            trackTexts.clear();
+        }
+
+        tracker.begin();
 
         for (int i = 0; i < items.size(); ++i) {
 
@@ -49,13 +136,71 @@ public class OcrTextBlock implements Detector.Processor<TextBlock> {
 
             if (item != null && item.getValue() != null) {
 
-                OcrGraphic graphic = new OcrGraphic(graphicOverlay, item);
+                Rect box = item.getBoundingBox();
+
+                tracker.add(item, box.left, box.top, box.right, box.bottom);
+            }
+        }
+
+        tracker.end();
+
+        addedGraphics.clear();
+        removedGraphics.clear();
+
+        for (BlockTracker.Track<TextBlock> track : tracker.getRemovedTracks()) {
 
-                graphicOverlay.add(graphic);
+            OcrGraphic graphic = trackGraphics.get(track.getId());
 
-                Log.d(TAG, "Text detected: [" + item.getValue() + "]");
+            if (graphic != null) {
+                trackGraphics.remove(track.getId());
+                removedGraphics.add(graphic);
             }
+
+            trackTexts.remove(track.getId());
+        }
+
+        boolean settled = true;
+
+        for (BlockTracker.Track<TextBlock> track : tracker.getTracks()) {
+
+            if (track.getMissedFrames() > 0) continue;
+
+            OcrGraphic graphic = trackGraphics.get(track.getId());
+            TextConsensus consensus = trackTexts.get(track.getId());
+
+            if (graphic == null) {
+
+                graphic = new OcrGraphic(graphicOverlay, track.getItem());
+                consensus = new TextConsensus(CONSENSUS_WINDOW, MIN_AGREEING_READINGS, SETTLE_CONFIDENCE);
+
+                trackGraphics.put(track.getId(), graphic);
+                trackTexts.put(track.getId(), consensus);
+                addedGraphics.add(graphic);
+                consensus.add(track.getItem().getValue());
+
+                Log.d(TAG, "Text detected: [" + track.getItem().getValue() + "]");
+
+            } else if (graphic.getTextBlock() != track.getItem()) {
+
+                boolean wasSettled = consensus.isSettled();
+
+                consensus.add(track.getItem().getValue());
+                graphic.update(track.getItem(), consensus.getValue(), consensus.isSettled(), captureMillis);
+
+                if (consensus.isSettled() && !wasSettled) {
+                    Log.d(TAG, "Text settled: [" + consensus.getValue() + "]");
+                }
+            }
+
+            settled = settled && consensus.isSettled();
         }
+
+        graphicOverlay.update(addedGraphics, removedGraphics);
+
+        addedGraphics.clear();
+        removedGraphics.clear();
+
+        setAllSettled(settled && trackTexts.size() > 0);
     }
 
     /**
@@ -63,7 +208,38 @@ public class OcrTextBlock implements Detector.Processor<TextBlock> {
      */
     @Override
     public void release() {
+
+        tracker.reset();
+        trackGraphics.clear();
+        trackTexts.clear();
         graphicOverlay.clear();
+        setAllSettled(false);
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Updates the settled state of the blocks in view, and tells the listener if it changed.
+     *
+     * @param   _settled        'true' if every block in view has a settled text.
+     */
+    private void setAllSettled(boolean _settled) {
+
+        if (_settled == allSettled) return;
+
+        Listener listener;
+
+        allSettled = _settled;
+
+        synchronized (this) {
+            listener = this.listener;
+        }
+
+        if (listener != null) {
+            listener.onSettledChanged(_settled);
+        }
     }
 
 }
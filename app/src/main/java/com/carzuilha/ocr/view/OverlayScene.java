@@ -0,0 +1,878 @@
+package com.carzuilha.ocr.view;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.carzuilha.ocr.thread.StageTimer;
+import com.carzuilha.ocr.util.DetailPolicy;
+import com.carzuilha.ocr.util.GridIndex;
+import com.google.android.gms.vision.CameraSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *  The graphics of an overlay, and everything needed to draw them, apart from the surface they
+ * are drawn on. Shared by the GraphicView and the GraphicTextureView, which only differ by the
+ * thread that draws and by how a frame reaches the screen.
+ *
+ *  The graphics are changed by the processing thread and drawn by the drawing thread, which never
+ * wait for each other: every change is made to the graphics set under the lock, and then
+ * published as an immutable array that replaces the previous one. The drawing thread draws the
+ * last published array without locking.
+ *
+ *  Changes don't redraw the overlay directly. They mark it dirty, and the host is asked to redraw
+ * once on the next vsync of the drawing thread if anything was marked since the last one. The
+ * whole overlay is redrawn, so no dirty bounds are kept: neither host can redraw part of it, since
+ * partial view invalidation is ignored with hardware acceleration, and the buffers of a texture
+ * view don't keep the previous frame. The graphics are positioned by a single preview to overlay
+ * matrix, which is rebuilt only when the overlay or the preview size changes.
+ *
+ *  The graphics are given in the coordinates of the frames sent to the detector ("preview
+ * coordinates" below), which may be cropped and reduced: the frames cover a region of the
+ * preview, which the matrix maps back to the overlay.
+ *
+ *  The bounds of the graphics are also kept in a grid index, updated with every change, so the
+ * graphics under a touch are found without testing all of them.
+ *
+ *  Graphics may move between the detections (e.g., gliding to their new positions). While any of
+ * them is moving, the whole overlay is drawn again on every vsync.
+ *
+ *  The level of detail follows a draw-time budget: while the graphics fit, they are drawn whole;
+ * then only their outlines; then only the outlines of the regions of a coarse grid that hold any
+ * of them. The time measured is the time spent in draw(), and it is reported, with the level, by
+ * the detail policy.
+ *
+ * @param   <T>     The type of the graphics.
+ */
+class OverlayScene<T extends Graphic> {
+
+    //  The snapshot of an empty overlay.
+    private static final Graphic[] NO_GRAPHICS = new Graphic[0];
+
+    //  The number of cells of the hit testing index, along each dimension.
+    private static final int INDEX_SIZE = 16;
+
+    //  The draw time each frame should fit in (half of a 60 Hz frame), and the number of cells of
+    // the region grid, along each dimension.
+    private static final long DRAW_BUDGET_NANOS = 8000000L;
+    private static final int REGION_GRID = 16;
+
+    /**
+     *  The surface the scene is drawn on.
+     */
+    interface Host {
+
+        /**
+         *  Redraws the overlay. Called on the drawing thread, on a vsync, once per vsync at most.
+         */
+        void redraw();
+
+        /**
+         *  Redraws the overlay while no vsync callbacks are received (e.g., while it is detached).
+         * May be called by any thread.
+         */
+        void redrawWithoutVsync();
+    }
+
+    //  The surface the scene is drawn on.
+    private final Host host;
+
+    //  The preview, camera and detected frames, as last set (never changed once set).
+    private volatile Geometry geometry = new Geometry(0, 0, 0, 0, 0, null);
+
+    private volatile float widthScaleFactor = 1.0f;
+    private volatile float heightScaleFactor = 1.0f;
+    private volatile float widthOffset = 0.0f;
+    private volatile float heightOffset = 0.0f;
+
+    private Set<T> graphics = new HashSet<>();
+    private final Object lock = new Object();
+
+    //  The graphics to be drawn, as last published (never changed once published).
+    private volatile Graphic[] snapshot = NO_GRAPHICS;
+
+    //  Indexes the graphics by their bounds, in preview coordinates, and keeps the graphics with
+    // no known bounds (guarded by the lock).
+    private final GridIndex<Graphic> index = new GridIndex<>(INDEX_SIZE, INDEX_SIZE, 1.0f, 1.0f);
+    private final Set<Graphic> unbounded = new HashSet<>();
+    private final RectF indexBounds = new RectF();
+
+    //  Maps the touches and the queried areas back to the preview, and receives the graphics under
+    // them (UI thread only).
+    private final Matrix inverseMatrix = new Matrix();
+    private int inverseVersion = -1;
+    private final float[] touchPoint = new float[2];
+    private final RectF queryArea = new RectF();
+    private final List<Graphic> hits = new ArrayList<>();
+
+    //  Receives the time spent drawing the graphics (may be null).
+    private volatile StageTimer drawTimer;
+
+    //  Maps the preview coordinates to the overlay, for the overlay size and the preview of its
+    // version (which changes every time the matrix is rebuilt). Used only by the drawing thread;
+    // it is only rebuilt, and inverted by the UI thread, holding the matrix itself.
+    private final Matrix previewMatrix = new Matrix();
+    private int matrixVersion = 0;
+    private int matrixWidth = 0;
+    private int matrixHeight = 0;
+    private Geometry matrixGeometry;
+
+    //  If the overlay changed since the last vsync, which redraws it whole; and if a vsync callback
+    // is pending (guarded by the dirty lock).
+    private final Object dirtyLock = new Object();
+    private boolean dirty = false;
+    private boolean frameScheduled = false;
+
+    //  Chooses the level of detail of each frame (drawing thread only, except for its listener).
+    private final DetailPolicy detailPolicy = new DetailPolicy(DRAW_BUDGET_NANOS);
+
+    //  The cells of the region grid that hold graphics, and the regions they are merged into, as
+    // cell edges (drawing thread only).
+    private final boolean[] regionCells = new boolean[REGION_GRID * REGION_GRID];
+    private final int[] regionLeft = new int[REGION_GRID * REGION_GRID / 2];
+    private final int[] regionTop = new int[REGION_GRID * REGION_GRID / 2];
+    private final int[] regionRight = new int[REGION_GRID * REGION_GRID / 2];
+    private final int[] regionBottom = new int[REGION_GRID * REGION_GRID / 2];
+    private final RectF regionBounds = new RectF();
+    private final Paint regionPaint = new Paint();
+
+    //  The time of the frame being drawn, from SystemClock.elapsedRealtime() (drawing thread only).
+    private long frameTimeMillis = 0;
+
+    //  Schedules the vsync callbacks of the drawing thread (null while detached).
+    private volatile Choreographer choreographer;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long _frameTimeNanos) {
+            redrawDirty();
+        }
+    };
+
+    //==============================================================================================
+    //                                  Default methods
+    //==============================================================================================
+
+    /**
+     *  Initializes the scene and sets its parameters.
+     *
+     * @param   _host           The surface the scene is drawn on.
+     */
+    OverlayScene(Host _host) {
+
+        host = _host;
+
+        regionPaint.setColor(Color.WHITE);
+        regionPaint.setStyle(Paint.Style.STROKE);
+        regionPaint.setStrokeWidth(4.0f);
+    }
+
+    /**
+     *  Returns the selected camera.
+     *
+     * @return      The type of the camera (CAMERA_FACING_BACK or CAMERA_FACING_FRONT).
+     */
+    int getCameraType() {
+        return geometry.camera;
+    }
+
+    /**
+     *  Returns the width scale factor of the overlay.
+     *
+     * @return      The width scale factor.
+     */
+    float getWidthScaleFactor() {
+        return widthScaleFactor;
+    }
+
+    /**
+     *  Returns the height scale factor of the overlay.
+     *
+     * @return      The height scale factor.
+     */
+    float getHeightScaleFactor() {
+        return heightScaleFactor;
+    }
+
+    /**
+     *  Returns the horizontal offset of the detected frames in the view.
+     *
+     * @return      The offset, in view pixels.
+     */
+    float getWidthOffset() {
+        return widthOffset;
+    }
+
+    /**
+     *  Returns the vertical offset of the detected frames in the view.
+     *
+     * @return      The offset, in view pixels.
+     */
+    float getHeightOffset() {
+        return heightOffset;
+    }
+
+    /**
+     *  Returns the preview to overlay matrix (drawing thread only).
+     *
+     * @return      The preview to overlay matrix.
+     */
+    Matrix getPreviewMatrix() {
+        return previewMatrix;
+    }
+
+    /**
+     *  Returns the version of the preview to overlay matrix.
+     *
+     * @return      The matrix version.
+     */
+    int getMatrixVersion() {
+        return matrixVersion;
+    }
+
+    /**
+     *  Returns the time of the frame being drawn (drawing thread only).
+     *
+     * @return      The frame time, from SystemClock.elapsedRealtime().
+     */
+    long getFrameTimeMillis() {
+        return frameTimeMillis;
+    }
+
+    /**
+     *  Returns the policy that chooses the level of detail.
+     *
+     * @return      The detail policy.
+     */
+    DetailPolicy getDetailPolicy() {
+        return detailPolicy;
+    }
+
+    /**
+     *  Sets the timer that receives the time spent drawing the graphics.
+     *
+     * @param   _drawTimer      The timer, or null to stop timing.
+     */
+    void setDrawTimer(StageTimer _drawTimer) {
+        drawTimer = _drawTimer;
+    }
+
+    /**
+     *  Adds a graphic to the scene.
+     *
+     * @param   _graphic        The graphic to be added.
+     */
+    void add(T _graphic) {
+
+        synchronized (lock) {
+            graphics.add(_graphic);
+            indexGraphic(_graphic);
+            publish();
+        }
+
+        invalidateAll();
+    }
+
+    /**
+     *  Removes a graphic from the scene.
+     *
+     * @param   _graphic        The graphic to be removed.
+     */
+    void remove(T _graphic) {
+
+        synchronized (lock) {
+            graphics.remove(_graphic);
+            unindexGraphic(_graphic);
+            publish();
+        }
+
+        invalidateAll();
+    }
+
+    /**
+     *  Applies a batch of changes to the scene, under a single lock.
+     *
+     * @param   _added          The graphics to be added (may be empty).
+     * @param   _removed        The graphics to be removed (may be empty).
+     */
+    void update(Collection<? extends T> _added, Collection<? extends T> _removed) {
+
+        if (_added.isEmpty() && _removed.isEmpty()) return;
+
+        synchronized (lock) {
+            graphics.removeAll(_removed);
+            graphics.addAll(_added);
+
+            for (T graphic : _removed) {
+                unindexGraphic(graphic);
+            }
+            for (T graphic : _added) {
+                indexGraphic(graphic);
+            }
+
+            publish();
+        }
+
+        invalidateAll();
+    }
+
+    /**
+     *   Removes all graphics from the scene.
+     */
+    void clear() {
+
+        synchronized (lock) {
+            graphics.clear();
+            index.clear();
+            unbounded.clear();
+            publish();
+        }
+
+        invalidateAll();
+    }
+
+    /**
+     *  Checks if the scene has no graphics.
+     *
+     * @return      'true' if there are no graphics, 'false' otherwise.
+     */
+    boolean isEmpty() {
+        return snapshot.length == 0;
+    }
+
+    /**
+     *  Sets the camera attributes for size and camera type direction.
+     *
+     * @param   _previewWidth       The preview's width for the camera.
+     * @param   _previewHeight      The preview's height for the camera.
+     * @param   _camera             The selected camera.
+     */
+    void setCameraInfo(int _previewWidth, int _previewHeight, int _camera) {
+
+        synchronized (lock) {
+            Geometry current = geometry;
+            setGeometry(new Geometry(_previewWidth, _previewHeight, _camera,
+                    current.frameWidth, current.frameHeight, current.frameRegion));
+        }
+
+        invalidateAll();
+    }
+
+    /**
+     *  Sets the geometry of the frames sent to the detector, whose coordinates the graphics are
+     * given in. Until it is set, the frames are taken as the whole preview, at its size.
+     *
+     * @param   _frameWidth         The width of the detected frames.
+     * @param   _frameHeight        The height of the detected frames.
+     * @param   _previewRegion      The region of the preview covered by the frames, in preview
+     *                              pixels.
+     */
+    void setFrameGeometry(int _frameWidth, int _frameHeight, RectF _previewRegion) {
+
+        if (_frameWidth <= 0 || _frameHeight <= 0 || !(_previewRegion.right > _previewRegion.left
+                && _previewRegion.bottom > _previewRegion.top)) {
+            throw new IllegalArgumentException("Invalid frame geometry: " + _frameWidth + "x"
+                    + _frameHeight + " at " + _previewRegion);
+        }
+
+        synchronized (lock) {
+            Geometry current = geometry;
+            setGeometry(new Geometry(current.previewWidth, current.previewHeight, current.camera,
+                    _frameWidth, _frameHeight, new RectF(_previewRegion)));
+        }
+
+        invalidateAll();
+    }
+
+    /**
+     *  Finds the graphic under a point of the overlay. The indexed graphics are hit inside their
+     * bounds, found in preview coordinates, so they are never asked while the drawing thread may
+     * be mapping them; only the graphics with no known bounds are tested by contains(). Must be
+     * called by the UI thread.
+     *
+     * @param   _x              The point x, in overlay coordinates.
+     * @param   _y              The point y, in overlay coordinates.
+     * @return                  The graphic, or null if there is none under the point.
+     */
+    @SuppressWarnings("unchecked")
+    T getGraphicAt(float _x, float _y) {
+
+        toPreview(_x, _y);
+
+        hits.clear();
+
+        synchronized (lock) {
+            if (index.queryPoint(touchPoint[0], touchPoint[1], hits) > 0) return (T) hits.get(0);
+            hits.addAll(unbounded);
+        }
+
+        for (int i = 0; i < hits.size(); i++) {
+            if (hits.get(i).contains(_x, _y)) return (T) hits.get(i);
+        }
+
+        return null;
+    }
+
+    /**
+     *  Finds the graphics whose bounds intersect an area of the overlay. Must be called by the UI
+     * thread.
+     *
+     * @param   _area           The area, in overlay coordinates.
+     * @param   _result         Receives the graphics found (it is not cleared).
+     * @return                  The number of graphics found.
+     */
+    @SuppressWarnings("unchecked")
+    int getGraphicsIn(RectF _area, List<T> _result) {
+
+        updateInverse();
+
+        inverseMatrix.mapRect(queryArea, _area);
+
+        synchronized (lock) {
+            return index.queryRect(queryArea.left, queryArea.top, queryArea.right, queryArea.bottom,
+                    (List<Graphic>) _result);
+        }
+    }
+
+    /**
+     *  Marks the whole overlay dirty. May be called by any thread.
+     */
+    void invalidateAll() {
+
+        synchronized (dirtyLock) {
+            dirty = true;
+            scheduleFrame();
+        }
+    }
+
+    /**
+     *  Indexes a graphic again, after its bounds changed. May be called by any thread.
+     *
+     * @param   _graphic        The graphic (ignored if it is not in the scene).
+     */
+    void reindex(Graphic _graphic) {
+
+        synchronized (lock) {
+            if (graphics.contains(_graphic)) indexGraphic(_graphic);
+        }
+    }
+
+    /**
+     *  Draws the graphics, as last published. Called by the drawing thread.
+     *
+     * @param   _canvas         The canvas.
+     * @param   _width          The overlay width.
+     * @param   _height         The overlay height.
+     */
+    void draw(Canvas _canvas, int _width, int _height) {
+
+        long start = System.nanoTime();
+
+        Graphic[] graphics = snapshot;
+
+        updateMatrix(_width, _height);
+
+        boolean animating = false;
+        int level = detailPolicy.select(graphics.length);
+
+        frameTimeMillis = SystemClock.elapsedRealtime();
+
+        if (level == DetailPolicy.LEVEL_REGIONS) {
+            drawRegions(_canvas, graphics);
+        } else {
+            for (Graphic graphic : graphics) {
+
+                if (level == DetailPolicy.LEVEL_FULL) {
+                    graphic.draw(_canvas);
+                } else {
+                    graphic.drawOutline(_canvas);
+                }
+
+                animating |= graphic.isAnimating();
+            }
+        }
+
+        if (animating) {
+            invalidateAll();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        StageTimer drawTimer = this.drawTimer;
+
+        detailPolicy.record(level, graphics.length, elapsed);
+
+        if (drawTimer != null) {
+            drawTimer.record(elapsed);
+        }
+    }
+
+    /**
+     *  Starts receiving the vsync callbacks. Called on the drawing thread, which becomes the
+     * thread of the callbacks.
+     *
+     * @param   _choreographer  The choreographer of the drawing thread.
+     */
+    void attach(Choreographer _choreographer) {
+        choreographer = _choreographer;
+        invalidateAll();
+    }
+
+    /**
+     *  Stops receiving the vsync callbacks. Called on the drawing thread.
+     */
+    void detach() {
+
+        Choreographer current = choreographer;
+
+        choreographer = null;
+
+        if (current != null) {
+            current.removeFrameCallback(frameCallback);
+        }
+
+        synchronized (dirtyLock) {
+            frameScheduled = false;
+        }
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    /**
+     *  Adds a graphic to the index, or to the graphics with no known bounds. Called with the lock
+     * held.
+     *
+     * @param   _graphic        The graphic.
+     */
+    private void indexGraphic(Graphic _graphic) {
+
+        if (_graphic.getHitBounds(indexBounds)) {
+            unbounded.remove(_graphic);
+            index.put(_graphic, indexBounds.left, indexBounds.top, indexBounds.right, indexBounds.bottom);
+        } else {
+            index.remove(_graphic);
+            unbounded.add(_graphic);
+        }
+    }
+
+    /**
+     *  Removes a graphic from the index. Called with the lock held.
+     *
+     * @param   _graphic        The graphic.
+     */
+    private void unindexGraphic(Graphic _graphic) {
+        index.remove(_graphic);
+        unbounded.remove(_graphic);
+    }
+
+    /**
+     *  Maps a point of the overlay back to the preview, into the touch point.
+     *
+     * @param   _x              The point x, in overlay coordinates.
+     * @param   _y              The point y, in overlay coordinates.
+     */
+    private void toPreview(float _x, float _y) {
+
+        updateInverse();
+
+        touchPoint[0] = _x;
+        touchPoint[1] = _y;
+        inverseMatrix.mapPoints(touchPoint);
+    }
+
+    /**
+     *  Inverts the preview to overlay matrix, if it changed since it was last inverted.
+     */
+    private void updateInverse() {
+
+        synchronized (previewMatrix) {
+
+            if (inverseVersion == matrixVersion) return;
+
+            previewMatrix.invert(inverseMatrix);
+            inverseVersion = matrixVersion;
+        }
+    }
+
+    /**
+     *  Asks for a vsync callback, unless one is pending. While detached, the host is asked to
+     * redraw without one. Called with the dirty lock held.
+     */
+    private void scheduleFrame() {
+
+        if (frameScheduled) return;
+
+        Choreographer current = choreographer;
+
+        if (current == null) {
+            host.redrawWithoutVsync();
+            return;
+        }
+
+        frameScheduled = true;
+        current.postFrameCallback(frameCallback);
+    }
+
+    /**
+     *  Redraws what was marked dirty since the last vsync. Called on the drawing thread, once per
+     * vsync at most.
+     */
+    private void redrawDirty() {
+
+        boolean redraw;
+
+        synchronized (dirtyLock) {
+
+            redraw = dirty || matrixWidth == 0;
+
+            dirty = false;
+            frameScheduled = false;
+        }
+
+        if (redraw) {
+            host.redraw();
+        }
+    }
+
+    /**
+     *  Draws the outlines of the regions of the grid that hold any graphic. The graphics with no
+     * known bounds are drawn as outlines.
+     *
+     * @param   _canvas         The canvas.
+     * @param   _graphics       The graphics.
+     */
+    private void drawRegions(Canvas _canvas, Graphic[] _graphics) {
+
+        Geometry geometry = matrixGeometry;
+        int previewWidth = (geometry != null) ? geometry.getFrameWidth() : 0;
+        int previewHeight = (geometry != null) ? geometry.getFrameHeight() : 0;
+
+        Arrays.fill(regionCells, false);
+
+        for (Graphic graphic : _graphics) {
+
+            if (previewWidth == 0 || !graphic.getHitBounds(regionBounds)) {
+                graphic.drawOutline(_canvas);
+                continue;
+            }
+
+            int left = regionCell(regionBounds.left, previewWidth);
+            int right = regionCell(regionBounds.right, previewWidth);
+            int top = regionCell(regionBounds.top, previewHeight);
+            int bottom = regionCell(regionBounds.bottom, previewHeight);
+
+            for (int y = top; y <= bottom; y++) {
+                for (int x = left; x <= right; x++) {
+                    regionCells[y * REGION_GRID + x] = true;
+                }
+            }
+        }
+
+        int count = mergeRegions();
+
+        for (int i = 0; i < count; i++) {
+
+            regionBounds.set(
+                    (float) regionLeft[i] * previewWidth / REGION_GRID,
+                    (float) regionTop[i] * previewHeight / REGION_GRID,
+                    (float) regionRight[i] * previewWidth / REGION_GRID,
+                    (float) regionBottom[i] * previewHeight / REGION_GRID);
+
+            previewMatrix.mapRect(regionBounds);
+            _canvas.drawRect(regionBounds, regionPaint);
+        }
+    }
+
+    /**
+     *  Merges the cells of the region grid that hold graphics into rectangles: the runs of cells
+     * of each row, and the runs of the next rows that span the same columns.
+     *
+     * @return                  The number of regions.
+     */
+    private int mergeRegions() {
+
+        int count = 0;
+
+        for (int y = 0; y < REGION_GRID; y++) {
+
+            int x = 0;
+
+            while (x < REGION_GRID) {
+
+                if (!regionCells[y * REGION_GRID + x]) {
+                    x++;
+                    continue;
+                }
+
+                int start = x;
+
+                while (x < REGION_GRID && regionCells[y * REGION_GRID + x]) x++;
+
+                int i = 0;
+
+                //  Extends the region of the previous row, if it spans the same columns.
+                while (i < count && !(regionLeft[i] == start && regionRight[i] == x
+                        && regionBottom[i] == y)) {
+                    i++;
+                }
+
+                if (i == count) {
+                    regionLeft[i] = start;
+                    regionTop[i] = y;
+                    regionRight[i] = x;
+                    count++;
+                }
+
+                regionBottom[i] = y + 1;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     *  Returns the cell of the region grid at a position of the preview, clamped to the grid.
+     *
+     * @param   _position       The position, in preview coordinates.
+     * @param   _size           The preview dimension.
+     * @return                  The cell index.
+     */
+    private static int regionCell(float _position, int _size) {
+        return Math.max(0, Math.min(REGION_GRID - 1, (int) (_position * REGION_GRID / _size)));
+    }
+
+    /**
+     *  Rebuilds the preview to overlay matrix (and the scale factors), if the overlay or the
+     * preview changed since it was last built.
+     *
+     * @param   _width          The overlay width.
+     * @param   _height         The overlay height.
+     */
+    private void updateMatrix(int _width, int _height) {
+
+        Geometry geometry = this.geometry;
+
+        if ((geometry.previewWidth == 0) || (geometry.previewHeight == 0)) return;
+
+        if (_width == matrixWidth && _height == matrixHeight && geometry == matrixGeometry) return;
+
+        RectF region = geometry.getFrameRegion();
+        float frameScaleX = region.width() / geometry.getFrameWidth();
+        float frameScaleY = region.height() / geometry.getFrameHeight();
+        float viewScaleX = (float) _width / (float) geometry.previewWidth;
+        float viewScaleY = (float) _height / (float) geometry.previewHeight;
+
+        widthScaleFactor = frameScaleX * viewScaleX;
+        heightScaleFactor = frameScaleY * viewScaleY;
+        widthOffset = region.left * viewScaleX;
+        heightOffset = region.top * viewScaleY;
+
+        synchronized (previewMatrix) {
+
+            //  From the frame to its region of the preview, and from the preview to the overlay.
+            previewMatrix.setScale(frameScaleX, frameScaleY);
+            previewMatrix.postTranslate(region.left, region.top);
+            previewMatrix.postScale(viewScaleX, viewScaleY);
+
+            if (geometry.camera == CameraSource.CAMERA_FACING_FRONT) {
+                previewMatrix.postScale(-1.0f, 1.0f);
+                previewMatrix.postTranslate(_width, 0.0f);
+            }
+
+            matrixVersion++;
+        }
+
+        matrixWidth = _width;
+        matrixHeight = _height;
+        matrixGeometry = geometry;
+    }
+
+    /**
+     *  Replaces the geometry, and indexes the graphics over the new frame area. Called with the
+     * lock held.
+     *
+     * @param   _geometry       The new geometry.
+     */
+    private void setGeometry(Geometry _geometry) {
+
+        geometry = _geometry;
+
+        if (_geometry.getFrameWidth() > 0 && _geometry.getFrameHeight() > 0) {
+            index.setArea(_geometry.getFrameWidth(), _geometry.getFrameHeight());
+        }
+    }
+
+    /**
+     *  Publishes the graphics set to the drawing thread, as a new array. Called with the lock held.
+     */
+    private void publish() {
+        snapshot = graphics.isEmpty() ? NO_GRAPHICS : graphics.toArray(new Graphic[graphics.size()]);
+    }
+
+    //==============================================================================================
+    //                                  Inner classes
+    //==============================================================================================
+
+    /**
+     *  The size of the preview, the camera, and the size of the detected frames with the region of
+     * the preview they cover (never changed once created).
+     */
+    private static final class Geometry {
+
+        final int previewWidth;
+        final int previewHeight;
+        final int camera;
+        final int frameWidth;
+        final int frameHeight;
+        final RectF frameRegion;
+
+        Geometry(int _previewWidth, int _previewHeight, int _camera,
+                 int _frameWidth, int _frameHeight, RectF _frameRegion) {
+            previewWidth = _previewWidth;
+            previewHeight = _previewHeight;
+            camera = _camera;
+            frameWidth = _frameWidth;
+            frameHeight = _frameHeight;
+            frameRegion = _frameRegion;
+        }
+
+        /**
+         *  Returns the width of the detected frames (the preview width, if it wasn't set).
+         *
+         * @return              The frame width.
+         */
+        int getFrameWidth() {
+            return (frameWidth > 0) ? frameWidth : previewWidth;
+        }
+
+        /**
+         *  Returns the height of the detected frames (the preview height, if it wasn't set).
+         *
+         * @return              The frame height.
+         */
+        int getFrameHeight() {
+            return (frameHeight > 0) ? frameHeight : previewHeight;
+        }
+
+        /**
+         *  Returns the region of the preview covered by the frames (the whole preview, if it
+         * wasn't set).
+         *
+         * @return              The region, in preview pixels.
+         */
+        RectF getFrameRegion() {
+            return (frameRegion != null) ? frameRegion : new RectF(0.0f, 0.0f, previewWidth, previewHeight);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates that the camera buffers held by the handoff go back to the camera.
+ */
+public class CameraThreadTest {
+
+    @Test
+    public void restart_givesQueuedBuffersBack() {
+
+        CountingThread thread = new CountingThread(3);
+
+        thread.setActive(true);
+        assertNull(thread.frameRing.offer(thread.borrow(), 1, 0));
+        assertNull(thread.frameRing.offer(thread.borrow(), 2, 0));
+        assertEquals(2, thread.borrowed);
+
+        thread.setActive(false);
+        thread.setActive(true);
+
+        assertEquals(0, thread.borrowed);
+        assertEquals(0, thread.frameRing.size());
+    }
+
+    @Test
+    public void takeFrame_givesBackTheFrameTakenAfterStop() {
+
+        CountingThread thread = new CountingThread(1);
+
+        thread.setActive(true);
+        assertNull(thread.frameRing.offer(thread.borrow(), 1, 0));
+        thread.active = false;
+
+        assertFalse(thread.takeFrame());
+        assertEquals(0, thread.borrowed);
+    }
+
+    //==============================================================================================
+    //                                  Inner classes
+    //==============================================================================================
+
+    /**
+     *  A processing thread that counts the buffers taken from the camera and not given back.
+     */
+    private static class CountingThread extends CameraThread {
+
+        int borrowed = 0;
+
+        CountingThread(int _capacity) {
+            frameRing = new FrameRing(_capacity, false);
+        }
+
+        ByteBuffer borrow() {
+            borrowed++;
+            return ByteBuffer.allocate(1);
+        }
+
+        @Override
+        protected void convertCurrentFrame(ConvertedFrame _target) {
+        }
+
+        @Override
+        protected void recycleCurrentFrame() {
+            borrowed--;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the rotation of a dirty region into the coordinates of the upright results.
+ */
+public class DirtyRegionTest {
+
+    @Test
+    public void rotate_followsTheFrame() {
+
+        //  A 40x20 frame, whose changed part is its top-left 10x5 pixels.
+        assertRect(rotated(0), 0, 0, 10, 5);
+        assertRect(rotated(1), 15, 0, 20, 10);
+        assertRect(rotated(2), 30, 15, 40, 20);
+        assertRect(rotated(3), 0, 30, 5, 40);
+    }
+
+    private static DirtyRegion rotated(int _rotation) {
+
+        DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+
+        region.left[0] = 0;
+        region.top[0] = 0;
+        region.right[0] = 10;
+        region.bottom[0] = 5;
+        region.count = 1;
+
+        region.rotate(_rotation, 40, 20);
+
+        return region;
+    }
+
+    private static void assertRect(DirtyRegion _region, int _left, int _top, int _right, int _bottom) {
+        assertEquals(1, _region.getCount());
+        assertEquals(_left, _region.left[0]);
+        assertEquals(_top, _region.top[0]);
+        assertEquals(_right, _region.right[0]);
+        assertEquals(_bottom, _region.bottom[0]);
+    }
+
+}
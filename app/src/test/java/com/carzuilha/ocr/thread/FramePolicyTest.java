@@ -0,0 +1,69 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the frame scheduling policies and their counters.
+ */
+public class FramePolicyTest {
+
+    @Test
+    public void everyKth_skipsTheOtherFrames() {
+
+        FramePolicy policy = new FramePolicy.EveryKth(3);
+        int accepted = 0;
+
+        for (int id = 1; id <= 9; id++) {
+            if (policy.onReceived(id, 0)) accepted++;
+        }
+
+        assertEquals(3, accepted);
+        assertEquals(9, policy.getReceivedCount());
+        assertEquals(6, policy.getSkippedCount());
+    }
+
+    @Test
+    public void budget_limitsTheRate() {
+
+        FramePolicy policy = new FramePolicy.Budget(10.0f);
+        long frameNanos = 1000000000L / 30;
+        int accepted = 0;
+
+        //  Three seconds of frames at 30fps.
+        for (int id = 1; id <= 90; id++) {
+            if (policy.onReceived(id, id * frameNanos)) accepted++;
+        }
+
+        assertTrue("accepted " + accepted, accepted >= 29 && accepted <= 31);
+    }
+
+    @Test
+    public void deadline_expiresOldFrames() {
+
+        FramePolicy policy = new FramePolicy.Deadline(4, 100);
+
+        assertEquals(4, policy.getCapacity());
+        assertFalse(policy.isOverwrite());
+        assertTrue(policy.onTaken(50000000L));
+        assertFalse(policy.onTaken(150000000L));
+        assertEquals(1, policy.getProcessedCount());
+        assertEquals(1, policy.getExpiredCount());
+    }
+
+    @Test
+    public void latest_overwritesASingleFrame() {
+
+        FramePolicy policy = new FramePolicy.Latest();
+
+        assertEquals(1, policy.getCapacity());
+        assertTrue(policy.isOverwrite());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queue_rejectsEmptyCapacity() {
+        new FramePolicy.Queue(0);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the frame quality gate with synthetic luminance planes.
+ */
+public class FrameQualityTest {
+
+    @Test
+    public void sharpEdges_scoreHigherThanBlurredOnes() {
+
+        byte[] sharp = stripes(32, 32, 4);
+        byte[] blurred = blur(blur(sharp, 32, 32), 32, 32);
+
+        assertTrue(FrameQuality.sharpness(sharp, 32, 32) > 4 * FrameQuality.sharpness(blurred, 32, 32));
+    }
+
+    @Test
+    public void uniformFrame_hasNoSharpness() {
+
+        byte[] flat = new byte[16 * 16];
+        Arrays.fill(flat, (byte) 120);
+
+        assertEquals(0.0f, FrameQuality.sharpness(flat, 16, 16), 0.0f);
+        assertEquals(0.0f, FrameQuality.clipping(flat, flat.length), 0.0f);
+    }
+
+    @Test
+    public void evaluate_rejectsBlurredAndClippedFrames() {
+
+        FrameQuality quality = new FrameQuality(1000.0f, 0.5f);
+
+        byte[] sharp = stripes(32, 32, 4);
+        byte[] blurred = blur(blur(blur(sharp, 32, 32), 32, 32), 32, 32);
+        byte[] dark = new byte[32 * 32];
+
+        assertTrue(quality.evaluate(sharp, 32, 32) >= 1000.0f);
+        assertTrue(quality.evaluate(blurred, 32, 32) < 0.0f);
+        assertTrue(quality.evaluate(dark, 32, 32) < 0.0f);
+        assertEquals(1.0f, quality.getLastClipping(), 0.0f);
+        assertEquals(1, quality.getAcceptedCount());
+        assertEquals(2, quality.getRejectedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidClipping() {
+        new FrameQuality(10.0f, 1.5f);
+    }
+
+    private static byte[] stripes(int _width, int _height, int _period) {
+
+        byte[] luma = new byte[_width * _height];
+
+        for (int y = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++) {
+                luma[y * _width + x] = (byte) (((x / _period) % 2 == 0) ? 40 : 200);
+            }
+        }
+
+        return luma;
+    }
+
+    private static byte[] blur(byte[] _luma, int _width, int _height) {
+
+        byte[] output = new byte[_luma.length];
+
+        for (int y = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++) {
+                int sum = 0;
+                for (int d = -1; d <= 1; d++) {
+                    int xx = Math.max(0, Math.min(_width - 1, x + d));
+                    sum += _luma[y * _width + xx] & 0xFF;
+                }
+                output[y * _width + x] = (byte) (sum / 3);
+            }
+        }
+
+        return output;
+    }
+
+}
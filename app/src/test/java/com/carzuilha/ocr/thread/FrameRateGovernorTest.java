@@ -0,0 +1,94 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the adaptive frame rate feedback loop.
+ */
+public class FrameRateGovernorTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void slowDetector_lowersTheFrameRate() {
+
+        FrameRateGovernor governor = new FrameRateGovernor(5.0f, 40.0f, 1);
+        List<Float> changes = record(governor);
+
+        for (int i = 0; i < 10; i++) {
+            governor.record(150 * MILLIS, i * 150 * MILLIS);
+        }
+
+        //  A single worker detects ~6.7 frames per second, so the camera needs about 10.
+        assertEquals(1, changes.size());
+        assertEquals(10.0f, changes.get(0), 0.5f);
+        assertEquals(changes.get(0), governor.getFrameRate(), 0.0f);
+    }
+
+    @Test
+    public void smallVariations_doNotChangeTheFrameRate() {
+
+        FrameRateGovernor governor = new FrameRateGovernor(5.0f, 40.0f, 1);
+        List<Float> changes = record(governor);
+        long now = 0;
+
+        for (int i = 0; i < 10; i++) {
+            governor.record(150 * MILLIS, now += 150 * MILLIS);
+        }
+
+        //  Latencies within the hysteresis band, long after the cooldown.
+        for (int i = 0; i < 100; i++) {
+            governor.record(((i % 2 == 0) ? 140 : 165) * MILLIS, now += 150 * MILLIS);
+        }
+
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void changes_areSpacedByTheCooldown() {
+
+        FrameRateGovernor governor = new FrameRateGovernor(5.0f, 40.0f, 1);
+        List<Float> changes = record(governor);
+
+        for (int i = 0; i < 10; i++) {
+            governor.record(150 * MILLIS, i * 10 * MILLIS);
+        }
+
+        //  The detector becomes fast right after the first change.
+        for (int i = 10; i < 20; i++) {
+            governor.record(10 * MILLIS, i * 10 * MILLIS);
+        }
+
+        assertEquals(1, changes.size());
+
+        governor.record(10 * MILLIS, 5000 * MILLIS);
+
+        assertEquals(2, changes.size());
+        assertEquals(40.0f, changes.get(1), 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedRange() {
+        new FrameRateGovernor(30.0f, 10.0f, 1);
+    }
+
+    private static List<Float> record(FrameRateGovernor _governor) {
+
+        final List<Float> changes = new ArrayList<>();
+
+        _governor.setListener(new FrameRateGovernor.Listener() {
+            @Override
+            public void onFrameRateChanged(float _fps) {
+                changes.add(_fps);
+            }
+        });
+
+        return changes;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the lock-free frame handoff.
+ */
+public class FrameRingTest {
+
+    @Test
+    public void overwrite_keepsLatestAndReturnsDropped() {
+
+        FrameRing ring = new FrameRing(1, true);
+        ByteBuffer first = ByteBuffer.allocate(1);
+        ByteBuffer second = ByteBuffer.allocate(1);
+        FrameSlot slot = new FrameSlot();
+
+        assertNull(ring.offer(first, 1, 10));
+        assertSame(first, ring.offer(second, 2, 20));
+        assertEquals(1, ring.size());
+
+        assertTrue(ring.poll(slot));
+        assertSame(second, slot.getData());
+        assertEquals(2, slot.getId());
+        assertEquals(20, slot.getTimeMillis());
+        assertFalse(ring.poll(slot));
+    }
+
+    @Test
+    public void reject_returnsOfferedBufferWhenFull() {
+
+        FrameRing ring = new FrameRing(2, false);
+        ByteBuffer third = ByteBuffer.allocate(1);
+        FrameSlot slot = new FrameSlot();
+
+        assertNull(ring.offer(ByteBuffer.allocate(1), 1, 0));
+        assertNull(ring.offer(ByteBuffer.allocate(1), 2, 0));
+        assertSame(third, ring.offer(third, 3, 0));
+
+        assertTrue(ring.poll(slot));
+        assertEquals(1, slot.getId());
+        assertTrue(ring.poll(slot));
+        assertEquals(2, slot.getId());
+        assertFalse(ring.poll(slot));
+    }
+
+    @Test
+    public void take_returnsFalseWhenClosed() throws InterruptedException {
+
+        final FrameRing ring = new FrameRing(1, true);
+        final boolean[] result = { true };
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = ring.take(new FrameSlot());
+            }
+        });
+
+        consumer.start();
+        Thread.sleep(50);
+        ring.setOpen(false);
+        consumer.join(1000);
+
+        assertFalse(consumer.isAlive());
+        assertFalse(result[0]);
+    }
+
+    @Test
+    public void concurrentHandoff_deliversIncreasingIdsAndLosesNoBuffer() throws InterruptedException {
+
+        final int frames = 200000;
+        final FrameRing ring = new FrameRing(1, true);
+        final long[] received = { 0, 0 };
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameSlot slot = new FrameSlot();
+                int last = 0;
+                while (ring.take(slot)) {
+                    assertTrue(slot.getId() > last);
+                    last = slot.getId();
+                    received[0]++;
+                    if (last == frames) break;
+                }
+                received[1] = last;
+            }
+        });
+
+        consumer.start();
+
+        long dropped = 0;
+
+        for (int i = 1; i <= frames; i++) {
+            if (ring.offer(ByteBuffer.allocate(1), i, i) != null) dropped++;
+        }
+
+        consumer.join(10000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(frames, received[1]);
+        assertEquals(frames, received[0] + dropped);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the fixed-bucket latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void buckets_doubleTheirBounds() {
+
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(249999));
+        assertEquals(1, LatencyHistogram.bucketOf(250000));
+        assertEquals(1, LatencyHistogram.bucketOf(499999));
+        assertEquals(2, LatencyHistogram.bucketOf(500000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(60000 * MILLIS));
+
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            assertEquals(i + 1, LatencyHistogram.bucketOf(LatencyHistogram.upperBoundOf(i)));
+        }
+    }
+
+    @Test
+    public void snapshot_estimatesPercentiles() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3 * MILLIS);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100 * MILLIS);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(100 * MILLIS, snapshot.getMaxNanos());
+        assertEquals(4 * MILLIS, snapshot.getPercentileNanos(50));
+        assertEquals(4 * MILLIS, snapshot.getPercentileNanos(90));
+        assertEquals(100 * MILLIS, snapshot.getPercentileNanos(99));
+        assertEquals((90 * 3 + 10 * 100) * MILLIS / 100, snapshot.getAverageNanos());
+    }
+
+    @Test
+    public void emptySnapshot_reportsZero() {
+
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(95));
+        assertEquals(0, snapshot.getAverageNanos());
+    }
+
+}
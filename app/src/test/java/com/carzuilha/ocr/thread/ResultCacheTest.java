@@ -0,0 +1,161 @@
+package com.carzuilha.ocr.thread;
+
+import com.google.android.gms.vision.Detector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the fingerprint result cache.
+ */
+public class ResultCacheTest {
+
+    @Test
+    public void fingerprint_toleratesNoiseButNotOtherContent() {
+
+        byte[] page = pattern(72, 64, 1);
+        byte[] noisy = page.clone();
+        byte[] other = pattern(72, 64, 7);
+
+        for (int i = 0; i < noisy.length; i += 5) {
+            noisy[i] = (byte) ((noisy[i] & 0xFF) + ((i % 2 == 0) ? 3 : -3));
+        }
+
+        long hash = ResultCache.fingerprint(page, 72, 64);
+
+        assertTrue(Long.bitCount(hash ^ ResultCache.fingerprint(noisy, 72, 64)) <= 2);
+        assertTrue(Long.bitCount(hash ^ ResultCache.fingerprint(other, 72, 64)) > 8);
+    }
+
+    @Test
+    public void get_findsMatchingFingerprints() {
+
+        ResultCache cache = new ResultCache(4, 3);
+        Detector.Detections<Object> result = new Detector.Detections<>(null, null, true);
+        byte[] signature = new byte[ResultCache.SIGNATURE_SIZE];
+
+        cache.put(0xF0F0L, signature, result);
+
+        assertSame(result, cache.get(0xF0F1L, signature));
+        assertNull(cache.get(0x0F0FL, signature));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+
+        ResultCache cache = new ResultCache(2, 0);
+        byte[] signature = new byte[ResultCache.SIGNATURE_SIZE];
+        Detector.Detections<Object> first = new Detector.Detections<>(null, null, true);
+        Detector.Detections<Object> second = new Detector.Detections<>(null, null, true);
+        Detector.Detections<Object> third = new Detector.Detections<>(null, null, true);
+
+        cache.put(1L, signature, first);
+        cache.put(2L, signature, second);
+        cache.get(1L, signature);
+        cache.put(4L, signature, third);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(first, cache.get(1L, signature));
+        assertNull(cache.get(2L, signature));
+        assertSame(third, cache.get(4L, signature));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void get_rejectsSimilarLayoutsWithOtherText() {
+
+        ResultCache cache = new ResultCache(4, 8);
+        Detector.Detections<Object> result = new Detector.Detections<>(null, null, true);
+
+        byte[] page = page(320, 240, 1);
+        byte[] noisy = page.clone();
+        byte[] other = page(320, 240, 2);
+
+        for (int i = 0; i < noisy.length; i += 3) {
+            noisy[i] = (byte) ((noisy[i] & 0xFF) + ((i % 2 == 0) ? 4 : -4));
+        }
+
+        cache.put(ResultCache.fingerprint(page, 320, 240), signature(page, 320, 240), result);
+
+        //  The layouts share their fingerprint, but not their signature.
+        long hash = ResultCache.fingerprint(page, 320, 240);
+        long otherHash = ResultCache.fingerprint(other, 320, 240);
+
+        assertTrue(Long.bitCount(hash ^ otherHash) <= cache.getMaxDistance());
+        assertNull(cache.get(otherHash, signature(other, 320, 240)));
+        assertSame(result, cache.get(ResultCache.fingerprint(noisy, 320, 240), signature(noisy, 320, 240)));
+    }
+
+    private static byte[] signature(byte[] _luma, int _width, int _height) {
+
+        byte[] signature = new byte[ResultCache.SIGNATURE_SIZE];
+
+        ResultCache.signature(_luma, _width, _height, signature);
+
+        return signature;
+    }
+
+    private static byte[] page(int _width, int _height, int _seed) {
+
+        //  A page lit from the left, with the same lines and words, but different letters (the
+        // same amount of ink in other columns of each word) on each seed.
+        byte[] luma = new byte[_width * _height];
+        java.util.Random layout = new java.util.Random(0);
+        java.util.Random letters = new java.util.Random(_seed);
+
+        for (int y = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++) {
+                luma[y * _width + x] = (byte) (250 - 120 * x / _width);
+            }
+        }
+
+        for (int line = 20; line + 12 < _height - 20; line += 24) {
+            for (int x = 16; x < _width - 48; ) {
+
+                int word = 8 + 2 * layout.nextInt(12);
+                boolean[] ink = new boolean[word];
+
+                for (int i = 0; i < word; i++) {
+
+                    int j = letters.nextInt(i + 1);
+
+                    ink[i] = ink[j];
+                    ink[j] = (i % 2 == 0);
+                }
+
+                for (int i = 0; i < word; i++) {
+
+                    if (!ink[i]) continue;
+
+                    for (int y = line; y < line + 12; y++) {
+                        luma[y * _width + x + i] = (byte) ((luma[y * _width + x + i] & 0xFF) - 100);
+                    }
+                }
+
+                x += word + 6;
+            }
+        }
+
+        return luma;
+    }
+
+    private static byte[] pattern(int _width, int _height, int _seed) {
+
+        byte[] luma = new byte[_width * _height];
+
+        for (int y = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++) {
+                luma[y * _width + x] = (byte) (128 + 100 * Math.sin((x * _seed + y * 3) / 7.0 + _seed));
+            }
+        }
+
+        return luma;
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.carzuilha.ocr.thread;
+
+import com.google.android.gms.vision.Detector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the in-order delivery of concurrent detection results.
+ */
+public class ResultSequencerTest {
+
+    @Test
+    public void ordered_holdsResultsUntilTheirTurn() throws InterruptedException {
+
+        RecordingProcessor processor = new RecordingProcessor();
+        ResultSequencer sequencer = new ResultSequencer(processor, ResultSequencer.ORDERED, 3, null);
+        List<Detector.Detections<Object>> results = detections(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, sequencer.nextSequence());
+        }
+
+        sequencer.complete(2, results.get(2));
+        sequencer.complete(1, results.get(1));
+        assertTrue(processor.received.isEmpty());
+
+        sequencer.complete(0, results.get(0));
+        assertEquals(results, processor.received);
+        assertEquals(3, sequencer.getDeliveredCount());
+    }
+
+    @Test
+    public void ordered_failedFrameDoesNotBlockLaterOnes() {
+
+        RecordingProcessor processor = new RecordingProcessor();
+        ResultSequencer sequencer = new ResultSequencer(processor, ResultSequencer.ORDERED, 2, null);
+        List<Detector.Detections<Object>> results = detections(2);
+
+        sequencer.complete(1, results.get(1));
+        sequencer.complete(0, null);
+
+        assertEquals(1, processor.received.size());
+        assertSame(results.get(1), processor.received.get(0));
+
+        //  A repeated completion of a delivered frame is ignored.
+        sequencer.complete(1, results.get(1));
+        assertEquals(1, processor.received.size());
+    }
+
+    @Test
+    public void dropStale_discardsResultsOlderThanDelivered() {
+
+        RecordingProcessor processor = new RecordingProcessor();
+        ResultSequencer sequencer = new ResultSequencer(processor, ResultSequencer.DROP_STALE, 3, null);
+        List<Detector.Detections<Object>> results = detections(3);
+
+        sequencer.complete(1, results.get(1));
+        sequencer.complete(0, results.get(0));
+        sequencer.complete(2, results.get(2));
+
+        assertEquals(2, processor.received.size());
+        assertSame(results.get(1), processor.received.get(0));
+        assertSame(results.get(2), processor.received.get(1));
+        assertEquals(1, sequencer.getDiscardedCount());
+    }
+
+    @Test
+    public void repeat_deliversThePreviousResultsInTurn() {
+
+        RecordingProcessor processor = new RecordingProcessor();
+        ResultSequencer sequencer = new ResultSequencer(processor, ResultSequencer.ORDERED, 3, null);
+        List<Detector.Detections<Object>> results = detections(2);
+
+        //  Nothing is repeated before the first results.
+        sequencer.repeat(0);
+        assertTrue(processor.received.isEmpty());
+        assertTrue(sequencer.isDelivered(0));
+
+        sequencer.repeat(2);
+        assertFalse(sequencer.isDelivered(2));
+
+        sequencer.complete(1, results.get(0));
+        assertEquals(2, processor.received.size());
+        assertSame(results.get(0), processor.received.get(1));
+        assertEquals(1, sequencer.getRepeatedCount());
+
+        sequencer.complete(3, results.get(1));
+        assertSame(results.get(1), processor.received.get(2));
+    }
+
+    @Test
+    public void reset_forgetsFramesNeverCompleted() throws InterruptedException {
+
+        RecordingProcessor processor = new RecordingProcessor();
+        ResultSequencer sequencer = new ResultSequencer(processor, ResultSequencer.ORDERED, 2, null);
+        List<Detector.Detections<Object>> results = detections(1);
+
+        sequencer.nextSequence();
+        sequencer.reset();
+
+        sequencer.complete(sequencer.nextSequence(), results.get(0));
+
+        assertEquals(results, processor.received);
+    }
+
+    @Test
+    public void ordered_stalledFrameHoldsBackNewSequences() throws InterruptedException {
+
+        RecordingProcessor processor = new RecordingProcessor();
+        final ResultSequencer sequencer = new ResultSequencer(processor, ResultSequencer.ORDERED, 2, null);
+        List<Detector.Detections<Object>> results = detections(3);
+        final long[] third = { -1 };
+
+        //  The first frame stalls while the second one completes, filling the capacity.
+        assertEquals(0, sequencer.nextSequence());
+        assertEquals(1, sequencer.nextSequence());
+        sequencer.complete(1, results.get(1));
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    third[0] = sequencer.nextSequence();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        dispatcher.start();
+        dispatcher.join(200);
+        assertTrue(dispatcher.isAlive());
+
+        sequencer.complete(0, results.get(0));
+        dispatcher.join(2000);
+        assertFalse(dispatcher.isAlive());
+        assertEquals(2, third[0]);
+
+        sequencer.complete(2, results.get(2));
+        assertEquals(results, processor.received);
+    }
+
+    @Test
+    public void deliversOutsideTheLock() throws InterruptedException {
+
+        final ResultSequencer[] sequencer = new ResultSequencer[1];
+        final boolean[] free = { false };
+
+        //  The processor checks from another thread that the sequencer isn't locked.
+        Detector.Processor<Object> processor = new RecordingProcessor() {
+            @Override
+            public void receiveDetections(Detector.Detections<Object> _detections) {
+
+                Thread probe = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        sequencer[0].isDelivered(0);
+                        free[0] = true;
+                    }
+                });
+
+                probe.start();
+
+                try {
+                    probe.join(2000);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        sequencer[0] = new ResultSequencer(processor, ResultSequencer.ORDERED, 2, null);
+        sequencer[0].complete(sequencer[0].nextSequence(), detections(1).get(0));
+
+        assertTrue(free[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicy() {
+        new ResultSequencer(new RecordingProcessor(), 7, 1, null);
+    }
+
+    private static List<Detector.Detections<Object>> detections(int _count) {
+
+        List<Detector.Detections<Object>> list = new ArrayList<>();
+
+        for (int i = 0; i < _count; i++) {
+            list.add(new Detector.Detections<>(null, null, true));
+        }
+
+        return list;
+    }
+
+    private static class RecordingProcessor implements Detector.Processor<Object> {
+
+        final List<Detector.Detections<Object>> received = new ArrayList<>();
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Object> _detections) {
+            received.add(_detections);
+        }
+    }
+
+}
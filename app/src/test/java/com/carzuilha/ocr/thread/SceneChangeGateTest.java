@@ -0,0 +1,102 @@
+package com.carzuilha.ocr.thread;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the scene change gate with synthetic luminance planes.
+ */
+public class SceneChangeGateTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void staticScene_isDetectedOnceUntilRefresh() {
+
+        SceneChangeGate gate = new SceneChangeGate(6, 500);
+        byte[] luma = gradient(64, 48, 0);
+
+        assertTrue(gate.hasChanged(luma, 64, 48, 0));
+        assertFalse(gate.hasChanged(luma, 64, 48, 100 * MILLIS));
+        assertFalse(gate.hasChanged(gradient(64, 48, 3), 64, 48, 200 * MILLIS));
+        assertTrue(gate.hasChanged(luma, 64, 48, 500 * MILLIS));
+
+        assertEquals(2, gate.getChangedCount());
+        assertEquals(2, gate.getUnchangedCount());
+    }
+
+    @Test
+    public void heldRefresh_detectsOnlyChanges() {
+
+        SceneChangeGate gate = new SceneChangeGate(6, 500);
+        byte[] luma = gradient(64, 48, 0);
+
+        assertTrue(gate.hasChanged(luma, 64, 48, 0));
+
+        gate.setRefreshHeld(true);
+
+        assertFalse(gate.hasChanged(luma, 64, 48, 5000 * MILLIS));
+        assertTrue(gate.hasChanged(gradient(64, 48, 20), 64, 48, 5100 * MILLIS));
+
+        gate.setRefreshHeld(false);
+
+        assertTrue(gate.hasChanged(gradient(64, 48, 20), 64, 48, 5600 * MILLIS));
+    }
+
+    @Test
+    public void localChange_isDetected() {
+
+        SceneChangeGate gate = new SceneChangeGate(6, 10000);
+        byte[] luma = gradient(64, 48, 0);
+
+        assertTrue(gate.hasChanged(luma, 64, 48, 0));
+
+        //  A single block turns white.
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                luma[y * 64 + x] = (byte) 255;
+            }
+        }
+
+        assertTrue(gate.hasChanged(luma, 64, 48, MILLIS));
+        assertFalse(gate.hasChanged(luma, 64, 48, 2 * MILLIS));
+    }
+
+    @Test
+    public void slowDrift_addsUp() {
+
+        SceneChangeGate gate = new SceneChangeGate(6, 10000);
+
+        assertTrue(gate.hasChanged(gradient(64, 48, 0), 64, 48, 0));
+        assertFalse(gate.hasChanged(gradient(64, 48, 4), 64, 48, MILLIS));
+        assertTrue(gate.hasChanged(gradient(64, 48, 8), 64, 48, 2 * MILLIS));
+    }
+
+    @Test
+    public void sizeChange_andReset_forceDetection() {
+
+        SceneChangeGate gate = new SceneChangeGate(6, 10000);
+        byte[] luma = gradient(64, 48, 0);
+
+        assertTrue(gate.hasChanged(luma, 64, 48, 0));
+        assertTrue(gate.hasChanged(luma, 48, 64, MILLIS));
+
+        gate.reset();
+        assertTrue(gate.hasChanged(luma, 48, 64, 2 * MILLIS));
+    }
+
+    private static byte[] gradient(int _width, int _height, int _offset) {
+
+        byte[] luma = new byte[_width * _height];
+
+        for (int y = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++) {
+                luma[y * _width + x] = (byte) (x * 2 + y + _offset);
+            }
+        }
+
+        return luma;
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.carzuilha.ocr.thread;
+
+import com.carzuilha.ocr.util.NV21Image;
+import com.google.android.gms.vision.Detector;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the dirty tiles found by the tile grid, and the painting of the clean ones.
+ */
+public class TileGridTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+
+    @Test
+    public void cornerChange_isRecognizedAlone() {
+
+        TileGrid grid = new TileGrid(8, 0.5f, 10000);
+        DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+
+        grid.update(frame(false), WIDTH, HEIGHT, 0, region);
+        assertFalse(region.isPartial());
+
+        byte[] data = frame(true);
+        grid.update(data, WIDTH, HEIGHT, 1, region);
+
+        //  The changed tile (the top-left 8x8 pixels) is grown by one tile.
+        assertEquals(1, region.getCount());
+        assertTrue(region.intersects(0, 0, 16, 16));
+        assertFalse(region.intersects(16, 0, 64, 64));
+        assertFalse(region.intersects(0, 16, 64, 64));
+
+        assertEquals(30, data[0] & 0xFF);
+        assertEquals(128, data[20 * WIDTH + 20] & 0xFF);
+        assertEquals(128, data[WIDTH * HEIGHT + 20] & 0xFF);
+        assertEquals(1, grid.getPartialCount());
+    }
+
+    @Test
+    public void largeChange_andRefresh_recognizeWholeFrames() {
+
+        TileGrid grid = new TileGrid(8, 0.5f, 100);
+        DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+        byte[] bright = frame(false);
+
+        Arrays.fill(bright, 0, WIDTH * HEIGHT, (byte) 250);
+
+        grid.update(frame(false), WIDTH, HEIGHT, 0, region);
+        grid.update(bright, WIDTH, HEIGHT, 1, region);
+        assertFalse(region.isPartial());
+
+        grid.update(frame(true), WIDTH, HEIGHT, 200 * 1000000L, region);
+        assertFalse(region.isPartial());
+        assertEquals(3, grid.getFullCount());
+    }
+
+    @Test
+    public void dirtyTiles_mergeIntoRectangles() {
+
+        TileGrid grid = new TileGrid(8, 1.0f, 10000);
+        DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+        byte[] data = frame(false);
+
+        grid.update(data, WIDTH, HEIGHT, 0, region);
+
+        //  A full column of tiles changes, so a single rectangle covers it and its neighbours.
+        data = frame(false);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 32; x < 40; x++) {
+                data[y * WIDTH + x] = (byte) 200;
+            }
+        }
+
+        grid.update(data, WIDTH, HEIGHT, 1, region);
+
+        assertEquals(1, region.getCount());
+        assertTrue(region.intersects(24, 0, 25, 1));
+        assertTrue(region.intersects(47, 63, 48, 64));
+        assertFalse(region.intersects(0, 0, 24, 64));
+        assertFalse(region.intersects(48, 0, 64, 64));
+    }
+
+    @Test
+    public void paintOutside_usesTheChromaStrideOfOddWidths() {
+
+        //  A 5x4 frame, whose chroma rows hold 3 pairs (6 bytes); only its left column is kept.
+        int width = 5;
+        int height = 4;
+        byte[] data = new byte[NV21Image.getBufferSize(width, height)];
+        DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+
+        Arrays.fill(data, (byte) 10);
+        region.left[0] = 0;
+        region.top[0] = 0;
+        region.right[0] = 2;
+        region.bottom[0] = height;
+        region.count = 1;
+
+        TileGrid.paintOutside(data, width, height, region);
+
+        int chroma = width * height;
+
+        for (int row = 0; row < 2; row++) {
+            assertEquals(10, data[chroma + row * 6] & 0xFF);
+            assertEquals(10, data[chroma + row * 6 + 1] & 0xFF);
+            for (int i = 2; i < 6; i++) {
+                assertEquals(128, data[chroma + row * 6 + i] & 0xFF);
+            }
+        }
+
+        assertEquals(10, data[3 * width + 1] & 0xFF);
+        assertEquals(128, data[3 * width + 4] & 0xFF);
+    }
+
+    @Test
+    public void lostResults_recognizeTheNextFrameWhole() {
+
+        TileGrid grid = new TileGrid(8, 0.5f, 10000);
+        DirtyRegion region = new DirtyRegion(TileGrid.MAX_RECTS);
+        ResultSequencer sequencer = new ResultSequencer(new NullProcessor(), ResultSequencer.ORDERED, 2, null);
+
+        sequencer.setTileGrid(grid);
+        grid.update(frame(false), WIDTH, HEIGHT, 0, region);
+        grid.update(frame(true), WIDTH, HEIGHT, 1, region);
+        assertTrue(region.isPartial());
+
+        //  The partial frame fails, so its change was never recognized.
+        sequencer.complete(0, null, region);
+
+        //  Another corner changes, which alone would be recognized partially.
+        byte[] data = frame(true);
+        for (int y = HEIGHT - 8; y < HEIGHT; y++) {
+            Arrays.fill(data, y * WIDTH + WIDTH - 8, y * WIDTH + WIDTH, (byte) 30);
+        }
+
+        grid.update(data, WIDTH, HEIGHT, 2, region);
+        assertFalse(region.isPartial());
+        assertEquals(2, grid.getFullCount());
+    }
+
+    private static byte[] frame(boolean _handInCorner) {
+
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        Arrays.fill(data, (byte) 100);
+
+        if (_handInCorner) {
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    data[y * WIDTH + x] = (byte) 30;
+                }
+            }
+        }
+
+        return data;
+    }
+
+    private static class NullProcessor implements Detector.Processor<Object> {
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Object> _detections) {
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the association of blocks across frames.
+ */
+public class BlockTrackerTest {
+
+    @Test
+    public void movingBlocks_keepTheirIds() {
+
+        BlockTracker<String> tracker = new BlockTracker<>(0.3f, 1);
+
+        tracker.begin();
+        tracker.add("a", 0, 0, 100, 20);
+        tracker.add("b", 0, 50, 100, 70);
+        tracker.end();
+
+        int idA = find(tracker, "a").getId();
+        int idB = find(tracker, "b").getId();
+
+        assertNotEquals(idA, idB);
+        assertTrue(find(tracker, "a").isNew());
+
+        //  Both blocks shift a little, and are added in the other order.
+        tracker.begin();
+        tracker.add("b2", 4, 53, 104, 73);
+        tracker.add("a2", 5, 2, 105, 22);
+        tracker.end();
+
+        assertEquals(idA, find(tracker, "a2").getId());
+        assertEquals(idB, find(tracker, "b2").getId());
+        assertEquals(2, find(tracker, "a2").getHits());
+        assertEquals(2, tracker.getTracks().size());
+    }
+
+    @Test
+    public void smallFastBlock_matchesByCenterDistance() {
+
+        BlockTracker<String> tracker = new BlockTracker<>(0.3f, 1);
+
+        tracker.begin();
+        tracker.add("a", 0, 0, 10, 10);
+        tracker.end();
+
+        tracker.begin();
+        tracker.add("a2", 8, 0, 18, 10);
+        tracker.end();
+
+        assertEquals(1, tracker.getTracks().size());
+        assertEquals(2, find(tracker, "a2").getAge());
+    }
+
+    @Test
+    public void lostTracks_ageOut() {
+
+        BlockTracker<String> tracker = new BlockTracker<>(0.3f, 1);
+
+        tracker.begin();
+        tracker.add("a", 0, 0, 100, 20);
+        tracker.end();
+
+        tracker.begin();
+        tracker.end();
+
+        assertEquals(1, tracker.getTracks().size());
+        assertEquals(1, tracker.getTracks().get(0).getMissedFrames());
+
+        tracker.begin();
+        tracker.end();
+
+        assertTrue(tracker.getTracks().isEmpty());
+        assertEquals("a", tracker.getRemovedTracks().get(0).getItem());
+
+        //  A block appearing later gets a new ID.
+        tracker.begin();
+        tracker.add("c", 0, 0, 100, 20);
+        tracker.end();
+
+        assertNotEquals(0, find(tracker, "c").getId());
+    }
+
+    @Test
+    public void manyBlocks_areAssociatedOneToOne() {
+
+        BlockTracker<Integer> tracker = new BlockTracker<>(0.3f, 0);
+
+        tracker.begin();
+        for (int i = 0; i < 60; i++) {
+            tracker.add(i, (i % 6) * 50, (i / 6) * 30, (i % 6) * 50 + 45, (i / 6) * 30 + 20);
+        }
+        tracker.end();
+
+        tracker.begin();
+        for (int i = 59; i >= 0; i--) {
+            tracker.add(100 + i, (i % 6) * 50 + 3, (i / 6) * 30 + 2, (i % 6) * 50 + 48, (i / 6) * 30 + 22);
+        }
+        tracker.end();
+
+        assertEquals(60, tracker.getTracks().size());
+
+        for (BlockTracker.Track<Integer> track : tracker.getTracks()) {
+            assertEquals(track.getId() + 100, track.getItem().intValue());
+        }
+    }
+
+    @Test
+    public void overlap_isIntersectionOverUnion() {
+
+        float[] a = { 0, 0, 10, 10 };
+        float[] b = { 5, 0, 15, 10 };
+
+        assertEquals(1.0f / 3.0f, BlockTracker.overlap(a, 0, b, 0), 1e-6f);
+        assertEquals(0.0f, BlockTracker.overlap(a, 0, new float[] { 20, 20, 30, 30 }, 0), 0.0f);
+    }
+
+    private static <T> BlockTracker.Track<T> find(BlockTracker<T> _tracker, T _item) {
+
+        for (BlockTracker.Track<T> track : _tracker.getTracks()) {
+            if (track.getItem().equals(_item)) return track;
+        }
+
+        fail("No track for " + _item);
+        return null;
+    }
+
+}
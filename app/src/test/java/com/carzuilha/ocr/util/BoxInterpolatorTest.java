@@ -0,0 +1,88 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the gliding and the extrapolation of the box interpolator.
+ */
+public class BoxInterpolatorTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void newPosition_glidesOverTheCaptureInterval() {
+
+        BoxInterpolator interpolator = new BoxInterpolator(0);
+        float[] box = new float[4];
+
+        interpolator.reset(0, 0, 100, 50, 1000);
+        interpolator.update(100, 20, 200, 70, 1100, 5000);
+
+        assertTrue(interpolator.sample(5000, box));
+        assertEquals(0.0f, box[0], EPSILON);
+
+        assertTrue(interpolator.sample(5050, box));
+        assertEquals(50.0f, box[0], EPSILON);
+        assertEquals(10.0f, box[1], EPSILON);
+        assertEquals(150.0f, box[2], EPSILON);
+
+        assertFalse(interpolator.sample(5100, box));
+        assertEquals(100.0f, box[0], EPSILON);
+        assertEquals(70.0f, box[3], EPSILON);
+    }
+
+    @Test
+    public void interruptedGlide_startsFromTheDrawnPosition() {
+
+        BoxInterpolator interpolator = new BoxInterpolator(0);
+        float[] box = new float[4];
+
+        interpolator.reset(0, 0, 10, 10, 0);
+        interpolator.update(100, 0, 110, 10, 100, 1000);
+        interpolator.update(200, 0, 210, 10, 200, 1050);
+
+        assertTrue(interpolator.sample(1050, box));
+        assertEquals(50.0f, box[0], EPSILON);
+
+        interpolator.sample(1100, box);
+        assertEquals(125.0f, box[0], EPSILON);
+    }
+
+    @Test
+    public void lastPosition_isExtrapolatedForALimitedTime() {
+
+        BoxInterpolator interpolator = new BoxInterpolator(100);
+        float[] box = new float[4];
+
+        interpolator.reset(0, 0, 10, 10, 0);
+        interpolator.update(100, 0, 110, 10, 100, 1000);
+
+        assertTrue(interpolator.sample(1150, box));
+        assertEquals(150.0f, box[0], EPSILON);
+
+        assertFalse(interpolator.sample(1500, box));
+        assertEquals(200.0f, box[0], EPSILON);
+    }
+
+    @Test
+    public void unknownCaptureTimes_moveAtOnce() {
+
+        BoxInterpolator interpolator = new BoxInterpolator(100);
+        float[] box = new float[4];
+
+        interpolator.reset(0, 0, 10, 10, BoxInterpolator.NO_TIMESTAMP);
+        interpolator.update(100, 0, 110, 10, 100, 1000);
+
+        assertFalse(interpolator.sample(1000, box));
+        assertEquals(100.0f, box[0], EPSILON);
+
+        //  A capture older than the last one can't be glided to either.
+        interpolator.update(300, 0, 310, 10, 50, 1010);
+
+        assertFalse(interpolator.sample(1010, box));
+        assertEquals(300.0f, box[0], EPSILON);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the bounded frame buffer pool.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void recyclesReleasedBuffers() {
+
+        BufferPool pool = new BufferPool(16, 2);
+        ByteBuffer buffer = pool.acquire();
+
+        assertTrue(buffer.hasArray());
+        assertEquals(16, buffer.capacity());
+
+        pool.release(buffer);
+
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer again = pool.acquire();
+            assertSame(buffer, again);
+            pool.release(again);
+        }
+
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(1, pool.getHighWaterMark());
+    }
+
+    @Test
+    public void exhaustion_isBoundedAndCounted() {
+
+        BufferPool pool = new BufferPool(16, 2);
+        ByteBuffer first = pool.acquire();
+
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getExhaustedCount());
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(2, pool.getHighWaterMark());
+
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+    }
+
+    @Test
+    public void ignoresBuffersOfOtherSizes() {
+
+        BufferPool pool = new BufferPool(16, 2);
+
+        pool.release(ByteBuffer.allocate(8));
+
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(16, pool.acquire().capacity());
+    }
+
+}
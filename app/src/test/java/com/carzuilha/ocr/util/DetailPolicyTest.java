@@ -0,0 +1,73 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the level choices of the detail policy with simulated draw times.
+ */
+public class DetailPolicyTest {
+
+    private static final long BUDGET = 8000000L;
+
+    @Test
+    public void crowdedFrames_loseDetail() {
+
+        DetailPolicy policy = new DetailPolicy(BUDGET);
+
+        //  Full text costs 100 us per block, boxes 20 us, regions 2 us.
+        assertEquals(DetailPolicy.LEVEL_FULL, policy.select(50));
+        policy.record(DetailPolicy.LEVEL_FULL, 50, 50 * 100000L);
+
+        assertEquals(DetailPolicy.LEVEL_FULL, policy.select(50));
+        assertEquals(DetailPolicy.LEVEL_BOXES, policy.select(300));
+        policy.record(DetailPolicy.LEVEL_BOXES, 300, 300 * 20000L);
+
+        assertEquals(DetailPolicy.LEVEL_BOXES, policy.select(300));
+        assertEquals(DetailPolicy.LEVEL_REGIONS, policy.select(1000));
+        policy.record(DetailPolicy.LEVEL_REGIONS, 1000, 1000 * 2000L);
+
+        assertEquals(DetailPolicy.LEVEL_REGIONS, policy.select(1000));
+        assertEquals(DetailPolicy.LEVEL_REGIONS, policy.getLevel());
+    }
+
+    @Test
+    public void detail_returnsOnlyWithHeadroom() {
+
+        DetailPolicy policy = new DetailPolicy(BUDGET);
+
+        policy.select(50);
+        policy.record(DetailPolicy.LEVEL_FULL, 50, 50 * 100000L);
+
+        //  80 blocks of full text take the whole budget, 60 of them fit with headroom.
+        assertEquals(DetailPolicy.LEVEL_FULL, policy.select(80));
+        assertEquals(DetailPolicy.LEVEL_BOXES, policy.select(81));
+        assertEquals(DetailPolicy.LEVEL_BOXES, policy.select(70));
+        assertEquals(DetailPolicy.LEVEL_FULL, policy.select(50));
+    }
+
+    @Test
+    public void levelChanges_areReported() {
+
+        DetailPolicy policy = new DetailPolicy(BUDGET);
+        final int[] changes = new int[2];
+
+        policy.setListener(new DetailPolicy.Listener() {
+            @Override
+            public void onLevelChanged(int _level, long _averageDrawNanos) {
+                changes[0]++;
+                changes[1] = _level;
+            }
+        });
+
+        policy.select(10);
+        policy.record(DetailPolicy.LEVEL_FULL, 10, 20000000L);
+        policy.select(10);
+
+        assertEquals(1, changes[0]);
+        assertEquals(DetailPolicy.LEVEL_BOXES, changes[1]);
+        assertEquals(20000000L, policy.getAverageDrawNanos());
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the grid index against a linear scan of the same rectangles.
+ */
+public class GridIndexTest {
+
+    @Test
+    public void pointQuery_findsOnlyTheItemsUnderThePoint() {
+
+        GridIndex<String> index = new GridIndex<>(8, 8, 800, 600);
+        List<String> result = new ArrayList<>();
+
+        index.put("wide", 50, 50, 750, 100);
+        index.put("small", 400, 300, 420, 320);
+
+        assertEquals(1, index.queryPoint(700, 75, result));
+        assertEquals("wide", result.get(0));
+
+        result.clear();
+
+        assertEquals(0, index.queryPoint(700, 110, result));
+        assertEquals(1, index.queryPoint(410, 310, result));
+        assertEquals("small", result.get(0));
+    }
+
+    @Test
+    public void movedAndRemovedItems_leaveTheirCells() {
+
+        GridIndex<String> index = new GridIndex<>(8, 8, 800, 600);
+        List<String> result = new ArrayList<>();
+
+        index.put("block", 10, 10, 60, 40);
+        index.put("block", 500, 400, 560, 440);
+
+        assertEquals(1, index.size());
+        assertEquals(0, index.queryPoint(30, 20, result));
+        assertEquals(1, index.queryPoint(530, 420, result));
+
+        assertTrue(index.remove("block"));
+        assertFalse(index.remove("block"));
+        result.clear();
+        assertEquals(0, index.queryRect(0, 0, 800, 600, result));
+    }
+
+    @Test
+    public void outsideBounds_areClampedToTheBorderCells() {
+
+        GridIndex<String> index = new GridIndex<>(4, 4, 100, 100);
+        List<String> result = new ArrayList<>();
+
+        index.put("outside", 120, -30, 140, -10);
+
+        assertEquals(1, index.queryPoint(130, -20, result));
+
+        index.setArea(200, 200);
+        result.clear();
+
+        assertEquals(1, index.queryPoint(130, -20, result));
+    }
+
+    @Test
+    public void randomQueries_matchALinearScan() {
+
+        GridIndex<Integer> index = new GridIndex<>(16, 16, 1280, 720);
+        Random random = new Random(7);
+        float[][] boxes = new float[300][];
+        List<Integer> result = new ArrayList<>();
+
+        for (int i = 0; i < boxes.length; i++) {
+
+            float left = random.nextFloat() * 1280;
+            float top = random.nextFloat() * 720;
+
+            boxes[i] = new float[] {left, top, left + 10 + random.nextFloat() * 200, top + 10 + random.nextFloat() * 60};
+            index.put(i, boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3]);
+        }
+
+        for (int q = 0; q < 200; q++) {
+
+            float x = random.nextFloat() * 1280;
+            float y = random.nextFloat() * 720;
+            float l = x - 50, t = y - 30, r = x + 50, b = y + 30;
+            int points = 0;
+            int areas = 0;
+
+            for (float[] box : boxes) {
+                if (x >= box[0] && x < box[2] && y >= box[1] && y < box[3]) points++;
+                if (l < box[2] && box[0] < r && t < box[3] && box[1] < b) areas++;
+            }
+
+            result.clear();
+            assertEquals(points, index.queryPoint(x, y, result));
+
+            result.clear();
+            assertEquals(areas, index.queryRect(l, t, r, b, result));
+            assertEquals(areas, result.size());
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the YUV_420_888 to NV21 conversion with synthetic planes of arbitrary strides.
+ */
+public class NV21ImageTest {
+
+    @Test
+    public void planar_tightlyPacked() {
+        assertConversion(16, 8, 16, 8, 1, false);
+    }
+
+    @Test
+    public void planar_paddedRows() {
+        assertConversion(10, 6, 32, 24, 1, false);
+    }
+
+    @Test
+    public void semiPlanar_separateBuffers() {
+        assertConversion(12, 4, 16, 32, 2, false);
+    }
+
+    @Test
+    public void semiPlanar_interleaved_tightlyPacked() {
+        assertConversion(16, 8, 16, 16, 2, true);
+    }
+
+    @Test
+    public void semiPlanar_interleaved_paddedRows() {
+        assertConversion(14, 10, 64, 48, 2, true);
+    }
+
+    @Test
+    public void semiPlanar_interleaved_readOnly() {
+
+        Planes planes = new Planes(14, 10, 64, 48, 2, true);
+        byte[] output = NV21Image.FromPlanes(14, 10, planes.y, 64,
+                planes.u.asReadOnlyBuffer(), planes.v.asReadOnlyBuffer(), 48, 2, null);
+
+        assertArrayEquals(planes.expected(), output);
+    }
+
+    @Test
+    public void semiPlanar_separateBuffersThatLookInterleaved() {
+
+        //  The bytes between the V samples repeat the U samples, except for one of them, so
+        // probing a few samples can't tell the planes from a single interleaved buffer.
+        Planes planes = new Planes(16, 8, 16, 16, 2, false);
+        byte[] vData = planes.v.array();
+        byte[] uData = planes.u.array();
+
+        for (int i = 0; i + 1 < vData.length; i += 2) {
+            vData[i + 1] = uData[i];
+        }
+        vData[2 * 16 + 7] = 0;
+
+        assertArrayEquals(planes.expected(), planes.convert(null));
+    }
+
+    @Test
+    public void semiPlanar_interleaved_direct() {
+
+        Planes planes = new Planes(14, 10, 64, 48, 2, true);
+        ByteBuffer u = ByteBuffer.allocateDirect(planes.u.remaining());
+        ByteBuffer v = ByteBuffer.allocateDirect(planes.v.remaining());
+
+        u.put(planes.u.duplicate()).flip();
+        v.put(planes.v.duplicate()).flip();
+
+        assertArrayEquals(planes.expected(), NV21Image.FromPlanes(14, 10, planes.y, 64, u, v, 48, 2, null));
+    }
+
+    @Test
+    public void oddDimensions() {
+        assertConversion(7, 5, 9, 8, 2, true);
+    }
+
+    @Test
+    public void lumaOnly_paddedRows() {
+
+        Planes planes = new Planes(10, 6, 16, 16, 2, true);
+        byte[] output = NV21Image.LumaFromPlane(10, 6, planes.y, 16, null);
+
+        assertEquals(60, output.length);
+        assertArrayEquals(java.util.Arrays.copyOf(planes.expected(), 60), output);
+        assertEquals(0, planes.y.position());
+    }
+
+    @Test
+    public void reusesGivenBuffer() {
+
+        Planes planes = new Planes(16, 8, 32, 32, 2, true);
+        byte[] output = new byte[NV21Image.getBufferSize(16, 8)];
+
+        assertSame(output, planes.convert(output));
+        assertSame(output, planes.convert(output));
+        assertArrayEquals(planes.expected(), output);
+    }
+
+    @Test
+    public void allocatesWhenBufferIsTooSmall() {
+
+        Planes planes = new Planes(16, 8, 16, 16, 2, true);
+        byte[] output = new byte[4];
+
+        byte[] result = planes.convert(output);
+
+        assertNotSame(output, result);
+        assertArrayEquals(planes.expected(), result);
+    }
+
+    @Test
+    public void leavesBufferPositionsUntouched() {
+
+        Planes planes = new Planes(8, 4, 12, 16, 2, true);
+
+        planes.convert(null);
+
+        assertEquals(0, planes.y.position());
+        assertEquals(0, planes.u.position());
+        assertEquals(0, planes.v.position());
+    }
+
+    //==============================================================================================
+    //                                  Internal methods
+    //==============================================================================================
+
+    private static void assertConversion(int _width, int _height, int _yRowStride,
+                                         int _uvRowStride, int _uvPixelStride, boolean _interleaved) {
+
+        Planes planes = new Planes(_width, _height, _yRowStride, _uvRowStride, _uvPixelStride, _interleaved);
+
+        assertArrayEquals(planes.expected(), planes.convert(null));
+    }
+
+    private static byte luma(int _x, int _y) {
+        return (byte) (_x * 7 + _y * 13);
+    }
+
+    private static byte chromaU(int _x, int _y) {
+        return (byte) (_x * 3 + _y * 5 + 50);
+    }
+
+    private static byte chromaV(int _x, int _y) {
+        return (byte) (_x * 11 + _y * 2 + 100);
+    }
+
+    /**
+     *  Synthetic YUV_420_888 planes, laid out the way camera HALs do: padded rows, and chroma
+     * samples either planar or interleaved in a shared buffer (V first, as in NV21).
+     */
+    private static class Planes {
+
+        final int width;
+        final int height;
+        final int yRowStride;
+        final int uvRowStride;
+        final int uvPixelStride;
+        final ByteBuffer y;
+        final ByteBuffer u;
+        final ByteBuffer v;
+
+        Planes(int _width, int _height, int _yRowStride, int _uvRowStride, int _uvPixelStride, boolean _interleaved) {
+
+            width = _width;
+            height = _height;
+            yRowStride = _yRowStride;
+            uvRowStride = _uvRowStride;
+            uvPixelStride = _uvPixelStride;
+
+            int chromaWidth = (_width + 1) / 2;
+            int chromaHeight = (_height + 1) / 2;
+
+            //  As in real images, the last row is not padded.
+            byte[] yData = new byte[_yRowStride * (_height - 1) + _width];
+
+            for (int row = 0; row < _height; row++) {
+                for (int col = 0; col < _width; col++) {
+                    yData[row * _yRowStride + col] = luma(col, row);
+                }
+            }
+
+            y = ByteBuffer.wrap(yData);
+
+            int planeSize = _uvRowStride * (chromaHeight - 1) + (chromaWidth - 1) * _uvPixelStride + 1;
+
+            if (_interleaved) {
+
+                ByteBuffer shared = ByteBuffer.allocate(planeSize + 1);
+
+                for (int row = 0; row < chromaHeight; row++) {
+                    for (int col = 0; col < chromaWidth; col++) {
+                        shared.put(row * _uvRowStride + col * 2, chromaV(col, row));
+                        shared.put(row * _uvRowStride + col * 2 + 1, chromaU(col, row));
+                    }
+                }
+
+                shared.position(0).limit(planeSize);
+                v = shared.slice();
+                shared.position(1).limit(planeSize + 1);
+                u = shared.slice();
+
+            } else {
+
+                byte[] uData = new byte[planeSize];
+                byte[] vData = new byte[planeSize];
+
+                for (int row = 0; row < chromaHeight; row++) {
+                    for (int col = 0; col < chromaWidth; col++) {
+                        uData[row * _uvRowStride + col * _uvPixelStride] = chromaU(col, row);
+                        vData[row * _uvRowStride + col * _uvPixelStride] = chromaV(col, row);
+                    }
+                }
+
+                u = ByteBuffer.wrap(uData);
+                v = ByteBuffer.wrap(vData);
+            }
+        }
+
+        byte[] convert(byte[] _output) {
+            return NV21Image.FromPlanes(width, height, y, yRowStride, u, v, uvRowStride, uvPixelStride, _output);
+        }
+
+        byte[] expected() {
+
+            byte[] expected = new byte[NV21Image.getBufferSize(width, height)];
+            int i = 0;
+
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    expected[i++] = luma(col, row);
+                }
+            }
+
+            for (int row = 0; row < (height + 1) / 2; row++) {
+                for (int col = 0; col < (width + 1) / 2; col++) {
+                    expected[i++] = chromaV(col, row);
+                    expected[i++] = chromaU(col, row);
+                }
+            }
+
+            return expected;
+        }
+    }
+
+}
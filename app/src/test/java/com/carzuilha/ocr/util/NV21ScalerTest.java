@@ -0,0 +1,205 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the NV21 downscaler with synthetic frames.
+ */
+public class NV21ScalerTest {
+
+    @Test
+    public void pointSample_matchesTopLeftOfEachRegion() {
+
+        byte[] input = frame(16, 8);
+        byte[] output = new NV21Scaler(4.0f, false, false).scale(input, 16, 8, null);
+
+        assertEquals(NV21Image.getBufferSize(4, 2), output.length);
+
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertEquals(input[y * 4 * 16 + x * 4], output[y * 4 + x]);
+            }
+        }
+
+        //  The single output chroma row samples the first input chroma row.
+        int chroma = 16 * 8;
+        assertEquals(input[chroma], output[8]);
+        assertEquals(input[chroma + 1], output[9]);
+        assertEquals(input[chroma + 8], output[10]);
+        assertEquals(input[chroma + 9], output[11]);
+    }
+
+    @Test
+    public void boxFilter_averagesEachRegion() {
+
+        byte[] input = {
+                10, 30, (byte) 200, (byte) 220,
+                50, 70, (byte) 240, (byte) 250,
+                0, 0, 1, 2,
+                0, 4, 3, 4,
+        };
+
+        byte[] output = new NV21Scaler(2.0f, true, true).scale(input, 4, 4, null);
+
+        assertArrayEquals(new byte[] { 40, (byte) 227, 1, 2 }, output);
+    }
+
+    @Test
+    public void fractionalFactor_producesEvenDimensions() {
+
+        NV21Scaler scaler = new NV21Scaler(2.5f, true, false);
+
+        assertEquals(512, scaler.getOutputWidth(1280, 720));
+        assertEquals(288, scaler.getOutputHeight(1280, 720));
+        assertEquals(NV21Image.getBufferSize(512, 288), scaler.getOutputSize(1280, 720));
+
+        byte[] output = scaler.scale(frame(1280, 720), 1280, 720, null);
+
+        assertEquals(scaler.getOutputSize(1280, 720), output.length);
+    }
+
+    @Test
+    public void uniformFrame_staysUniform() {
+
+        byte[] input = new byte[NV21Image.getBufferSize(30, 18)];
+        java.util.Arrays.fill(input, (byte) 200);
+
+        for (boolean box : new boolean[] { false, true }) {
+            byte[] output = new NV21Scaler(3.3f, box, false).scale(input, 30, 18, null);
+            for (byte value : output) {
+                assertEquals(200, value & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void reusesGivenBuffer() {
+
+        NV21Scaler scaler = new NV21Scaler(4.0f, false, false);
+        byte[] output = new byte[scaler.getOutputSize(64, 32)];
+
+        assertSame(output, scaler.scale(frame(64, 32), 64, 32, output));
+    }
+
+    @Test
+    public void rotation_matchesSeparateRotatePass() {
+
+        byte[] input = frame(8, 4);
+        NV21Scaler scaler = new NV21Scaler(1.0f, false, false);
+
+        for (int rotation = 0; rotation < 4; rotation++) {
+
+            scaler.setRotation(rotation);
+
+            byte[] output = scaler.scale(input, 8, 4, null);
+            int width = scaler.getOutputWidth(8, 4);
+            int height = scaler.getOutputHeight(8, 4);
+
+            assertEquals((rotation % 2 == 0) ? 8 : 4, width);
+            assertArrayEquals(rotate(input, 8, 4, rotation), output);
+            assertEquals(NV21Image.getBufferSize(width, height), output.length);
+        }
+    }
+
+    @Test
+    public void crop_keepsOnlyTheRegion() {
+
+        byte[] input = frame(16, 8);
+        NV21Scaler scaler = new NV21Scaler(2.0f, false, false);
+
+        scaler.setCrop(0.5f, 0.5f, 1.0f, 1.0f);
+
+        byte[] output = scaler.scale(input, 16, 8, null);
+
+        assertEquals(4, scaler.getOutputWidth(16, 8));
+        assertEquals(2, scaler.getOutputHeight(16, 8));
+
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertEquals(input[(4 + y * 2) * 16 + 8 + x * 2], output[y * 4 + x]);
+            }
+        }
+
+        //  The single output chroma row starts at input chroma row 2, column 4.
+        int chroma = 16 * 8 + 2 * 16 + 4 * 2;
+        assertEquals(input[chroma], output[8]);
+        assertEquals(input[chroma + 1], output[9]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUpscaling() {
+        new NV21Scaler(0.5f, false, false);
+    }
+
+    /**
+     *  Rotates a NV21 frame clockwise, the straightforward way.
+     */
+    private static byte[] rotate(byte[] _input, int _width, int _height, int _rotation) {
+
+        byte[] output = new byte[_input.length];
+        int chromaWidth = _width / 2;
+        int chromaHeight = _height / 2;
+
+        for (int y = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++) {
+                output[target(x, y, _width, _height, _rotation)] = _input[y * _width + x];
+            }
+        }
+
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                int t = _width * _height + 2 * target(x, y, chromaWidth, chromaHeight, _rotation);
+                output[t] = _input[_width * _height + y * _width + 2 * x];
+                output[t + 1] = _input[_width * _height + y * _width + 2 * x + 1];
+            }
+        }
+
+        return output;
+    }
+
+    private static int target(int _x, int _y, int _width, int _height, int _rotation) {
+
+        switch (_rotation) {
+            case 1:  return _x * _height + (_height - 1 - _y);
+            case 2:  return (_height - 1 - _y) * _width + (_width - 1 - _x);
+            case 3:  return (_width - 1 - _x) * _height + _y;
+            default: return _y * _width + _x;
+        }
+    }
+
+    private static byte[] frame(int _width, int _height) {
+
+        byte[] data = new byte[NV21Image.getBufferSize(_width, _height)];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / _width * 7);
+        }
+
+        return data;
+    }
+
+    @Test
+    public void sourceRegion_followsCropAndRotation() {
+
+        NV21Scaler scaler = new NV21Scaler(2.0f, false, false);
+        float[] region = new float[4];
+
+        scaler.setCrop(0.25f, 0.5f, 0.75f, 1.0f);
+        scaler.getSourceRegion(640, 480, region);
+        assertArrayEquals(new float[] { 160, 240, 480, 480 }, region, 0.0f);
+
+        //  A quarter turn makes the frame 480x640: the bottom half becomes the left half.
+        scaler.setRotation(1);
+        scaler.getSourceRegion(640, 480, region);
+        assertArrayEquals(new float[] { 0, 160, 240, 480 }, region, 0.0f);
+        assertEquals(120, scaler.getOutputWidth(640, 480));
+        assertEquals(160, scaler.getOutputHeight(640, 480));
+
+        scaler.setRotation(3);
+        scaler.getSourceRegion(640, 480, region);
+        assertArrayEquals(new float[] { 240, 160, 480, 480 }, region, 0.0f);
+    }
+
+}
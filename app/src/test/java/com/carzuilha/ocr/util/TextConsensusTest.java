@@ -0,0 +1,88 @@
+package com.carzuilha.ocr.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *  Validates the text consensus with sequences of noisy readings.
+ */
+public class TextConsensusTest {
+
+    @Test
+    public void jitteringCharacters_areVotedOut() {
+
+        TextConsensus consensus = new TextConsensus(8, 3, 0.6f);
+
+        consensus.add("R$ 10,00");
+        consensus.add("R$ 1O,00");
+        consensus.add("R$ 10,00");
+        consensus.add("R$ 10,0O");
+
+        assertEquals("R$ 10,00", consensus.getValue());
+        assertEquals(0.75f, consensus.getConfidence(), 1e-6f);
+    }
+
+    @Test
+    public void droppedCharacters_loseTheLengthVote() {
+
+        TextConsensus consensus = new TextConsensus(8, 3, 0.6f);
+
+        consensus.add("EXIT 42");
+        consensus.add("EXIT 4");
+        consensus.add("EXIT 42");
+        consensus.add("EXT 42");
+        consensus.add("EXIT 42");
+
+        assertEquals("EXIT 42", consensus.getValue());
+        assertEquals(3.0f / 5.0f, consensus.getConfidence(), 1e-6f);
+    }
+
+    @Test
+    public void agreeingReadings_settle() {
+
+        TextConsensus consensus = new TextConsensus(8, 3, 0.75f);
+
+        consensus.add("STOP");
+        consensus.add("STOP");
+        assertFalse(consensus.isSettled());
+
+        consensus.add("STOP");
+        assertTrue(consensus.isSettled());
+
+        //  A stray reading doesn't unsettle the text, a new text does.
+        consensus.add("ST0P");
+        assertTrue(consensus.isSettled());
+        assertEquals("STOP", consensus.getValue());
+
+        for (int i = 0; i < 5; i++) {
+            consensus.add("GO");
+        }
+
+        assertFalse(consensus.isSettled());
+        assertEquals("GO", consensus.getValue());
+    }
+
+    @Test
+    public void oldReadings_leaveTheWindow() {
+
+        TextConsensus consensus = new TextConsensus(4, 2, 0.75f);
+
+        for (int i = 0; i < 4; i++) {
+            consensus.add("AAA");
+        }
+        for (int i = 0; i < 4; i++) {
+            consensus.add("BBB");
+        }
+
+        assertEquals("BBB", consensus.getValue());
+        assertEquals(1.0f, consensus.getConfidence(), 1e-6f);
+        assertEquals(8, consensus.getFrameCount());
+
+        consensus.reset();
+
+        assertNull(consensus.getValue());
+        assertFalse(consensus.isSettled());
+    }
+
+}